@@ -0,0 +1,158 @@
+package benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+import model.decoder.BencodeEncoder;
+
+/**
+ * Realistic bencoded documents for the benchmarks. Every input is generated with a fixed seed, so
+ * runs are comparable.
+ *
+ * @author KX
+ */
+public enum BenchmarkInputs {
+
+  /**
+   * A compact announce response with 50 peers, the most frequent document the client decodes.
+   */
+  TRACKER_RESPONSE {
+    @Override
+    Object build(Random random) {
+      Map<String, Object> response = new TreeMap<>();
+      response.put("complete", 120L);
+      response.put("incomplete", 14L);
+      response.put("interval", 1800L);
+      response.put("min interval", 60L);
+      response.put("peers", randomBytes(random, 50 * 6));
+      return response;
+    }
+  },
+
+  /**
+   * A single-file torrent with 1,000 pieces (20 KB of piece hashes).
+   */
+  TORRENT_1K {
+    @Override
+    Object build(Random random) {
+      return singleFileTorrent(random, 1_000);
+    }
+  },
+
+  /**
+   * A single-file torrent with 100,000 pieces (2 MB of piece hashes).
+   */
+  TORRENT_100K {
+    @Override
+    Object build(Random random) {
+      return singleFileTorrent(random, 100_000);
+    }
+  },
+
+  /**
+   * A single-file torrent with 1,000,000 pieces (20 MB of piece hashes).
+   */
+  TORRENT_1M {
+    @Override
+    Object build(Random random) {
+      return singleFileTorrent(random, 1_000_000);
+    }
+  },
+
+  /**
+   * A multi-file torrent with 5,000 files in nested directories, dominated by small dictionaries.
+   */
+  MULTI_FILE {
+    @Override
+    Object build(Random random) {
+      List<Object> files = new ArrayList<>();
+      long total = 0;
+      for (int i = 0; i < 5_000; i++) {
+        long length = 1 + random.nextInt(50_000_000);
+        total += length;
+        Map<String, Object> file = new TreeMap<>();
+        file.put("length", length);
+        file.put("path", List.of("disc " + (i / 500), "chapter " + (i / 50), "track-" + i + ".flac"));
+        files.add(file);
+      }
+
+      Map<String, Object> info = new TreeMap<>();
+      info.put("files", files);
+      info.put("name", "collection");
+      info.put("piece length", 4L * 1024 * 1024);
+      info.put("pieces", randomBytes(random, (int) (total / (4L * 1024 * 1024) + 1) * 20));
+      return torrent(info);
+    }
+  },
+
+  /**
+   * Lists nested 400 deep around a single integer, exercising the container handling alone. The
+   * depth stays below the iterative decoder's default limit and what the recursive decoder's stack
+   * can take.
+   */
+  DEEP_NESTING {
+    @Override
+    Object build(Random random) {
+      Object value = 42L;
+      for (int i = 0; i < 400; i++) {
+        value = List.of(value);
+      }
+      return value;
+    }
+  };
+
+  private static final long SEED = 0x5EED;
+
+  abstract Object build(Random random);
+
+  /**
+   * Generates the bencoded bytes of this input.
+   *
+   * @return the bencoded document
+   */
+  public byte[] bytes() {
+    return new BencodeEncoder().encode(build(new Random(SEED)));
+  }
+
+  /**
+   * Converts bencoded bytes to a String with one character per byte, so that the String decode
+   * path sees the same lengths as the byte path.
+   *
+   * @param bytes the bencoded document
+   * @return the document as a String
+   */
+  public static String asString(byte[] bytes) {
+    return new String(bytes, StandardCharsets.ISO_8859_1);
+  }
+
+  private static Map<String, Object> singleFileTorrent(Random random, int pieceCount) {
+    Map<String, Object> info = new TreeMap<>();
+    info.put("length", (long) pieceCount * 262_144 - 1_000);
+    info.put("name", "ubuntu-24.04-desktop-amd64.iso");
+    info.put("piece length", 262_144L);
+    info.put("pieces", randomBytes(random, pieceCount * 20));
+    return torrent(info);
+  }
+
+  private static Map<String, Object> torrent(Map<String, Object> info) {
+    Map<String, Object> torrent = new TreeMap<>();
+    torrent.put("announce", "http://tracker.example.org:6969/announce");
+    torrent.put("announce-list", List.of(
+        List.of("http://tracker.example.org:6969/announce"),
+        List.of("udp://tracker.example.net:1337/announce", "udp://open.example.com:80")));
+    torrent.put("comment", "Benchmark torrent");
+    torrent.put("created by", "mktorrent 1.1");
+    torrent.put("creation date", 1_700_000_000L);
+    torrent.put("info", info);
+    return torrent;
+  }
+
+  private static byte[] randomBytes(Random random, int length) {
+    byte[] bytes = new byte[length];
+    random.nextBytes(bytes);
+    return bytes;
+  }
+}
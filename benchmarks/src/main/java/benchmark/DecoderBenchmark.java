@@ -0,0 +1,84 @@
+package benchmark;
+
+import java.util.concurrent.TimeUnit;
+import model.decoder.BencodeReader;
+import model.decoder.BencodeReader.Token;
+import model.decoder.DecoderDispatcher;
+import model.decoder.IterativeDecoder;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Throughput of the bencode decoders on the {@link BenchmarkInputs}. Run with {@code -prof gc} to
+ * also report the allocation rate and bytes allocated per operation.
+ * <ul>
+ *   <li>{@link #dispatcherBytes} and {@link #dispatcherString} measure the two public entry points
+ *   of {@link DecoderDispatcher}.</li>
+ *   <li>{@link #iterativeBytes} measures {@link IterativeDecoder}, which the client uses to build
+ *   full trees.</li>
+ *   <li>{@link #readerScan} walks every token with {@link BencodeReader} without building values,
+ *   the lower bound for any tree decoder.</li>
+ * </ul>
+ *
+ * @author KX
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"-Xss8m"})
+public class DecoderBenchmark {
+
+  @Param({"TRACKER_RESPONSE", "TORRENT_1K", "TORRENT_100K", "TORRENT_1M", "MULTI_FILE",
+      "DEEP_NESTING"})
+  public BenchmarkInputs input;
+
+  private byte[] bytes;
+  private String string;
+  private DecoderDispatcher dispatcher;
+  private IterativeDecoder iterativeDecoder;
+
+  @Setup(Level.Trial)
+  public void setUp() {
+    bytes = input.bytes();
+    string = BenchmarkInputs.asString(bytes);
+    dispatcher = new DecoderDispatcher();
+    iterativeDecoder = new IterativeDecoder();
+  }
+
+  @Benchmark
+  public Object dispatcherBytes() {
+    return dispatcher.decode(bytes, 0);
+  }
+
+  @Benchmark
+  public Object dispatcherString() {
+    return dispatcher.decode(string, 0);
+  }
+
+  @Benchmark
+  public Object iterativeBytes() {
+    return iterativeDecoder.decode(bytes, 0);
+  }
+
+  @Benchmark
+  public void readerScan(Blackhole blackhole) {
+    BencodeReader reader = new BencodeReader(bytes);
+    Token token;
+    while ((token = reader.next()) != Token.END_OF_INPUT) {
+      blackhole.consume(token);
+    }
+  }
+}
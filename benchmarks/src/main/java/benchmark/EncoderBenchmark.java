@@ -0,0 +1,98 @@
+package benchmark;
+
+import com.dampcake.bencode.Bencode;
+import com.dampcake.bencode.Type;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import model.decoder.BencodeEncoder;
+import model.decoder.DecoderDispatcher;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Throughput of {@link BencodeEncoder} compared with the com.dampcake bencode library. Both encode
+ * the same decoded documents. Run with {@code -prof gc} to compare allocation.
+ *
+ * @author KX
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class EncoderBenchmark {
+
+  /**
+   * Deep nesting is left out because the dampcake encoder recurses and is not the point of the
+   * comparison.
+   */
+  @Param({"TRACKER_RESPONSE", "TORRENT_1K", "TORRENT_100K", "MULTI_FILE"})
+  public BenchmarkInputs input;
+
+  private Object value;
+  private Map<?, ?> dampcakeValue;
+  private BencodeEncoder encoder;
+  private Bencode dampcake;
+  private ByteBuffer buffer;
+  private OutputStream sink;
+
+  @Setup(Level.Trial)
+  public void setUp(Blackhole blackhole) {
+    byte[] bytes = input.bytes();
+    // Decoded values (ByteString, Long, List, Map) are what the client hands to the encoder
+    value = new DecoderDispatcher().decode(bytes, 0).getValue();
+    // dampcake only understands its own decoded form, with binary strings as ByteBuffers
+    dampcake = new Bencode(true);
+    dampcakeValue = dampcake.decode(bytes, Type.DICTIONARY);
+    encoder = new BencodeEncoder();
+    buffer = ByteBuffer.allocate(bytes.length);
+    sink = new OutputStream() {
+      @Override
+      public void write(int b) {
+        blackhole.consume(b);
+      }
+
+      @Override
+      public void write(byte[] b, int off, int len) {
+        blackhole.consume(b);
+      }
+    };
+  }
+
+  @Benchmark
+  public byte[] encoderToArray() {
+    return encoder.encode(value);
+  }
+
+  @Benchmark
+  public ByteBuffer encoderToBuffer() {
+    buffer.clear();
+    return encoder.encode(value, buffer);
+  }
+
+  @Benchmark
+  public OutputStream encoderToStream() throws IOException {
+    encoder.encode(value, sink);
+    return sink;
+  }
+
+  @Benchmark
+  public byte[] dampcake() {
+    return dampcake.encode(dampcakeValue);
+  }
+}
@@ -1,22 +1,30 @@
 package model;
 
-import com.google.gson.Gson;
-
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.Arrays;
-import java.util.Map;
-import model.decoder.DecoderDTO;
-import model.decoder.DecoderDispatcher;
+import java.util.List;
+import model.decoder.JsonTranscoder;
 import model.session.DefaultPeerSessionFactory;
 import model.session.DefaultPieceWriter;
 import model.session.DefaultTrackerClientFactory;
+import model.session.DhtNode;
+import model.session.LocalPeerDiscovery;
+import model.session.PeerCache;
+import model.session.PeerList;
 import model.session.PeerSession;
+import model.session.PieceHashTable;
 import model.session.RandomAlphaPeerIdGenerator;
 import model.session.RandomIdGenerator;
 import model.session.TorrentFileHandler;
+import model.session.TorrentMetadataCache;
 import model.session.TorrentSession;
 import model.session.TrackerClient;
 import model.session.TrackerResponse;
@@ -24,7 +32,12 @@ import model.session.TrackerResponse;
 
 public class Main {
 
-  private static final Gson gson = new Gson();
+  private static final JsonTranscoder jsonTranscoder = new JsonTranscoder();
+  // Parsed torrents are cached between runs, only the commands that start sessions use it
+  private static final TorrentMetadataCache metadataCache = TorrentMetadataCache.defaultCache();
+  private static final PeerCache peerCache = PeerCache.defaultCache();
+  // Connections shared between the torrents being downloaded
+  private static final int MAX_CONNECTIONS = 50;
 
   public static void main(String[] args) throws Exception {
     // You can use print statements as follows for debugging, they'll be visible when running tests.
@@ -34,15 +47,15 @@ public class Main {
     if ("decode".equals(command)) {
       //  Uncomment this block to pass the first stage
       String bencodedValue = args[1];
-      Object decoded;
+      String json;
       try {
-        decoded = decodeBencode(bencodedValue);
+        json = decodeBencode(bencodedValue);
       } catch (RuntimeException e) {
         System.out.println(e.getMessage());
         return;
       }
 
-      System.out.println(gson.toJson(decoded));
+      System.out.println(json);
 
 
     } else if ("info".equals(command)) {
@@ -52,17 +65,20 @@ public class Main {
       System.out.println("File Length: " + tfh.getFileLength());
       System.out.println("Tracker URL: " + tfh.getTrackerUrl());
       System.out.println("Hash: " + TorrentFileHandler.bytesToHex(tfh.getInfoHash()));
-      System.out.println("Content: " + gson.toJson(tfh.getFileContentMap()));
+      printJson("Content: ", tfh.getFileContent(), 0);
       System.out.println("Piece Length: " + tfh.getPieceLength());
       System.out.println("Hashed Pieces: ");
-      for (byte[] piece : tfh.getHashedPieces()) {
+      PieceHashTable pieceHashes = tfh.getPieceHashTable();
+      byte[] piece = new byte[PieceHashTable.HASH_LENGTH];
+      for (int i = 0; i < pieceHashes.size(); i++) {
+        pieceHashes.copyTo(i, piece, 0);
         System.out.println(TorrentFileHandler.bytesToHex(piece));
       }
-      System.out.println("Info: " + gson.toJson(tfh.getInfoMap()));
+      printJson("Info: ", tfh.getFileContent(), tfh.getInfoByteRange().first());
 
     } else if (command.equals("peers")) {
       String filepath = args[1];
-      TorrentFileHandler tfh = new TorrentFileHandler(filepath);
+      TorrentFileHandler tfh = metadataCache.load(filepath);
       DefaultTrackerClientFactory trackerClientFactory = new DefaultTrackerClientFactory();
       RandomIdGenerator peerIdGenerator = new RandomAlphaPeerIdGenerator();
       TrackerClient tc = trackerClientFactory.create(
@@ -71,17 +87,19 @@ public class Main {
       TrackerResponse tr = tc.requestTracker();
       System.out.println("Interval: " + tr.getInterval());
       System.out.println("Peers: ");
-      for (Map.Entry<String, Integer> entry : tr.getPeersMap().entrySet()) {
-        System.out.println(entry.getKey() + ":" + entry.getValue());
+      PeerList peers = tr.getPeerList();
+      for (int i = 0; i < peers.size(); i++) {
+        System.out.println(peers.getHost(i) + ":" + peers.getPort(i));
       }
     } else if (command.equals("handshake")) {
       String filepath = args[1];
       String peer = args[2];
-      String[] peerParts = peer.split(":");
-      String ipAddr = peerParts[0];
-      int port = Integer.parseInt(peerParts[1]);
+      // The port follows the last colon, so IPv6 peers work as "[2001:db8::1]:6881"
+      int portSeparator = peer.lastIndexOf(':');
+      String ipAddr = peer.substring(0, portSeparator);
+      int port = Integer.parseInt(peer.substring(portSeparator + 1));
 
-      TorrentFileHandler tfh = new TorrentFileHandler(filepath);
+      TorrentFileHandler tfh = metadataCache.load(filepath);
       RandomIdGenerator peerIdGenerator = new RandomAlphaPeerIdGenerator();
       PeerSession peerSession = new DefaultPeerSessionFactory().create(ipAddr, port,
           peerIdGenerator.generate(), tfh.getInfoHash());
@@ -98,10 +116,11 @@ public class Main {
         return;
       }
 
-      TorrentFileHandler tfh = new TorrentFileHandler(filepath);
+      TorrentFileHandler tfh = metadataCache.load(filepath);
       TorrentSession ts = new TorrentSession(tfh, Paths.get(outputFile),
           new DefaultTrackerClientFactory(), new DefaultPeerSessionFactory(),
           new DefaultPieceWriter(), new RandomAlphaPeerIdGenerator());
+      ts.setPeerCache(peerCache);
 
       byte[] data = ts.downloadPiece(pieceIndex);
       if (data != null) {
@@ -122,27 +141,64 @@ public class Main {
         return;
       }
 
-      TorrentFileHandler tfh = new TorrentFileHandler(filepath);
+      TorrentFileHandler tfh = metadataCache.load(filepath);
       DefaultTrackerClientFactory trackerClientFactory = new DefaultTrackerClientFactory();
       DefaultPeerSessionFactory peerSessionFactory = new DefaultPeerSessionFactory();
       DefaultPieceWriter pieceWriter = new DefaultPieceWriter();
       RandomAlphaPeerIdGenerator peerIdGenerator = new RandomAlphaPeerIdGenerator();
       TorrentSession ts = new TorrentSession(tfh, Paths.get(outputFile), trackerClientFactory,
           peerSessionFactory, pieceWriter, peerIdGenerator);
-
-      ts.downloadAll();
+      ts.setPeerCache(peerCache);
+      TorrentSession.shareConnections(MAX_CONNECTIONS, List.of(ts));
+
+      LocalPeerDiscovery localPeerDiscovery = startLocalPeerDiscovery();
+      ts.setLocalPeerDiscovery(localPeerDiscovery);
+      try (DhtNode dhtNode = new DhtNode(new InetSocketAddress(0))) {
+        dhtNode.start();
+        dhtNode.bootstrap();
+        ts.setDhtNode(dhtNode);
+        ts.downloadAll();
+      } finally {
+        if (localPeerDiscovery != null) {
+          localPeerDiscovery.close();
+        }
+      }
     } else {
       System.out.println("Unknown command: " + command);
     }
 
   }
 
-  static Object decodeBencode(String bencodedString) {
+  /**
+   * Starts Local Service Discovery, or returns null if this host cannot join the multicast group.
+   */
+  static LocalPeerDiscovery startLocalPeerDiscovery() {
+    try {
+      LocalPeerDiscovery discovery = new LocalPeerDiscovery();
+      discovery.start();
+      return discovery;
+    } catch (IOException e) {
+      System.out.println("Local peer discovery unavailable: " + e.getMessage());
+      return null;
+    }
+  }
 
-    DecoderDispatcher dispatcher = new DecoderDispatcher();
-    DecoderDTO<?> dto = dispatcher.decode(bencodedString, 0);
+  static String decodeBencode(String bencodedString) {
+    return jsonTranscoder.transcode(bencodedString.getBytes(StandardCharsets.UTF_8));
+  }
 
-    return dto.getValue();
+  /**
+   * Prints a labelled line with the bencoded value at the given index as JSON. The JSON is streamed
+   * to standard output as it is transcoded rather than built in memory.
+   */
+  static void printJson(String label, byte[] bencoded, int startIndex) throws IOException {
+    System.out.print(label);
+    System.out.flush();
+    // Not closed, that would close System.out
+    Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+    jsonTranscoder.transcode(bencoded, startIndex, out);
+    out.write(System.lineSeparator());
+    out.flush();
   }
 
   static String openTorrent(String filepath) throws IOException {
@@ -0,0 +1,344 @@
+package model.decoder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * model.decoder.BencodeEncoder serializes values to bencode, the inverse of {@link DecoderDispatcher}.
+ * Supported values are:
+ * <ul>
+ *   <li>integral {@link Number}s ({@link Long}, {@link Integer}, {@link Short}, {@link Byte},
+ *   {@link BigInteger}) as integers</li>
+ *   <li>{@link ByteString}, {@code byte[]} and {@link String} (as UTF-8) as byte strings</li>
+ *   <li>{@link List} as lists</li>
+ *   <li>{@link Map} with {@link String}, {@link ByteString} or {@code byte[]} keys as
+ *   dictionaries, with the keys sorted by their raw bytes as the specification requires</li>
+ * </ul>
+ * Output is written directly into a growable {@link ByteBuffer} or an {@link OutputStream};
+ * integers and length prefixes are written digit by digit without intermediate {@link String}s.
+ * Decoding the output of this encoder with {@link DecoderDispatcher#decode(byte[], int)} yields an
+ * equal value, with byte strings as {@link ByteString} and integers as {@link Long}.
+ * <p>
+ * The encoder holds no state, so one instance can be shared between threads.
+ *
+ * @author KX
+ */
+public class BencodeEncoder {
+
+  private static final int DEFAULT_CAPACITY = 256;
+  private static final int STREAM_CHUNK_SIZE = 8192;
+
+  /**
+   * Encodes a value into a new byte array.
+   *
+   * @param value the value to encode
+   * @return the bencoded bytes
+   * @throws IllegalArgumentException if the value or a nested value is not supported
+   */
+  public byte[] encode(Object value) {
+    ByteBuffer buffer = encode(value, ByteBuffer.allocate(DEFAULT_CAPACITY));
+    buffer.flip();
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.get(bytes);
+    return bytes;
+  }
+
+  /**
+   * Encodes a value into the buffer starting at its position. If the buffer runs out of space it
+   * is replaced by a larger buffer of the same kind (heap or direct) holding the bytes written so
+   * far, so callers must continue with the returned buffer.
+   *
+   * @param value  the value to encode
+   * @param buffer the buffer to write into
+   * @return the buffer holding the output, positioned after the last byte written
+   * @throws IllegalArgumentException if the value or a nested value is not supported
+   */
+  public ByteBuffer encode(Object value, ByteBuffer buffer) {
+    if (buffer == null) {
+      throw new IllegalArgumentException("Buffer cannot be null");
+    }
+    BufferSink sink = new BufferSink(buffer);
+    write(value, sink);
+    return sink.buffer;
+  }
+
+  /**
+   * Encodes a value to an output stream. Output is staged in a small chunk buffer, large byte
+   * strings are written straight through. The stream is not flushed or closed.
+   *
+   * @param value the value to encode
+   * @param out   the stream to write to
+   * @throws IOException              if writing to the stream fails
+   * @throws IllegalArgumentException if the value or a nested value is not supported
+   */
+  public void encode(Object value, OutputStream out) throws IOException {
+    if (out == null) {
+      throw new IllegalArgumentException("Output stream cannot be null");
+    }
+    StreamSink sink = new StreamSink(out);
+    try {
+      write(value, sink);
+      sink.drain();
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  private void write(Object value, Sink sink) {
+    if (value instanceof ByteString) {
+      ByteString bytes = (ByteString) value;
+      writeLength(bytes.length(), sink);
+      sink.write(bytes);
+    } else if (value instanceof String) {
+      byte[] bytes = ((String) value).getBytes(StandardCharsets.UTF_8);
+      writeLength(bytes.length, sink);
+      sink.write(bytes, 0, bytes.length);
+    } else if (value instanceof byte[]) {
+      byte[] bytes = (byte[]) value;
+      writeLength(bytes.length, sink);
+      sink.write(bytes, 0, bytes.length);
+    } else if (value instanceof Long || value instanceof Integer || value instanceof Short
+        || value instanceof Byte) {
+      sink.write((byte) 'i');
+      writeDecimal(((Number) value).longValue(), sink);
+      sink.write((byte) 'e');
+    } else if (value instanceof BigInteger) {
+      byte[] digits = value.toString().getBytes(StandardCharsets.US_ASCII);
+      sink.write((byte) 'i');
+      sink.write(digits, 0, digits.length);
+      sink.write((byte) 'e');
+    } else if (value instanceof List) {
+      sink.write((byte) 'l');
+      for (Object element : (List<?>) value) {
+        write(element, sink);
+      }
+      sink.write((byte) 'e');
+    } else if (value instanceof Map) {
+      writeDictionary((Map<?, ?>) value, sink);
+    } else {
+      throw new IllegalArgumentException("Cannot bencode value of type "
+          + (value == null ? "null" : value.getClass().getName()));
+    }
+  }
+
+  /**
+   * Writes a dictionary with its keys in raw byte order. Keys are only sorted when the map does not
+   * already iterate in that order, which is the case for maps produced by the decoder.
+   */
+  private void writeDictionary(Map<?, ?> map, Sink sink) {
+    DictionaryEntry[] entries = new DictionaryEntry[map.size()];
+    boolean sorted = true;
+    int count = 0;
+    for (Map.Entry<?, ?> entry : map.entrySet()) {
+      DictionaryEntry encoded = new DictionaryEntry(toKey(entry.getKey()), entry.getValue());
+      if (count > 0) {
+        sorted &= entries[count - 1].key().compareTo(encoded.key()) < 0;
+      }
+      entries[count++] = encoded;
+    }
+
+    if (!sorted) {
+      Arrays.sort(entries, (a, b) -> a.key().compareTo(b.key()));
+      for (int i = 1; i < count; i++) {
+        if (entries[i - 1].key().equals(entries[i].key())) {
+          throw new IllegalArgumentException("Duplicate dictionary key: " + entries[i].key());
+        }
+      }
+    }
+
+    sink.write((byte) 'd');
+    for (DictionaryEntry entry : entries) {
+      write(entry.key(), sink);
+      write(entry.value(), sink);
+    }
+    sink.write((byte) 'e');
+  }
+
+  private record DictionaryEntry(ByteString key, Object value) {
+
+  }
+
+  private static ByteString toKey(Object key) {
+    if (key instanceof String) {
+      return ByteString.of((String) key);
+    }
+    if (key instanceof ByteString) {
+      return (ByteString) key;
+    }
+    if (key instanceof byte[]) {
+      return ByteString.wrap((byte[]) key);
+    }
+    throw new IllegalArgumentException("Dictionary keys must be strings, found "
+        + (key == null ? "null" : key.getClass().getName()));
+  }
+
+  private static void writeLength(int length, Sink sink) {
+    writeDecimal(length, sink);
+    sink.write((byte) ':');
+  }
+
+  /**
+   * Writes the decimal digits of a value. Digits are produced from a negative value so that
+   * Long.MIN_VALUE needs no special case.
+   */
+  private static void writeDecimal(long value, Sink sink) {
+    if (value >= 0 && value < 10) {
+      sink.write((byte) ('0' + value));
+      return;
+    }
+    byte[] digits = sink.digits;
+    int position = digits.length;
+    long remaining = value < 0 ? value : -value;
+    while (remaining != 0) {
+      digits[--position] = (byte) ('0' - remaining % 10);
+      remaining /= 10;
+    }
+    if (value < 0) {
+      digits[--position] = '-';
+    }
+    sink.write(digits, position, digits.length - position);
+  }
+
+  /**
+   * Destination of the encoded bytes.
+   */
+  private abstract static class Sink {
+
+    /**
+     * Scratch space for the digits of one integer, long enough for Long.MIN_VALUE.
+     */
+    final byte[] digits = new byte[20];
+
+    abstract void write(byte value);
+
+    abstract void write(byte[] bytes, int offset, int length);
+
+    void write(ByteString bytes) {
+      for (int i = 0; i < bytes.length(); i++) {
+        write(bytes.byteAt(i));
+      }
+    }
+  }
+
+  /**
+   * Writes into a {@link ByteBuffer}, doubling its capacity whenever it is full.
+   */
+  private static final class BufferSink extends Sink {
+
+    private ByteBuffer buffer;
+
+    BufferSink(ByteBuffer buffer) {
+      this.buffer = buffer;
+    }
+
+    private void ensureRemaining(int needed) {
+      if (buffer.remaining() >= needed) {
+        return;
+      }
+      long required = (long) buffer.position() + needed;
+      int capacity = (int) Math.min(Integer.MAX_VALUE - 8,
+          Math.max(required, (long) buffer.capacity() * 2));
+      if (capacity < required) {
+        throw new IllegalArgumentException("Encoded value exceeds the maximum buffer size");
+      }
+      ByteBuffer grown = buffer.isDirect()
+          ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+      buffer.flip();
+      grown.put(buffer);
+      buffer = grown;
+    }
+
+    @Override
+    void write(byte value) {
+      ensureRemaining(1);
+      buffer.put(value);
+    }
+
+    @Override
+    void write(byte[] bytes, int offset, int length) {
+      ensureRemaining(length);
+      buffer.put(bytes, offset, length);
+    }
+
+    @Override
+    void write(ByteString bytes) {
+      ensureRemaining(bytes.length());
+      buffer.put(bytes.asReadOnlyBuffer());
+    }
+  }
+
+  /**
+   * Writes to an {@link OutputStream} through a fixed size chunk buffer.
+   */
+  private static final class StreamSink extends Sink {
+
+    private final OutputStream out;
+    private final byte[] chunk = new byte[STREAM_CHUNK_SIZE];
+    private int position;
+
+    StreamSink(OutputStream out) {
+      this.out = out;
+    }
+
+    void drain() {
+      if (position == 0) {
+        return;
+      }
+      try {
+        out.write(chunk, 0, position);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+      position = 0;
+    }
+
+    @Override
+    void write(byte value) {
+      if (position == chunk.length) {
+        drain();
+      }
+      chunk[position++] = value;
+    }
+
+    @Override
+    void write(byte[] bytes, int offset, int length) {
+      if (length > chunk.length - position) {
+        drain();
+        if (length > chunk.length) {
+          try {
+            out.write(bytes, offset, length);
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+          return;
+        }
+      }
+      System.arraycopy(bytes, offset, chunk, position, length);
+      position += length;
+    }
+
+    @Override
+    void write(ByteString bytes) {
+      if (bytes.length() > chunk.length - position) {
+        drain();
+        if (bytes.length() > chunk.length) {
+          try {
+            bytes.writeTo(out);
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+          return;
+        }
+      }
+      bytes.copyTo(chunk, position);
+      position += bytes.length();
+    }
+  }
+}
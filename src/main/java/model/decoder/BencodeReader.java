@@ -0,0 +1,391 @@
+package model.decoder;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * model.decoder.BencodeReader is a pull parser for bencoded byte arrays. Instead of building a
+ * tree of values like {@link DecoderDispatcher} or {@link IterativeDecoder}, it reports the
+ * document one {@link Token} at a time together with its offsets in the input, and lets the caller
+ * skip values it is not interested in without allocating them. This is the cheapest way to read a
+ * few fields (e.g. 'announce', the 'info' byte range and 'pieces') out of a large document.
+ * <p>
+ * A typical loop over a dictionary looks like:
+ * <pre>{@code
+ * BencodeReader reader = new BencodeReader(bytes);
+ * reader.expect(Token.DICT_START);
+ * while (reader.next() == Token.KEY) {
+ *   if (reader.keyEquals("interval")) {
+ *     reader.expect(Token.INTEGER);
+ *     interval = reader.getLong();
+ *   } else {
+ *     reader.skipValue();
+ *   }
+ * }
+ * }</pre>
+ * The structure of the document is validated as it is read, so a reader that reaches
+ * {@link Token#END_OF_INPUT} has seen a complete, well-formed value. Malformed input is reported
+ * with an {@link IllegalArgumentException}, misuse of the reader with an
+ * {@link IllegalStateException}. Nesting is tracked on an explicit stack limited to a maximum depth,
+ * so hostile input cannot exhaust the call stack.
+ *
+ * @author KX
+ */
+public class BencodeReader {
+
+  /**
+   * The kinds of tokens reported by the reader.
+   */
+  public enum Token {
+    /** The 'd' that opens a dictionary. */
+    DICT_START,
+    /** The 'l' that opens a list. */
+    LIST_START,
+    /** The 'e' that closes the innermost list or dictionary. */
+    END,
+    /** A dictionary key, always a byte string. */
+    KEY,
+    /** An integer value. */
+    INTEGER,
+    /** A byte string value. */
+    BYTES,
+    /** The top-level value is complete, nothing more will be read. */
+    END_OF_INPUT
+  }
+
+  private static final int INITIAL_STACK_CAPACITY = 16;
+
+  private final byte[] input;
+  private final int maxDepth;
+
+  private int position;
+  private int depth;
+  private boolean finished;
+
+  // One frame per open container: whether it is a dictionary, where it starts and, for
+  // dictionaries, whether a key is expected next
+  private boolean[] dictionaryFrames = new boolean[INITIAL_STACK_CAPACITY];
+  private int[] frameStarts = new int[INITIAL_STACK_CAPACITY];
+  private boolean[] expectingKey = new boolean[INITIAL_STACK_CAPACITY];
+
+  private Token token;
+  private int tokenStart;
+  private long longValue;
+  private int bytesStart;
+  private int bytesLength;
+  private boolean dictionaryEnd;
+
+  /**
+   * Constructs a model.decoder.BencodeReader over the whole array with the default depth limit.
+   *
+   * @param input the bencoded byte array to read
+   * @throws IllegalArgumentException if the input is null or empty
+   */
+  public BencodeReader(byte[] input) {
+    this(input, 0, IterativeDecoder.DEFAULT_MAX_DEPTH);
+  }
+
+  /**
+   * Constructs a model.decoder.BencodeReader that reads one value starting at the given index.
+   *
+   * @param input      the bencoded byte array to read
+   * @param startIndex the index of the first byte of the value
+   * @param maxDepth   the maximum number of lists and dictionaries that may be open at once
+   * @throws IllegalArgumentException if the input is null or empty, the start index is out of
+   *                                  bounds or the depth limit is not positive
+   */
+  public BencodeReader(byte[] input, int startIndex, int maxDepth) {
+    if (input == null || input.length == 0) {
+      throw new IllegalArgumentException("Input byte array cannot be null or empty");
+    }
+    if (startIndex < 0 || startIndex >= input.length) {
+      throw new IllegalArgumentException("Start index out of bounds: " + startIndex);
+    }
+    if (maxDepth <= 0) {
+      throw new IllegalArgumentException("Maximum depth must be a positive integer");
+    }
+    this.input = input;
+    this.maxDepth = maxDepth;
+    this.position = startIndex;
+  }
+
+  /**
+   * Reads the next token.
+   *
+   * @return the token that was read
+   * @throws IllegalArgumentException if the input is malformed or nested too deeply
+   */
+  public Token next() {
+    if (finished) {
+      token = Token.END_OF_INPUT;
+      tokenStart = position;
+      return token;
+    }
+
+    // Only the top-level value can start at the end of the input, and it is validated on creation
+    int top = depth - 1;
+    boolean expectingValue = depth > 0 && dictionaryFrames[top] && !expectingKey[top];
+    if (position >= input.length && !expectingValue) {
+      throw new IllegalArgumentException((dictionaryFrames[top]
+          ? "Invalid bencoded dictionary: missing 'e' at index "
+          : "Invalid bencoded list: missing 'e' at index ") + frameStarts[top]);
+    }
+
+    tokenStart = position;
+
+    if (expectingValue) {
+      // The previous token was a key, so a value must follow
+      if (position >= input.length || input[position] == 'e') {
+        throw new IllegalArgumentException("Invalid bencoded dictionary: missing value for key '"
+            + getString() + "' at index " + position);
+      }
+    } else if (depth > 0 && input[position] == 'e') {
+      dictionaryEnd = dictionaryFrames[top];
+      position++;
+      depth--;
+      completeValue();
+      return token = Token.END;
+    } else if (depth > 0 && dictionaryFrames[top]) {
+      byte prefix = input[position];
+      if (prefix < '0' || prefix > '9') {
+        if (prefix == 'i' || prefix == 'l' || prefix == 'd') {
+          throw new IllegalArgumentException(
+              "Key cannot be null or non-string type at index " + position);
+        }
+        throw new IllegalArgumentException("Unknown bencode type at index " + position);
+      }
+      readBytes();
+      expectingKey[top] = false;
+      return token = Token.KEY;
+    }
+
+    byte prefix = input[position];
+    if (prefix == 'i') {
+      int endIndex = NumberDecoder.findEnd(input, position);
+      longValue = NumberDecoder.parseLong(input, position, endIndex);
+      position = endIndex + 1;
+      completeValue();
+      return token = Token.INTEGER;
+    }
+    if (prefix >= '0' && prefix <= '9') {
+      readBytes();
+      completeValue();
+      return token = Token.BYTES;
+    }
+    if (prefix == 'l' || prefix == 'd') {
+      push(prefix == 'd');
+      position++;
+      return token = prefix == 'd' ? Token.DICT_START : Token.LIST_START;
+    }
+    throw new IllegalArgumentException("Unknown bencode type at index " + position);
+  }
+
+  /**
+   * Reads the next token and checks that it is of the expected kind.
+   *
+   * @param expected the expected token
+   * @throws IllegalArgumentException if a different token was read or the input is malformed
+   */
+  public void expect(Token expected) {
+    Token actual = next();
+    if (actual != expected) {
+      throw new IllegalArgumentException(
+          "Expected " + expected + " but found " + actual + " at index " + tokenStart);
+    }
+  }
+
+  /**
+   * Skips the next value, including everything nested inside it, without allocating it. Must not
+   * be called when the next token would be an {@link Token#END} or a {@link Token#KEY}.
+   *
+   * @return the index of the first byte of the skipped value; {@link #getPosition()} is the index
+   * just after it
+   * @throws IllegalArgumentException if the input is malformed
+   * @throws IllegalStateException    if the next token is not the start of a value
+   */
+  public int skipValue() {
+    int targetDepth = depth;
+    Token skipped = next();
+    int valueStart = tokenStart;
+    if (skipped == Token.END || skipped == Token.KEY || skipped == Token.END_OF_INPUT) {
+      throw new IllegalStateException("Expected a value but found " + skipped + " at index "
+          + valueStart);
+    }
+    while (depth > targetDepth) {
+      next();
+    }
+    return valueStart;
+  }
+
+  /**
+   * Checks whether the current token is a key equal to the given ASCII name. Does not allocate.
+   *
+   * @param name the key to compare with, made of ASCII characters
+   * @return true if the current token is that key
+   */
+  public boolean keyEquals(String name) {
+    if (token != Token.KEY || name.length() != bytesLength) {
+      return false;
+    }
+    for (int i = 0; i < bytesLength; i++) {
+      if (input[bytesStart + i] != name.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public Token getToken() {
+    return token;
+  }
+
+  /**
+   * Returns the index of the first byte of the current token, e.g. the 'd' of a dictionary or the
+   * first length digit of a byte string.
+   *
+   * @return the start offset of the current token
+   */
+  public int getTokenStart() {
+    return tokenStart;
+  }
+
+  /**
+   * Returns the index of the next unread byte, which is just after the current token.
+   *
+   * @return the current read position
+   */
+  public int getPosition() {
+    return position;
+  }
+
+  /**
+   * Returns the number of lists and dictionaries that are currently open.
+   *
+   * @return the current nesting depth
+   */
+  public int getDepth() {
+    return depth;
+  }
+
+  /**
+   * Returns whether the current {@link Token#END} closed a dictionary rather than a list.
+   *
+   * @return true if a dictionary was closed
+   * @throws IllegalStateException if the current token is not an END
+   */
+  public boolean isDictionaryEnd() {
+    if (token != Token.END) {
+      throw new IllegalStateException("Current token is not an end: " + token);
+    }
+    return dictionaryEnd;
+  }
+
+  /**
+   * Returns the value of the current {@link Token#INTEGER}.
+   *
+   * @return the integer value
+   * @throws IllegalStateException if the current token is not an integer
+   */
+  public long getLong() {
+    if (token != Token.INTEGER) {
+      throw new IllegalStateException("Current token is not an integer: " + token);
+    }
+    return longValue;
+  }
+
+  /**
+   * Returns the index of the first content byte of the current {@link Token#KEY} or
+   * {@link Token#BYTES}.
+   *
+   * @return the start offset of the byte string content
+   * @throws IllegalStateException if the current token is not a byte string
+   */
+  public int getBytesStart() {
+    checkBytesToken();
+    return bytesStart;
+  }
+
+  /**
+   * Returns the content length of the current {@link Token#KEY} or {@link Token#BYTES}.
+   *
+   * @return the number of content bytes
+   * @throws IllegalStateException if the current token is not a byte string
+   */
+  public int getBytesLength() {
+    checkBytesToken();
+    return bytesLength;
+  }
+
+  /**
+   * Returns the content of the current {@link Token#KEY} or {@link Token#BYTES} as a view of the
+   * input. No bytes are copied.
+   *
+   * @return the byte string content
+   * @throws IllegalStateException if the current token is not a byte string
+   */
+  public ByteString getBytes() {
+    checkBytesToken();
+    return ByteString.wrap(input, bytesStart, bytesLength);
+  }
+
+  /**
+   * Returns the content of the current {@link Token#KEY} or {@link Token#BYTES} decoded as UTF-8.
+   *
+   * @return the byte string content as text
+   * @throws IllegalStateException if the current token is not a byte string
+   */
+  public String getString() {
+    checkBytesToken();
+    return new String(input, bytesStart, bytesLength, StandardCharsets.UTF_8);
+  }
+
+  private void checkBytesToken() {
+    if (token != Token.KEY && token != Token.BYTES) {
+      throw new IllegalStateException("Current token is not a byte string: " + token);
+    }
+  }
+
+  /**
+   * Reads the byte string at the current position, leaving the position after its content.
+   */
+  private void readBytes() {
+    int colonIndex = ByteStringDecoder.findColon(input, position);
+    int length = NumberDecoder.parseLength(input, position, colonIndex);
+    int start = colonIndex + 1;
+    if (length > input.length - start) {
+      throw new IllegalArgumentException(ByteStringDecoder.CONTENT_EXCEEDS_BOUNDS);
+    }
+    bytesStart = start;
+    bytesLength = length;
+    position = start + length;
+  }
+
+  /**
+   * Records that a value has been completed in the innermost container, or that the top-level
+   * value is done.
+   */
+  private void completeValue() {
+    if (depth == 0) {
+      finished = true;
+    } else if (dictionaryFrames[depth - 1]) {
+      expectingKey[depth - 1] = true;
+    }
+  }
+
+  private void push(boolean dictionary) {
+    if (depth >= maxDepth) {
+      throw new IllegalArgumentException("Bencode nesting exceeds the maximum depth of "
+          + maxDepth + " at index " + position);
+    }
+    if (depth == dictionaryFrames.length) {
+      int capacity = Math.min(maxDepth, depth * 2);
+      dictionaryFrames = Arrays.copyOf(dictionaryFrames, capacity);
+      frameStarts = Arrays.copyOf(frameStarts, capacity);
+      expectingKey = Arrays.copyOf(expectingKey, capacity);
+    }
+    dictionaryFrames[depth] = dictionary;
+    frameStarts[depth] = position;
+    expectingKey[depth] = true;
+    depth++;
+  }
+}
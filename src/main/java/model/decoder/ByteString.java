@@ -0,0 +1,235 @@
+package model.decoder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * model.decoder.ByteString is a binary-safe, immutable view over a range of a byte array. Bencoded
+ * byte strings are not required to be text (e.g. 'pieces' in a torrent or compact 'peers' in a
+ * tracker response), so the byte decoders return this type instead of a {@link String}. The bytes
+ * are never copied or run through a charset unless the caller asks for it; {@link #toString()}
+ * decodes the slice as UTF-8 on demand.
+ * <p>
+ * A slice keeps the whole source array reachable. Callers that hold on to a small value taken from
+ * a large buffer should {@link #toByteArray()} it.
+ *
+ * @author KX
+ */
+public final class ByteString implements Comparable<ByteString> {
+
+  /**
+   * Shared instance for the zero length byte string.
+   */
+  public static final ByteString EMPTY = new ByteString(new byte[0], 0, 0);
+
+  private final byte[] source;
+  private final int offset;
+  private final int length;
+
+  /**
+   * Lazily decoded UTF-8 form of this byte string. Decoding is idempotent, so a racy write is
+   * harmless.
+   */
+  private String text;
+  private int hash;
+
+  private ByteString(byte[] source, int offset, int length) {
+    this.source = source;
+    this.offset = offset;
+    this.length = length;
+  }
+
+  /**
+   * Creates a byte string that views the given range of the source array. The array is not copied,
+   * so it must not be modified afterwards.
+   *
+   * @param source the array to view
+   * @param offset the index of the first byte
+   * @param length the number of bytes
+   * @return a byte string backed by the source array
+   * @throws IllegalArgumentException if the range is outside the source array
+   */
+  public static ByteString wrap(byte[] source, int offset, int length) {
+    if (source == null) {
+      throw new IllegalArgumentException("Source byte array cannot be null");
+    }
+    if (offset < 0 || length < 0 || offset > source.length - length) {
+      throw new IllegalArgumentException(
+          "Range [" + offset + ", " + (offset + length) + ") is outside the source array");
+    }
+    return new ByteString(source, offset, length);
+  }
+
+  /**
+   * Creates a byte string that views the entire array without copying it.
+   *
+   * @param bytes the array to view
+   * @return a byte string backed by the array
+   */
+  public static ByteString wrap(byte[] bytes) {
+    return wrap(bytes, 0, bytes == null ? 0 : bytes.length);
+  }
+
+  /**
+   * Creates a byte string holding the UTF-8 encoding of the given text.
+   *
+   * @param text the text to encode
+   * @return a byte string containing the UTF-8 bytes of the text
+   */
+  public static ByteString of(String text) {
+    if (text == null) {
+      throw new IllegalArgumentException("Text cannot be null");
+    }
+    ByteString value = wrap(text.getBytes(StandardCharsets.UTF_8));
+    value.text = text;
+    return value;
+  }
+
+  public int length() {
+    return length;
+  }
+
+  public boolean isEmpty() {
+    return length == 0;
+  }
+
+  /**
+   * Returns the byte at the given index of this byte string.
+   *
+   * @param index the index relative to the start of this byte string
+   * @return the byte at that index
+   * @throws IndexOutOfBoundsException if the index is out of range
+   */
+  public byte byteAt(int index) {
+    if (index < 0 || index >= length) {
+      throw new IndexOutOfBoundsException("Index " + index + " out of bounds for length " + length);
+    }
+    return source[offset + index];
+  }
+
+  /**
+   * Returns a view of part of this byte string. No bytes are copied.
+   *
+   * @param from the start index, inclusive
+   * @param to   the end index, exclusive
+   * @return a byte string viewing the requested range
+   * @throws IndexOutOfBoundsException if the range is invalid
+   */
+  public ByteString slice(int from, int to) {
+    if (from < 0 || to > length || from > to) {
+      throw new IndexOutOfBoundsException(
+          "Range [" + from + ", " + to + ") out of bounds for length " + length);
+    }
+    if (from == 0 && to == length) {
+      return this;
+    }
+    return new ByteString(source, offset + from, to - from);
+  }
+
+  /**
+   * Copies the bytes of this byte string into a new array.
+   *
+   * @return a new array containing the bytes
+   */
+  public byte[] toByteArray() {
+    return Arrays.copyOfRange(source, offset, offset + length);
+  }
+
+  /**
+   * Copies the bytes of this byte string into the destination array.
+   *
+   * @param destination the array to copy into
+   * @param position    the index in the destination to start writing at
+   */
+  public void copyTo(byte[] destination, int position) {
+    System.arraycopy(source, offset, destination, position, length);
+  }
+
+  /**
+   * Writes the bytes of this byte string to an output stream straight from the source array.
+   *
+   * @param out the stream to write to
+   * @throws IOException if writing to the stream fails
+   */
+  public void writeTo(OutputStream out) throws IOException {
+    out.write(source, offset, length);
+  }
+
+  /**
+   * Returns a read-only {@link ByteBuffer} over the bytes of this byte string. The buffer shares
+   * the source array, so no bytes are copied.
+   *
+   * @return a read-only buffer positioned at the first byte
+   */
+  public ByteBuffer asReadOnlyBuffer() {
+    return ByteBuffer.wrap(source, offset, length).slice().asReadOnlyBuffer();
+  }
+
+  /**
+   * Checks whether this byte string holds exactly the same bytes as the given range of an array.
+   * Does not allocate.
+   *
+   * @param other       the array to compare with
+   * @param otherOffset the index of the first byte to compare in the array
+   * @param otherLength the number of bytes in the array range
+   * @return true if the contents are equal
+   */
+  public boolean contentEquals(byte[] other, int otherOffset, int otherLength) {
+    return Arrays.equals(source, offset, offset + length, other, otherOffset,
+        otherOffset + otherLength);
+  }
+
+  /**
+   * Decodes this byte string as UTF-8. Malformed sequences are replaced, so the result is only
+   * meaningful for values that are actually text.
+   *
+   * @return the UTF-8 decoded text
+   */
+  @Override
+  public String toString() {
+    String decoded = text;
+    if (decoded == null) {
+      decoded = new String(source, offset, length, StandardCharsets.UTF_8);
+      text = decoded;
+    }
+    return decoded;
+  }
+
+  /**
+   * Compares byte strings by their raw bytes, treated as unsigned. This is the ordering bencode
+   * requires for dictionary keys.
+   */
+  @Override
+  public int compareTo(ByteString other) {
+    return Arrays.compareUnsigned(source, offset, offset + length, other.source, other.offset,
+        other.offset + other.length);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof ByteString)) {
+      return false;
+    }
+    ByteString that = (ByteString) o;
+    return that.contentEquals(source, offset, length);
+  }
+
+  @Override
+  public int hashCode() {
+    int result = hash;
+    if (result == 0 && length > 0) {
+      result = 1;
+      for (int i = offset; i < offset + length; i++) {
+        result = 31 * result + source[i];
+      }
+      hash = result;
+    }
+    return result;
+  }
+}
@@ -0,0 +1,109 @@
+package model.decoder;
+
+/**
+ * model.decoder.Decoder for bencoded byte strings that keeps the value binary-safe. The byte array
+ * path returns a {@link ByteString} viewing the source buffer, so values such as 'pieces' or
+ * compact 'peers' can be consumed directly without copying or charset round-trips. This is the
+ * decoder {@link DecoderDispatcher} uses for byte strings in byte arrays.
+ *
+ * @author KX
+ */
+public class ByteStringDecoder implements Decoder<ByteString> {
+
+  /**
+   * Message used by every decoder when a byte string's length runs past the end of the input.
+   */
+  static final String CONTENT_EXCEEDS_BOUNDS = "String content exceeds input bounds.";
+
+  private final TextDecoder textDecoder = new TextDecoder();
+
+  /**
+   * Decodes a bencoded string from the input string and returns its content as UTF-8 bytes. Input
+   * given as a {@link String} is already text, so this delegates to {@link TextDecoder}.
+   *
+   * @param input      the bencoded string to decode
+   * @param startIndex the index to start decoding from
+   * @return a model.decoder.DecoderDTO containing the byte string and the next index
+   * @throws IllegalArgumentException if the input is invalid
+   */
+  @Override
+  public DecoderDTO<ByteString> decode(String input, int startIndex)
+      throws IllegalArgumentException {
+    DecoderDTO<String> text = textDecoder.decode(input, startIndex);
+    return new DecoderDTO<>(ByteString.of(text.getValue()), text.getNextIndex());
+  }
+
+  /**
+   * Decodes a bencoded byte string from the byte array starting at the specified index. The
+   * returned value is a view of the input array; no bytes are copied.
+   *
+   * @param bencodedBytes the bencoded byte array to decode
+   * @param startIndex    the index to start decoding from
+   * @return a model.decoder.DecoderByteDTO containing the byte string, the next index and the range
+   * of the content within the input
+   * @throws IllegalArgumentException if the input is invalid
+   */
+  @Override
+  public DecoderByteDTO<ByteString> decode(byte[] bencodedBytes, int startIndex)
+      throws IllegalArgumentException {
+    return decodeByteString(bencodedBytes, startIndex);
+  }
+
+  /**
+   * Shared implementation of {@link #decode(byte[], int)}, also used by {@link TextDecoder} for
+   * its byte array path.
+   */
+  static DecoderByteDTO<ByteString> decodeByteString(byte[] bencodedBytes, int startIndex) {
+    // Does not use validateInput() because it's prefix is not static
+    if (bencodedBytes == null || bencodedBytes.length == 0) {
+      throw new IllegalArgumentException("Input byte array cannot be null or empty");
+    }
+    if (startIndex < 0 || startIndex >= bencodedBytes.length) {
+      throw new IllegalArgumentException("Start index out of bounds: " + startIndex);
+    }
+    if (bencodedBytes[startIndex] < '0' || bencodedBytes[startIndex] > '9') {
+      throw new IllegalArgumentException(
+          "Invalid bencoded string format. Expected digit at index " + startIndex);
+    }
+
+    // Find the colon that separates the length from the string content
+    int colonIndex = findColon(bencodedBytes, startIndex);
+
+    // Extract the length of the string
+    int length = NumberDecoder.parseLength(bencodedBytes, startIndex, colonIndex);
+
+    // Validate the length and view the content without copying it
+    int strStart = colonIndex + 1;
+    if (length > bencodedBytes.length - strStart) {
+      throw new IllegalArgumentException(CONTENT_EXCEEDS_BOUNDS);
+    }
+    int strEnd = strStart + length;
+    ByteString value = ByteString.wrap(bencodedBytes, strStart, length);
+
+    return new DecoderByteDTO<>(value, strEnd, strStart, strEnd - 1);
+  }
+
+  /**
+   * Finds the ':' that ends the length prefix of the bencoded string starting at the given index,
+   * checking that everything before it is a digit.
+   *
+   * @param bencodedBytes the bencoded byte array
+   * @param startIndex    the index of the first digit of the length
+   * @return the index of the ':'
+   * @throws IllegalArgumentException if the prefix contains a non-digit or has no ':'
+   */
+  static int findColon(byte[] bencodedBytes, int startIndex) {
+    int colonIndex = startIndex;
+    while (colonIndex < bencodedBytes.length && bencodedBytes[colonIndex] != ':') {
+      if (bencodedBytes[colonIndex] < '0' || bencodedBytes[colonIndex] > '9') {
+        throw new IllegalArgumentException("Non-digit character in length field");
+      }
+      colonIndex++;
+    }
+
+    if (colonIndex >= bencodedBytes.length) {
+      throw new IllegalArgumentException("Missing ':' after string length");
+    }
+    return colonIndex;
+  }
+}
@@ -12,7 +12,18 @@ import java.util.Map;
  */
 public class DecoderByteDTO<T> {
 
+  /**
+   * Separator between the segments of a byte range path. Dictionary entries are keyed by the keys
+   * leading to them and list elements by their index, e.g. "info/files/3/length".
+   */
+  public static final String PATH_SEPARATOR = "/";
+
   private final DecoderDTO<T> decoderDTO;
+
+  /**
+   * Path-qualified byte ranges of every dictionary value in the decoded document. A single map is
+   * shared by all the DTOs produced while decoding one document.
+   */
   private final Map<String, NumberPair> byteRanges;
 
   /**
@@ -83,8 +94,37 @@ public class DecoderByteDTO<T> {
     this.byteRanges.put(key, new NumberPair(start, end));
   }
 
-  public NumberPair getByteRange(String key) {
-    return this.byteRanges.get(key);
+  /**
+   * Returns the byte range of a dictionary value by its path, e.g. "announce" for a top-level key
+   * or "info/pieces" for a key of the nested 'info' dictionary.
+   *
+   * @param path the path of the value, segments joined by {@link #PATH_SEPARATOR}
+   * @return the byte range, or null if no dictionary value has that path
+   */
+  public NumberPair getByteRange(String path) {
+    return this.byteRanges.get(path);
+  }
+
+  /**
+   * Returns the byte range of a dictionary value by its path segments, e.g. ("info", "files", "3",
+   * "length").
+   *
+   * @param segments the keys and list indices leading to the value
+   * @return the byte range, or null if no dictionary value has that path
+   */
+  public NumberPair getByteRange(String... segments) {
+    return this.byteRanges.get(String.join(PATH_SEPARATOR, segments));
+  }
+
+  /**
+   * Builds the path of a child value from its parent's path.
+   *
+   * @param parentPath the path of the containing value, empty for the top level
+   * @param segment    the dictionary key or list index of the child
+   * @return the path of the child
+   */
+  public static String childPath(String parentPath, String segment) {
+    return parentPath.isEmpty() ? segment : parentPath + PATH_SEPARATOR + segment;
   }
 
   public NumberPair getInfoByteRange() {
@@ -2,18 +2,18 @@ package model.decoder;
 
 /**
  * Data Transfer Object for storing the result of a decoding operation.
- * @param <T> the type of the decoded value, which can be Integer, String, List, Map
+ * @param <T> the type of the decoded value, which can be Long, String, ByteString, List, Map
  *
  * @author KX
  */
 public class DecoderDTO<T> {
-	private final T value;      // Can be Integer, String, List, Map
+	private final T value;      // Can be Long, String, ByteString, List, Map
 	private final int nextIndex;     // Index after the decoded value
 
 	/**
 	 * Constructor for model.decoder.DecoderDTO.
 	 *
-	 * @param value      the decoded value, which can be Integer, String, List, Map
+	 * @param value      the decoded value, which can be Long, String, ByteString, List, Map
 	 * @param nextIndex  the index to continue decoding from after this value
 	 */
 	public DecoderDTO(T value, int nextIndex) {
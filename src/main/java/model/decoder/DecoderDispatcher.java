@@ -1,6 +1,6 @@
 package model.decoder;
 
-import java.util.List;
+import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
@@ -12,13 +12,13 @@ import java.util.Map;
  */
 public class DecoderDispatcher {
 
-  private final Decoder<Integer> numberDecoder = new NumberDecoder();
+  private final Decoder<Long> numberDecoder = new NumberDecoder();
 
-  private final Decoder<String> textDecoder = new TextDecoder();
+  private final Decoder<ByteString> byteStringDecoder = new ByteStringDecoder();
 
-  private final Decoder<List<Object>> listDecoder;
+  private final ListDecoder listDecoder;
 
-  private final Decoder<Map<String, Object>> dictionaryDecoder;
+  private final DictionaryDecoder dictionaryDecoder;
 
   /**
    * Default constructor initializes the list and dictionary decoders with itself.
@@ -31,47 +31,44 @@ public class DecoderDispatcher {
   }
 
   /**
-   * Decodes a bencoded string starting from the specified index using recursive dispatching.
+   * Decodes a bencoded string starting from the specified index. Strings are decoded by the same
+   * non-recursive engine as byte arrays, see {@link IterativeDecoder#decode(String, int)}, so both
+   * entry points share one parser. Decoding values one after another from the same string converts
+   * it to bytes only once.
    * @param input the bencoded input string
    * @param startIndex the index in the input string to start decoding from.
-   *                   Necessary for recursive decoding of lists and dictionaries.
    * @return a {@link DecoderDTO} containing the decoded value and the next index
    */
   public DecoderDTO<?> decode(String input, int startIndex) {
-    if (input == null || input.isEmpty()) {
-      throw new IllegalArgumentException("Input string cannot be null or empty");
-    }
-
-    if (startIndex < 0 || startIndex >= input.length()) {
-      throw new IllegalArgumentException("Start index out of bounds: " + startIndex);
-    }
-
-    char prefix = input.charAt(startIndex);
-
-		if (prefix == 'i') {
-			return numberDecoder.decode(input, startIndex);
-		}
-		if (Character.isDigit(prefix)) {
-			return textDecoder.decode(input, startIndex);
-		}
-		if (prefix == 'l') {
-			return listDecoder.decode(input, startIndex);
-		}
-		if (prefix == 'd') {
-			return dictionaryDecoder.decode(input, startIndex);
-		}
-
-    throw new IllegalArgumentException("Unknown bencode type at index " + startIndex);
+    return IterativeDecoder.decodeText(input, startIndex);
   }
 
   /**
    * Decodes a bencoded byte array starting from the specified index using recursive dispatching.
+   * Byte strings are returned as {@link ByteString} views of the input so binary values survive
+   * decoding unchanged.
    * @param input the bencoded input byte array
    * @param startIndex the index in the input byte array to start decoding from.
    *                   Necessary for recursive decoding of lists and dictionaries.
    * @return a {@link DecoderByteDTO} containing the decoded value and the next index
    */
   public DecoderByteDTO<?> decode(byte[] input, int startIndex) {
+    return decode(input, startIndex, new LinkedHashMap<>(), "");
+  }
+
+  /**
+   * Decodes a bencoded byte array as part of a larger document. Lists and dictionaries record the
+   * byte ranges of their dictionary values in the shared map, keyed by their path below the given
+   * path.
+   *
+   * @param input      the bencoded input byte array
+   * @param startIndex the index in the input byte array to start decoding from
+   * @param byteRanges the byte range index shared by the whole document
+   * @param path       the path of the value being decoded, empty for the top level
+   * @return a {@link DecoderByteDTO} containing the decoded value and the next index
+   */
+  DecoderByteDTO<?> decode(byte[] input, int startIndex, Map<String, NumberPair> byteRanges,
+      String path) {
     if (input == null || input.length == 0) {
       throw new IllegalArgumentException("Input byte array cannot be null or empty");
     }
@@ -86,13 +83,13 @@ public class DecoderDispatcher {
 			return numberDecoder.decode(input, startIndex);
 		}
 		if (prefix >= '0' && prefix <= '9') {
-			return textDecoder.decode(input, startIndex);
+			return byteStringDecoder.decode(input, startIndex);
 		}
 		if (prefix == 'l') {
-			return listDecoder.decode(input, startIndex);
+			return listDecoder.decode(input, startIndex, byteRanges, path);
 		}
 		if (prefix == 'd') {
-			return dictionaryDecoder.decode(input, startIndex);
+			return dictionaryDecoder.decode(input, startIndex, byteRanges, path);
 		}
 
     throw new IllegalArgumentException("Unknown bencode type at index " + startIndex);
@@ -26,11 +26,10 @@ public class DictionaryDecoder implements Decoder<Map<String, Object>> {
   }
 
   /**
-   * Decodes a bencoded dictionary from the input string starting at the given index. Repeatedly
-   * calls the dispatcher to decode each key-value pair until it finds 'e'. Recursively decodes the
-   * keys and values using the dispatcher. The dictionary is expected to be in the format
-   * "d<key1><value1><key2><value2>...e". For example, "d3:spami42e3:eggs4:spam" means a dictionary
-   * with two entries:
+   * Decodes a bencoded dictionary from the input string starting at the given index. The
+   * dictionary is expected to be in the format "d<key1><value1><key2><value2>...e". For example,
+   * "d3:spami42e3:eggs4:spame" means a dictionary with two entries. Parsed by the same code as the
+   * byte array path.
    *
    * @param input      the bencoded string to decode.
    * @param startIndex the index to start decoding from.
@@ -41,67 +40,58 @@ public class DictionaryDecoder implements Decoder<Map<String, Object>> {
   @Override
   public DecoderDTO<Map<String, Object>> decode(String input,
       int startIndex) throws IllegalArgumentException {
-
     validateInput(input, startIndex, 'd');
-
-    Map<String, Object> dict = new LinkedHashMap<>();
-    int index = startIndex + 1; // Skip 'd'
-
-    while (index < input.length() && input.charAt(index) != 'e') {
-      DecoderDTO<?> keyResult = dispatcher.decode(input, index);
-
-      String key;
-      if (keyResult.getValue() == null || !(keyResult.getValue() instanceof String)) {
-        throw new IllegalArgumentException(
-            "Key cannot be null or non-string type at index " + index);
-      }
-
-      key = (String) keyResult.getValue(); // Keys are always strings
-
-      // Keys are always strings
-      // Move the index to the end of the key
-      index = keyResult.getNextIndex();
-      if (index >= input.length() || input.charAt(index) == 'e') {
-        throw new IllegalArgumentException(
-            "Invalid bencoded dictionary: missing value for key '" + key + "' at index " + index);
-      }
-
-      DecoderDTO<?> valueResult = dispatcher.decode(input, index);
-      dict.put(key, valueResult.getValue());
-      // Move the index to the end of the value
-      index = valueResult.getNextIndex();
-    }
-
-    if (index >= input.length() || input.charAt(index) != 'e') {
-      throw new IllegalArgumentException(
-          "Invalid bencoded dictionary: missing 'e' at index " + startIndex);
-    }
-
-    return new DecoderDTO<>(dict, index + 1); // Skip 'e'
+    return IterativeDecoder.decodeText(input, startIndex);
   }
 
+  /**
+   * Decodes a bencoded dictionary from the byte array starting at the given index. Besides the
+   * decoded map, the returned DTO carries the byte range of every dictionary value in the document,
+   * keyed by its path (e.g. "info/files/3/length"). The 'info' entry is recorded including its
+   * 'd' and 'e' delimiters, as an exclusive end, so its raw bytes can be hashed; every other entry
+   * covers the value content only, with an inclusive end.
+   *
+   * @param bencodedBytes the bencoded byte array to decode
+   * @param startIndex    the index to start decoding from
+   * @return a model.decoder.DecoderByteDTO containing the decoded dictionary, the next index and the
+   * byte range index
+   * @throws IllegalArgumentException if the input is invalid or if the dictionary format is
+   *                                  incorrect.
+   */
   @Override
   public DecoderByteDTO<Map<String, Object>> decode(byte[] bencodedBytes, int startIndex)
       throws IllegalArgumentException {
+    return decode(bencodedBytes, startIndex, new LinkedHashMap<>(), "");
+  }
+
+  /**
+   * Decodes a bencoded dictionary that is part of a larger document, recording the byte ranges of
+   * its values in the shared index under the dictionary's path.
+   *
+   * @param bencodedBytes the bencoded byte array to decode
+   * @param startIndex    the index to start decoding from
+   * @param byteRanges    the byte range index shared by the whole document
+   * @param path          the path of this dictionary, empty for the top level
+   * @return a model.decoder.DecoderByteDTO containing the decoded dictionary and the next index
+   */
+  DecoderByteDTO<Map<String, Object>> decode(byte[] bencodedBytes, int startIndex,
+      Map<String, NumberPair> byteRanges, String path) throws IllegalArgumentException {
     validateInput(bencodedBytes, startIndex, 'd');
 
     Map<String, Object> dict = new LinkedHashMap<>();
     int index = startIndex + 1; // Skip 'd'
-    int infoIndexStart = index;
-    int infoIndexEnd = index;
 
-    LinkedHashMap<String, NumberPair> byteRanges = new LinkedHashMap<>();
     // Continues to decode via the dispatcher until it finds 'e' - the end of the dictionary
     while (index < bencodedBytes.length && bencodedBytes[index] != 'e') {
       // Decode the key using the dispatcher
       DecoderByteDTO<?> keyResultByte = dispatcher.decode(bencodedBytes, index);
       DecoderDTO<?> keyResult = keyResultByte.getDecoderDTO();
       String key;
-      if (keyResult.getValue() == null || !(keyResult.getValue() instanceof String)) {
+      if (keyResult.getValue() == null || !(keyResult.getValue() instanceof ByteString)) {
         throw new IllegalArgumentException(
             "Key cannot be null or non-string type at index " + index);
       }
-      key = (String) keyResult.getValue(); // Keys are always strings
+      key = keyResult.getValue().toString(); // Keys are always text, decoded as UTF-8
 
       // Move the index to the start of the value
       index = keyResult.getNextIndex();
@@ -110,10 +100,12 @@ public class DictionaryDecoder implements Decoder<Map<String, Object>> {
             "Invalid bencoded dictionary: missing value for key '" + key + "' at index " + index);
       }
 
-      infoIndexStart = index;
+      int valueStart = index;
+      String valuePath = DecoderByteDTO.childPath(path, key);
 
-      // Decode the value using the dispatcher
-      DecoderByteDTO<?> valueResultByte = dispatcher.decode(bencodedBytes, index);
+      // Decode the value using the dispatcher, nested values record their own ranges
+      DecoderByteDTO<?> valueResultByte = dispatcher.decode(bencodedBytes, index, byteRanges,
+          valuePath);
       DecoderDTO<?> valueResult = valueResultByte.getDecoderDTO();
       dict.put(key, valueResult.getValue());
       // Move the index to the end of the value
@@ -121,23 +113,11 @@ public class DictionaryDecoder implements Decoder<Map<String, Object>> {
 
       // if key is "info", we store the entire byte range after the key
       if (key.equals("info")) {
-        infoIndexEnd = index;
-        byteRanges.put(key, new NumberPair(infoIndexStart, infoIndexEnd));
+        byteRanges.put(valuePath, new NumberPair(valueStart, index));
       } else {
         // For other keys, we store the byte range for the value only - no prefix or suffix
-        infoIndexStart = valueResultByte.getValueRange().first();
-        infoIndexEnd = valueResultByte.getValueRange().second();
-        byteRanges.put(key, new NumberPair(infoIndexStart, infoIndexEnd));
-      }
-
-      // Add the byte ranges for the keys and values to the byteRanges map from the valueResultByte
-      // This will keep track of the byte ranges for each key-value pair after each recursive call
-      for (Map.Entry<String, NumberPair> entry : valueResultByte.getByteRanges().entrySet()) {
-        String keyByteRange = entry.getKey();
-        NumberPair valueByteRange = entry.getValue();
-        byteRanges.put(keyByteRange, valueByteRange);
+        byteRanges.put(valuePath, valueResultByte.getValueRange());
       }
-
     }
 
     if (index >= bencodedBytes.length || bencodedBytes[index] != 'e') {
@@ -0,0 +1,383 @@
+package model.decoder;
+
+import java.lang.ref.WeakReference;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * model.decoder.IterativeDecoder decodes bencoded byte arrays without recursion. Open lists and
+ * dictionaries are kept on an explicit stack instead of the call stack, so deeply nested input
+ * cannot overflow the thread's stack, and no intermediate {@link DecoderDTO}s are created for the
+ * values inside a container.
+ * <p>
+ * The result is the same as {@link DecoderDispatcher#decode(byte[], int)}: byte strings are
+ * {@link ByteString} views of the input, integers are {@link Long}, lists are {@link ArrayList}s
+ * and dictionaries are {@link LinkedHashMap}s, and the returned DTO carries the same path-keyed
+ * byte range index (see {@link DictionaryDecoder#decode(byte[], int)}).
+ * <p>
+ * This is also the engine behind every {@code decode(String, int)} entry point of the decoders, see
+ * {@link #decode(String, int)}.
+ * <p>
+ * Input from the network should not be trusted, so the decoder enforces a maximum nesting depth and
+ * a maximum input size, both rejected with an {@link IllegalArgumentException}. The stack is kept
+ * between calls and reused, so an instance must not be shared between threads. So is the byte copy
+ * of the last string decoded, so that decoding its values one after another copies it once.
+ *
+ * @author KX
+ */
+public class IterativeDecoder {
+
+  /**
+   * Default maximum nesting depth. Real torrents and tracker responses nest only a few levels.
+   */
+  public static final int DEFAULT_MAX_DEPTH = 512;
+
+  /**
+   * Default maximum input size, which places no limit beyond the size of a Java array.
+   */
+  public static final int DEFAULT_MAX_SIZE = Integer.MAX_VALUE;
+
+  private static final int INITIAL_STACK_CAPACITY = 16;
+
+  // Decoders for the decode(String, int) methods of the individual decoders and the dispatcher
+  private static final ThreadLocal<IterativeDecoder> TEXT_DECODERS =
+      ThreadLocal.withInitial(IterativeDecoder::new);
+
+  private final int maxDepth;
+  private final int maxSize;
+
+  // One stack frame per open container, stored as parallel arrays
+  private Object[] containers = new Object[INITIAL_STACK_CAPACITY];
+  private int[] containerStarts = new int[INITIAL_STACK_CAPACITY];
+  private String[] paths = new String[INITIAL_STACK_CAPACITY];
+  // Dictionary frames only: the key being decoded and the index where its value starts
+  private String[] pendingKeys = new String[INITIAL_STACK_CAPACITY];
+  private int[] valueStarts = new int[INITIAL_STACK_CAPACITY];
+
+  // The string last decoded while values remained after it, and its copy with one byte per char.
+  // Only weakly held, so that the thread's decoder does not keep either alive between calls.
+  private WeakReference<Shadow> shadow;
+
+  /**
+   * Constructs a model.decoder.IterativeDecoder with the default depth and size limits.
+   */
+  public IterativeDecoder() {
+    this(DEFAULT_MAX_DEPTH, DEFAULT_MAX_SIZE);
+  }
+
+  /**
+   * Constructs a model.decoder.IterativeDecoder with the given limits.
+   *
+   * @param maxDepth the maximum number of lists and dictionaries that may be open at once
+   * @param maxSize  the maximum number of bytes that may be decoded from one input, counted from
+   *                 the start index
+   * @throws IllegalArgumentException if either limit is not positive
+   */
+  public IterativeDecoder(int maxDepth, int maxSize) {
+    if (maxDepth <= 0) {
+      throw new IllegalArgumentException("Maximum depth must be a positive integer");
+    }
+    if (maxSize <= 0) {
+      throw new IllegalArgumentException("Maximum size must be a positive integer");
+    }
+    this.maxDepth = maxDepth;
+    this.maxSize = maxSize;
+  }
+
+  public int getMaxDepth() {
+    return maxDepth;
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  /**
+   * Decodes the bencoded value starting at the given index.
+   *
+   * @param input      the bencoded input byte array
+   * @param startIndex the index in the input byte array to start decoding from
+   * @return a {@link DecoderByteDTO} containing the decoded value, the next index, the byte range
+   * index of the document and the range of the value
+   * @throws IllegalArgumentException if the input is malformed or exceeds the depth or size limit
+   */
+  public DecoderByteDTO<?> decode(byte[] input, int startIndex) {
+    if (input == null || input.length == 0) {
+      throw new IllegalArgumentException("Input byte array cannot be null or empty");
+    }
+    if (startIndex < 0 || startIndex >= input.length) {
+      throw new IllegalArgumentException("Start index out of bounds: " + startIndex);
+    }
+    if (input.length - startIndex > maxSize) {
+      throw new IllegalArgumentException("Input of " + (input.length - startIndex)
+          + " bytes exceeds the maximum size of " + maxSize + " bytes");
+    }
+
+    return decodeValue(input, startIndex, null);
+  }
+
+  /**
+   * Decodes the bencoded value starting at the given index of a string. The string is parsed by
+   * the same code as byte arrays, through a copy with one byte per character, so both entry points
+   * accept and reject exactly the same input with the same messages. Lengths count characters and
+   * byte strings are returned as {@link String}s taken from the input; no byte ranges are recorded.
+   * The copy is kept while the input has values left, so decoding them one after another from the
+   * same string copies it only once.
+   *
+   * @param input      the bencoded input string
+   * @param startIndex the index in the input string to start decoding from
+   * @return a {@link DecoderDTO} containing the decoded value and the next index
+   * @throws IllegalArgumentException if the input is malformed or exceeds the depth or size limit
+   */
+  public DecoderDTO<?> decode(String input, int startIndex) {
+    if (input == null || input.isEmpty()) {
+      throw new IllegalArgumentException("Input string cannot be null or empty");
+    }
+    if (startIndex < 0 || startIndex >= input.length()) {
+      throw new IllegalArgumentException("Start index out of bounds: " + startIndex);
+    }
+    if (input.length() - startIndex > maxSize) {
+      throw new IllegalArgumentException("Input of " + (input.length() - startIndex)
+          + " characters exceeds the maximum size of " + maxSize);
+    }
+
+    // Every character that bencode treats specially is ASCII, so mapping the others to
+    // non-structural bytes ('?' or Latin-1) keeps every index and every parsing decision intact
+    Shadow current = shadow == null ? null : shadow.get();
+    if (current == null || current.source() != input) {
+      current = new Shadow(input, input.getBytes(StandardCharsets.ISO_8859_1));
+      shadow = new WeakReference<>(current);
+    }
+    DecoderDTO<?> result;
+    try {
+      result = decodeValue(current.bytes(), startIndex, input).getDecoderDTO();
+    } catch (IllegalArgumentException e) {
+      releaseShadow();
+      throw e;
+    }
+    if (result.getNextIndex() >= input.length()) {
+      releaseShadow(); // Nothing left to decode from this string
+    }
+    return result;
+  }
+
+  private void releaseShadow() {
+    shadow = null;
+  }
+
+  private record Shadow(String source, byte[] bytes) {
+  }
+
+  /**
+   * Decodes a string with this thread's decoder and default limits. Used by the {@code
+   * decode(String, int)} methods of the individual decoders, which have already checked the prefix
+   * and so know the type of the value, and by {@link DecoderDispatcher#decode(String, int)}.
+   */
+  @SuppressWarnings("unchecked")
+  static <T> DecoderDTO<T> decodeText(String input, int startIndex) {
+    return (DecoderDTO<T>) TEXT_DECODERS.get().decode(input, startIndex);
+  }
+
+  /**
+   * Runs the decoder and clears the stack afterwards.
+   *
+   * @param text the string the input was made from, or null when decoding raw bytes
+   */
+  private DecoderByteDTO<?> decodeValue(byte[] input, int startIndex, String text) {
+    try {
+      return decodeValues(input, startIndex, text);
+    } finally {
+      // Drop references to the decoded containers so the stack does not keep them alive
+      Arrays.fill(containers, null);
+      Arrays.fill(paths, null);
+      Arrays.fill(pendingKeys, null);
+    }
+  }
+
+  private DecoderByteDTO<?> decodeValues(byte[] input, int startIndex, String text) {
+    // Byte ranges only make sense for byte input
+    Map<String, NumberPair> byteRanges = text == null ? new LinkedHashMap<>() : null;
+    int depth = 0;
+    int index = startIndex;
+
+    while (true) {
+      Object value;
+      int valueFirst;
+      int valueLast;
+
+      if (depth > 0) {
+        int top = depth - 1;
+        boolean isDictionary = containers[top] instanceof Map;
+
+        if (index >= input.length) {
+          throw new IllegalArgumentException((isDictionary
+              ? "Invalid bencoded dictionary: missing 'e' at index "
+              : "Invalid bencoded list: missing 'e' at index ") + containerStarts[top]);
+        }
+
+        if (input[index] == 'e') {
+          // Close the innermost container, it becomes a value of its parent
+          value = containers[top];
+          valueFirst = containerStarts[top] + 1;
+          valueLast = index - 1;
+          containers[top] = null;
+          depth--;
+          index++;
+          if (depth == 0) {
+            return new DecoderByteDTO<>(new DecoderDTO<>(value, index), byteRanges,
+                new NumberPair(valueFirst, valueLast));
+          }
+          index = addToParent(byteRanges, depth, value, valueFirst, valueLast, index);
+          continue;
+        }
+
+        if (isDictionary && pendingKeys[top] == null) {
+          index = readKey(input, index, top, text);
+        }
+      }
+
+      byte prefix = input[index];
+      if (prefix == 'i') {
+        int endIndex = NumberDecoder.findEnd(input, index);
+        value = NumberDecoder.parseLong(input, index, endIndex);
+        valueFirst = index + 1;
+        valueLast = endIndex - 1;
+        index = endIndex + 1;
+      } else if (prefix >= '0' && prefix <= '9') {
+        int colonIndex = ByteStringDecoder.findColon(input, index);
+        int length = NumberDecoder.parseLength(input, index, colonIndex);
+        int strStart = colonIndex + 1;
+        if (length > input.length - strStart) {
+          throw new IllegalArgumentException(ByteStringDecoder.CONTENT_EXCEEDS_BOUNDS);
+        }
+        value = text == null ? ByteString.wrap(input, strStart, length)
+            : text.substring(strStart, strStart + length);
+        valueFirst = strStart;
+        valueLast = strStart + length - 1;
+        index = strStart + length;
+      } else if (prefix == 'l' || prefix == 'd') {
+        push(depth, prefix == 'd' ? new LinkedHashMap<String, Object>() : new ArrayList<>(),
+            index, byteRanges != null);
+        depth++;
+        index++;
+        continue;
+      } else {
+        throw new IllegalArgumentException("Unknown bencode type at index " + index);
+      }
+
+      if (depth == 0) {
+        return new DecoderByteDTO<>(new DecoderDTO<>(value, index), byteRanges,
+            new NumberPair(valueFirst, valueLast));
+      }
+      index = addToParent(byteRanges, depth, value, valueFirst, valueLast, index);
+    }
+  }
+
+  /**
+   * Reads a dictionary key and remembers it on the dictionary's frame until its value is decoded.
+   *
+   * @return the index of the value
+   */
+  private int readKey(byte[] input, int index, int top, String text) {
+    byte prefix = input[index];
+    if (prefix < '0' || prefix > '9') {
+      if (prefix == 'i' || prefix == 'l' || prefix == 'd') {
+        throw new IllegalArgumentException(
+            "Key cannot be null or non-string type at index " + index);
+      }
+      throw new IllegalArgumentException("Unknown bencode type at index " + index);
+    }
+
+    int colonIndex = ByteStringDecoder.findColon(input, index);
+    int length = NumberDecoder.parseLength(input, index, colonIndex);
+    int keyStart = colonIndex + 1;
+    if (length > input.length - keyStart) {
+      throw new IllegalArgumentException(ByteStringDecoder.CONTENT_EXCEEDS_BOUNDS);
+    }
+    String key = text == null ? new String(input, keyStart, length, StandardCharsets.UTF_8)
+        : text.substring(keyStart, keyStart + length);
+
+    int valueIndex = keyStart + length;
+    if (valueIndex >= input.length || input[valueIndex] == 'e') {
+      throw new IllegalArgumentException(
+          "Invalid bencoded dictionary: missing value for key '" + key + "' at index "
+              + valueIndex);
+    }
+    pendingKeys[top] = key;
+    valueStarts[top] = valueIndex;
+    return valueIndex;
+  }
+
+  /**
+   * Adds a completed value to the innermost open container. Dictionary values have their byte
+   * range recorded under their path, with 'info' covering its delimiters as an exclusive range.
+   *
+   * @return the index to continue decoding from
+   */
+  @SuppressWarnings("unchecked")
+  private int addToParent(Map<String, NumberPair> byteRanges, int depth,
+      Object value, int valueFirst, int valueLast, int nextIndex) {
+    int top = depth - 1;
+    Object parent = containers[top];
+    if (parent instanceof List) {
+      ((List<Object>) parent).add(value);
+      return nextIndex;
+    }
+
+    String key = pendingKeys[top];
+    pendingKeys[top] = null;
+    ((Map<String, Object>) parent).put(key, value);
+
+    if (byteRanges == null) {
+      return nextIndex;
+    }
+    String valuePath = DecoderByteDTO.childPath(paths[top], key);
+    if (key.equals("info")) {
+      byteRanges.put(valuePath, new NumberPair(valueStarts[top], nextIndex));
+    } else {
+      byteRanges.put(valuePath, new NumberPair(valueFirst, valueLast));
+    }
+    return nextIndex;
+  }
+
+  /**
+   * Opens a new container on top of the stack, naming it by its key or index in the parent when
+   * byte ranges are being recorded.
+   */
+  @SuppressWarnings("unchecked")
+  private void push(int depth, Object container, int startIndex, boolean withPath) {
+    if (depth >= maxDepth) {
+      throw new IllegalArgumentException("Bencode nesting exceeds the maximum depth of "
+          + maxDepth + " at index " + startIndex);
+    }
+    if (depth == containers.length) {
+      int capacity = Math.min(maxDepth, depth * 2);
+      containers = Arrays.copyOf(containers, capacity);
+      containerStarts = Arrays.copyOf(containerStarts, capacity);
+      paths = Arrays.copyOf(paths, capacity);
+      pendingKeys = Arrays.copyOf(pendingKeys, capacity);
+      valueStarts = Arrays.copyOf(valueStarts, capacity);
+    }
+
+    String path;
+    if (!withPath) {
+      path = null;
+    } else if (depth == 0) {
+      path = "";
+    } else {
+      Object parent = containers[depth - 1];
+      String segment = parent instanceof List
+          ? Integer.toString(((List<Object>) parent).size()) : pendingKeys[depth - 1];
+      path = DecoderByteDTO.childPath(paths[depth - 1], segment);
+    }
+
+    containers[depth] = container;
+    containerStarts[depth] = startIndex;
+    paths[depth] = path;
+    pendingKeys[depth] = null;
+  }
+}
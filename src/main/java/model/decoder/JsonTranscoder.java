@@ -0,0 +1,335 @@
+package model.decoder;
+
+import java.io.IOException;
+import model.decoder.BencodeReader.Token;
+
+/**
+ * model.decoder.JsonTranscoder converts bencoded bytes to JSON in a single pass. It walks the input
+ * with a {@link BencodeReader} and writes JSON straight to an {@link Appendable}, so no value tree
+ * is built and large documents can be streamed to a writer.
+ * <p>
+ * Integers are written as JSON numbers, lists as arrays and dictionaries as objects. Byte strings
+ * that are valid UTF-8 are written as JSON strings, escaped the same way Gson does by default
+ * (including HTML-sensitive characters), so the output matches serializing the decoded tree with
+ * Gson. Byte strings that are not valid UTF-8, such as 'pieces' in a torrent, are written as a JSON
+ * string holding their {@link BinaryEncoding hex or base64} encoding. Dictionary keys are always
+ * written as text.
+ * <p>
+ * The transcoder holds no state, so one instance can be shared between threads.
+ *
+ * @author KX
+ */
+public class JsonTranscoder {
+
+  /**
+   * How byte strings that are not valid UTF-8 are represented in the JSON output.
+   */
+  public enum BinaryEncoding {
+    /** Lowercase hexadecimal, two characters per byte. */
+    HEX,
+    /** Standard base64 with padding. */
+    BASE64
+  }
+
+  private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+  private static final char[] BASE64_DIGITS =
+      "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+  private final BinaryEncoding binaryEncoding;
+
+  /**
+   * Constructs a model.decoder.JsonTranscoder that writes binary byte strings as hex.
+   */
+  public JsonTranscoder() {
+    this(BinaryEncoding.HEX);
+  }
+
+  /**
+   * Constructs a model.decoder.JsonTranscoder with the given encoding for binary byte strings.
+   *
+   * @param binaryEncoding the encoding for byte strings that are not valid UTF-8
+   */
+  public JsonTranscoder(BinaryEncoding binaryEncoding) {
+    if (binaryEncoding == null) {
+      throw new IllegalArgumentException("Binary encoding cannot be null");
+    }
+    this.binaryEncoding = binaryEncoding;
+  }
+
+  /**
+   * Converts a whole bencoded document to JSON.
+   *
+   * @param input the bencoded bytes
+   * @return the JSON text
+   * @throws IllegalArgumentException if the input is malformed
+   */
+  public String transcode(byte[] input) {
+    StringBuilder json = new StringBuilder(input == null ? 0 : input.length);
+    try {
+      transcode(input, 0, json);
+    } catch (IOException e) {
+      throw new IllegalStateException("StringBuilder cannot fail to append", e);
+    }
+    return json.toString();
+  }
+
+  /**
+   * Converts the bencoded value starting at the given index to JSON, writing it to the output as it
+   * is read. If the input turns out to be malformed, the JSON written so far is incomplete.
+   *
+   * @param input      the bencoded bytes
+   * @param startIndex the index of the first byte of the value
+   * @param out        the destination of the JSON text
+   * @return the index just after the value
+   * @throws IOException              if writing to the output fails
+   * @throws IllegalArgumentException if the input is malformed
+   */
+  public int transcode(byte[] input, int startIndex, Appendable out) throws IOException {
+    BencodeReader reader = new BencodeReader(input, startIndex,
+        IterativeDecoder.DEFAULT_MAX_DEPTH);
+    // Whether a ',' is needed before the next array element or object member
+    boolean needsSeparator = false;
+
+    Token token;
+    while ((token = reader.next()) != Token.END_OF_INPUT) {
+      if (token == Token.END) {
+        out.append(reader.isDictionaryEnd() ? '}' : ']');
+        needsSeparator = true;
+        continue;
+      }
+
+      if (needsSeparator) {
+        out.append(',');
+      }
+
+      switch (token) {
+        case DICT_START:
+          out.append('{');
+          needsSeparator = false;
+          break;
+        case LIST_START:
+          out.append('[');
+          needsSeparator = false;
+          break;
+        case KEY:
+          writeText(input, reader.getBytesStart(), reader.getBytesLength(), out);
+          out.append(':');
+          needsSeparator = false;
+          break;
+        case INTEGER:
+          out.append(Long.toString(reader.getLong()));
+          needsSeparator = true;
+          break;
+        case BYTES:
+          writeByteString(input, reader.getBytesStart(), reader.getBytesLength(), out);
+          needsSeparator = true;
+          break;
+        default:
+          throw new IllegalStateException("Unexpected token: " + token);
+      }
+    }
+    return reader.getPosition();
+  }
+
+  private void writeByteString(byte[] input, int start, int length, Appendable out)
+      throws IOException {
+    if (isValidUtf8(input, start, start + length)) {
+      writeText(input, start, length, out);
+    } else if (binaryEncoding == BinaryEncoding.HEX) {
+      writeHex(input, start, length, out);
+    } else {
+      writeBase64(input, start, length, out);
+    }
+  }
+
+  /**
+   * Writes UTF-8 bytes as a quoted, escaped JSON string. Malformed sequences are written as the
+   * replacement character.
+   */
+  private static void writeText(byte[] input, int start, int length, Appendable out)
+      throws IOException {
+    out.append('"');
+    int end = start + length;
+    int i = start;
+    while (i < end) {
+      int b = input[i] & 0xFF;
+      if (b < 0x80) {
+        writeEscaped((char) b, out);
+        i++;
+        continue;
+      }
+
+      int sequenceLength = utf8SequenceLength(input, i, end);
+      if (sequenceLength == 0) {
+        out.append('\uFFFD');
+        i++;
+        continue;
+      }
+      int codePoint = decodeCodePoint(input, i, sequenceLength);
+      if (Character.isBmpCodePoint(codePoint)) {
+        writeEscaped((char) codePoint, out);
+      } else {
+        out.append(Character.highSurrogate(codePoint));
+        out.append(Character.lowSurrogate(codePoint));
+      }
+      i += sequenceLength;
+    }
+    out.append('"');
+  }
+
+  /**
+   * Writes one character, escaped like Gson's default (HTML-safe) string escaping.
+   */
+  private static void writeEscaped(char c, Appendable out) throws IOException {
+    switch (c) {
+      case '"':
+        out.append("\\\"");
+        break;
+      case '\\':
+        out.append("\\\\");
+        break;
+      case '\t':
+        out.append("\\t");
+        break;
+      case '\b':
+        out.append("\\b");
+        break;
+      case '\n':
+        out.append("\\n");
+        break;
+      case '\r':
+        out.append("\\r");
+        break;
+      case '\f':
+        out.append("\\f");
+        break;
+      case '<':
+      case '>':
+      case '&':
+      case '=':
+      case '\'':
+      case '\u2028':
+      case '\u2029':
+        writeUnicodeEscape(c, out);
+        break;
+      default:
+        if (c < 0x20) {
+          writeUnicodeEscape(c, out);
+        } else {
+          out.append(c);
+        }
+    }
+  }
+
+  private static void writeUnicodeEscape(char c, Appendable out) throws IOException {
+    out.append("\\u")
+        .append(HEX_DIGITS[(c >> 12) & 0xF])
+        .append(HEX_DIGITS[(c >> 8) & 0xF])
+        .append(HEX_DIGITS[(c >> 4) & 0xF])
+        .append(HEX_DIGITS[c & 0xF]);
+  }
+
+  private static void writeHex(byte[] input, int start, int length, Appendable out)
+      throws IOException {
+    out.append('"');
+    for (int i = start; i < start + length; i++) {
+      out.append(HEX_DIGITS[(input[i] >> 4) & 0xF]).append(HEX_DIGITS[input[i] & 0xF]);
+    }
+    out.append('"');
+  }
+
+  private static void writeBase64(byte[] input, int start, int length, Appendable out)
+      throws IOException {
+    out.append('"');
+    int end = start + length;
+    int i = start;
+    for (; i + 2 < end; i += 3) {
+      int group = (input[i] & 0xFF) << 16 | (input[i + 1] & 0xFF) << 8 | (input[i + 2] & 0xFF);
+      out.append(BASE64_DIGITS[group >> 18])
+          .append(BASE64_DIGITS[(group >> 12) & 0x3F])
+          .append(BASE64_DIGITS[(group >> 6) & 0x3F])
+          .append(BASE64_DIGITS[group & 0x3F]);
+    }
+    int remaining = end - i;
+    if (remaining > 0) {
+      int group = (input[i] & 0xFF) << 16 | (remaining == 2 ? (input[i + 1] & 0xFF) << 8 : 0);
+      out.append(BASE64_DIGITS[group >> 18])
+          .append(BASE64_DIGITS[(group >> 12) & 0x3F])
+          .append(remaining == 2 ? BASE64_DIGITS[(group >> 6) & 0x3F] : '=')
+          .append('=');
+    }
+    out.append('"');
+  }
+
+  /**
+   * Checks whether a range of bytes is well-formed UTF-8, rejecting overlong encodings, surrogates
+   * and code points above U+10FFFF.
+   */
+  static boolean isValidUtf8(byte[] input, int start, int end) {
+    int i = start;
+    while (i < end) {
+      if (input[i] >= 0) {
+        i++;
+        continue;
+      }
+      int sequenceLength = utf8SequenceLength(input, i, end);
+      if (sequenceLength == 0) {
+        return false;
+      }
+      i += sequenceLength;
+    }
+    return true;
+  }
+
+  /**
+   * Returns the length of the well-formed multi-byte UTF-8 sequence starting at the given index,
+   * or 0 if the sequence is malformed.
+   */
+  private static int utf8SequenceLength(byte[] input, int index, int end) {
+    int b = input[index] & 0xFF;
+    int length;
+    int min;
+    int max = 0xBF;
+    if (b >= 0xC2 && b <= 0xDF) {
+      return index + 1 < end && isContinuation(input[index + 1]) ? 2 : 0;
+    } else if (b >= 0xE0 && b <= 0xEF) {
+      length = 3;
+      // Reject overlong encodings and UTF-16 surrogates
+      min = b == 0xE0 ? 0xA0 : 0x80;
+      max = b == 0xED ? 0x9F : 0xBF;
+    } else if (b >= 0xF0 && b <= 0xF4) {
+      length = 4;
+      // Reject overlong encodings and code points above U+10FFFF
+      min = b == 0xF0 ? 0x90 : 0x80;
+      max = b == 0xF4 ? 0x8F : 0xBF;
+    } else {
+      return 0;
+    }
+
+    if (index + length > end) {
+      return 0;
+    }
+    int second = input[index + 1] & 0xFF;
+    if (second < min || second > max) {
+      return 0;
+    }
+    for (int i = index + 2; i < index + length; i++) {
+      if (!isContinuation(input[i])) {
+        return 0;
+      }
+    }
+    return length;
+  }
+
+  private static boolean isContinuation(byte b) {
+    return (b & 0xC0) == 0x80;
+  }
+
+  private static int decodeCodePoint(byte[] input, int index, int length) {
+    int codePoint = input[index] & (0xFF >> (length + 1));
+    for (int i = index + 1; i < index + length; i++) {
+      codePoint = codePoint << 6 | (input[i] & 0x3F);
+    }
+    return codePoint;
+  }
+}
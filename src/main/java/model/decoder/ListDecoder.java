@@ -1,7 +1,9 @@
 package model.decoder;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Decodes a bencoded list from a string or byte array. This class implements the {@link Decoder}
@@ -23,10 +25,9 @@ public class ListDecoder implements Decoder<List<Object>> {
   }
 
   /**
-   * Decodes a bencoded list from the input string starting at the given index. Repeatedly calls the
-   * dispatcher to decode each element until it finds 'e'. The list is expected to be in the format
-   * "l<element1><element2>...e". For example, "l4:spam4:eggs" means a list with two strings: "spam"
-   * and "eggs".
+   * Decodes a bencoded list from the input string starting at the given index. The list is expected
+   * to be in the format "l<element1><element2>...e". For example, "l4:spam4:eggse" means a list
+   * with two strings: "spam" and "eggs". Parsed by the same code as the byte array path.
    *
    * @param input      The bencoded string to decode.
    * @param startIndex The index to start decoding from.
@@ -35,36 +36,39 @@ public class ListDecoder implements Decoder<List<Object>> {
   public DecoderDTO<List<Object>> decode(String input,
       int startIndex) throws IllegalArgumentException {
     validateInput(input, startIndex, 'l');
-
-    List<Object> list = new ArrayList<>();
-    int index = startIndex + 1; // Skip 'l'
-
-    // Decode elements until we hit 'e'
-    while (index < input.length() && input.charAt(index) != 'e') {
-      DecoderDTO<?> element = dispatcher.decode(input, index);
-      list.add(element.getValue());
-      // index is updated in the decode method based on decoded type
-      index = element.getNextIndex();
-    }
-
-    if (index >= input.length() || input.charAt(index) != 'e') {
-      throw new IllegalArgumentException(
-          "Invalid bencoded list: missing 'e' at index " + startIndex);
-    }
-
-    return new DecoderDTO<>(list, index + 1); // Skip 'e'
+    return IterativeDecoder.decodeText(input, startIndex);
   }
 
   @Override
   public DecoderByteDTO<List<Object>> decode(byte[] bencodedBytes,
       int startIndex) throws IllegalArgumentException {
+    return decode(bencodedBytes, startIndex, new LinkedHashMap<>(), "");
+  }
+
+  /**
+   * Decodes a bencoded list that is part of a larger document. Elements are addressed by their
+   * index below the list's path when recording byte ranges of nested dictionaries.
+   *
+   * @param bencodedBytes the bencoded byte array to decode
+   * @param startIndex    the index to start decoding from
+   * @param byteRanges    the byte range index shared by the whole document
+   * @param path          the path of this list, empty for the top level
+   * @return a model.decoder.DecoderByteDTO containing the decoded list and the next index
+   */
+  DecoderByteDTO<List<Object>> decode(byte[] bencodedBytes, int startIndex,
+      Map<String, NumberPair> byteRanges, String path) throws IllegalArgumentException {
     validateInput(bencodedBytes, startIndex, 'l');
 
     List<Object> list = new ArrayList<>();
     int index = startIndex + 1; // Skip 'l'
     // Decode elements until we hit 'e'
     while (index < bencodedBytes.length && bencodedBytes[index] != 'e') {
-      DecoderByteDTO<?> element = dispatcher.decode(bencodedBytes, index);
+      // Only containers can hold dictionary values, so only they need a path of their own
+      byte prefix = bencodedBytes[index];
+      String elementPath = (prefix == 'd' || prefix == 'l')
+          ? DecoderByteDTO.childPath(path, Integer.toString(list.size())) : path;
+      DecoderByteDTO<?> element = dispatcher.decode(bencodedBytes, index, byteRanges,
+          elementPath);
       list.add(element.getDecoderDTO().getValue());
       // index is updated in the decode method based on decoded type
       index = element.getDecoderDTO().getNextIndex();
@@ -75,6 +79,7 @@ public class ListDecoder implements Decoder<List<Object>> {
           "Invalid bencoded list: missing 'e' at index " + startIndex);
     }
 
-    return new DecoderByteDTO<>(list, index + 1, startIndex + 1, index - 1); // Skip 'e'
+    return new DecoderByteDTO<>(new DecoderDTO<>(list, index + 1), byteRanges,
+        new NumberPair(startIndex + 1, index - 1)); // Skip 'e'
   }
 }
@@ -3,74 +3,168 @@ package model.decoder;
 /**
  * model.decoder.Decoder for bencoded integers. This class implements the {@link Decoder} interface to decode
  * integers from bencoded strings and byte arrays.
+ * <p>
+ * Integers are parsed directly from the input by accumulating digits into a {@code long}, so no
+ * intermediate {@link String} is created and values beyond the range of an {@code int} (such as
+ * file lengths over 2 GiB) are supported. Per the bencode specification, negative numbers are
+ * allowed while leading zeros and negative zero are rejected.
  *
  * @author KX
  */
-public class NumberDecoder implements Decoder<Integer> {
+public class NumberDecoder implements Decoder<Long> {
+
+  private static final long MULTIPLY_MIN = Long.MIN_VALUE / 10;
 
   /**
    * Decodes a bencoded number. Looks for 'e' to find the end of the number. The number is expected
-   * to be in the format "i<number>e". For example, "i42e" means the number 42.
+   * to be in the format "i<number>e". For example, "i42e" means the number 42. Parsed by the same
+   * code as the byte array path.
    *
    * @param input      The bencoded string to decode.
    * @param startIndex The index to start decoding from.
    * @return A model.decoder.DecoderDTO containing the decoded number and the next index to read from.
    */
   @Override
-  public DecoderDTO<Integer> decode(String input, int startIndex) throws IllegalArgumentException {
+  public DecoderDTO<Long> decode(String input, int startIndex) throws IllegalArgumentException {
     validateInput(input, startIndex, 'i');
+    return IterativeDecoder.decodeText(input, startIndex);
+  }
+
+  @Override
+  public DecoderByteDTO<Long> decode(byte[] bencodedBytes, int startIndex)
+      throws IllegalArgumentException {
+    validateInput(bencodedBytes, startIndex, 'i');
 
-    // Find the end of the number by looking for 'e'
-    int endIndex = input.indexOf('e', startIndex);
-    if (endIndex == -1) {
+    int endIndex = findEnd(bencodedBytes, startIndex);
+    long value = parseLong(bencodedBytes, startIndex, endIndex);
+    return new DecoderByteDTO<>(value, endIndex + 1, startIndex + 1, endIndex - 1);
+  }
+
+  /**
+   * Finds the 'e' that terminates the bencoded integer starting at the given index.
+   *
+   * @param bencodedBytes the bencoded byte array
+   * @param startIndex    the index of the 'i' prefix
+   * @return the index of the terminating 'e'
+   * @throws IllegalArgumentException if there is no terminating 'e'
+   */
+  static int findEnd(byte[] bencodedBytes, int startIndex) {
+    int index = startIndex + 1;
+    while (index < bencodedBytes.length && bencodedBytes[index] != 'e') {
+      index++;
+    }
+    if (index >= bencodedBytes.length) {
       throw new IllegalArgumentException(
           "Invalid bencoded number: missing 'e' at index " + startIndex);
     }
+    return index;
+  }
 
-    // Parse the number between 'i' and 'e'
-    String numberStr = input.substring(startIndex + 1, endIndex);
-    int value;
-    try {
-      value = Integer.parseInt(numberStr);
-    } catch (NumberFormatException e) {
-      throw new IllegalArgumentException("Invalid number format at index " + startIndex, e);
+  /**
+   * Parses the bencoded integer between the 'i' prefix and the terminating 'e' without creating
+   * any objects.
+   *
+   * @param bencodedBytes the bencoded byte array
+   * @param startIndex    the index of the 'i' prefix
+   * @param endIndex      the index of the terminating 'e'
+   * @return the parsed value
+   * @throws IllegalArgumentException if the digits are malformed or overflow a long
+   */
+  static long parseLong(byte[] bencodedBytes, int startIndex, int endIndex) {
+    int index = startIndex + 1;
+    boolean negative = index < endIndex && bencodedBytes[index] == '-';
+    if (negative) {
+      index++;
     }
 
-    return new DecoderDTO<>(value, endIndex + 1);
-  }
-
-  @Override
-  public DecoderByteDTO<Integer> decode(byte[] bencodedBytes, int startIndex)
-      throws IllegalArgumentException {
-    validateInput(bencodedBytes, startIndex, 'i');
+    // Accumulate the digits as a negative number so that Long.MIN_VALUE can be represented
+    int digitsStart = index;
+    long value = 0;
+    for (; index < endIndex; index++) {
+      value = accumulateDigit(value, bencodedBytes[index] - '0', index);
+    }
 
-    int endIndex = startIndex + 1;
+    validateDigits(endIndex - digitsStart, bencodedBytes[digitsStart] == '0', negative,
+        startIndex);
+    return applySign(value, negative, startIndex);
+  }
 
-    // Find the end of the number by looking for 'e'
-    while (endIndex < bencodedBytes.length && bencodedBytes[endIndex] != 'e') {
-      if (bencodedBytes[endIndex] < '0' || bencodedBytes[endIndex] > '9') {
-        throw new IllegalArgumentException(
-            "Invalid character in bencoded number at index " + endIndex);
-      }
-      endIndex++;
+  /**
+   * Adds one decimal digit to a negatively accumulated value, checking for overflow.
+   *
+   * @param value the value accumulated so far, zero or negative
+   * @param digit the digit to add, as the character minus '0'
+   * @param index the index of the digit in the input, for error messages
+   * @return the new accumulated value
+   * @throws IllegalArgumentException if the character is not a digit or the value overflows
+   */
+  private static long accumulateDigit(long value, int digit, int index) {
+    if (digit < 0 || digit > 9) {
+      throw new IllegalArgumentException(
+          "Invalid character in bencoded number at index " + index);
+    }
+    if (value < MULTIPLY_MIN) {
+      throw new IllegalArgumentException("Bencoded number overflows a long at index " + index);
+    }
+    value *= 10;
+    if (value < Long.MIN_VALUE + digit) {
+      throw new IllegalArgumentException("Bencoded number overflows a long at index " + index);
     }
+    return value - digit;
+  }
 
-    if (endIndex >= bencodedBytes.length || bencodedBytes[endIndex] != 'e') {
+  /**
+   * Validates the shape of the digit sequence: at least one digit, no leading zeros and no
+   * negative zero.
+   */
+  private static void validateDigits(int digitCount, boolean leadingZero, boolean negative,
+      int startIndex) {
+    if (digitCount == 0) {
+      throw new IllegalArgumentException("Invalid number format at index " + startIndex);
+    }
+    if (leadingZero && (digitCount > 1 || negative)) {
       throw new IllegalArgumentException(
-          "Invalid bencoded number: missing 'e' at index " + startIndex);
+          "Invalid number format at index " + startIndex + ": leading zero");
     }
+  }
 
-    // Parse the number between 'i' and 'e' by converting the byte array to a string within the specified range
-    String numberStr = new String(bencodedBytes, startIndex + 1, endIndex - startIndex - 1);
-    int value;
-    try {
-      value = Integer.parseInt(numberStr);
-    } catch (NumberFormatException e) {
-      throw new IllegalArgumentException("Invalid number format at index " + startIndex, e);
+  private static long applySign(long value, boolean negative, int startIndex) {
+    if (negative) {
+      return value;
     }
+    if (value == Long.MIN_VALUE) {
+      throw new IllegalArgumentException(
+          "Bencoded number overflows a long at index " + startIndex);
+    }
+    return -value;
+  }
 
-    return new DecoderByteDTO<>(value, endIndex + 1, startIndex + 1, endIndex - 1);
+  /**
+   * Parses the decimal length prefix of a bencoded string, which runs from the start index up to a
+   * ':'. Shared by the string decoders so the length is read without creating a {@link String}.
+   *
+   * @param bencodedBytes the bencoded byte array
+   * @param startIndex    the index of the first digit of the length
+   * @param colonIndex    the index of the ':' that ends the length
+   * @return the length of the string content
+   * @throws IllegalArgumentException if the prefix contains a non-digit or does not fit an int
+   */
+  static int parseLength(byte[] bencodedBytes, int startIndex, int colonIndex) {
+    int length = 0;
+    for (int i = startIndex; i < colonIndex; i++) {
+      length = accumulateLengthDigit(length, bencodedBytes[i] - '0');
+    }
+    return length;
+  }
 
+  private static int accumulateLengthDigit(int length, int digit) {
+    if (digit < 0 || digit > 9) {
+      throw new IllegalArgumentException("Non-digit character in length field");
+    }
+    if (length > (Integer.MAX_VALUE - digit) / 10) {
+      throw new IllegalArgumentException("Invalid string length: exceeds maximum array size");
+    }
+    return length * 10 + digit;
   }
 
 }
@@ -11,6 +11,7 @@ public class TextDecoder implements Decoder<String> {
    * Decodes a bencoded string from the given input starting at the specified index. Looks for the
    * colon character (':') to separate the length of the string and the string content. The length
    * is specified as a decimal integer before the colon, and the string content follows the colon.
+   * Parsed by the same code as the byte array path, with the length counted in characters.
    *
    * @param input      the bencoded string to decode
    * @param startIndex the index to start decoding from
@@ -26,78 +27,29 @@ public class TextDecoder implements Decoder<String> {
     if (startIndex < 0 || startIndex >= input.length()) {
       throw new IllegalArgumentException("Start index out of bounds: " + startIndex);
     }
-    if (!Character.isDigit(input.charAt(startIndex))) {
+    if (input.charAt(startIndex) < '0' || input.charAt(startIndex) > '9') {
       throw new IllegalArgumentException(
           "Invalid bencoded string format. Expected digit at index " + startIndex);
     }
 
-    // Find the colon that separates the length from the string content
-    int colonIndex = input.indexOf(':', startIndex);
-    if (colonIndex == -1) {
-      throw new IllegalArgumentException(
-          "Invalid bencoded string: missing ':' after length at index " + startIndex);
-    }
-
-    // Extract the length of the string
-    int length;
-    try {
-      length = Integer.parseInt(input.substring(startIndex, colonIndex));
-    } catch (NumberFormatException e) {
-      throw new IllegalArgumentException("Invalid string length format at index " + startIndex, e);
-    }
-
-    // Validate the length and extract the string content
-    int strStart = colonIndex + 1;
-    int strEnd = strStart + length;
-    if (strEnd > input.length()) {
-      throw new IllegalArgumentException("String content exceeds input bounds.");
-    }
-    String value = input.substring(strStart, strEnd);
-
-    return new DecoderDTO<>(value, strEnd);
+    return IterativeDecoder.decodeText(input, startIndex);
   }
 
+  /**
+   * Decodes a bencoded string from the byte array and converts its content to text as UTF-8. Only
+   * use this for values known to be text; {@link ByteStringDecoder} keeps binary values intact.
+   *
+   * @param bencodedBytes the bencoded byte array to decode
+   * @param startIndex    the index to start decoding from
+   * @return a model.decoder.DecoderByteDTO containing the decoded string and the next index
+   * @throws IllegalArgumentException if the input is invalid or the start index is out of bounds
+   */
   @Override
   public DecoderByteDTO<String> decode(byte[] bencodedBytes, int startIndex)
       throws IllegalArgumentException {
-    // Does not use validateInput() because it's prefix is not static
-    if (startIndex < 0 || startIndex >= bencodedBytes.length) {
-      throw new IllegalArgumentException("Start index out of bounds: " + startIndex);
-    }
-    if (bencodedBytes[startIndex] < '0' || bencodedBytes[startIndex] > '9') {
-      throw new IllegalArgumentException(
-          "Invalid bencoded string format. Expected digit at index " + startIndex);
-    }
-
-    // Find the colon that separates the length from the string content
-    int colonIndex = startIndex;
-    while (colonIndex < bencodedBytes.length && bencodedBytes[colonIndex] != ':') {
-      if (bencodedBytes[colonIndex] < '0' || bencodedBytes[colonIndex] > '9') {
-        throw new IllegalArgumentException("Non-digit character in length field");
-      }
-      colonIndex++;
-    }
-
-    if (colonIndex >= bencodedBytes.length || bencodedBytes[colonIndex] != ':') {
-      throw new IllegalArgumentException("Missing ':' after string length");
-    }
-
-    // Extract the length of the string
-    int length;
-    try {
-      length = Integer.parseInt(new String(bencodedBytes, startIndex, colonIndex - startIndex));
-    } catch (NumberFormatException e) {
-      throw new IllegalArgumentException("Invalid string length", e);
-    }
-
-    // Validate the length and extract the string content
-    int strStart = colonIndex + 1;
-    int strEnd = strStart + length;
-    if (strEnd > bencodedBytes.length) {
-      throw new IllegalArgumentException("String content exceeds input bounds");
-    }
-    String value = new String(bencodedBytes, strStart, length);
-
-    return new DecoderByteDTO<>(value, strEnd, strStart, strEnd - 1);
+    DecoderByteDTO<ByteString> bytes = ByteStringDecoder.decodeByteString(bencodedBytes,
+        startIndex);
+    return new DecoderByteDTO<>(new DecoderDTO<>(bytes.getValue().toString(),
+        bytes.getNextIndex()), bytes.getValueRange());
   }
 }
@@ -0,0 +1,222 @@
+package model.session;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import model.session.TrackerClient.Event;
+
+/**
+ * model.session.AnnounceScheduler keeps a download announced to its tracker. It sends the
+ * {@code started} announce, then re-announces whenever the interval requested by the tracker has
+ * passed, and reports {@code completed} and {@code stopped} when told to. Every announce is made
+ * with {@link TrackerClient#announceAsync(Event)}, so no thread waits on the tracker, and every
+ * successful response is handed to a listener, which lets a running session pick up new peers.
+ * <p>
+ * The delay before the next announce is the larger of the tracker's interval, its minimum interval
+ * and the scheduler's minimum interval. Failed announces are retried, starting after the minimum
+ * interval and doubling up to {@link #DEFAULT_INTERVAL}; the {@code started} and
+ * {@code completed} events are repeated until the tracker has received them.
+ *
+ * @author KX
+ */
+public class AnnounceScheduler {
+
+  /**
+   * The longest delay between announces, used when retries keep failing.
+   */
+  public static final Duration DEFAULT_INTERVAL = Duration.ofMinutes(30);
+
+  /**
+   * The shortest delay between announces, protecting trackers from clients re-announcing in a loop.
+   */
+  public static final Duration DEFAULT_MINIMUM_INTERVAL = Duration.ofSeconds(30);
+
+  private final TrackerClient trackerClient;
+  private final Consumer<TrackerResponse> listener;
+  private final ScheduledExecutorService executor;
+  private final boolean ownsExecutor;
+  private final long minimumIntervalMillis;
+
+  // Guarded by this
+  private boolean started;
+  private boolean announced;
+  private boolean stopped;
+  private long retryDelayMillis;
+  private ScheduledFuture<?> nextAnnounce;
+
+  /**
+   * Constructs a model.session.AnnounceScheduler with its own scheduling thread and the default
+   * minimum interval.
+   *
+   * @param trackerClient the client used to announce
+   * @param listener      called with every successful response, on the HTTP client's threads
+   * @throws IllegalArgumentException if any parameter is null
+   */
+  public AnnounceScheduler(TrackerClient trackerClient, Consumer<TrackerResponse> listener) {
+    this(trackerClient, listener, null, DEFAULT_MINIMUM_INTERVAL);
+  }
+
+  /**
+   * Constructs a model.session.AnnounceScheduler.
+   *
+   * @param trackerClient   the client used to announce
+   * @param listener        called with every successful response, on the HTTP client's threads
+   * @param executor        the executor used to schedule announces, or null to create a daemon
+   *                        thread that is shut down with {@link #stop()}
+   * @param minimumInterval the shortest delay between announces, whatever the tracker asks for
+   * @throws IllegalArgumentException if the client, listener or minimum interval is null, or the
+   *                                  minimum interval is not positive
+   */
+  public AnnounceScheduler(TrackerClient trackerClient, Consumer<TrackerResponse> listener,
+      ScheduledExecutorService executor, Duration minimumInterval) {
+    if (trackerClient == null || listener == null || minimumInterval == null) {
+      throw new IllegalArgumentException("Constructor parameters cannot be null");
+    }
+    if (minimumInterval.isNegative() || minimumInterval.isZero()) {
+      throw new IllegalArgumentException("Minimum interval must be positive");
+    }
+
+    this.trackerClient = trackerClient;
+    this.listener = listener;
+    this.minimumIntervalMillis = minimumInterval.toMillis();
+    this.retryDelayMillis = minimumIntervalMillis;
+    if (executor == null) {
+      this.executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "announce-scheduler");
+        thread.setDaemon(true);
+        return thread;
+      });
+      this.ownsExecutor = true;
+    } else {
+      this.executor = executor;
+      this.ownsExecutor = false;
+    }
+  }
+
+  /**
+   * Sends the {@code started} announce and keeps re-announcing until {@link #stop()} is called.
+   *
+   * @return a future completed with the response to the first announce, or failed if it could not
+   * be made; later announces are retried either way
+   * @throws IllegalStateException if the scheduler was already started
+   */
+  public synchronized CompletableFuture<TrackerResponse> start() {
+    if (started) {
+      throw new IllegalStateException("Announce scheduler already started");
+    }
+    started = true;
+    return announce(Event.STARTED);
+  }
+
+  /**
+   * Reports that the download has completed. Regular announces continue afterwards.
+   *
+   * @return a future completed with the tracker's response, or failed if the announce failed
+   * @throws IllegalStateException if the scheduler is not running
+   */
+  public synchronized CompletableFuture<TrackerResponse> complete() {
+    requireRunning();
+    return announce(Event.COMPLETED);
+  }
+
+  /**
+   * Cancels the pending announce and reports {@code stopped} to the tracker, if it was told that the
+   * download started. The scheduling thread is shut down if the scheduler created it. Calling this
+   * method again has no effect.
+   *
+   * @return a future completed once the {@code stopped} announce is answered or has failed
+   */
+  public synchronized CompletableFuture<Void> stop() {
+    if (stopped) {
+      return CompletableFuture.completedFuture(null);
+    }
+    stopped = true;
+    if (nextAnnounce != null) {
+      nextAnnounce.cancel(false);
+    }
+    if (ownsExecutor) {
+      executor.shutdownNow();
+    }
+    if (!announced) {
+      return CompletableFuture.completedFuture(null);
+    }
+    try {
+      return trackerClient.announceAsync(Event.STOPPED).handle((response, error) -> null);
+    } catch (RuntimeException e) {
+      return CompletableFuture.completedFuture(null);
+    }
+  }
+
+  public synchronized boolean isStopped() {
+    return stopped;
+  }
+
+  private void requireRunning() {
+    if (!started || stopped) {
+      throw new IllegalStateException("Announce scheduler is not running");
+    }
+  }
+
+  /**
+   * Sends an announce and schedules the next one from its outcome.
+   */
+  private CompletableFuture<TrackerResponse> announce(Event event) {
+    CompletableFuture<TrackerResponse> response;
+    try {
+      response = trackerClient.announceAsync(event);
+    } catch (RuntimeException e) {
+      response = CompletableFuture.failedFuture(e);
+    }
+    return response.whenComplete((result, error) -> onAnnounced(event, result, error));
+  }
+
+  /**
+   * Schedules the next announce from the outcome of one, then passes a response to the listener
+   * outside the lock.
+   */
+  private void onAnnounced(Event event, TrackerResponse response, Throwable error) {
+    synchronized (this) {
+      if (stopped) {
+        return;
+      }
+      if (error != null) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null
+            ? error.getCause() : error;
+        System.err.println("Announce failed, retrying in " + retryDelayMillis / 1000 + "s: "
+            + cause.getMessage());
+        // Until the tracker has seen us keep reporting the start, and do not lose a completion
+        Event retry = !announced ? Event.STARTED
+            : event == Event.COMPLETED ? Event.COMPLETED : Event.NONE;
+        schedule(retry, retryDelayMillis);
+        retryDelayMillis = Math.min(retryDelayMillis * 2, DEFAULT_INTERVAL.toMillis());
+        return;
+      }
+
+      announced = true;
+      retryDelayMillis = minimumIntervalMillis;
+      long intervalMillis = TimeUnit.SECONDS.toMillis(
+          Math.max(response.getInterval(), response.getMinInterval()));
+      schedule(Event.NONE, Math.max(intervalMillis, minimumIntervalMillis));
+    }
+
+    listener.accept(response);
+  }
+
+  private void schedule(Event event, long delayMillis) {
+    if (nextAnnounce != null) {
+      nextAnnounce.cancel(false);
+    }
+    nextAnnounce = executor.schedule(() -> {
+      synchronized (this) {
+        if (!stopped) {
+          announce(event);
+        }
+      }
+    }, delayMillis, TimeUnit.MILLISECONDS);
+  }
+}
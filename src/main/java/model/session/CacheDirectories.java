@@ -0,0 +1,97 @@
+package model.session;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFileAttributeView;
+import java.nio.file.attribute.PosixFileAttributes;
+import java.nio.file.attribute.PosixFilePermission;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.nio.file.attribute.UserPrincipal;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * model.session.CacheDirectories places the caches of the client in directories that belong to the
+ * current user and that other users can neither read nor write, so that they cannot plant entries or
+ * learn which torrents and peers the user has. On file systems without POSIX permissions the
+ * user's own directories are trusted as they are.
+ *
+ * @author KX
+ */
+final class CacheDirectories {
+
+  private static final Set<PosixFilePermission> OWNER_ONLY = EnumSet.of(
+      PosixFilePermission.OWNER_READ, PosixFilePermission.OWNER_WRITE,
+      PosixFilePermission.OWNER_EXECUTE);
+
+  private CacheDirectories() {
+  }
+
+  /**
+   * Returns the default directory of a cache: a subdirectory of $XDG_CACHE_HOME, or of ~/.cache if
+   * it is not set.
+   *
+   * @param name the name of the cache
+   * @return the directory, which may not exist yet
+   */
+  static Path defaultDirectory(String name) {
+    String cacheHome = System.getenv("XDG_CACHE_HOME");
+    Path base = cacheHome != null && Path.of(cacheHome).isAbsolute()
+        ? Path.of(cacheHome) : Path.of(System.getProperty("user.home"), ".cache");
+    return base.resolve("bittorrent").resolve(name);
+  }
+
+  /**
+   * Creates a cache directory readable and writable by its owner only, unless it exists.
+   *
+   * @param directory the directory
+   * @throws IOException if it cannot be created, or it exists but is not private to this user
+   */
+  static void createPrivate(Path directory) throws IOException {
+    if (!Files.exists(directory, LinkOption.NOFOLLOW_LINKS)) {
+      Path parent = directory.toAbsolutePath().getParent();
+      if (parent != null) {
+        Files.createDirectories(parent);
+      }
+      if (supportsPosix(directory)) {
+        Files.createDirectory(directory, PosixFilePermissions.asFileAttribute(OWNER_ONLY));
+      } else {
+        Files.createDirectory(directory);
+      }
+    }
+    if (!isPrivate(directory)) {
+      throw new IOException("Cache directory is accessible to other users: " + directory);
+    }
+  }
+
+  /**
+   * Returns whether a cache directory exists, is not a symbolic link, belongs to this user and
+   * grants nothing to group or others. Entries in any other directory must not be trusted.
+   *
+   * @param directory the directory
+   * @return true if entries may be read from it
+   */
+  static boolean isPrivate(Path directory) {
+    try {
+      if (!Files.isDirectory(directory, LinkOption.NOFOLLOW_LINKS)) {
+        return false;
+      }
+      if (!supportsPosix(directory)) {
+        return true;
+      }
+      PosixFileAttributes attributes = Files.getFileAttributeView(directory,
+          PosixFileAttributeView.class, LinkOption.NOFOLLOW_LINKS).readAttributes();
+      UserPrincipal user = directory.getFileSystem().getUserPrincipalLookupService()
+          .lookupPrincipalByName(System.getProperty("user.name"));
+      return attributes.owner().equals(user) && OWNER_ONLY.containsAll(attributes.permissions());
+    } catch (IOException | UnsupportedOperationException e) {
+      return false;
+    }
+  }
+
+  private static boolean supportsPosix(Path directory) {
+    return directory.getFileSystem().supportedFileAttributeViews().contains("posix");
+  }
+}
@@ -1,14 +1,67 @@
 package model.session;
 
+import java.net.Inet6Address;
+import java.time.Duration;
+
 /**
  * Default implementation fo the {@link TrackerClientFactory} interface.
- * This factory creates instances of {@link TrackerClient} with the provided parameters.
+ * This factory creates instances of {@link TrackerClient} with the provided parameters, choosing
+ * the protocol from the scheme of the tracker URL: {@link UdpTrackerClient} for {@code udp://}
+ * trackers and the HTTP client for every other tracker.
+ * <p>
+ * The clients it creates usually have other trackers to fall back on, in other tiers or through
+ * the re-announces of {@link AnnounceScheduler}. So by default UDP clients give up on a silent
+ * tracker after {@link UdpTrackerClient#FAILOVER_MAX_RETRANSMISSIONS} retransmissions, not after
+ * the two hours of BEP 15.
  *
  * @author KX
  */
 public class DefaultTrackerClientFactory implements TrackerClientFactory {
+
+  // Looked up once, every client advertises it so that IPv6 peers can reach us
+  private static final Inet6Address IPV6_ADDRESS = TrackerClient.findGlobalIpv6Address();
+
+  private final Duration udpInitialTimeout;
+  private final int udpMaxRetransmissions;
+
+  /**
+   * Constructs a factory whose UDP clients use the failover retransmission budget of
+   * {@link UdpTrackerClient}.
+   */
+  public DefaultTrackerClientFactory() {
+    this(UdpTrackerClient.FAILOVER_INITIAL_TIMEOUT, UdpTrackerClient.FAILOVER_MAX_RETRANSMISSIONS);
+  }
+
+  /**
+   * Constructs a factory whose UDP clients use the given retransmission budget.
+   *
+   * @param udpInitialTimeout     the wait before the first retransmission
+   * @param udpMaxRetransmissions the number of retransmissions after which a request fails
+   * @throws IllegalArgumentException if the timeout is not positive or the number of
+   *                                  retransmissions is negative
+   */
+  public DefaultTrackerClientFactory(Duration udpInitialTimeout, int udpMaxRetransmissions) {
+    if (udpInitialTimeout == null || udpInitialTimeout.isNegative()
+        || udpInitialTimeout.isZero()) {
+      throw new IllegalArgumentException("Initial timeout must be positive");
+    }
+    if (udpMaxRetransmissions < 0) {
+      throw new IllegalArgumentException("Retransmissions cannot be negative");
+    }
+    this.udpInitialTimeout = udpInitialTimeout;
+    this.udpMaxRetransmissions = udpMaxRetransmissions;
+  }
+
   @Override
-  public TrackerClient create(String trackerUrl, int port, int fileSize, byte[] infoHash, String peerId) {
-    return new TrackerClient(trackerUrl, port, fileSize, infoHash, peerId);
+  public TrackerClient create(String trackerUrl, int port, long fileSize, byte[] infoHash, String peerId) {
+    TrackerClient client;
+    if (trackerUrl != null && trackerUrl.regionMatches(true, 0, "udp://", 0, 6)) {
+      client = new UdpTrackerClient(trackerUrl, port, fileSize, infoHash, peerId,
+          udpInitialTimeout, udpMaxRetransmissions);
+    } else {
+      client = new TrackerClient(trackerUrl, port, fileSize, infoHash, peerId);
+    }
+    client.setIpv6Address(IPV6_ADDRESS);
+    return client;
   }
-}
\ No newline at end of file
+}
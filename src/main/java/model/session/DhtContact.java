@@ -0,0 +1,94 @@
+package model.session;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import model.decoder.ByteString;
+
+/**
+ * model.session.DhtContact is a node of the DHT (BEP 5): its 160-bit node ID and the UDP address it
+ * answers on.
+ *
+ * @param id      the node ID, 20 bytes long
+ * @param address the address and port of the node
+ *
+ * @author KX
+ */
+public record DhtContact(ByteString id, InetSocketAddress address) {
+
+  /**
+   * The length of a node ID in bytes.
+   */
+  public static final int ID_LENGTH = 20;
+
+  /**
+   * The length of one node in a compact node list: the ID, 4 bytes of IPv4 address and the port.
+   */
+  public static final int COMPACT_LENGTH = ID_LENGTH + 6;
+
+  /**
+   * Constructs a DhtContact.
+   *
+   * @throws IllegalArgumentException if the ID is not 20 bytes long or the address is null or
+   *                                  unresolved
+   */
+  public DhtContact {
+    if (id == null || id.length() != ID_LENGTH) {
+      throw new IllegalArgumentException("Node ID must be 20 bytes long");
+    }
+    if (address == null || address.isUnresolved()) {
+      throw new IllegalArgumentException("Node address must be resolved");
+    }
+  }
+
+  /**
+   * Parses a compact node list (BEP 5), 26 bytes per node. Trailing bytes that do not make up a
+   * whole node are ignored.
+   *
+   * @param compact the compact node list
+   * @return the nodes of the list, in order
+   */
+  public static List<DhtContact> fromCompact(ByteString compact) {
+    List<DhtContact> contacts = new ArrayList<>(compact.length() / COMPACT_LENGTH);
+    for (int offset = 0; offset + COMPACT_LENGTH <= compact.length(); offset += COMPACT_LENGTH) {
+      byte[] address = compact.slice(offset + ID_LENGTH, offset + ID_LENGTH + 4).toByteArray();
+      int port = (compact.byteAt(offset + ID_LENGTH + 4) & 0xFF) << 8
+          | (compact.byteAt(offset + ID_LENGTH + 5) & 0xFF);
+      if (port == 0) {
+        continue; // Not reachable
+      }
+      try {
+        contacts.add(new DhtContact(
+            ByteString.wrap(compact.slice(offset, offset + ID_LENGTH).toByteArray()),
+            new InetSocketAddress(InetAddress.getByAddress(address), port)));
+      } catch (UnknownHostException e) {
+        // Only thrown for addresses of an illegal length
+        throw new IllegalStateException(e);
+      }
+    }
+    return contacts;
+  }
+
+  /**
+   * Encodes nodes as a compact node list. Nodes without an IPv4 address are left out, as the list
+   * has no room for them.
+   *
+   * @param contacts the nodes to encode
+   * @return a new array holding the compact node list
+   */
+  public static byte[] toCompact(List<DhtContact> contacts) {
+    ByteBuffer compact = ByteBuffer.allocate(contacts.size() * COMPACT_LENGTH);
+    for (DhtContact contact : contacts) {
+      if (contact.address().getAddress() instanceof Inet4Address ipv4) {
+        compact.put(contact.id().toByteArray()).put(ipv4.getAddress())
+            .putShort((short) contact.address().getPort());
+      }
+    }
+    return Arrays.copyOf(compact.array(), compact.position());
+  }
+}
@@ -0,0 +1,894 @@
+package model.session;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketException;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import model.decoder.BencodeEncoder;
+import model.decoder.BencodeReader;
+import model.decoder.BencodeReader.Token;
+import model.decoder.ByteString;
+
+/**
+ * model.session.DhtNode is a node of the mainline DHT (BEP 5), a Kademlia network in which peers are
+ * found by info hash instead of from a tracker. Messages are KRPC dictionaries, bencoded with
+ * {@link BencodeEncoder} and read with a depth-limited {@link BencodeReader}, sent over one UDP
+ * socket.
+ * <p>
+ * The node answers {@code ping}, {@code find_node}, {@code get_peers} and {@code announce_peer}
+ * queries, storing announced peers for {@link #PEER_EXPIRY} and handing out tokens bound to the
+ * querying address that stay valid for one to two {@link #TOKEN_ROTATION} periods. The stored
+ * peers are bounded by {@link #MAX_STORED_TORRENTS}, {@link #MAX_PEERS_PER_TORRENT} and
+ * {@link #MAX_PORTS_PER_HOST}, the oldest announces making room for new ones, and expired peers
+ * are swept whenever the token secret changes. As a client it
+ * runs iterative lookups: {@value #ALPHA} queries per round, towards the {@value #K} closest nodes
+ * to the target, starting from the routing table or, while it is empty, from the bootstrap nodes.
+ * <p>
+ * Only IPv4 nodes and peers are exchanged, BEP 32 is not supported. The node starts receiving when
+ * {@link #start()} is called and stops when it is closed.
+ *
+ * @author KX
+ */
+public class DhtNode implements Closeable {
+
+  /**
+   * System property listing the bootstrap nodes as comma separated {@code host:port} pairs.
+   */
+  public static final String BOOTSTRAP_PROPERTY = "bittorrent.dht.bootstrap";
+
+  /**
+   * The bootstrap nodes used when {@value #BOOTSTRAP_PROPERTY} is not set.
+   */
+  public static final String DEFAULT_BOOTSTRAP_NODES =
+      "router.bittorrent.com:6881,dht.transmissionbt.com:6881";
+
+  /**
+   * How long to wait for the answer to a query, unless another timeout is given.
+   */
+  public static final Duration DEFAULT_QUERY_TIMEOUT = Duration.ofSeconds(2);
+
+  /**
+   * How often the secret behind the tokens changes.
+   */
+  public static final Duration TOKEN_ROTATION = Duration.ofMinutes(5);
+
+  /**
+   * How long an announced peer is stored without being announced again.
+   */
+  public static final Duration PEER_EXPIRY = Duration.ofMinutes(30);
+
+  /**
+   * The most torrents peers are stored for.
+   */
+  public static final int MAX_STORED_TORRENTS = 1000;
+
+  /**
+   * The most peers stored for one torrent.
+   */
+  public static final int MAX_PEERS_PER_TORRENT = 100;
+
+  /**
+   * The most ports stored for one host and torrent.
+   */
+  public static final int MAX_PORTS_PER_HOST = 4;
+
+  /**
+   * The number of closest nodes a lookup converges on and announces to.
+   */
+  public static final int K = DhtRoutingTable.BUCKET_SIZE;
+
+  /**
+   * The number of queries a lookup sends per round.
+   */
+  public static final int ALPHA = 3;
+
+  private static final int MAX_LOOKUP_ROUNDS = 20;
+  private static final int MAX_VALUES = 50;
+  private static final int MAX_PACKET_SIZE = 2048;
+  // KRPC messages nest three deep at most: the message, its arguments, then a list of values
+  private static final int MAX_MESSAGE_DEPTH = 4;
+  private static final int ERROR_PROTOCOL = 203;
+  private static final int ERROR_METHOD_UNKNOWN = 204;
+  private static final int SECRET_LENGTH = 20;
+
+  // Lookups block between rounds, so they run here rather than on the caller's thread
+  private static final ExecutorService LOOKUP_EXECUTOR = Executors.newCachedThreadPool(
+      runnable -> {
+        Thread thread = new Thread(runnable, "dht-lookup");
+        thread.setDaemon(true);
+        return thread;
+      });
+
+  private final DatagramSocket socket;
+  private final ByteString nodeId;
+  private final DhtRoutingTable routingTable;
+  private final long queryTimeoutMillis;
+  private final BencodeEncoder encoder = new BencodeEncoder();
+  private final SecureRandom random = new SecureRandom();
+  private final AtomicInteger nextTransaction = new AtomicInteger();
+  private final ConcurrentMap<ByteString, PendingQuery> pendingQueries = new ConcurrentHashMap<>();
+  /**
+   * Peers announced to this node by info hash, each with the time it was announced. Torrents and
+   * peers are both in the order of their last announce, oldest first. Guarded by itself.
+   */
+  private final Map<ByteString, Map<InetSocketAddress, Long>> storedPeers = new LinkedHashMap<>();
+  private volatile List<InetSocketAddress> bootstrapNodes;
+  private volatile Thread receiver;
+
+  // Guarded by this
+  private byte[] tokenSecret;
+  private byte[] previousTokenSecret;
+  private long secretCreated;
+
+  /**
+   * A query waiting for its answer.
+   */
+  private record PendingQuery(InetSocketAddress address,
+                              CompletableFuture<Map<String, Object>> answer) {
+
+  }
+
+  /**
+   * Constructs a model.session.DhtNode with a random node ID, bound to the given address and using
+   * the bootstrap nodes of {@link #defaultBootstrapNodes()}.
+   *
+   * @param bindAddress the local address to receive on, port 0 for any free port
+   * @throws SocketException          if the socket cannot be bound
+   * @throws IllegalArgumentException if bindAddress is null
+   */
+  public DhtNode(InetSocketAddress bindAddress) throws SocketException {
+    this(bindAddress, null, DEFAULT_QUERY_TIMEOUT);
+  }
+
+  /**
+   * Constructs a model.session.DhtNode with the given node ID and query timeout.
+   *
+   * @param bindAddress  the local address to receive on, port 0 for any free port
+   * @param nodeId       the 20 byte node ID, or null for a random one
+   * @param queryTimeout how long to wait for the answer to a query
+   * @throws SocketException          if the socket cannot be bound
+   * @throws IllegalArgumentException if bindAddress or queryTimeout is null, queryTimeout is not
+   *                                  positive or nodeId is not 20 bytes long
+   */
+  public DhtNode(InetSocketAddress bindAddress, byte[] nodeId, Duration queryTimeout)
+      throws SocketException {
+    if (bindAddress == null || queryTimeout == null) {
+      throw new IllegalArgumentException("Constructor parameters cannot be null");
+    }
+    if (queryTimeout.isNegative() || queryTimeout.isZero()) {
+      throw new IllegalArgumentException("Query timeout must be positive");
+    }
+    if (nodeId == null) {
+      nodeId = new byte[DhtContact.ID_LENGTH];
+      random.nextBytes(nodeId);
+    } else if (nodeId.length != DhtContact.ID_LENGTH) {
+      throw new IllegalArgumentException("Node ID must be 20 bytes long");
+    }
+    this.nodeId = ByteString.wrap(nodeId.clone());
+    this.routingTable = new DhtRoutingTable(this.nodeId);
+    this.queryTimeoutMillis = queryTimeout.toMillis();
+    this.bootstrapNodes = defaultBootstrapNodes();
+    this.socket = new DatagramSocket(bindAddress);
+  }
+
+  /**
+   * Returns the bootstrap nodes named by the {@value #BOOTSTRAP_PROPERTY} system property, or
+   * {@link #DEFAULT_BOOTSTRAP_NODES} if it is not set. The addresses are resolved when they are
+   * first queried.
+   *
+   * @return the bootstrap nodes, unresolved
+   * @throws IllegalArgumentException if the property holds an entry that is not host:port
+   */
+  public static List<InetSocketAddress> defaultBootstrapNodes() {
+    String nodes = System.getProperty(BOOTSTRAP_PROPERTY);
+    if (nodes == null || nodes.isBlank()) {
+      nodes = DEFAULT_BOOTSTRAP_NODES;
+    }
+    List<InetSocketAddress> addresses = new ArrayList<>();
+    for (String node : nodes.split(",")) {
+      node = node.trim();
+      int separator = node.lastIndexOf(':');
+      if (separator <= 0) {
+        throw new IllegalArgumentException("Bootstrap node must be host:port: " + node);
+      }
+      try {
+        addresses.add(InetSocketAddress.createUnresolved(node.substring(0, separator),
+            Integer.parseInt(node.substring(separator + 1))));
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Bootstrap node must be host:port: " + node, e);
+      }
+    }
+    return addresses;
+  }
+
+  /**
+   * Starts answering queries and receiving answers on a daemon thread. Does nothing if the node
+   * was already started.
+   */
+  public synchronized void start() {
+    if (receiver != null) {
+      return;
+    }
+    receiver = new Thread(this::receive, "dht-node");
+    receiver.setDaemon(true);
+    receiver.start();
+  }
+
+  /**
+   * Closes the socket. Queries still waiting for an answer fail.
+   */
+  @Override
+  public void close() {
+    socket.close();
+    for (PendingQuery query : pendingQueries.values()) {
+      query.answer().completeExceptionally(new IOException("DHT node closed"));
+    }
+    pendingQueries.clear();
+  }
+
+  /**
+   * Fills the routing table by looking up the nodes closest to this node's own ID.
+   *
+   * @return a future completed with the closest nodes found
+   */
+  public CompletableFuture<List<DhtContact>> bootstrap() {
+    return CompletableFuture.supplyAsync(() -> lookup(nodeId, "find_node").closestResponders(K, false),
+        LOOKUP_EXECUTOR);
+  }
+
+  /**
+   * Looks up the peers of a torrent.
+   *
+   * @param infoHash the info hash of the torrent
+   * @return a future completed with the peers found, possibly none
+   * @throws IllegalArgumentException if the info hash is not 20 bytes long
+   */
+  public CompletableFuture<PeerList> getPeersAsync(byte[] infoHash) {
+    ByteString target = checkInfoHash(infoHash);
+    return CompletableFuture.supplyAsync(() -> lookup(target, "get_peers").peerList(),
+        LOOKUP_EXECUTOR);
+  }
+
+  /**
+   * Looks up the peers of a torrent, then announces this peer to the closest nodes that answered
+   * with a token.
+   *
+   * @param infoHash the info hash of the torrent
+   * @param port     the port this peer accepts connections on
+   * @return a future completed with the peers found, once the announces were answered or timed
+   * out
+   * @throws IllegalArgumentException if the info hash is not 20 bytes long or the port is invalid
+   */
+  public CompletableFuture<PeerList> announcePeerAsync(byte[] infoHash, int port) {
+    ByteString target = checkInfoHash(infoHash);
+    if (port <= 0 || port > 0xFFFF) {
+      throw new IllegalArgumentException("Invalid port: " + port);
+    }
+    return CompletableFuture.supplyAsync(() -> {
+      Lookup lookup = lookup(target, "get_peers");
+      List<CompletableFuture<?>> announces = new ArrayList<>();
+      for (DhtContact contact : lookup.closestResponders(K, true)) {
+        Map<String, Object> arguments = new HashMap<>();
+        arguments.put("info_hash", target);
+        arguments.put("port", port);
+        arguments.put("token", lookup.tokens.get(contact.id()));
+        announces.add(query(contact.address(), "announce_peer", arguments));
+      }
+      for (CompletableFuture<?> announce : announces) {
+        try {
+          announce.join();
+        } catch (CompletionException e) {
+          // The node left or rejected the token, the others still know about us
+        }
+      }
+      return lookup.peerList();
+    }, LOOKUP_EXECUTOR);
+  }
+
+  /**
+   * Pings a node, adding it to the routing table if it answers.
+   *
+   * @param address the address of the node
+   * @return a future completed with the node once it answers
+   */
+  public CompletableFuture<DhtContact> pingAsync(InetSocketAddress address) {
+    return query(address, "ping", new HashMap<>())
+        .thenApply(answer -> new DhtContact(idOf(answer), address));
+  }
+
+  /**
+   * Returns the address the node receives on.
+   *
+   * @return the local address of the socket
+   */
+  public InetSocketAddress getAddress() {
+    return (InetSocketAddress) socket.getLocalSocketAddress();
+  }
+
+  public byte[] getNodeId() {
+    return nodeId.toByteArray();
+  }
+
+  public DhtRoutingTable getRoutingTable() {
+    return routingTable;
+  }
+
+  public List<InetSocketAddress> getBootstrapNodes() {
+    return bootstrapNodes;
+  }
+
+  /**
+   * Sets the nodes queried while the routing table is empty. Unresolved addresses are resolved
+   * when they are queried.
+   *
+   * @param bootstrapNodes the bootstrap nodes
+   * @throws IllegalArgumentException if bootstrapNodes is null
+   */
+  public void setBootstrapNodes(List<InetSocketAddress> bootstrapNodes) {
+    if (bootstrapNodes == null) {
+      throw new IllegalArgumentException("Bootstrap nodes cannot be null");
+    }
+    this.bootstrapNodes = List.copyOf(bootstrapNodes);
+  }
+
+  private static ByteString checkInfoHash(byte[] infoHash) {
+    if (infoHash == null || infoHash.length != PieceHashTable.HASH_LENGTH) {
+      throw new IllegalArgumentException("Info hash must be 20 bytes long");
+    }
+    return ByteString.wrap(infoHash.clone());
+  }
+
+  // ---------------------------------------------------------------------------------------------
+  // Lookups
+
+  /**
+   * The state of an iterative lookup: the candidates closest to the target, which of them were
+   * queried and answered, and what they answered with.
+   */
+  private final class Lookup {
+
+    private final ByteString target;
+    private final List<DhtContact> candidates = new ArrayList<>();
+    private final Set<ByteString> seen = new HashSet<>();
+    private final Set<ByteString> queried = new HashSet<>();
+    private final List<DhtContact> responders = new ArrayList<>();
+    private final Map<ByteString, ByteString> tokens = new HashMap<>();
+    private final Set<InetSocketAddress> peers = new LinkedHashSet<>();
+
+    private Lookup(ByteString target) {
+      this.target = target;
+    }
+
+    private void addCandidate(DhtContact contact) {
+      if (!contact.id().equals(nodeId) && seen.add(contact.id())) {
+        candidates.add(contact);
+      }
+    }
+
+    private void addAnswer(DhtContact from, Map<String, Object> answer) {
+      queried.add(from.id());
+      seen.add(from.id());
+      responders.add(from);
+      ByteString token = bytesOf(answer, "token");
+      if (token != null) {
+        tokens.put(from.id(), token);
+      }
+      ByteString nodes = bytesOf(answer, "nodes");
+      if (nodes != null) {
+        for (DhtContact contact : DhtContact.fromCompact(nodes)) {
+          addCandidate(contact);
+        }
+      }
+      if (answer.get("values") instanceof List<?> values) {
+        for (Object value : values) {
+          if (value instanceof ByteString compact && compact.length() == 6) {
+            InetSocketAddress peer = compactAddress(compact);
+            if (peer != null) {
+              peers.add(peer);
+            }
+          }
+        }
+      }
+    }
+
+    /**
+     * Returns up to count unqueried candidates among the K closest, closest first.
+     */
+    private List<DhtContact> nextToQuery(int count) {
+      candidates.sort(DhtRoutingTable.byDistanceTo(target));
+      List<DhtContact> next = new ArrayList<>();
+      for (int i = 0; i < Math.min(K, candidates.size()) && next.size() < count; i++) {
+        if (!queried.contains(candidates.get(i).id())) {
+          next.add(candidates.get(i));
+        }
+      }
+      return next;
+    }
+
+    /**
+     * Returns up to count of the nodes that answered, closest first, only those that gave a token
+     * if one is required.
+     */
+    private List<DhtContact> closestResponders(int count, boolean withToken) {
+      List<DhtContact> closest = new ArrayList<>();
+      responders.sort(DhtRoutingTable.byDistanceTo(target));
+      for (DhtContact responder : responders) {
+        if (closest.size() == count) {
+          break;
+        }
+        if (!withToken || tokens.containsKey(responder.id())) {
+          closest.add(responder);
+        }
+      }
+      return closest;
+    }
+
+    private PeerList peerList() {
+      return PeerList.of(peers);
+    }
+  }
+
+  /**
+   * Runs an iterative lookup, querying the closest unqueried candidates each round until the
+   * {@value #K} closest candidates have all been queried.
+   */
+  private Lookup lookup(ByteString target, String method) {
+    Lookup lookup = new Lookup(target);
+    for (DhtContact contact : routingTable.closest(target, K)) {
+      lookup.addCandidate(contact);
+    }
+    if (lookup.candidates.isEmpty()) {
+      queryBootstrapNodes(lookup, method);
+    }
+
+    for (int round = 0; round < MAX_LOOKUP_ROUNDS; round++) {
+      List<DhtContact> next = lookup.nextToQuery(ALPHA);
+      if (next.isEmpty()) {
+        break;
+      }
+      Map<DhtContact, CompletableFuture<Map<String, Object>>> answers = new LinkedHashMap<>();
+      for (DhtContact contact : next) {
+        lookup.queried.add(contact.id());
+        answers.put(contact, query(contact.address(), method, lookupArguments(method, target)));
+      }
+      for (Map.Entry<DhtContact, CompletableFuture<Map<String, Object>>> entry
+          : answers.entrySet()) {
+        DhtContact contact = entry.getKey();
+        try {
+          lookup.addAnswer(contact, entry.getValue().join());
+        } catch (CompletionException e) {
+          lookup.candidates.remove(contact);
+          if (e.getCause() instanceof TimeoutException) {
+            routingTable.remove(contact.id());
+          }
+        }
+      }
+    }
+    return lookup;
+  }
+
+  private void queryBootstrapNodes(Lookup lookup, String method) {
+    Map<InetSocketAddress, CompletableFuture<Map<String, Object>>> answers =
+        new LinkedHashMap<>();
+    for (InetSocketAddress node : bootstrapNodes) {
+      InetSocketAddress address = node.isUnresolved()
+          ? new InetSocketAddress(node.getHostString(), node.getPort()) : node;
+      if (!address.isUnresolved()) {
+        answers.put(address, query(address, method, lookupArguments(method, lookup.target)));
+      }
+    }
+    for (Map.Entry<InetSocketAddress, CompletableFuture<Map<String, Object>>> entry
+        : answers.entrySet()) {
+      try {
+        Map<String, Object> answer = entry.getValue().join();
+        lookup.addAnswer(new DhtContact(idOf(answer), entry.getKey()), answer);
+      } catch (CompletionException e) {
+        // Try the other bootstrap nodes
+      }
+    }
+  }
+
+  private static Map<String, Object> lookupArguments(String method, ByteString target) {
+    Map<String, Object> arguments = new HashMap<>();
+    arguments.put("find_node".equals(method) ? "target" : "info_hash", target);
+    return arguments;
+  }
+
+  // ---------------------------------------------------------------------------------------------
+  // Messages
+
+  /**
+   * Sends a query and returns its answer, the "r" dictionary of the response. The answer fails
+   * with a {@link TimeoutException} if none arrives in time, and with an {@link IOException} if
+   * the node answers with an error.
+   */
+  private CompletableFuture<Map<String, Object>> query(InetSocketAddress address, String method,
+      Map<String, Object> arguments) {
+    CompletableFuture<Map<String, Object>> answer = new CompletableFuture<>();
+    int transaction = nextTransaction.getAndIncrement();
+    ByteString transactionId = ByteString.wrap(
+        new byte[] {(byte) (transaction >>> 8), (byte) transaction});
+    pendingQueries.put(transactionId, new PendingQuery(address, answer));
+    answer.orTimeout(queryTimeoutMillis, TimeUnit.MILLISECONDS)
+        .whenComplete((result, error) -> pendingQueries.remove(transactionId));
+
+    arguments.put("id", nodeId);
+    Map<String, Object> message = new HashMap<>();
+    message.put("t", transactionId);
+    message.put("y", "q");
+    message.put("q", method);
+    message.put("a", arguments);
+    try {
+      send(address, message);
+    } catch (IOException e) {
+      answer.completeExceptionally(e);
+    }
+    return answer;
+  }
+
+  private void send(InetSocketAddress address, Map<String, Object> message) throws IOException {
+    byte[] bytes = encoder.encode(message);
+    socket.send(new DatagramPacket(bytes, bytes.length, address));
+  }
+
+  private void receive() {
+    byte[] buffer = new byte[MAX_PACKET_SIZE];
+    while (!socket.isClosed()) {
+      DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+      try {
+        socket.receive(packet);
+      } catch (IOException e) {
+        continue; // Closed, or a failure that the next receive may not have
+      }
+      // Decoded byte strings are views, so each message gets its own copy of the bytes
+      byte[] bytes = Arrays.copyOf(packet.getData(), packet.getLength());
+      InetSocketAddress sender = (InetSocketAddress) packet.getSocketAddress();
+      try {
+        BencodeReader reader = new BencodeReader(bytes, 0, MAX_MESSAGE_DEPTH);
+        if (readValue(reader, reader.next()) instanceof Map<?, ?> message) {
+          handleMessage(asDictionary(message), sender);
+        }
+      } catch (IOException e) {
+        // The reply could not be sent, the querying node will time out and retry
+      } catch (RuntimeException e) {
+        // Malformed message, ignored as BEP 5 allows
+      }
+    }
+  }
+
+  private void handleMessage(Map<String, Object> message, InetSocketAddress sender)
+      throws IOException {
+    ByteString transactionId = bytesOf(message, "t");
+    ByteString type = bytesOf(message, "y");
+    if (transactionId == null || type == null) {
+      return;
+    }
+    switch (type.toString()) {
+      case "q" -> handleQuery(message, transactionId, sender);
+      case "r" -> handleAnswer(transactionId, sender, message.get("r"), null);
+      case "e" -> handleAnswer(transactionId, sender, null, message.get("e"));
+      default -> {
+        // Not KRPC
+      }
+    }
+  }
+
+  private void handleAnswer(ByteString transactionId, InetSocketAddress sender, Object answer,
+      Object error) {
+    PendingQuery query = pendingQueries.get(transactionId);
+    if (query == null || !query.address().equals(sender)) {
+      return; // Late, or not from the node that was queried
+    }
+    pendingQueries.remove(transactionId);
+    if (error instanceof List<?> codeAndMessage) {
+      query.answer().completeExceptionally(new IOException("DHT error: " + codeAndMessage));
+      return;
+    }
+    if (!(answer instanceof Map<?, ?> dictionary)) {
+      query.answer().completeExceptionally(new IOException("Malformed DHT response"));
+      return;
+    }
+    Map<String, Object> response = asDictionary(dictionary);
+    ByteString id = bytesOf(response, "id");
+    if (id == null || id.length() != DhtContact.ID_LENGTH) {
+      query.answer().completeExceptionally(new IOException("DHT response without node ID"));
+      return;
+    }
+    routingTable.add(new DhtContact(ByteString.wrap(id.toByteArray()), sender));
+    query.answer().complete(response);
+  }
+
+  private void handleQuery(Map<String, Object> message, ByteString transactionId,
+      InetSocketAddress sender) throws IOException {
+    ByteString method = bytesOf(message, "q");
+    Map<String, Object> arguments = message.get("a") instanceof Map<?, ?> dictionary
+        ? asDictionary(dictionary) : null;
+    ByteString id = arguments == null ? null : bytesOf(arguments, "id");
+    if (method == null || id == null || id.length() != DhtContact.ID_LENGTH) {
+      sendError(sender, transactionId, ERROR_PROTOCOL, "Malformed query");
+      return;
+    }
+    routingTable.add(new DhtContact(ByteString.wrap(id.toByteArray()), sender));
+
+    Map<String, Object> response = new HashMap<>();
+    response.put("id", nodeId);
+    switch (method.toString()) {
+      case "ping" -> {
+        // The node ID is the whole answer
+      }
+      case "find_node" -> {
+        ByteString target = bytesOf(arguments, "target");
+        if (target == null || target.length() != DhtContact.ID_LENGTH) {
+          sendError(sender, transactionId, ERROR_PROTOCOL, "Invalid target");
+          return;
+        }
+        response.put("nodes", DhtContact.toCompact(routingTable.closest(target, K)));
+      }
+      case "get_peers" -> {
+        ByteString infoHash = bytesOf(arguments, "info_hash");
+        if (infoHash == null || infoHash.length() != DhtContact.ID_LENGTH) {
+          sendError(sender, transactionId, ERROR_PROTOCOL, "Invalid info_hash");
+          return;
+        }
+        response.put("token", currentToken(sender.getAddress()));
+        List<byte[]> values = storedValues(infoHash);
+        if (!values.isEmpty()) {
+          response.put("values", values);
+        }
+        response.put("nodes", DhtContact.toCompact(routingTable.closest(infoHash, K)));
+      }
+      case "announce_peer" -> {
+        ByteString infoHash = bytesOf(arguments, "info_hash");
+        ByteString token = bytesOf(arguments, "token");
+        long port = longOf(arguments, "implied_port") == 1
+            ? sender.getPort() : longOf(arguments, "port");
+        if (infoHash == null || infoHash.length() != DhtContact.ID_LENGTH
+            || port <= 0 || port > 0xFFFF) {
+          sendError(sender, transactionId, ERROR_PROTOCOL, "Invalid announce");
+          return;
+        }
+        if (token == null || !isValidToken(token, sender.getAddress())) {
+          sendError(sender, transactionId, ERROR_PROTOCOL, "Bad token");
+          return;
+        }
+        storePeer(ByteString.wrap(infoHash.toByteArray()),
+            new InetSocketAddress(sender.getAddress(), (int) port));
+      }
+      default -> {
+        sendError(sender, transactionId, ERROR_METHOD_UNKNOWN, "Method Unknown");
+        return;
+      }
+    }
+
+    Map<String, Object> reply = new HashMap<>();
+    reply.put("t", transactionId);
+    reply.put("y", "r");
+    reply.put("r", response);
+    send(sender, reply);
+  }
+
+  private void sendError(InetSocketAddress address, ByteString transactionId, int code,
+      String text) throws IOException {
+    Map<String, Object> message = new HashMap<>();
+    message.put("t", transactionId);
+    message.put("y", "e");
+    message.put("e", List.of(code, text));
+    send(address, message);
+  }
+
+  /**
+   * Stores an announced peer as the newest of its torrent, making room by dropping the oldest
+   * port of the same host, else the oldest peer of the torrent, else the torrent announced to
+   * least recently.
+   */
+  private void storePeer(ByteString infoHash, InetSocketAddress address) {
+    synchronized (storedPeers) {
+      Map<InetSocketAddress, Long> peers = storedPeers.remove(infoHash);
+      if (peers == null) {
+        peers = new LinkedHashMap<>();
+        if (storedPeers.size() >= MAX_STORED_TORRENTS) {
+          removeOldest(storedPeers);
+        }
+      }
+      storedPeers.put(infoHash, peers);
+
+      peers.remove(address);
+      InetSocketAddress oldestOfHost = null;
+      int ports = 0;
+      for (InetSocketAddress stored : peers.keySet()) {
+        if (stored.getAddress().equals(address.getAddress())) {
+          oldestOfHost = ports == 0 ? stored : oldestOfHost;
+          ports++;
+        }
+      }
+      if (ports >= MAX_PORTS_PER_HOST) {
+        peers.remove(oldestOfHost);
+      } else if (peers.size() >= MAX_PEERS_PER_TORRENT) {
+        removeOldest(peers);
+      }
+      peers.put(address, System.currentTimeMillis());
+    }
+  }
+
+  private static void removeOldest(Map<?, ?> map) {
+    Iterator<?> it = map.keySet().iterator();
+    it.next();
+    it.remove();
+  }
+
+  /**
+   * Returns up to {@value #MAX_VALUES} compact IPv4 addresses of the peers stored for a torrent,
+   * dropping those that expired.
+   */
+  private List<byte[]> storedValues(ByteString infoHash) {
+    List<byte[]> values = new ArrayList<>();
+    long oldest = System.currentTimeMillis() - PEER_EXPIRY.toMillis();
+    synchronized (storedPeers) {
+      Map<InetSocketAddress, Long> peers = storedPeers.get(infoHash);
+      if (peers == null) {
+        return values;
+      }
+      for (Iterator<Map.Entry<InetSocketAddress, Long>> it = peers.entrySet().iterator();
+          it.hasNext(); ) {
+        Map.Entry<InetSocketAddress, Long> entry = it.next();
+        if (entry.getValue() < oldest) {
+          it.remove();
+        } else if (values.size() < MAX_VALUES
+            && entry.getKey().getAddress() instanceof Inet4Address ipv4) {
+          values.add(ByteBuffer.allocate(6).put(ipv4.getAddress())
+              .putShort((short) entry.getKey().getPort()).array());
+        }
+      }
+      if (peers.isEmpty()) {
+        storedPeers.remove(infoHash);
+      }
+    }
+    return values;
+  }
+
+  /**
+   * Drops the stored peers that expired, and the torrents left without peers.
+   */
+  private void sweepExpiredPeers() {
+    long oldest = System.currentTimeMillis() - PEER_EXPIRY.toMillis();
+    synchronized (storedPeers) {
+      for (Iterator<Map<InetSocketAddress, Long>> it = storedPeers.values().iterator();
+          it.hasNext(); ) {
+        Map<InetSocketAddress, Long> peers = it.next();
+        peers.values().removeIf(announced -> announced < oldest);
+        if (peers.isEmpty()) {
+          it.remove();
+        }
+      }
+    }
+  }
+
+  // ---------------------------------------------------------------------------------------------
+  // Tokens
+
+  private synchronized ByteString currentToken(InetAddress address) {
+    rotateSecret();
+    return token(tokenSecret, address);
+  }
+
+  private synchronized boolean isValidToken(ByteString token, InetAddress address) {
+    rotateSecret();
+    return token.equals(token(tokenSecret, address))
+        || previousTokenSecret != null && token.equals(token(previousTokenSecret, address));
+  }
+
+  // Must hold the lock on this
+  private void rotateSecret() {
+    long now = System.currentTimeMillis();
+    if (tokenSecret == null || now - secretCreated >= TOKEN_ROTATION.toMillis()) {
+      previousTokenSecret = tokenSecret;
+      tokenSecret = new byte[SECRET_LENGTH];
+      random.nextBytes(tokenSecret);
+      secretCreated = now;
+      sweepExpiredPeers();
+    }
+  }
+
+  /**
+   * Returns the token for an address, the SHA-1 hash of a secret and the address, so that tokens
+   * need not be stored and only work for the address they were given to.
+   */
+  private static ByteString token(byte[] secret, InetAddress address) {
+    byte[] ip = address.getAddress();
+    byte[] input = Arrays.copyOf(secret, secret.length + ip.length);
+    System.arraycopy(ip, 0, input, secret.length, ip.length);
+    return ByteString.wrap(TorrentFileHandler.sha1Hash(input));
+  }
+
+  // ---------------------------------------------------------------------------------------------
+  // Decoded values
+
+  /**
+   * Builds the value starting at the given token: a map for a dictionary, a list, a ByteString or
+   * a Long. The reader's depth limit bounds the recursion.
+   */
+  private static Object readValue(BencodeReader reader, Token token) {
+    switch (token) {
+      case DICT_START -> {
+        Map<String, Object> dictionary = new HashMap<>();
+        while (reader.next() == Token.KEY) {
+          String key = reader.getString();
+          dictionary.put(key, readValue(reader, reader.next()));
+        }
+        return dictionary;
+      }
+      case LIST_START -> {
+        List<Object> list = new ArrayList<>();
+        for (Token next = reader.next(); next != Token.END; next = reader.next()) {
+          list.add(readValue(reader, next));
+        }
+        return list;
+      }
+      case BYTES -> {
+        return reader.getBytes();
+      }
+      case INTEGER -> {
+        return reader.getLong();
+      }
+      default -> throw new IllegalArgumentException("Unexpected token: " + token);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Map<String, Object> asDictionary(Map<?, ?> map) {
+    return (Map<String, Object>) map;
+  }
+
+  private static ByteString bytesOf(Map<String, Object> dictionary, String key) {
+    return dictionary.get(key) instanceof ByteString bytes ? bytes : null;
+  }
+
+  private static long longOf(Map<String, Object> dictionary, String key) {
+    return dictionary.get(key) instanceof Long value ? value : 0;
+  }
+
+  private static ByteString idOf(Map<String, Object> answer) {
+    return ByteString.wrap(bytesOf(answer, "id").toByteArray());
+  }
+
+  private static InetSocketAddress compactAddress(ByteString compact) {
+    int port = (compact.byteAt(4) & 0xFF) << 8 | (compact.byteAt(5) & 0xFF);
+    if (port == 0) {
+      return null;
+    }
+    try {
+      return new InetSocketAddress(InetAddress.getByAddress(compact.slice(0, 4).toByteArray()),
+          port);
+    } catch (UnknownHostException e) {
+      // Only thrown for addresses of an illegal length
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,180 @@
+package model.session;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import model.decoder.ByteString;
+
+/**
+ * model.session.DhtRoutingTable holds the contacts of a DHT node in Kademlia k-buckets. Bucket
+ * {@code i} holds the contacts whose ID shares exactly {@code i} leading bits with the node's own
+ * ID, so the table knows many nodes close to itself and a few far away. Each bucket holds at most
+ * {@value #BUCKET_SIZE} contacts, least recently seen first.
+ * <p>
+ * As in Kademlia, a full bucket keeps its long-lived contacts and ignores new ones; contacts that
+ * stop answering are removed with {@link #remove(ByteString)}, making room again. All methods are
+ * thread-safe.
+ *
+ * @author KX
+ */
+public class DhtRoutingTable {
+
+  /**
+   * The most contacts in a bucket, the Kademlia k.
+   */
+  public static final int BUCKET_SIZE = 8;
+
+  private final ByteString ownId;
+  // Guarded by this
+  private final List<LinkedList<DhtContact>> buckets;
+
+  /**
+   * Constructs an empty model.session.DhtRoutingTable for the node with the given ID.
+   *
+   * @param ownId the ID of the node owning the table
+   * @throws IllegalArgumentException if ownId is not 20 bytes long
+   */
+  public DhtRoutingTable(ByteString ownId) {
+    if (ownId == null || ownId.length() != DhtContact.ID_LENGTH) {
+      throw new IllegalArgumentException("Node ID must be 20 bytes long");
+    }
+    this.ownId = ownId;
+    this.buckets = new ArrayList<>(DhtContact.ID_LENGTH * 8);
+    for (int i = 0; i < DhtContact.ID_LENGTH * 8; i++) {
+      buckets.add(new LinkedList<>());
+    }
+  }
+
+  /**
+   * Records that a contact was seen. A known contact is moved to the end of its bucket, with its
+   * address updated; a new one is added if its bucket has room.
+   *
+   * @param contact the contact that was seen
+   * @return true if the contact is in the table afterwards
+   * @throws IllegalArgumentException if contact is null
+   */
+  public synchronized boolean add(DhtContact contact) {
+    if (contact == null) {
+      throw new IllegalArgumentException("Contact cannot be null");
+    }
+    if (contact.id().equals(ownId)) {
+      return false;
+    }
+    LinkedList<DhtContact> bucket = buckets.get(bucketIndex(contact.id()));
+    removeFrom(bucket, contact.id());
+    if (bucket.size() >= BUCKET_SIZE) {
+      return false;
+    }
+    bucket.addLast(contact);
+    return true;
+  }
+
+  /**
+   * Removes a contact, typically because it stopped answering.
+   *
+   * @param id the ID of the contact
+   * @return true if the contact was in the table
+   */
+  public synchronized boolean remove(ByteString id) {
+    if (id == null || id.length() != DhtContact.ID_LENGTH || id.equals(ownId)) {
+      return false;
+    }
+    return removeFrom(buckets.get(bucketIndex(id)), id);
+  }
+
+  private static boolean removeFrom(List<DhtContact> bucket, ByteString id) {
+    for (Iterator<DhtContact> it = bucket.iterator(); it.hasNext(); ) {
+      if (it.next().id().equals(id)) {
+        it.remove();
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns the contacts closest to a target by XOR distance, closest first.
+   *
+   * @param target the ID or info hash to get close to
+   * @param count  the most contacts to return
+   * @return up to count contacts, closest first
+   * @throws IllegalArgumentException if target is not 20 bytes long or count is negative
+   */
+  public List<DhtContact> closest(ByteString target, int count) {
+    if (target == null || target.length() != DhtContact.ID_LENGTH) {
+      throw new IllegalArgumentException("Target must be 20 bytes long");
+    }
+    if (count < 0) {
+      throw new IllegalArgumentException("Count cannot be negative");
+    }
+    List<DhtContact> contacts = getContacts();
+    contacts.sort(byDistanceTo(target));
+    return new ArrayList<>(contacts.subList(0, Math.min(count, contacts.size())));
+  }
+
+  /**
+   * Returns every contact in the table.
+   *
+   * @return a snapshot of the contacts
+   */
+  public synchronized List<DhtContact> getContacts() {
+    List<DhtContact> contacts = new ArrayList<>();
+    for (List<DhtContact> bucket : buckets) {
+      contacts.addAll(bucket);
+    }
+    return contacts;
+  }
+
+  public synchronized int size() {
+    int size = 0;
+    for (List<DhtContact> bucket : buckets) {
+      size += bucket.size();
+    }
+    return size;
+  }
+
+  public ByteString getOwnId() {
+    return ownId;
+  }
+
+  /**
+   * Returns the index of the bucket for an ID, the number of leading bits it shares with ours.
+   */
+  private int bucketIndex(ByteString id) {
+    for (int i = 0; i < DhtContact.ID_LENGTH; i++) {
+      int xor = (id.byteAt(i) ^ ownId.byteAt(i)) & 0xFF;
+      if (xor != 0) {
+        return i * 8 + Integer.numberOfLeadingZeros(xor) - 24;
+      }
+    }
+    return buckets.size() - 1;
+  }
+
+  /**
+   * Orders contacts by the XOR distance of their ID to a target, closest first.
+   *
+   * @param target the ID or info hash to measure from
+   * @return the comparator
+   */
+  public static Comparator<DhtContact> byDistanceTo(ByteString target) {
+    return (a, b) -> compareDistance(target, a.id(), b.id());
+  }
+
+  /**
+   * Compares the XOR distances of two IDs to a target.
+   *
+   * @return a negative number if a is closer, positive if b is closer, 0 if they are equal
+   */
+  static int compareDistance(ByteString target, ByteString a, ByteString b) {
+    for (int i = 0; i < DhtContact.ID_LENGTH; i++) {
+      int distanceA = (a.byteAt(i) ^ target.byteAt(i)) & 0xFF;
+      int distanceB = (b.byteAt(i) ^ target.byteAt(i)) & 0xFF;
+      if (distanceA != distanceB) {
+        return Integer.compare(distanceA, distanceB);
+      }
+    }
+    return 0;
+  }
+}
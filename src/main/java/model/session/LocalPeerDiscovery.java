@@ -0,0 +1,323 @@
+package model.session;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import model.decoder.ByteString;
+
+/**
+ * model.session.LocalPeerDiscovery finds peers on the local network with Local Service Discovery
+ * (BEP 14). Registered torrents are announced to a multicast group every
+ * {@link #ANNOUNCE_INTERVAL}, and announces from other hosts in the group are passed to the
+ * listener of the torrent they name. Announces carry a random cookie, so a node ignores its own.
+ * A node hearing an announce for a torrent it registered answers with its own announce, at most
+ * once per {@link #MIN_ANNOUNCE_INTERVAL}, so nodes that register later do not wait a whole
+ * interval to find the earlier ones.
+ * <p>
+ * Peers on the local network are usually much faster than remote ones; {@link #isLocalAddress}
+ * tells them apart so that sessions can connect to them first.
+ *
+ * @author KX
+ */
+public class LocalPeerDiscovery implements Closeable {
+
+  /**
+   * The IPv4 multicast group and port of BEP 14.
+   */
+  public static final InetSocketAddress DEFAULT_GROUP =
+      new InetSocketAddress("239.192.152.143", 6771);
+
+  /**
+   * How often a registered torrent is announced. BEP 14 allows at most one announce a minute.
+   */
+  public static final Duration ANNOUNCE_INTERVAL = Duration.ofMinutes(5);
+
+  /**
+   * The shortest time between two answers announcing the same torrent.
+   */
+  public static final Duration MIN_ANNOUNCE_INTERVAL = Duration.ofMinutes(1);
+
+  private static final int MAX_PACKET_SIZE = 1400;
+  private static final String SEARCH_LINE = "BT-SEARCH * HTTP/1.1";
+  private static final HexFormat HEX = HexFormat.of();
+
+  private final InetSocketAddress group;
+  private final NetworkInterface networkInterface;
+  private final MulticastSocket socket;
+  private final String cookie;
+  private final ScheduledExecutorService scheduler;
+  private final ConcurrentMap<ByteString, Registration> registrations = new ConcurrentHashMap<>();
+  private volatile Thread receiver;
+
+  private record Registration(byte[] announce, Consumer<PeerList> listener,
+                              ScheduledFuture<?> announces, AtomicLong lastAnswer) {
+
+  }
+
+  /**
+   * Constructs a model.session.LocalPeerDiscovery on the BEP 14 group, using the system's default
+   * multicast interface.
+   *
+   * @throws IOException if the socket cannot be bound or the group cannot be joined
+   */
+  public LocalPeerDiscovery() throws IOException {
+    this(DEFAULT_GROUP, null);
+  }
+
+  /**
+   * Constructs a model.session.LocalPeerDiscovery on the given multicast group and interface.
+   *
+   * @param group            the multicast group and port announces are sent to and received on
+   * @param networkInterface the interface to announce and listen on, or null for the default
+   * @throws IOException              if the socket cannot be bound or the group cannot be joined
+   * @throws IllegalArgumentException if group is null, unresolved or not a multicast address
+   */
+  public LocalPeerDiscovery(InetSocketAddress group, NetworkInterface networkInterface)
+      throws IOException {
+    if (group == null || group.isUnresolved() || !group.getAddress().isMulticastAddress()) {
+      throw new IllegalArgumentException("Group must be a resolved multicast address");
+    }
+    this.group = group;
+    this.networkInterface = networkInterface;
+    byte[] cookieBytes = new byte[8];
+    new SecureRandom().nextBytes(cookieBytes);
+    this.cookie = HEX.formatHex(cookieBytes);
+
+    this.socket = new MulticastSocket(group.getPort());
+    try {
+      if (networkInterface != null) {
+        socket.setNetworkInterface(networkInterface);
+      }
+      socket.joinGroup(group, networkInterface);
+    } catch (IOException e) {
+      socket.close();
+      throw e;
+    }
+    this.scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "lsd-announce");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Starts receiving announces on a daemon thread. Does nothing if it was already started.
+   */
+  public synchronized void start() {
+    if (receiver != null) {
+      return;
+    }
+    receiver = new Thread(this::receive, "lsd-receive");
+    receiver.setDaemon(true);
+    receiver.start();
+  }
+
+  /**
+   * Registers a torrent: it is announced now and every {@link #ANNOUNCE_INTERVAL} until it is
+   * unregistered, and peers announcing it are passed to the listener. Registering a torrent again
+   * replaces its registration.
+   *
+   * @param infoHash the info hash of the torrent
+   * @param port     the port this peer accepts connections on
+   * @param listener called with each peer found, on the receiving thread
+   * @throws IllegalArgumentException if the info hash is not 20 bytes long, the port is invalid or
+   *                                  listener is null
+   */
+  public void register(byte[] infoHash, int port, Consumer<PeerList> listener) {
+    if (infoHash == null || infoHash.length != PieceHashTable.HASH_LENGTH) {
+      throw new IllegalArgumentException("Info hash must be 20 bytes long");
+    }
+    if (port <= 0 || port > 0xFFFF) {
+      throw new IllegalArgumentException("Invalid port: " + port);
+    }
+    if (listener == null) {
+      throw new IllegalArgumentException("Listener cannot be null");
+    }
+    byte[] announce = buildAnnounce(infoHash, port);
+    ScheduledFuture<?> announces = scheduler.scheduleAtFixedRate(() -> send(announce), 0,
+        ANNOUNCE_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+    Registration previous = registrations.put(ByteString.wrap(infoHash.clone()),
+        new Registration(announce, listener, announces, new AtomicLong()));
+    if (previous != null) {
+      previous.announces().cancel(false);
+    }
+  }
+
+  /**
+   * Stops announcing a torrent and listening for its peers.
+   *
+   * @param infoHash the info hash of the torrent
+   */
+  public void unregister(byte[] infoHash) {
+    if (infoHash == null) {
+      return;
+    }
+    Registration registration = registrations.remove(ByteString.wrap(infoHash));
+    if (registration != null) {
+      registration.announces().cancel(false);
+    }
+  }
+
+  /**
+   * Stops announcing and receiving.
+   */
+  @Override
+  public void close() {
+    scheduler.shutdownNow();
+    registrations.clear();
+    socket.close();
+  }
+
+  /**
+   * Returns whether an address belongs to the local network: loopback, link-local, private IPv4
+   * ranges and IPv6 unique local addresses.
+   *
+   * @param address the address to check
+   * @return true if the address is local
+   */
+  public static boolean isLocalAddress(InetAddress address) {
+    if (address.isLoopbackAddress() || address.isLinkLocalAddress()
+        || address.isSiteLocalAddress()) {
+      return true;
+    }
+    // fc00::/7, the IPv6 counterpart of the private IPv4 ranges
+    return address instanceof Inet6Address && (address.getAddress()[0] & 0xFE) == 0xFC;
+  }
+
+  public InetSocketAddress getGroup() {
+    return group;
+  }
+
+  public NetworkInterface getNetworkInterface() {
+    return networkInterface;
+  }
+
+  private byte[] buildAnnounce(byte[] infoHash, int port) {
+    String host = group.getAddress() instanceof Inet6Address
+        ? "[" + group.getAddress().getHostAddress() + "]" : group.getAddress().getHostAddress();
+    String announce = SEARCH_LINE + "\r\n"
+        + "Host: " + host + ":" + group.getPort() + "\r\n"
+        + "Port: " + port + "\r\n"
+        + "Infohash: " + HEX.formatHex(infoHash) + "\r\n"
+        + "cookie: " + cookie + "\r\n"
+        + "\r\n\r\n";
+    return announce.getBytes(StandardCharsets.US_ASCII);
+  }
+
+  private void send(byte[] announce) {
+    try {
+      socket.send(new DatagramPacket(announce, announce.length, group));
+    } catch (IOException e) {
+      // Best effort, the next announce may get through
+    }
+  }
+
+  private void receive() {
+    byte[] buffer = new byte[MAX_PACKET_SIZE];
+    while (!socket.isClosed()) {
+      DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+      try {
+        socket.receive(packet);
+      } catch (IOException e) {
+        continue; // Closed, or a failure that the next receive may not have
+      }
+      handleAnnounce(new String(packet.getData(), 0, packet.getLength(),
+          StandardCharsets.US_ASCII), packet.getAddress());
+    }
+  }
+
+  /**
+   * Parses an announce and passes its peer to the listeners of the torrents it names, answering
+   * with this node's announces of those torrents. Malformed announces and this node's own are
+   * ignored.
+   */
+  private void handleAnnounce(String announce, InetAddress sender) {
+    String[] lines = announce.split("\r\n");
+    if (lines.length == 0 || !lines[0].equals(SEARCH_LINE)) {
+      return;
+    }
+    int port = -1;
+    List<String> infoHashes = new ArrayList<>();
+    for (int i = 1; i < lines.length; i++) {
+      int separator = lines[i].indexOf(':');
+      if (separator <= 0) {
+        continue;
+      }
+      String name = lines[i].substring(0, separator).trim().toLowerCase(Locale.ROOT);
+      String value = lines[i].substring(separator + 1).trim();
+      switch (name) {
+        case "port" -> port = parsePort(value);
+        case "infohash" -> infoHashes.add(value);
+        case "cookie" -> {
+          if (value.equals(cookie)) {
+            return; // Our own announce, looped back
+          }
+        }
+        default -> {
+          // Host and unknown headers are not needed
+        }
+      }
+    }
+    if (port <= 0) {
+      return;
+    }
+
+    PeerList peer = PeerList.of(List.of(new InetSocketAddress(sender, port)));
+    for (String infoHash : infoHashes) {
+      Registration registration = lookupRegistration(infoHash);
+      if (registration != null) {
+        registration.listener().accept(peer);
+        answer(registration);
+      }
+    }
+  }
+
+  private void answer(Registration registration) {
+    long now = System.currentTimeMillis();
+    long lastAnswer = registration.lastAnswer().get();
+    if ((lastAnswer == 0 || now - lastAnswer >= MIN_ANNOUNCE_INTERVAL.toMillis())
+        && registration.lastAnswer().compareAndSet(lastAnswer, now)) {
+      send(registration.announce());
+    }
+  }
+
+  private Registration lookupRegistration(String infoHash) {
+    if (infoHash.length() != 2 * PieceHashTable.HASH_LENGTH) {
+      return null;
+    }
+    try {
+      return registrations.get(ByteString.wrap(HEX.parseHex(infoHash)));
+    } catch (IllegalArgumentException e) {
+      return null; // Not hexadecimal
+    }
+  }
+
+  private static int parsePort(String value) {
+    try {
+      int port = Integer.parseInt(value);
+      return port > 0 && port <= 0xFFFF ? port : -1;
+    } catch (NumberFormatException e) {
+      return -1;
+    }
+  }
+}
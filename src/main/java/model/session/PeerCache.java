@@ -0,0 +1,272 @@
+package model.session;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * model.session.PeerCache remembers the peers that delivered pieces of a torrent, so that a session
+ * restarted later can connect to them straight away instead of waiting for the tracker. Entries are
+ * keyed by info hash and hold, for each peer, its address, when it last delivered a valid piece and
+ * the throughput it delivered at.
+ * <p>
+ * Peers are returned fastest first. Peers not seen for longer than the maximum age are dropped, and
+ * an entry keeps at most {@value #MAX_PEERS} peers. Like {@link TorrentMetadataCache}, the cache is
+ * best effort: an entry that cannot be read is treated as empty, one that cannot be written is
+ * skipped, and entries are replaced atomically so concurrent processes never see a partial one. It
+ * also shares its directory rules: entries are kept private to the user, and a directory that
+ * other users can access is neither read nor written.
+ *
+ * @author KX
+ */
+public class PeerCache {
+
+  /**
+   * System property naming the directory used by {@link #defaultCache()}.
+   */
+  public static final String CACHE_DIRECTORY_PROPERTY = "bittorrent.peer.cache";
+
+  /**
+   * The most peers kept for one torrent.
+   */
+  public static final int MAX_PEERS = 50;
+
+  /**
+   * How long a peer is kept after it last delivered a piece, unless another age is given.
+   */
+  public static final Duration DEFAULT_MAX_AGE = Duration.ofDays(7);
+
+  private static final int MAGIC = 0x42545043; // "BTPC"
+  private static final int VERSION = 1;
+  private static final String ENTRY_SUFFIX = ".peers";
+
+  /**
+   * A peer that delivered pieces of a torrent.
+   *
+   * @param address     the address and port of the peer
+   * @param lastSuccess when the peer last delivered a valid piece, in milliseconds since the epoch
+   * @param throughput  the rate the peer delivered valid pieces at, in bytes per second
+   */
+  public record CachedPeer(InetSocketAddress address, long lastSuccess, long throughput) {
+
+    /**
+     * Constructs a CachedPeer.
+     *
+     * @throws IllegalArgumentException if the address is null or unresolved, or throughput is
+     *                                  negative
+     */
+    public CachedPeer {
+      if (address == null || address.isUnresolved()) {
+        throw new IllegalArgumentException("Cached peer address must be resolved");
+      }
+      if (throughput < 0) {
+        throw new IllegalArgumentException("Throughput cannot be negative");
+      }
+    }
+  }
+
+  // Fastest first, the most recently seen first among equally fast peers
+  private static final Comparator<CachedPeer> FASTEST_FIRST =
+      Comparator.comparingLong(CachedPeer::throughput).reversed()
+          .thenComparing(Comparator.comparingLong(CachedPeer::lastSuccess).reversed());
+
+  private final Path cacheDirectory;
+  private final Duration maxAge;
+  private final Clock clock;
+
+  /**
+   * Constructs a model.session.PeerCache storing its entries in the given directory, keeping peers
+   * for {@link #DEFAULT_MAX_AGE}. The directory is created when the first entry is written.
+   *
+   * @param cacheDirectory the directory holding the cache entries
+   * @throws IllegalArgumentException if cacheDirectory is null
+   */
+  public PeerCache(Path cacheDirectory) {
+    this(cacheDirectory, DEFAULT_MAX_AGE, Clock.systemUTC());
+  }
+
+  /**
+   * Constructs a model.session.PeerCache with the given maximum age and clock.
+   *
+   * @param cacheDirectory the directory holding the cache entries
+   * @param maxAge         how long a peer is kept after it last delivered a piece
+   * @param clock          the clock telling the current time
+   * @throws IllegalArgumentException if any parameter is null or maxAge is negative
+   */
+  public PeerCache(Path cacheDirectory, Duration maxAge, Clock clock) {
+    if (cacheDirectory == null || maxAge == null || clock == null) {
+      throw new IllegalArgumentException("Constructor parameters cannot be null");
+    }
+    if (maxAge.isNegative()) {
+      throw new IllegalArgumentException("Maximum age cannot be negative");
+    }
+    this.cacheDirectory = cacheDirectory;
+    this.maxAge = maxAge;
+    this.clock = clock;
+  }
+
+  /**
+   * Returns a cache in the directory named by the {@value #CACHE_DIRECTORY_PROPERTY} system
+   * property, or in the user's cache directory if it is not set.
+   *
+   * @return the default cache
+   */
+  public static PeerCache defaultCache() {
+    String directory = System.getProperty(CACHE_DIRECTORY_PROPERTY);
+    if (directory == null || directory.isEmpty()) {
+      return new PeerCache(CacheDirectories.defaultDirectory("peers"));
+    }
+    return new PeerCache(Path.of(directory));
+  }
+
+  /**
+   * Loads the peers remembered for a torrent.
+   *
+   * @param infoHash the info hash of the torrent
+   * @return the peers that are not too old, fastest first, or an empty list if there are none or
+   * the entry cannot be read
+   * @throws IllegalArgumentException if the info hash is not 20 bytes long
+   */
+  public List<CachedPeer> load(byte[] infoHash) {
+    Path entry = getEntryPath(infoHash);
+    if (!CacheDirectories.isPrivate(cacheDirectory)) {
+      // Other users could have planted the entry
+      return List.of();
+    }
+    byte[] bytes;
+    try {
+      bytes = Files.readAllBytes(entry);
+    } catch (IOException e) {
+      // No entry yet, or it cannot be read
+      return List.of();
+    }
+
+    List<CachedPeer> peers = new ArrayList<>();
+    long oldest = clock.millis() - maxAge.toMillis();
+    try {
+      ByteBuffer buffer = ByteBuffer.wrap(bytes);
+      if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+        return List.of();
+      }
+      int count = buffer.getInt();
+      if (count < 0 || count > MAX_PEERS) {
+        return List.of();
+      }
+      for (int i = 0; i < count; i++) {
+        byte[] address = new byte[buffer.get()];
+        buffer.get(address);
+        int port = buffer.getShort() & 0xFFFF;
+        long lastSuccess = buffer.getLong();
+        long throughput = buffer.getLong();
+        if (lastSuccess >= oldest) {
+          peers.add(new CachedPeer(new InetSocketAddress(InetAddress.getByAddress(address), port),
+              lastSuccess, throughput));
+        }
+      }
+    } catch (BufferUnderflowException | NegativeArraySizeException | UnknownHostException
+             | IllegalArgumentException e) {
+      // Truncated or corrupt entry, start from the tracker alone
+      return List.of();
+    }
+    peers.sort(FASTEST_FIRST);
+    return peers;
+  }
+
+  /**
+   * Merges newly measured peers into the entry of a torrent. A peer already in the entry is
+   * replaced by its new measurement. Peers that are too old are dropped and only the
+   * {@value #MAX_PEERS} fastest are kept. Failures are ignored, the cache only saves time.
+   *
+   * @param infoHash the info hash of the torrent
+   * @param peers    the peers that delivered pieces
+   * @throws IllegalArgumentException if the info hash is not 20 bytes long or peers is null
+   */
+  public void update(byte[] infoHash, List<CachedPeer> peers) {
+    if (peers == null) {
+      throw new IllegalArgumentException("Peers cannot be null");
+    }
+    Map<InetSocketAddress, CachedPeer> merged = new LinkedHashMap<>();
+    for (CachedPeer peer : load(infoHash)) {
+      merged.put(peer.address(), peer);
+    }
+    long oldest = clock.millis() - maxAge.toMillis();
+    for (CachedPeer peer : peers) {
+      if (peer != null && peer.lastSuccess() >= oldest) {
+        merged.put(peer.address(), peer);
+      }
+    }
+    List<CachedPeer> kept = new ArrayList<>(merged.values());
+    kept.sort(FASTEST_FIRST);
+    write(getEntryPath(infoHash), kept.subList(0, Math.min(MAX_PEERS, kept.size())));
+  }
+
+  /**
+   * Returns the path of the entry for a torrent. The entry may not exist.
+   *
+   * @param infoHash the info hash of the torrent
+   * @return the path of its entry
+   * @throws IllegalArgumentException if the info hash is not 20 bytes long
+   */
+  public Path getEntryPath(byte[] infoHash) {
+    if (infoHash == null || infoHash.length != PieceHashTable.HASH_LENGTH) {
+      throw new IllegalArgumentException("Info hash must be 20 bytes long");
+    }
+    return cacheDirectory.resolve(TorrentFileHandler.bytesToHex(infoHash) + ENTRY_SUFFIX);
+  }
+
+  public Path getCacheDirectory() {
+    return cacheDirectory;
+  }
+
+  private void write(Path entry, List<CachedPeer> peers) {
+    Path temporary = null;
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(peers.size());
+      for (CachedPeer peer : peers) {
+        byte[] address = peer.address().getAddress().getAddress();
+        out.writeByte(address.length);
+        out.write(address);
+        out.writeShort(peer.address().getPort());
+        out.writeLong(peer.lastSuccess());
+        out.writeLong(peer.throughput());
+      }
+      out.flush();
+
+      CacheDirectories.createPrivate(cacheDirectory);
+      temporary = Files.createTempFile(cacheDirectory, "entry", ".tmp");
+      Files.write(temporary, bytes.toByteArray());
+      Files.move(temporary, entry, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      temporary = null;
+    } catch (IOException e) {
+      // Best effort, the next start simply waits for the tracker
+    } finally {
+      if (temporary != null) {
+        try {
+          Files.deleteIfExists(temporary);
+        } catch (IOException ignored) {
+          // Nothing more to do
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,398 @@
+package model.session;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.IntPredicate;
+
+/**
+ * model.session.PeerList holds the peers of a tracker response packed into primitive arrays: one
+ * {@code long} per IPv4 peer with the address in bits 16 to 47 and the port in the low 16 bits, and
+ * one 18-byte record per IPv6 peer, as in a compact 'peers6' list (BEP 7). Parsing a compact peer
+ * list therefore allocates one array however many peers it holds, and peers behind the same
+ * address on different ports are all kept.
+ * <p>
+ * The IPv4 peers come first, followed by the IPv6 peers. Host strings and
+ * {@link InetSocketAddress} objects are only created when asked for, one peer at a time. The list
+ * is immutable.
+ *
+ * @author KX
+ */
+public final class PeerList implements Iterable<InetSocketAddress> {
+
+  /**
+   * The length of one IPv4 peer in a compact peer list.
+   */
+  public static final int COMPACT_IPV4_LENGTH = 6;
+
+  /**
+   * The length of one IPv6 peer in a compact 'peers6' list.
+   */
+  public static final int COMPACT_IPV6_LENGTH = 18;
+
+  private static final PeerList EMPTY = new PeerList(new long[0], new byte[0]);
+
+  private final long[] peers;
+  // 16 bytes of address then 2 bytes of port per peer
+  private final byte[] peers6;
+  private final int size;
+
+  private PeerList(long[] peers, byte[] peers6) {
+    this.peers = peers;
+    this.peers6 = peers6;
+    this.size = peers.length + peers6.length / COMPACT_IPV6_LENGTH;
+  }
+
+  /**
+   * Returns a list holding no peers.
+   *
+   * @return the empty list
+   */
+  public static PeerList empty() {
+    return EMPTY;
+  }
+
+  /**
+   * Parses a compact peer list, 4 bytes of address and 2 bytes of port per peer in network byte
+   * order. Trailing bytes that do not make up a whole peer are ignored.
+   *
+   * @param compact the compact peer list
+   * @return the peers of the list, in order
+   * @throws IllegalArgumentException if compact is null
+   */
+  public static PeerList fromCompact(byte[] compact) {
+    if (compact == null) {
+      throw new IllegalArgumentException("Compact peers cannot be null");
+    }
+    return fromCompact(ByteBuffer.wrap(compact));
+  }
+
+  /**
+   * Parses the compact peer list between the buffer's position and limit, without copying it. The
+   * buffer's position and limit are not changed.
+   *
+   * @param compact the buffer holding the compact peer list
+   * @return the peers of the list, in order
+   * @throws IllegalArgumentException if compact is null
+   */
+  public static PeerList fromCompact(ByteBuffer compact) {
+    if (compact == null) {
+      throw new IllegalArgumentException("Compact peers cannot be null");
+    }
+    return fromCompact(compact, null);
+  }
+
+  /**
+   * Parses a compact IPv4 peer list and a compact IPv6 'peers6' list, 16 bytes of address and 2
+   * bytes of port per IPv6 peer. Either buffer may be null when the tracker did not send that list.
+   * The buffers' positions and limits are not changed.
+   *
+   * @param compact  the buffer holding the compact IPv4 peer list, or null
+   * @param compact6 the buffer holding the compact IPv6 peer list, or null
+   * @return the IPv4 peers followed by the IPv6 peers
+   */
+  public static PeerList fromCompact(ByteBuffer compact, ByteBuffer compact6) {
+    long[] peers = EMPTY.peers;
+    if (compact != null && compact.remaining() >= COMPACT_IPV4_LENGTH) {
+      peers = new long[compact.remaining() / COMPACT_IPV4_LENGTH];
+      for (int i = 0, offset = compact.position(); i < peers.length;
+          i++, offset += COMPACT_IPV4_LENGTH) {
+        peers[i] = (compact.getInt(offset) & 0xFFFFFFFFL) << 16
+            | (compact.getShort(offset + 4) & 0xFFFF);
+      }
+    }
+
+    byte[] peers6 = EMPTY.peers6;
+    if (compact6 != null && compact6.remaining() >= COMPACT_IPV6_LENGTH) {
+      peers6 = new byte[compact6.remaining() - compact6.remaining() % COMPACT_IPV6_LENGTH];
+      compact6.get(compact6.position(), peers6);
+    }
+
+    return peers.length == 0 && peers6.length == 0 ? EMPTY : new PeerList(peers, peers6);
+  }
+
+  /**
+   * Creates a list of IPv4 peers from packed peers, as returned by {@link #getPacked(int)}.
+   *
+   * @param packed the packed peers
+   * @return a list holding a copy of the peers
+   * @throws IllegalArgumentException if packed is null or a value is not a packed IPv4 peer
+   */
+  public static PeerList ofPacked(long... packed) {
+    if (packed == null) {
+      throw new IllegalArgumentException("Packed peers cannot be null");
+    }
+    for (long peer : packed) {
+      if (peer >>> 48 != 0) {
+        throw new IllegalArgumentException("Invalid packed peer: " + Long.toHexString(peer));
+      }
+    }
+    return packed.length == 0 ? EMPTY : new PeerList(packed.clone(), EMPTY.peers6);
+  }
+
+  /**
+   * Creates a list from socket addresses, keeping the IPv4 peers in order followed by the IPv6
+   * peers in order.
+   *
+   * @param addresses the addresses of the peers, which must be resolved
+   * @return a list holding the peers
+   * @throws IllegalArgumentException if addresses is null or holds a null or unresolved address
+   */
+  public static PeerList of(Collection<InetSocketAddress> addresses) {
+    if (addresses == null) {
+      throw new IllegalArgumentException("Addresses cannot be null");
+    }
+    ByteBuffer compact = ByteBuffer.allocate(addresses.size() * COMPACT_IPV4_LENGTH);
+    ByteBuffer compact6 = ByteBuffer.allocate(addresses.size() * COMPACT_IPV6_LENGTH);
+    for (InetSocketAddress address : addresses) {
+      if (address == null || address.isUnresolved()) {
+        throw new IllegalArgumentException("Peer address must be resolved: " + address);
+      }
+      byte[] bytes = address.getAddress().getAddress();
+      ByteBuffer target = bytes.length == 4 ? compact : compact6;
+      target.put(bytes).putShort((short) address.getPort());
+    }
+    return fromCompact(compact.flip(), compact6.flip());
+  }
+
+  /**
+   * Returns the number of peers in the list.
+   *
+   * @return the number of peers
+   */
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  /**
+   * Returns whether a peer has an IPv6 address.
+   *
+   * @param index the index of the peer
+   * @return true for an IPv6 peer, false for an IPv4 peer
+   * @throws IndexOutOfBoundsException if the index is out of range
+   */
+  public boolean isIpv6(int index) {
+    return checkIndex(index) >= peers.length;
+  }
+
+  /**
+   * Returns an IPv4 peer packed into a long, the address in bits 16 to 47 and the port in the low
+   * 16 bits. Packed peers are equal exactly when their addresses and ports are.
+   *
+   * @param index the index of the peer
+   * @return the packed peer
+   * @throws IndexOutOfBoundsException if the index is out of range
+   * @throws IllegalStateException     if the peer has an IPv6 address
+   */
+  public long getPacked(int index) {
+    if (isIpv6(index)) {
+      throw new IllegalStateException("Peer " + index + " has an IPv6 address");
+    }
+    return peers[index];
+  }
+
+  /**
+   * Returns the port of a peer.
+   *
+   * @param index the index of the peer
+   * @return the port, from 0 to 65535
+   * @throws IndexOutOfBoundsException if the index is out of range
+   */
+  public int getPort(int index) {
+    if (isIpv6(index)) {
+      int offset = ipv6Offset(index) + 16;
+      return (peers6[offset] & 0xFF) << 8 | (peers6[offset + 1] & 0xFF);
+    }
+    return (int) (peers[index] & 0xFFFF);
+  }
+
+  /**
+   * Returns the address of a peer as a literal, creating the string.
+   *
+   * @param index the index of the peer
+   * @return the address, such as "192.168.1.2" or "2001:db8:0:0:0:0:0:1"
+   * @throws IndexOutOfBoundsException if the index is out of range
+   */
+  public String getHost(int index) {
+    if (isIpv6(index)) {
+      return getInetAddress(index).getHostAddress();
+    }
+    long address = peers[index] >>> 16;
+    return ((address >>> 24) & 0xFF) + "." + ((address >>> 16) & 0xFF) + "."
+        + ((address >>> 8) & 0xFF) + "." + (address & 0xFF);
+  }
+
+  /**
+   * Returns the socket address of a peer, creating it without a name lookup.
+   *
+   * @param index the index of the peer
+   * @return the address and port of the peer
+   * @throws IndexOutOfBoundsException if the index is out of range
+   */
+  public InetSocketAddress getAddress(int index) {
+    return new InetSocketAddress(getInetAddress(index), getPort(index));
+  }
+
+  private InetAddress getInetAddress(int index) {
+    byte[] bytes;
+    if (isIpv6(index)) {
+      int offset = ipv6Offset(index);
+      bytes = Arrays.copyOfRange(peers6, offset, offset + 16);
+    } else {
+      long address = peers[index] >>> 16;
+      bytes = new byte[] {(byte) (address >>> 24), (byte) (address >>> 16),
+          (byte) (address >>> 8), (byte) address};
+    }
+    try {
+      return InetAddress.getByAddress(bytes);
+    } catch (UnknownHostException e) {
+      // Only thrown for addresses of an illegal length
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Returns the list of the peers whose index passes the filter, in order.
+   *
+   * @param filter called once with the index of every peer, in order
+   * @return a list of the selected peers, or this list if every peer was selected
+   * @throws IllegalArgumentException if filter is null
+   */
+  public PeerList filter(IntPredicate filter) {
+    if (filter == null) {
+      throw new IllegalArgumentException("Filter cannot be null");
+    }
+    long[] keptPeers = new long[peers.length];
+    int keptCount = 0;
+    for (int i = 0; i < peers.length; i++) {
+      if (filter.test(i)) {
+        keptPeers[keptCount++] = peers[i];
+      }
+    }
+    byte[] keptPeers6 = new byte[peers6.length];
+    int keptLength6 = 0;
+    for (int i = peers.length; i < size; i++) {
+      if (filter.test(i)) {
+        System.arraycopy(peers6, ipv6Offset(i), keptPeers6, keptLength6, COMPACT_IPV6_LENGTH);
+        keptLength6 += COMPACT_IPV6_LENGTH;
+      }
+    }
+
+    if (keptCount == peers.length && keptLength6 == peers6.length) {
+      return this;
+    }
+    if (keptCount == 0 && keptLength6 == 0) {
+      return EMPTY;
+    }
+    return new PeerList(Arrays.copyOf(keptPeers, keptCount),
+        Arrays.copyOf(keptPeers6, keptLength6));
+  }
+
+  /**
+   * Encodes the IPv4 peers as a compact peer list, 6 bytes per peer.
+   *
+   * @return a new array holding the compact peer list
+   */
+  public byte[] toCompact() {
+    byte[] compact = new byte[peers.length * COMPACT_IPV4_LENGTH];
+    for (int i = 0, offset = 0; i < peers.length; i++, offset += COMPACT_IPV4_LENGTH) {
+      long packed = peers[i];
+      for (int j = COMPACT_IPV4_LENGTH - 1; j >= 0; j--) {
+        compact[offset + j] = (byte) packed;
+        packed >>>= 8;
+      }
+    }
+    return compact;
+  }
+
+  /**
+   * Encodes the IPv6 peers as a compact 'peers6' list, 18 bytes per peer.
+   *
+   * @return a new array holding the compact IPv6 peer list
+   */
+  public byte[] toCompact6() {
+    return peers6.clone();
+  }
+
+  /**
+   * Returns the packed IPv4 peers in a new array.
+   *
+   * @return a copy of the packed peers
+   */
+  public long[] toPackedArray() {
+    return peers.clone();
+  }
+
+  /**
+   * Iterates over the peers, creating each socket address as it is reached.
+   *
+   * @return an iterator over the peers' socket addresses
+   */
+  @Override
+  public Iterator<InetSocketAddress> iterator() {
+    return new Iterator<>() {
+      private int next;
+
+      @Override
+      public boolean hasNext() {
+        return next < size;
+      }
+
+      @Override
+      public InetSocketAddress next() {
+        if (next >= size) {
+          throw new NoSuchElementException();
+        }
+        return getAddress(next++);
+      }
+    };
+  }
+
+  private int ipv6Offset(int index) {
+    return (index - peers.length) * COMPACT_IPV6_LENGTH;
+  }
+
+  private int checkIndex(int index) {
+    if (index < 0 || index >= size) {
+      throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+    }
+    return index;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    return o instanceof PeerList other && Arrays.equals(peers, other.peers)
+        && Arrays.equals(peers6, other.peers6);
+  }
+
+  @Override
+  public int hashCode() {
+    return 31 * Arrays.hashCode(peers) + Arrays.hashCode(peers6);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder builder = new StringBuilder("[");
+    for (int i = 0; i < size; i++) {
+      if (i > 0) {
+        builder.append(", ");
+      }
+      if (isIpv6(i)) {
+        builder.append('[').append(getHost(i)).append(']');
+      } else {
+        builder.append(getHost(i));
+      }
+      builder.append(':').append(getPort(i));
+    }
+    return builder.append(']').toString();
+  }
+}
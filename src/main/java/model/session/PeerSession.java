@@ -1,17 +1,44 @@
 package model.session;
 
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.InetSocketAddress;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import model.decoder.BencodeEncoder;
+import model.decoder.BencodeReader;
+import model.decoder.BencodeReader.Token;
 
 /**
  * model.session.PeerSession class represents a session with a peer in a BitTorrent network. It handles the
  * handshake, interested state, and downloading pieces of a torrent.
+ * <p>
+ * Both sides announce the extension protocol (BEP 10) in the handshake. When the peer supports it,
+ * the session exchanges peers with it through ut_pex (BEP 11): peers the remote side reports are
+ * passed to the listener set with {@link #setPeerExchangeListener(Consumer)}, and
+ * {@link #sendPeerExchange(Collection)} tells it about the peers this side is connected to.
+ * <p>
+ * The Fast Extension (BEP 6) is announced as well. With a peer supporting it, pieces the peer
+ * allows fast are requested before it unchokes, dropped requests are answered with REJECT instead
+ * of timing out, and HAVE_ALL and HAVE_NONE stand in for the bitfield.
  *
  * @author KX
  */
@@ -32,10 +59,43 @@ public class PeerSession {
   private static final int HANDSHAKE_SIZE = 68;
   private static final int HANDSHAKE_PROTOCOL_SIZE = 19;
   private static final String HANDSHAKE_PROTOCOL = "BitTorrent protocol";
-  private static final int BITFIELD_RESPONSE_ID = 5;
+  private static final int CHOKE_RESPONSE_ID = 0;
   private static final int UNCHOKE_RESPONSE_ID = 1;
   private static final int INTERESTED_ID = 2;
+  private static final int HAVE_RESPONSE_ID = 4;
+  private static final int BITFIELD_RESPONSE_ID = 5;
   private static final int REQUEST_ID = 6;
+  private static final int PIECE_RESPONSE_ID = 7;
+  // Fast Extension messages
+  private static final int SUGGEST_PIECE_ID = 0x0D;
+  private static final int HAVE_ALL_ID = 0x0E;
+  private static final int HAVE_NONE_ID = 0x0F;
+  private static final int REJECT_REQUEST_ID = 0x10;
+  private static final int ALLOWED_FAST_ID = 0x11;
+  private static final int EXTENDED_ID = 20;
+  private static final int EXTENDED_HANDSHAKE_ID = 0;
+  // The ID the peer must use for ut_pex messages sent to us, announced in our extended handshake
+  private static final int UT_PEX_ID = 1;
+  // Reserved bit 20 from the right, announcing the extension protocol
+  private static final int EXTENSION_PROTOCOL_BYTE = 5;
+  private static final int EXTENSION_PROTOCOL_BIT = 0x10;
+  // Reserved bit 3 from the right, announcing the Fast Extension
+  private static final int FAST_EXTENSION_BYTE = 7;
+  private static final int FAST_EXTENSION_BIT = 0x04;
+  // Extended messages come from the network: a handshake or ut_pex message is far below these
+  private static final int MAX_EXTENDED_MESSAGE_SIZE = 64 * 1024;
+  private static final int MAX_EXTENDED_MESSAGE_DEPTH = 4;
+  // Suggestions kept from the peer, the oldest are dropped first
+  private static final int MAX_SUGGESTED_PIECES = 16;
+
+  /**
+   * The shortest time between two ut_pex messages to the same peer.
+   */
+  public static final long PEER_EXCHANGE_INTERVAL_MS = 60_000;
+  /**
+   * The most peers a ut_pex message adds or drops, as BEP 11 recommends.
+   */
+  public static final int MAX_EXCHANGED_PEERS = 50;
 
   private static final int BLOCK_SIZE = 16384; // 16 KiB block size
 
@@ -60,6 +120,33 @@ public class PeerSession {
 
   private String sessionPeerId;
 
+  // Counters of the owning session, if any, fed with every block received
+  private volatile TransferStatistics transferStatistics;
+  // Bytes of valid pieces and the time spent receiving them, written by the downloading thread
+  private volatile long verifiedBytes;
+  private volatile long verifiedNanos;
+
+  // ut_pex ID of the peer, 0 while the peer has not announced ut_pex
+  private volatile int peerExchangeId;
+  private volatile Consumer<PeerList> peerExchangeListener = peers -> { };
+  // The peers last sent with ut_pex and when, only touched by the thread sending them
+  private final Set<InetSocketAddress> exchangedPeers = new HashSet<>();
+  private long lastPeerExchange;
+
+  // Whether both sides announced the Fast Extension
+  private volatile boolean fastExtension;
+  // The number of pieces of the torrent, piece indices from the peer at or past it are dropped
+  private volatile int pieceCount = Integer.MAX_VALUE;
+  // What the peer told about its pieces, only touched by the thread reading its messages. Pieces
+  // at or past knownPieces are unknown: the peer sent no bitfield, or a short one.
+  private boolean choked = true;
+  private final BitSet peerPieces = new BitSet();
+  private int knownPieces;
+  private boolean peerHasAll;
+  private boolean availabilityKnown;
+  private final BitSet allowedFastPieces = new BitSet();
+  private final Deque<Integer> suggestedPieces = new ArrayDeque<>();
+
   private record PeerMessage(int id, byte[] payload) {
 
   }
@@ -68,7 +155,7 @@ public class PeerSession {
    * Constructs a model.session.PeerSession with the specified parameters. Uses a default Socket.
    * Values originate from torrent file and tracker response.
    *
-   * @param ipAddress The IP address of the peer.
+   * @param ipAddress The IPv4 or IPv6 address of the peer.
    * @param port      The port number of the peer.
    * @param peerId    The unique identifier for the peer (20 bytes).
    * @param infoHash  The info hash of the torrent (20 bytes).
@@ -107,6 +194,10 @@ public class PeerSession {
       throw new IllegalArgumentException("Socket cannot be null");
     }
 
+    // IPv6 literals may come bracketed, as in "[2001:db8::1]:6881"
+    if (ipAddress.length() > 2 && ipAddress.startsWith("[") && ipAddress.endsWith("]")) {
+      ipAddress = ipAddress.substring(1, ipAddress.length() - 1);
+    }
     this.ipAddress = ipAddress;
     this.port = port;
     this.peerId = peerId;
@@ -123,9 +214,12 @@ public class PeerSession {
 
   /**
    * Performs the initial handshake with the peer. This method connects to the peer, sends a
-   * handshake message, and waits for a response. If the response is valid, it updates the session
-   * state to HANDSHAKE and returns the response bytes. If the response is invalid or an error
-   * occurs, it closes the connection and throws an IOException.
+   * handshake message, and waits for a response. The handshake goes out on its own, since with the
+   * Fast Extension HAVE_NONE must be the first message after it and whether the peer supports the
+   * extension is only known from its response. HAVE_NONE, the extended handshake and INTERESTED
+   * then go out in one write. If the response is valid, it updates the session state to HANDSHAKE
+   * and returns the response bytes. If the response is invalid or an error occurs, it closes the
+   * connection and throws an IOException.
    *
    * @return the response bytes from the peer after the handshake.
    * @throws IOException if an error occurs during the handshake process, such as connection
@@ -135,17 +229,21 @@ public class PeerSession {
     peerSocket.connect(new InetSocketAddress(ipAddress, port), 5000);
     this.outputStream = peerSocket.getOutputStream();
     this.inputStream = peerSocket.getInputStream();
+    peerSocket.setSoTimeout(HANDSHAKE_TIMEOUT_MS);
 
-    // Build and send the handshake message
-    byte[] handshake = buildHandshake();
-    outputStream.write(handshake);
+    // Build and send the handshake
+    outputStream.write(buildHandshake());
     outputStream.flush();
 
     // Read the response from the peer
-    byte[] response = new byte[HANDSHAKE_SIZE];
-    int bytesRead = inputStream.read(response);
+    byte[] response;
+    try {
+      response = inputStream.readNBytes(HANDSHAKE_SIZE);
+    } catch (SocketTimeoutException e) {
+      response = null;
+    }
 
-    if (bytesRead == -1) {
+    if (response == null || response.length < HANDSHAKE_SIZE) {
       this.closeConnection();
       throw new IOException("No response from peer");
     }
@@ -167,11 +265,27 @@ public class PeerSession {
     this.sessionPeerId = new String(peerId);
     this.sessionState = SessionState.HANDSHAKE;
 
+    // With the Fast Extension on both sides, the first message must tell the peer what we have,
+    // which is nothing yet. INTERESTED comes last, in the same write.
+    ByteArrayOutputStream opening = new ByteArrayOutputStream();
+    this.fastExtension = (response[20 + FAST_EXTENSION_BYTE] & FAST_EXTENSION_BIT) != 0;
+    if (fastExtension) {
+      writeHaveNone(opening);
+    }
+    if ((response[20 + EXTENSION_PROTOCOL_BYTE] & EXTENSION_PROTOCOL_BIT) != 0) {
+      writeExtendedHandshake(opening);
+    }
+    writeInterested(opening);
+    outputStream.write(opening.toByteArray());
+    outputStream.flush();
+
     return response;
   }
 
   private byte[] buildHandshake() throws IOException {
     byte[] reserved = new byte[8];
+    reserved[EXTENSION_PROTOCOL_BYTE] |= EXTENSION_PROTOCOL_BIT;
+    reserved[FAST_EXTENSION_BYTE] |= FAST_EXTENSION_BIT;
 
     // Used to create a byte array (like StringBuilder is for string)
     ByteArrayOutputStream byteArrayStream = new ByteArrayOutputStream();
@@ -186,7 +300,11 @@ public class PeerSession {
   }
 
   /**
-   * Establishes the interested state with the peer by performing the BITFIELD and UNCHOKE
+   * Establishes the interested state with the peer by performing the BITFIELD and UNCHOKE. The
+   * INTERESTED message went out right after the handshake, so the messages of the peer are
+   * processed as they arrive until it unchokes. With the Fast Extension, HAVE_ALL or HAVE_NONE
+   * replace the BITFIELD, and the session does not wait for the UNCHOKE once the peer allowed a
+   * piece fast.
    *
    * @return true if the interested state was successfully established, false otherwise.
    * @throws IOException if an error occurs during the process, such as a timeout waiting for
@@ -198,72 +316,332 @@ public class PeerSession {
       peerHandshake();
     }
 
-    long startTime = System.currentTimeMillis(); // Start the timer for timeout
+    // Wait for UNCHOKE message, unless some pieces can be requested while choked. The BITFIELD,
+    // or HAVE_ALL/HAVE_NONE, comes first.
+    awaitState(() -> !choked || !allowedFastPieces.isEmpty(), HANDSHAKE_TIMEOUT_MS,
+        () -> availabilityKnown ? "UNCHOKE" : "BITFIELD");
+
+    this.sessionState = SessionState.INTERESTED;
+    return true;
+  }
+
+  /**
+   * Writes the extended handshake, announcing the extensions this side supports.
+   */
+  private void writeExtendedHandshake(ByteArrayOutputStream msg) throws IOException {
+    Map<String, Object> handshake = new HashMap<>();
+    handshake.put("m", Map.of("ut_pex", UT_PEX_ID));
+    writeExtended(msg, EXTENDED_HANDSHAKE_ID, handshake);
+  }
+
+  private void sendExtended(int extendedId, Map<String, Object> payload) throws IOException {
+    ByteArrayOutputStream msg = new ByteArrayOutputStream();
+    writeExtended(msg, extendedId, payload);
+    outputStream.write(msg.toByteArray());
+    outputStream.flush();
+  }
 
-    // Wait for BITFIELD message
-    while (true) {
-      if (System.currentTimeMillis() - startTime > HANDSHAKE_TIMEOUT_MS) {
-        throw new IOException("Timeout waiting for BITFIELD message.");
+  private void writeExtended(ByteArrayOutputStream msg, int extendedId,
+      Map<String, Object> payload) throws IOException {
+    byte[] bencoded = new BencodeEncoder().encode(payload);
+    msg.write(intToBytes(2 + bencoded.length)); // length
+    msg.write(EXTENDED_ID);
+    msg.write(extendedId);
+    msg.write(bencoded);
+  }
+
+  /**
+   * Handles a message of the extension protocol: the peer's extended handshake, or a ut_pex
+   * message whose added peers are passed to the peer exchange listener. The dropped peers are
+   * ignored, connections are only closed for what happens on them. Messages that are malformed,
+   * larger than {@value #MAX_EXTENDED_MESSAGE_SIZE} bytes or nested deeper than an extended
+   * message needs are ignored.
+   */
+  private void handleExtended(byte[] payload) {
+    if (payload.length < 2 || payload.length > MAX_EXTENDED_MESSAGE_SIZE) {
+      return;
+    }
+    int extendedId = payload[0] & 0xFF;
+    PeerList added = null;
+    try {
+      BencodeReader reader = new BencodeReader(payload, 1, MAX_EXTENDED_MESSAGE_DEPTH);
+      if (reader.next() != Token.DICT_START) {
+        return;
       }
+      if (extendedId == EXTENDED_HANDSHAKE_ID) {
+        readExtendedHandshake(reader);
+      } else if (extendedId == UT_PEX_ID) {
+        added = readPeerExchange(reader);
+      }
+    } catch (RuntimeException e) {
+      return; // Malformed message
+    }
+    if (added != null && added.size() > 0) {
+      peerExchangeListener.accept(added);
+    }
+  }
 
-      PeerMessage message = readMessage(inputStream);
-      if (message == null) {
+  /**
+   * Reads the ut_pex ID from the 'm' dictionary of an extended handshake. Later handshakes only
+   * list the extensions that changed, 0 disables one.
+   */
+  private void readExtendedHandshake(BencodeReader reader) {
+    Long id = null;
+    while (reader.next() == Token.KEY) {
+      if (!reader.keyEquals("m")) {
+        reader.skipValue();
         continue;
       }
-
-      if (message.id == BITFIELD_RESPONSE_ID) {
-        break;
+      Token extensions = reader.next();
+      if (extensions != Token.DICT_START) {
+        skipRest(reader, extensions);
+        continue;
+      }
+      while (reader.next() == Token.KEY) {
+        boolean peerExchange = reader.keyEquals("ut_pex");
+        Token value = reader.next();
+        if (peerExchange && value == Token.INTEGER) {
+          id = reader.getLong();
+        } else {
+          skipRest(reader, value);
+        }
       }
     }
+    // Only applied once the whole message has been read
+    if (id != null) {
+      peerExchangeId = id > 0 && id < 256 ? id.intValue() : 0;
+    }
+  }
 
-    // Send INTERESTED message
-    sendInterested(outputStream);
-
-    startTime = System.currentTimeMillis(); // reset for unchoke wait
-
-    // Wait for UNCHOKE message
-    while (true) {
-      if (System.currentTimeMillis() - startTime > HANDSHAKE_TIMEOUT_MS) {
-        throw new IOException("Timeout waiting for UNCHOKE message.");
+  /**
+   * Reads the peers added by a ut_pex message.
+   */
+  private static PeerList readPeerExchange(BencodeReader reader) {
+    ByteBuffer added = null;
+    ByteBuffer added6 = null;
+    while (reader.next() == Token.KEY) {
+      boolean ipv4 = reader.keyEquals("added");
+      boolean ipv6 = reader.keyEquals("added6");
+      Token value = reader.next();
+      if (value == Token.BYTES && (ipv4 || ipv6)) {
+        ByteBuffer compact = reader.getBytes().asReadOnlyBuffer();
+        if (ipv4) {
+          added = compact;
+        } else {
+          added6 = compact;
+        }
+      } else {
+        skipRest(reader, value);
       }
+    }
+    return PeerList.fromCompact(added, added6);
+  }
 
-      PeerMessage message = readMessage(inputStream);
-      if (message == null) {
-        continue;
+  /**
+   * Skips the rest of a value whose first token was just read, which is all of it unless it is a
+   * list or dictionary.
+   */
+  private static void skipRest(BencodeReader reader, Token first) {
+    if (first == Token.DICT_START || first == Token.LIST_START) {
+      int depth = reader.getDepth() - 1;
+      while (reader.getDepth() > depth) {
+        reader.next();
       }
+    }
+  }
 
-      if (message.id == UNCHOKE_RESPONSE_ID) {
-        break;
+  /**
+   * Tells the peer with ut_pex which peers this side connected to and disconnected from since the
+   * last message. Does nothing if the peer does not support ut_pex, if the last message was sent
+   * less than {@link #PEER_EXCHANGE_INTERVAL_MS} ago, or if nothing changed. Must be called by the
+   * thread downloading from this peer, as it writes to the connection.
+   *
+   * @param connectedPeers the addresses of the other peers this side is connected to
+   * @return true if a message was sent
+   * @throws IOException if the message cannot be sent
+   */
+  public boolean sendPeerExchange(Collection<InetSocketAddress> connectedPeers)
+      throws IOException {
+    int extendedId = peerExchangeId;
+    long now = System.currentTimeMillis();
+    if (extendedId == 0 || outputStream == null
+        || lastPeerExchange != 0 && now - lastPeerExchange < PEER_EXCHANGE_INTERVAL_MS) {
+      return false;
+    }
+
+    List<InetSocketAddress> added = new ArrayList<>();
+    for (InetSocketAddress peer : connectedPeers) {
+      if (added.size() < MAX_EXCHANGED_PEERS && !peer.isUnresolved()
+          && !exchangedPeers.contains(peer)) {
+        added.add(peer);
       }
     }
+    Set<InetSocketAddress> connected = new HashSet<>(connectedPeers);
+    List<InetSocketAddress> dropped = new ArrayList<>();
+    for (InetSocketAddress peer : exchangedPeers) {
+      if (dropped.size() < MAX_EXCHANGED_PEERS && !connected.contains(peer)) {
+        dropped.add(peer);
+      }
+    }
+    if (added.isEmpty() && dropped.isEmpty()) {
+      return false;
+    }
 
-    this.sessionState = SessionState.INTERESTED;
+    PeerList addedPeers = PeerList.of(added);
+    PeerList droppedPeers = PeerList.of(dropped);
+    byte[] addedCompact = addedPeers.toCompact();
+    byte[] addedCompact6 = addedPeers.toCompact6();
+    Map<String, Object> message = new HashMap<>();
+    message.put("added", addedCompact);
+    message.put("added.f", new byte[addedCompact.length / 6]); // No flags known
+    message.put("added6", addedCompact6);
+    message.put("added6.f", new byte[addedCompact6.length / 18]);
+    message.put("dropped", droppedPeers.toCompact());
+    message.put("dropped6", droppedPeers.toCompact6());
+    sendExtended(extendedId, message);
+
+    exchangedPeers.addAll(added);
+    dropped.forEach(exchangedPeers::remove);
+    lastPeerExchange = now;
     return true;
   }
 
-  private void sendInterested(OutputStream out) throws IOException {
-    ByteArrayOutputStream msg = new ByteArrayOutputStream();
+  private void writeHaveNone(ByteArrayOutputStream msg) throws IOException {
+    msg.write(intToBytes(1)); // length
+    msg.write(HAVE_NONE_ID);              // ID = have none
+  }
+
+  private void writeInterested(ByteArrayOutputStream msg) throws IOException {
     msg.write(intToBytes(1)); // length
     msg.write(INTERESTED_ID);             // ID = interested
-    out.write(msg.toByteArray());
-    out.flush();
   }
 
-  private void sendRequest(OutputStream out, int index, int begin, int length) throws IOException {
-    ByteArrayOutputStream msg = new ByteArrayOutputStream();
+  private void writeRequest(ByteArrayOutputStream msg, int index, int begin, int length)
+      throws IOException {
     msg.write(intToBytes(13)); // 1 (ID) + 12 (payload)
     msg.write(REQUEST_ID);              // ID = request
     msg.write(intToBytes(index));
     msg.write(intToBytes(begin));
     msg.write(intToBytes(length));
-    out.write(msg.toByteArray());
-    out.flush();
+  }
+
+  /**
+   * Processes the messages of the peer as they arrive until the condition holds.
+   *
+   * @param done      the condition to wait for
+   * @param timeoutMs how long to wait for it
+   * @param awaited   names the message waited for, for the exception
+   * @throws IOException if the condition does not hold in time or the peer closes the connection
+   */
+  private void awaitState(BooleanSupplier done, long timeoutMs, Supplier<String> awaited)
+      throws IOException {
+    long deadline = System.currentTimeMillis() + timeoutMs;
+    while (!done.getAsBoolean()) {
+      long remaining = deadline - System.currentTimeMillis();
+      if (remaining <= 0) {
+        throw new IOException("Timeout waiting for " + awaited.get() + " message.");
+      }
+      peerSocket.setSoTimeout((int) remaining);
+      try {
+        nextMessage();
+      } catch (SocketTimeoutException e) {
+        throw new IOException("Timeout waiting for " + awaited.get() + " message.", e);
+      } catch (EOFException e) {
+        throw new IOException("Connection closed waiting for " + awaited.get() + " message.", e);
+      }
+    }
+  }
+
+  /**
+   * Reads the next message, handling extension protocol messages itself and recording the choke
+   * state and pieces the peer reports.
+   *
+   * @return the message, or null for keep-alives and extension protocol messages
+   * @throws EOFException if the peer closed the connection
+   */
+  private PeerMessage nextMessage() throws IOException {
+    PeerMessage message = readMessage(inputStream);
+    if (message == null) {
+      return null;
+    }
+    if (message.id == EXTENDED_ID) {
+      handleExtended(message.payload);
+      return null;
+    }
+    handleState(message);
+    return message;
+  }
+
+  private void handleState(PeerMessage message) {
+    switch (message.id) {
+      case CHOKE_RESPONSE_ID -> choked = true;
+      case UNCHOKE_RESPONSE_ID -> choked = false;
+      case BITFIELD_RESPONSE_ID -> {
+        peerPieces.clear();
+        // Spare bits past the last piece are not recorded
+        long bits = Math.min((long) message.payload.length * 8, pieceCount);
+        for (int i = 0; i < bits; i++) {
+          if ((message.payload[i / 8] & (0x80 >>> (i % 8))) != 0) {
+            peerPieces.set(i);
+          }
+        }
+        knownPieces = message.payload.length * 8;
+        peerHasAll = false;
+        availabilityKnown = true;
+      }
+      case HAVE_RESPONSE_ID -> {
+        int pieceIndex = pieceIndexOf(message);
+        if (pieceIndex >= 0) {
+          peerPieces.set(pieceIndex);
+          availabilityKnown = true;
+        }
+      }
+      case HAVE_ALL_ID, HAVE_NONE_ID -> {
+        if (fastExtension) {
+          peerPieces.clear();
+          peerHasAll = message.id == HAVE_ALL_ID;
+          knownPieces = Integer.MAX_VALUE;
+          availabilityKnown = true;
+        }
+      }
+      case SUGGEST_PIECE_ID -> {
+        int pieceIndex = pieceIndexOf(message);
+        if (fastExtension && pieceIndex >= 0 && !suggestedPieces.contains(pieceIndex)) {
+          if (suggestedPieces.size() == MAX_SUGGESTED_PIECES) {
+            suggestedPieces.removeFirst();
+          }
+          suggestedPieces.addLast(pieceIndex);
+        }
+      }
+      case ALLOWED_FAST_ID -> {
+        int pieceIndex = pieceIndexOf(message);
+        if (fastExtension && pieceIndex >= 0) {
+          allowedFastPieces.set(pieceIndex);
+        }
+      }
+      default -> {
+        // Handled by the caller, or ignored
+      }
+    }
+  }
+
+  /**
+   * Returns the piece index a HAVE, SUGGEST_PIECE, ALLOWED_FAST or REJECT_REQUEST message starts
+   * with, or -1 if the message is too short or the index is not a piece of the torrent. Such
+   * messages are dropped, so that a peer cannot make the piece sets grow past the torrent.
+   */
+  private int pieceIndexOf(PeerMessage message) {
+    if (message.payload.length < 4) {
+      return -1;
+    }
+    int pieceIndex = ByteBuffer.wrap(message.payload).getInt();
+    return pieceIndex >= 0 && pieceIndex < pieceCount ? pieceIndex : -1;
   }
 
   private static PeerMessage readMessage(InputStream in) throws IOException {
     byte[] lenBytes = in.readNBytes(4); // Read the first 4 bytes for length of payload
     if (lenBytes == null || lenBytes.length != 4) {
-      return null;
+      throw new EOFException("Connection closed by peer");
     }
 
     int length = ByteBuffer.wrap(lenBytes).getInt();
@@ -272,7 +650,11 @@ public class PeerSession {
     }
 
     int id = in.read();
-    byte[] payload = in.readNBytes(length - 1); // Read the rest of the payload
+    // Read the rest of the payload, if any
+    byte[] payload = length > 1 ? in.readNBytes(length - 1) : new byte[0];
+    if (id == -1 || payload == null || payload.length != length - 1) {
+      throw new EOFException("Connection closed by peer");
+    }
     return new PeerMessage(id, payload);
   }
 
@@ -289,37 +671,50 @@ public class PeerSession {
    * @return the downloaded piece data as a byte array.
    * @throws IOException if an error occurs during the download process, such as a timeout or
    *                     connection issue.
-   * @throws PieceDownloadException if the downloaded piece does not match the expected hash or if
-   *                                the piece index or offset is invalid.
+   * @throws PieceDownloadException if the downloaded piece does not match the expected hash, if
+   *                                the piece index or offset is invalid, or if the peer does not
+   *                                have the piece or rejected the request.
    */
-  public byte[] downloadPiece(int pieceIndex, int pieceLength, byte[] expectedHash, int fileLength)
+  public byte[] downloadPiece(int pieceIndex, int pieceLength, byte[] expectedHash, long fileLength)
       throws IOException, PieceDownloadException {
 
     // Ensure the session is in a valid state before downloading
     if (this.sessionState.ordinal() < SessionState.INTERESTED.ordinal()) {
       establishInterested(); // performs BITFIELD/UNCHOKE negotiation
     }
+    if (!hasPiece(pieceIndex)) {
+      throw new PieceDownloadException("Peer does not have piece " + pieceIndex);
+    }
+    awaitUnchoke(pieceIndex);
 
     // Adjust the final piece size if it's shorter
-    int remainingBytes = fileLength - pieceIndex * pieceLength;
+    long remainingBytes = fileLength - (long) pieceIndex * pieceLength;
     if (remainingBytes < pieceLength) {
-      pieceLength = Math.max(0, remainingBytes);
+      pieceLength = (int) Math.max(0, remainingBytes);
     }
 
-    // Request all blocks in this piece
+    // Request all blocks in this piece, in one write
+    int outstanding = 0;
+    ByteArrayOutputStream requests = new ByteArrayOutputStream();
     for (int offset = 0; offset < pieceLength; offset += BLOCK_SIZE) {
       int blockLength = Math.min(BLOCK_SIZE, pieceLength - offset);
-      sendRequest(outputStream, pieceIndex, offset, blockLength);
+      writeRequest(requests, pieceIndex, offset, blockLength);
+      outstanding++;
     }
+    outputStream.write(requests.toByteArray());
+    outputStream.flush();
 
     byte[] pieceData = new byte[pieceLength];
     int totalReceived = 0;
+    boolean rejected = false;
     long startTime = System.currentTimeMillis();
+    long requestNanos = System.nanoTime();
 
     this.sessionState = SessionState.DOWNLOADING;
     // Receive the blocks for the piece, assemble them, and validate the piece
     try {
       setPieceState(pieceIndex, pieceLength, 0);
+      peerSocket.setSoTimeout(DOWNLOAD_TIMEOUT_MS);
       while (totalReceived < pieceLength) {
 
         // Check for timeout
@@ -327,12 +722,31 @@ public class PeerSession {
           throw new IOException("Timed out while downloading piece " + pieceIndex);
         }
 
-        PeerMessage msg = readMessage(inputStream);
+        PeerMessage msg;
+        try {
+          msg = nextMessage();
+        } catch (SocketTimeoutException e) {
+          throw new IOException("Timed out while downloading piece " + pieceIndex, e);
+        }
         if (msg == null) {
-          continue; // Ignore keep-alive or malformed messages
+          continue; // Ignore keep-alive and extension messages
+        }
+
+        if (msg.id == CHOKE_RESPONSE_ID && !fastExtension) {
+          // Without the Fast Extension, choking silently drops all pending requests
+          throw new IOException("Choked while downloading piece " + pieceIndex);
         }
 
-        if (msg.id != 7) {
+        if (msg.id == REJECT_REQUEST_ID && fastExtension && pieceIndexOf(msg) == pieceIndex) {
+          // Wait for the answers to the other requests, so none is left for the next piece
+          rejected = true;
+          if (--outstanding == 0) {
+            break;
+          }
+          continue;
+        }
+
+        if (msg.id != PIECE_RESPONSE_ID) {
           continue; // Not a piece message
         }
 
@@ -353,10 +767,22 @@ public class PeerSession {
 
         System.arraycopy(block, 0, pieceData, begin, block.length);
         totalReceived += block.length;
+        outstanding--;
+        TransferStatistics statistics = transferStatistics;
+        if (statistics != null) {
+          statistics.addDownloaded(block.length);
+        }
         currentPieceOffset = begin + block.length; // Update current piece offset for next block
 
         // Reset timeout on successful block
         startTime = System.currentTimeMillis();
+        if (rejected && outstanding == 0) {
+          break;
+        }
+      }
+
+      if (rejected) {
+        throw new PieceDownloadException("Peer rejected request for piece " + pieceIndex);
       }
 
       // Validate SHA-1 hash of the downloaded piece
@@ -365,6 +791,8 @@ public class PeerSession {
         throw new PieceDownloadException("Piece hash mismatch");
       }
 
+      verifiedNanos += System.nanoTime() - requestNanos;
+      verifiedBytes += pieceData.length;
       return pieceData;
     } finally {
       // Ensure we reset the piece state and session state if an exception occurs
@@ -374,6 +802,14 @@ public class PeerSession {
 
   }
 
+  /**
+   * Waits until the peer unchokes, unless it allowed the piece fast.
+   */
+  private void awaitUnchoke(int pieceIndex) throws IOException {
+    awaitState(() -> !choked || allowedFastPieces.get(pieceIndex), HANDSHAKE_TIMEOUT_MS,
+        () -> "UNCHOKE");
+  }
+
   private void resetPieceState() {
     this.currentPieceIndex = 0;
     this.currentPieceLength = 0;
@@ -412,6 +848,111 @@ public class PeerSession {
 
 
   // getters
+  /**
+   * Sets the counters that every block received from the peer is added to.
+   *
+   * @param transferStatistics the counters of the session, or null to count nothing
+   */
+  public void setTransferStatistics(TransferStatistics transferStatistics) {
+    this.transferStatistics = transferStatistics;
+  }
+
+  public TransferStatistics getTransferStatistics() {
+    return transferStatistics;
+  }
+
+  /**
+   * Sets the listener receiving the peers this peer reports through ut_pex. It is called on the
+   * thread reading from this peer.
+   *
+   * @param listener the listener of exchanged peers
+   * @throws IllegalArgumentException if listener is null
+   */
+  public void setPeerExchangeListener(Consumer<PeerList> listener) {
+    if (listener == null) {
+      throw new IllegalArgumentException("Listener cannot be null");
+    }
+    this.peerExchangeListener = listener;
+  }
+
+  /**
+   * Sets the number of pieces of the torrent. Piece indices the peer sends at or past it are
+   * dropped; until it is set, every index is accepted.
+   *
+   * @param pieceCount the number of pieces of the torrent
+   * @throws IllegalArgumentException if pieceCount is not positive
+   */
+  public void setPieceCount(int pieceCount) {
+    if (pieceCount <= 0) {
+      throw new IllegalArgumentException("Piece count must be a positive integer");
+    }
+    this.pieceCount = pieceCount;
+  }
+
+  public int getPieceCount() {
+    return pieceCount;
+  }
+
+  /**
+   * Returns whether both sides announced the Fast Extension in their handshakes.
+   *
+   * @return true if the Fast Extension messages are used with the peer
+   */
+  public boolean supportsFastExtension() {
+    return fastExtension;
+  }
+
+  /**
+   * Returns whether the peer has a piece, as far as it told. Pieces it has not told about count as
+   * available. Must be called by the thread downloading from the peer.
+   *
+   * @param pieceIndex the index of the piece
+   * @return false only if the peer is known not to have the piece
+   */
+  public boolean hasPiece(int pieceIndex) {
+    return peerHasAll || pieceIndex < 0 || pieceIndex >= knownPieces
+        || peerPieces.get(pieceIndex);
+  }
+
+  /**
+   * Returns the pieces best downloaded next from this peer: while it chokes, the pieces it allowed
+   * fast, then the pieces it suggested. Must be called by the thread downloading from the peer.
+   *
+   * @return the preferred piece indices, most preferred first
+   */
+  public List<Integer> getPreferredPieces() {
+    List<Integer> preferred = new ArrayList<>();
+    if (choked) {
+      allowedFastPieces.stream().filter(this::hasPiece).forEach(preferred::add);
+    }
+    for (int pieceIndex : suggestedPieces) {
+      if (!preferred.contains(pieceIndex) && hasPiece(pieceIndex)) {
+        preferred.add(pieceIndex);
+      }
+    }
+    return preferred;
+  }
+
+  /**
+   * Returns whether the peer announced ut_pex in its extended handshake.
+   *
+   * @return true if peers can be exchanged with the peer
+   */
+  public boolean supportsPeerExchange() {
+    return peerExchangeId != 0;
+  }
+
+  /**
+   * Returns the rate at which this peer delivered valid pieces, measured from the requests of each
+   * piece to its last block.
+   *
+   * @return the throughput in bytes per second, 0 if no piece was downloaded yet
+   */
+  public long getThroughput() {
+    long nanos = verifiedNanos;
+    return nanos <= 0 ? 0 : (long) (verifiedBytes * 1e9 / nanos);
+  }
+
   public String getIpAddress() {
     return ipAddress;
   }
@@ -0,0 +1,47 @@
+package model.session;
+
+import java.net.InetSocketAddress;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * model.session.PeerSet remembers peers taken from {@link PeerList}s, so that peers returned again
+ * by later or other tracker responses can be skipped. IPv4 peers are kept as their packed longs;
+ * IPv6 peers, which are far less common, as socket addresses. It is safe for use by multiple
+ * threads.
+ *
+ * @author KX
+ */
+public class PeerSet {
+
+  private final Set<Long> peers = ConcurrentHashMap.newKeySet();
+  private final Set<InetSocketAddress> peers6 = ConcurrentHashMap.newKeySet();
+
+  /**
+   * Adds a peer of a list to the set.
+   *
+   * @param peerList the list holding the peer
+   * @param index    the index of the peer in the list
+   * @return true if the peer was not in the set yet
+   * @throws IllegalArgumentException  if peerList is null
+   * @throws IndexOutOfBoundsException if the index is out of range
+   */
+  public boolean add(PeerList peerList, int index) {
+    if (peerList == null) {
+      throw new IllegalArgumentException("Peer list cannot be null");
+    }
+    if (peerList.isIpv6(index)) {
+      return peers6.add(peerList.getAddress(index));
+    }
+    return peers.add(peerList.getPacked(index));
+  }
+
+  /**
+   * Returns the number of peers in the set.
+   *
+   * @return the number of peers
+   */
+  public int size() {
+    return peers.size() + peers6.size();
+  }
+}
@@ -0,0 +1,229 @@
+package model.session;
+
+import java.nio.ByteBuffer;
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+import model.decoder.ByteString;
+
+/**
+ * model.session.PieceHashTable holds the SHA-1 hashes of every piece of a torrent in one contiguous
+ * {@link ByteBuffer}, 20 bytes per piece, in piece order. Compared with a list of one array per
+ * piece, a torrent with a million pieces costs 20 MB instead of roughly 60 MB of arrays, headers and
+ * references, and nothing has to be allocated to look a hash up or check a digest against it.
+ * <p>
+ * The table is either a view over the 'pieces' value of a torrent file, so no bytes are copied, or
+ * an off-heap copy made with {@link #toDirect()} for processes that host many torrents. It is
+ * immutable and can be shared between threads.
+ *
+ * @author KX
+ */
+public final class PieceHashTable {
+
+  /**
+   * The length of one piece hash in bytes (SHA-1).
+   */
+  public static final int HASH_LENGTH = 20;
+
+  // Read-only, position 0, limit the length of the table; only absolute accessors are used
+  private final ByteBuffer hashes;
+  private final int size;
+
+  private PieceHashTable(ByteBuffer hashes) {
+    if (hashes.remaining() % HASH_LENGTH != 0) {
+      throw new IllegalArgumentException("Invalid pieces field: not a multiple of 20 bytes");
+    }
+    this.hashes = hashes.slice().asReadOnlyBuffer();
+    this.size = hashes.remaining() / HASH_LENGTH;
+  }
+
+  /**
+   * Creates a table that views the concatenated piece hashes of a torrent, such as its 'pieces'
+   * value. The bytes are not copied, so the source must not be modified afterwards.
+   *
+   * @param pieces the concatenated 20-byte piece hashes
+   * @return a table backed by the given bytes
+   * @throws IllegalArgumentException if pieces is null or its length is not a multiple of 20
+   */
+  public static PieceHashTable wrap(ByteString pieces) {
+    if (pieces == null) {
+      throw new IllegalArgumentException("Pieces cannot be null");
+    }
+    return new PieceHashTable(pieces.asReadOnlyBuffer());
+  }
+
+  /**
+   * Creates a table that views the concatenated piece hashes in the buffer between its position and
+   * limit. The buffer's position and limit are not changed, and its content is not copied.
+   *
+   * @param pieces the buffer holding the concatenated 20-byte piece hashes
+   * @return a table backed by the given buffer
+   * @throws IllegalArgumentException if pieces is null or its length is not a multiple of 20
+   */
+  public static PieceHashTable wrap(ByteBuffer pieces) {
+    if (pieces == null) {
+      throw new IllegalArgumentException("Pieces cannot be null");
+    }
+    return new PieceHashTable(pieces.duplicate());
+  }
+
+  /**
+   * Creates a table holding a copy of the given piece hashes.
+   *
+   * @param pieceHashes the hash of every piece, in piece order
+   * @return a new table
+   * @throws IllegalArgumentException if the list is null or a hash is not 20 bytes long
+   */
+  public static PieceHashTable copyOf(List<byte[]> pieceHashes) {
+    if (pieceHashes == null) {
+      throw new IllegalArgumentException("Piece hashes cannot be null");
+    }
+    byte[] table = new byte[pieceHashes.size() * HASH_LENGTH];
+    for (int i = 0; i < pieceHashes.size(); i++) {
+      byte[] hash = pieceHashes.get(i);
+      if (hash == null || hash.length != HASH_LENGTH) {
+        throw new IllegalArgumentException("Invalid hash for piece " + i + ": expected 20 bytes");
+      }
+      System.arraycopy(hash, 0, table, i * HASH_LENGTH, HASH_LENGTH);
+    }
+    return new PieceHashTable(ByteBuffer.wrap(table));
+  }
+
+  /**
+   * Copies this table into an array of its own, so that it no longer keeps the torrent file content
+   * reachable.
+   *
+   * @return a heap copy of this table
+   */
+  public PieceHashTable copy() {
+    byte[] table = new byte[hashes.capacity()];
+    hashes.get(0, table);
+    return new PieceHashTable(ByteBuffer.wrap(table));
+  }
+
+  /**
+   * Copies this table into off-heap memory, so that it neither keeps the torrent file content
+   * reachable nor adds to the heap.
+   *
+   * @return a direct copy of this table, or this table if it is already direct
+   */
+  public PieceHashTable toDirect() {
+    if (hashes.isDirect()) {
+      return this;
+    }
+    ByteBuffer direct = ByteBuffer.allocateDirect(hashes.capacity());
+    direct.put(hashes.duplicate());
+    direct.flip();
+    return new PieceHashTable(direct);
+  }
+
+  /**
+   * Returns the number of pieces in the table.
+   *
+   * @return the number of piece hashes
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Returns whether this table is stored off-heap.
+   *
+   * @return true if the hashes are held in direct memory
+   */
+  public boolean isDirect() {
+    return hashes.isDirect();
+  }
+
+  /**
+   * Returns a copy of the hash of a piece.
+   *
+   * @param pieceIndex the index of the piece
+   * @return a new 20-byte array holding the hash
+   * @throws IllegalArgumentException if the index is out of range
+   */
+  public byte[] get(int pieceIndex) {
+    byte[] hash = new byte[HASH_LENGTH];
+    copyTo(pieceIndex, hash, 0);
+    return hash;
+  }
+
+  /**
+   * Copies the hash of a piece into the destination array.
+   *
+   * @param pieceIndex  the index of the piece
+   * @param destination the array to copy into
+   * @param offset      the index in the destination of the first byte of the hash
+   * @throws IllegalArgumentException if the index is out of range or the hash does not fit
+   */
+  public void copyTo(int pieceIndex, byte[] destination, int offset) {
+    checkIndex(pieceIndex);
+    if (destination == null || offset < 0 || offset > destination.length - HASH_LENGTH) {
+      throw new IllegalArgumentException("Destination cannot hold a hash at offset " + offset);
+    }
+    hashes.get(pieceIndex * HASH_LENGTH, destination, offset, HASH_LENGTH);
+  }
+
+  /**
+   * Checks a SHA-1 digest against the hash of a piece without allocating.
+   *
+   * @param pieceIndex the index of the piece
+   * @param digest     the digest of the downloaded piece data
+   * @return true if the digest is 20 bytes long and equal to the piece hash
+   * @throws IllegalArgumentException if the index is out of range
+   */
+  public boolean matches(int pieceIndex, byte[] digest) {
+    checkIndex(pieceIndex);
+    if (digest == null || digest.length != HASH_LENGTH) {
+      return false;
+    }
+    int base = pieceIndex * HASH_LENGTH;
+    for (int i = 0; i < HASH_LENGTH; i++) {
+      if (hashes.get(base + i) != digest[i]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns a read-only buffer over the whole table, for writing it out in one go.
+   *
+   * @return a buffer positioned at the first hash with the table's length remaining
+   */
+  public ByteBuffer asReadOnlyBuffer() {
+    return hashes.duplicate();
+  }
+
+  /**
+   * Returns a read-only list view of the table for code written against a list of hashes. Each
+   * {@code get} copies the hash, so hot paths should use {@link #matches} or {@link #copyTo}.
+   *
+   * @return a list view of the piece hashes
+   */
+  public List<byte[]> asList() {
+    return new HashListView();
+  }
+
+  private void checkIndex(int pieceIndex) {
+    if (pieceIndex < 0 || pieceIndex >= size) {
+      throw new IllegalArgumentException("Invalid piece index: " + pieceIndex);
+    }
+  }
+
+  private final class HashListView extends AbstractList<byte[]> implements RandomAccess {
+
+    @Override
+    public byte[] get(int index) {
+      if (index < 0 || index >= size) {
+        throw new IndexOutOfBoundsException("Index " + index + " out of bounds for size " + size);
+      }
+      return PieceHashTable.this.get(index);
+    }
+
+    @Override
+    public int size() {
+      return size;
+    }
+  }
+}
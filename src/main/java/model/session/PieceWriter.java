@@ -16,6 +16,6 @@ public interface PieceWriter {
    * @param offset the offset in the file where the piece should be written
    * @throws IOException  if an I/O error occurs while writing to the file
    */
-  void writePiece(String filePath, byte[] data, int offset) throws IOException;
+  void writePiece(String filePath, byte[] data, long offset) throws IOException;
 
 }
@@ -0,0 +1,112 @@
+package model.session;
+
+import java.util.List;
+
+/**
+ * The size of a torrent's swarm as reported by a tracker scrape.
+ *
+ * @param seeders   the number of peers with the complete torrent
+ * @param completed the number of times the torrent was downloaded to completion
+ * @param leechers  the number of peers still downloading
+ *
+ * @author KX
+ */
+public record SwarmStatistics(int seeders, int completed, int leechers) {
+
+  /**
+   * The statistics of a torrent the tracker knows nothing about.
+   */
+  public static final SwarmStatistics EMPTY = new SwarmStatistics(0, 0, 0);
+
+  /**
+   * Constructs a SwarmStatistics.
+   *
+   * @throws IllegalArgumentException if any count is negative
+   */
+  public SwarmStatistics {
+    if (seeders < 0 || completed < 0 || leechers < 0) {
+      throw new IllegalArgumentException("Swarm statistics cannot be negative");
+    }
+  }
+
+  /**
+   * Returns the number of peers in the swarm, seeders and leechers together.
+   *
+   * @return the number of peers
+   */
+  public long peers() {
+    return (long) seeders + leechers;
+  }
+
+  /**
+   * Splits a budget of connections between torrents in proportion to the size of their swarms,
+   * so that connections go where there are the most peers to download from. Seeders count twice,
+   * since every one of them has every piece. Shares are rounded down and what rounding leaves goes
+   * to the largest swarms, so a swarm much smaller than the others may get no connection at all. No
+   * torrent is given more connections than its swarm has peers, and connections left over by small
+   * swarms go to the larger ones.
+   *
+   * @param budget the total number of connections to share
+   * @param swarms the statistics of each torrent
+   * @return the number of connections of each torrent, in the order of the swarms
+   * @throws IllegalArgumentException if budget is negative or swarms is null or holds null
+   */
+  public static int[] allocateConnections(int budget, List<SwarmStatistics> swarms) {
+    if (budget < 0) {
+      throw new IllegalArgumentException("Connection budget cannot be negative");
+    }
+    if (swarms == null) {
+      throw new IllegalArgumentException("Swarm statistics cannot be null");
+    }
+    for (SwarmStatistics swarm : swarms) {
+      if (swarm == null) {
+        throw new IllegalArgumentException("Swarm statistics cannot be null");
+      }
+    }
+
+    int[] connections = new int[swarms.size()];
+    int remaining = budget;
+    // Each round shares what is left among the swarms that can still take more connections
+    while (remaining > 0) {
+      long totalWeight = 0;
+      for (int i = 0; i < connections.length; i++) {
+        if (connections[i] < swarms.get(i).peers()) {
+          totalWeight += swarms.get(i).weight();
+        }
+      }
+      if (totalWeight == 0) {
+        break;
+      }
+
+      int given = 0;
+      for (int i = 0; i < connections.length; i++) {
+        SwarmStatistics swarm = swarms.get(i);
+        long room = swarm.peers() - connections[i];
+        if (room > 0) {
+          long share = (long) ((double) remaining * swarm.weight() / totalWeight);
+          int granted = (int) Math.min(Math.min(share, room), remaining - given);
+          connections[i] += granted;
+          given += granted;
+        }
+      }
+      if (given == 0) {
+        // Every share rounded down to nothing, the largest swarm that has room takes one
+        int largest = -1;
+        for (int i = 0; i < connections.length; i++) {
+          if (connections[i] < swarms.get(i).peers()
+              && (largest < 0 || swarms.get(i).weight() > swarms.get(largest).weight())) {
+            largest = i;
+          }
+        }
+        connections[largest]++;
+        given = 1;
+      }
+      remaining -= given;
+    }
+    return connections;
+  }
+
+  private long weight() {
+    return 2L * seeders + leechers;
+  }
+}
@@ -0,0 +1,388 @@
+package model.session;
+
+import java.net.Inet6Address;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+/**
+ * model.session.TieredTrackerClient announces to every tracker of a multi-tracker torrent, following
+ * the tiers of its 'announce-list' (BEP 12). It is a {@link TrackerClient}, so sessions and
+ * {@link AnnounceScheduler} use it like a single tracker.
+ * <p>
+ * Each tier is shuffled once when the client is created. Within a tier the trackers are tried in
+ * order until one answers, and a tracker that answers is moved to the front of its tier so that it
+ * is tried first next time. Unlike the strict reading of BEP 12, the tiers are announced to in
+ * parallel rather than one after another, so the time to the first peers is that of the fastest
+ * tracker, not of the first one listed.
+ * <p>
+ * The future of an announce completes with the first response that holds peers. Peers from the
+ * responses of the other tiers are de-duplicated against those already returned by the same
+ * announce and passed to the listener set with {@link #setAdditionalPeersListener(Consumer)}.
+ * <p>
+ * A scrape asks every tracker at once and reorders each tier so that the trackers reporting the
+ * largest swarms are tried first.
+ *
+ * @author KX
+ */
+public class TieredTrackerClient extends TrackerClient {
+
+  // Each tier is guarded by itself; announces iterate over a snapshot
+  private final List<List<TrackerClient>> tiers;
+  private volatile Consumer<TrackerResponse> additionalPeersListener = response -> { };
+
+  /**
+   * Constructs a model.session.TieredTrackerClient with a client for every tracker of the given
+   * tiers, shuffling each tier randomly.
+   *
+   * @param announceTiers the tiers of tracker URLs, as from
+   *                      {@link TorrentFileHandler#getAnnounceTiers()}
+   * @param port          the port to connect to
+   * @param fileSize      the size of the downloaded file in bytes
+   * @param infoHash      the info hash of the torrent file, must be 20 bytes long
+   * @param peerId        the peer ID, must be 20 bytes long
+   * @param factory       the factory creating the client of each tracker
+   * @throws IllegalArgumentException if any parameter is invalid, or there is no tracker
+   */
+  public TieredTrackerClient(List<List<String>> announceTiers, int port, long fileSize,
+      byte[] infoHash, String peerId, TrackerClientFactory factory) {
+    this(announceTiers, port, fileSize, infoHash, peerId, factory, new Random());
+  }
+
+  /**
+   * Constructs a model.session.TieredTrackerClient, shuffling each tier with the given source of
+   * randomness.
+   *
+   * @param announceTiers the tiers of tracker URLs, as from
+   *                      {@link TorrentFileHandler#getAnnounceTiers()}
+   * @param port          the port to connect to
+   * @param fileSize      the size of the downloaded file in bytes
+   * @param infoHash      the info hash of the torrent file, must be 20 bytes long
+   * @param peerId        the peer ID, must be 20 bytes long
+   * @param factory       the factory creating the client of each tracker
+   * @param random        the source of randomness used to shuffle the tiers
+   * @throws IllegalArgumentException if any parameter is invalid, or there is no tracker
+   */
+  public TieredTrackerClient(List<List<String>> announceTiers, int port, long fileSize,
+      byte[] infoHash, String peerId, TrackerClientFactory factory, Random random) {
+    // Requests are made by the client of each tracker. Any inherited HTTP path still gets a
+    // working client, for the first tracker
+    super(firstTracker(announceTiers), port, fileSize, infoHash, peerId);
+    if (factory == null || random == null) {
+      throw new IllegalArgumentException("Constructor parameters cannot be null");
+    }
+
+    List<List<TrackerClient>> clients = new ArrayList<>();
+    for (List<String> tier : announceTiers) {
+      List<TrackerClient> tierClients = new ArrayList<>();
+      for (String url : tier) {
+        tierClients.add(factory.create(url, port, fileSize, infoHash, peerId));
+      }
+      if (!tierClients.isEmpty()) {
+        Collections.shuffle(tierClients, random);
+        clients.add(tierClients);
+      }
+    }
+    this.tiers = Collections.unmodifiableList(clients);
+  }
+
+  private static String firstTracker(List<List<String>> announceTiers) {
+    if (announceTiers == null) {
+      throw new IllegalArgumentException("Announce tiers cannot be null");
+    }
+    for (List<String> tier : announceTiers) {
+      if (tier == null) {
+        throw new IllegalArgumentException("Announce tier cannot be null");
+      }
+      if (!tier.isEmpty()) {
+        return tier.get(0);
+      }
+    }
+    throw new IllegalArgumentException("Announce tiers must contain at least one tracker");
+  }
+
+  /**
+   * Announces to every tier in parallel and waits for the first response that holds peers. If no
+   * tracker returns peers, the last response is returned once every tier is done.
+   *
+   * @return the first response holding peers
+   * @throws TrackerCommunicationException     if no tracker of any tier could be reached
+   * @throws MalformedTrackerResponseException if every tier failed and the last failure was a
+   *                                           malformed response
+   */
+  @Override
+  public TrackerResponse requestTracker()
+      throws TrackerCommunicationException, IllegalArgumentException, MalformedTrackerResponseException {
+    try {
+      return announceAsync(Event.NONE).join();
+    } catch (CompletionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof TrackerCommunicationException tce) {
+        throw tce;
+      }
+      if (cause instanceof MalformedTrackerResponseException mtre) {
+        throw mtre;
+      }
+      if (cause instanceof RuntimeException re) {
+        throw re;
+      }
+      throw TrackerCommunicationException.contactFailed(cause);
+    }
+  }
+
+  /**
+   * Announces to every tier in parallel. The returned future completes with the first response
+   * holding peers, or with the last response if none does, and fails only if every tier fails.
+   * Peers returned by the other tiers that are not in an earlier response are passed to the
+   * additional peers listener.
+   *
+   * @param event the event to report, or {@link Event#NONE} for a regular announce
+   * @return a future completed with the first response holding peers
+   * @throws IllegalArgumentException if event is null
+   */
+  @Override
+  public CompletableFuture<TrackerResponse> announceAsync(Event event) {
+    if (event == null) {
+      throw new IllegalArgumentException("Event cannot be null");
+    }
+
+    CompletableFuture<TrackerResponse> first = new CompletableFuture<>();
+    PeerSet seenPeers = new PeerSet();
+    AtomicInteger remainingTiers = new AtomicInteger(tiers.size());
+    AtomicReference<TrackerResponse> lastResponse = new AtomicReference<>();
+    for (List<TrackerClient> tier : tiers) {
+      announceTier(tier, event).whenComplete((response, error) -> {
+        if (response != null) {
+          lastResponse.set(response);
+          TrackerResponse newPeers = withoutSeenPeers(response, seenPeers);
+          if (!newPeers.getPeerList().isEmpty() && !first.complete(newPeers)) {
+            additionalPeersListener.accept(newPeers);
+          }
+        }
+        if (remainingTiers.decrementAndGet() == 0) {
+          TrackerResponse last = lastResponse.get();
+          if (last != null) {
+            first.complete(withoutSeenPeers(last, seenPeers));
+          } else {
+            first.completeExceptionally(error);
+          }
+        }
+      });
+    }
+    return first;
+  }
+
+  /**
+   * Tries the trackers of a tier in order until one answers, then moves it to the front of the
+   * tier.
+   */
+  private CompletableFuture<TrackerResponse> announceTier(List<TrackerClient> tier, Event event) {
+    List<TrackerClient> order;
+    synchronized (tier) {
+      order = List.copyOf(tier);
+    }
+    return announceFrom(tier, order, 0, event);
+  }
+
+  private CompletableFuture<TrackerResponse> announceFrom(List<TrackerClient> tier,
+      List<TrackerClient> order, int index, Event event) {
+    TrackerClient tracker = order.get(index);
+    CompletableFuture<TrackerResponse> response;
+    try {
+      response = tracker.announceAsync(event);
+    } catch (RuntimeException e) {
+      response = CompletableFuture.failedFuture(e);
+    }
+
+    return response.handle((result, error) -> {
+      if (error == null) {
+        promote(tier, tracker);
+        return CompletableFuture.completedFuture(result);
+      }
+      if (index + 1 < order.size()) {
+        return announceFrom(tier, order, index + 1, event);
+      }
+      Throwable cause = error instanceof CompletionException && error.getCause() != null
+          ? error.getCause() : error;
+      return CompletableFuture.<TrackerResponse>failedFuture(cause);
+    }).thenCompose(future -> future);
+  }
+
+  private static void promote(List<TrackerClient> tier, TrackerClient tracker) {
+    synchronized (tier) {
+      if (tier.remove(tracker)) {
+        tier.add(0, tracker);
+      }
+    }
+  }
+
+  /**
+   * Returns a response holding only the peers of the given one that are not in the seen set, and
+   * adds them to it.
+   */
+  private static TrackerResponse withoutSeenPeers(TrackerResponse response, PeerSet seenPeers) {
+    PeerList peers = response.getPeerList();
+    return new TrackerResponse(response.getInterval(), response.getMinInterval(),
+        peers.filter(i -> seenPeers.add(peers, i)));
+  }
+
+  /**
+   * Scrapes every tracker of every tier in parallel. Each torrent is reported with the statistics
+   * of the tracker that knows the most peers for it, as trackers of different tiers usually see
+   * overlapping parts of the same swarm. Once every tracker has answered or failed, each tier is
+   * reordered so that the trackers reporting the most peers are announced to first, followed by
+   * those that did not answer.
+   *
+   * @param infoHashes the info hashes of the torrents
+   * @return a future completed with the statistics of each torrent, failing only if every tracker
+   * fails
+   * @throws IllegalArgumentException if the list is null or a hash is not 20 bytes long
+   */
+  @Override
+  public CompletableFuture<List<SwarmStatistics>> scrapeAsync(List<byte[]> infoHashes) {
+    checkInfoHashes(infoHashes);
+
+    Map<TrackerClient, CompletableFuture<List<SwarmStatistics>>> scrapes =
+        new IdentityHashMap<>();
+    for (List<TrackerClient> tier : tiers) {
+      synchronized (tier) {
+        for (TrackerClient tracker : tier) {
+          CompletableFuture<List<SwarmStatistics>> scrape;
+          try {
+            scrape = tracker.scrapeAsync(infoHashes);
+          } catch (RuntimeException e) {
+            scrape = CompletableFuture.failedFuture(e);
+          }
+          scrapes.put(tracker, scrape);
+        }
+      }
+    }
+
+    // Completes normally once every scrape is done, whether or not it failed
+    CompletableFuture<?>[] done = scrapes.values().stream()
+        .map(scrape -> scrape.handle((result, error) -> null))
+        .toArray(CompletableFuture<?>[]::new);
+    return CompletableFuture.allOf(done).thenApply(ignored -> {
+      Map<TrackerClient, Long> swarmSizes = new IdentityHashMap<>();
+      List<SwarmStatistics> merged = null;
+      Throwable lastError = null;
+      for (Map.Entry<TrackerClient, CompletableFuture<List<SwarmStatistics>>> entry
+          : scrapes.entrySet()) {
+        List<SwarmStatistics> statistics;
+        try {
+          statistics = entry.getValue().join();
+        } catch (CompletionException e) {
+          lastError = e.getCause() != null ? e.getCause() : e;
+          continue;
+        }
+        long peers = 0;
+        for (SwarmStatistics swarm : statistics) {
+          peers += swarm.peers();
+        }
+        swarmSizes.put(entry.getKey(), peers);
+        merged = largestSwarms(merged, statistics);
+      }
+
+      for (List<TrackerClient> tier : tiers) {
+        synchronized (tier) {
+          tier.sort(Comparator.comparingLong(
+              (TrackerClient tracker) -> swarmSizes.getOrDefault(tracker, -1L)).reversed());
+        }
+      }
+      if (merged == null) {
+        throw lastError instanceof CompletionException ce ? ce : new CompletionException(lastError);
+      }
+      return merged;
+    });
+  }
+
+  private static List<SwarmStatistics> largestSwarms(List<SwarmStatistics> merged,
+      List<SwarmStatistics> statistics) {
+    if (merged == null) {
+      return new ArrayList<>(statistics);
+    }
+    for (int i = 0; i < merged.size() && i < statistics.size(); i++) {
+      if (statistics.get(i).peers() > merged.get(i).peers()) {
+        merged.set(i, statistics.get(i));
+      }
+    }
+    return merged;
+  }
+
+  /**
+   * Shares the given counters with the client of every tracker.
+   *
+   * @param transferStatistics the counters of the session
+   * @throws IllegalArgumentException if transferStatistics is null
+   */
+  @Override
+  public void setTransferStatistics(TransferStatistics transferStatistics) {
+    super.setTransferStatistics(transferStatistics);
+    for (List<TrackerClient> tier : tiers) {
+      synchronized (tier) {
+        for (TrackerClient tracker : tier) {
+          tracker.setTransferStatistics(transferStatistics);
+        }
+      }
+    }
+  }
+
+  /**
+   * Sets the IPv6 address advertised by the client of every tracker.
+   *
+   * @param ipv6Address our IPv6 address, or null to advertise none
+   */
+  @Override
+  public void setIpv6Address(Inet6Address ipv6Address) {
+    super.setIpv6Address(ipv6Address);
+    for (List<TrackerClient> tier : tiers) {
+      synchronized (tier) {
+        for (TrackerClient tracker : tier) {
+          tracker.setIpv6Address(ipv6Address);
+        }
+      }
+    }
+  }
+
+  /**
+   * Sets the listener called with the new peers of every response after the first one of an
+   * announce. It is called on the threads completing the tracker requests.
+   *
+   * @param listener the listener, called with responses holding only new peers
+   * @throws IllegalArgumentException if listener is null
+   */
+  public void setAdditionalPeersListener(Consumer<TrackerResponse> listener) {
+    if (listener == null) {
+      throw new IllegalArgumentException("Listener cannot be null");
+    }
+    this.additionalPeersListener = listener;
+  }
+
+  /**
+   * Returns the tracker URLs of every tier in the order they are currently tried.
+   *
+   * @return a snapshot of the tiers
+   */
+  public List<List<String>> getTierOrder() {
+    List<List<String>> order = new ArrayList<>();
+    for (List<TrackerClient> tier : tiers) {
+      List<String> urls = new ArrayList<>();
+      synchronized (tier) {
+        for (TrackerClient tracker : tier) {
+          urls.add(tracker.getTrackerUrl());
+        }
+      }
+      order.add(urls);
+    }
+    return order;
+  }
+}
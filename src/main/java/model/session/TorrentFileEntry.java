@@ -0,0 +1,30 @@
+package model.session;
+
+import java.util.List;
+
+/**
+ * A file described by a torrent. Single-file torrents have one entry whose path is the torrent's
+ * name; multi-file torrents have one entry per element of their 'files' list.
+ *
+ * @param path   the path components of the file, relative to the download directory
+ * @param length the length of the file in bytes
+ *
+ * @author KX
+ */
+public record TorrentFileEntry(List<String> path, long length) {
+
+  /**
+   * Constructs a TorrentFileEntry, copying the path.
+   *
+   * @throws IllegalArgumentException if the path is null or the length is negative
+   */
+  public TorrentFileEntry {
+    if (path == null) {
+      throw new IllegalArgumentException("Path cannot be null");
+    }
+    if (length < 0) {
+      throw new IllegalArgumentException("File length cannot be negative");
+    }
+    path = List.copyOf(path);
+  }
+}
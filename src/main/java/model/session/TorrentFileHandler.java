@@ -5,35 +5,60 @@ import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
-import model.decoder.Decoder;
-import model.decoder.DecoderByteDTO;
-import model.decoder.DecoderDispatcher;
-import model.decoder.DictionaryDecoder;
+import model.decoder.BencodeReader;
+import model.decoder.BencodeReader.Token;
+import model.decoder.ByteString;
+import model.decoder.IterativeDecoder;
 import model.decoder.NumberPair;
 
 /**
  * Handles the parsing and management of .torrent files. This class reads a torrent file, extracts
  * its metadata, and stores it within its fields.
+ * <p>
+ * By default the raw file content is kept, so it can be printed or decoded into maps later. A
+ * process that manages many torrents can use {@link Retention#METADATA} instead, which keeps only
+ * what a session needs and lets the file content be garbage collected once parsing is done.
  *
  * @author KX
  */
 public class TorrentFileHandler {
 
-  private static final int FILE_HASH_LENGTH = 20; // SHA-1
+  /**
+   * How much of the torrent file is kept once it has been parsed.
+   */
+  public enum Retention {
+    /** Keep the raw file content; the decoded maps are built from it on request. */
+    FULL,
+    /** Keep only the info hash, tracker, sizes, file list and a compact piece hash table. */
+    METADATA,
+    /** Like {@link #METADATA}, plus a copy of the raw 'info' dictionary. */
+    METADATA_AND_INFO
+  }
 
   private final Path torrentFilePath;
+  private final Retention retention;
   private byte[] fileContent;
+  // Copy of the raw 'info' dictionary, only kept in METADATA_AND_INFO mode
+  private byte[] infoBytes;
+  // Full decoded maps, only built on request
   private Map<String, Object> fileContentMap;
   private Map<String, Object> infoMap;
 
   private byte[] infoHash;
-  private int fileLength;
+  // Range of the raw 'info' dictionary in the file, end exclusive
+  private NumberPair infoByteRange;
+  private long fileLength;
   private String trackerUrl;
+  // Tiers of tracker URLs from 'announce-list', or a single tier holding the 'announce' URL
+  private List<List<String>> announceTiers;
   private int pieceLength;
-  private final List<byte[]> hashedPieces = new ArrayList<>();
+  private String name;
+  private List<TorrentFileEntry> files;
+  private PieceHashTable pieceHashTable;
 
   /**
-   * Constructs a model.session.TorrentFileHandler for the specified torrent file.
+   * Constructs a model.session.TorrentFileHandler for the specified torrent file, keeping the raw
+   * file content.
    *
    * @param fileName the name of the torrent file to parse
    * @throws NullPointerException     if fileName is null
@@ -41,7 +66,25 @@ public class TorrentFileHandler {
    *                                  exist
    */
   public TorrentFileHandler(String fileName) {
+    this(fileName, Retention.FULL);
+  }
+
+  /**
+   * Constructs a model.session.TorrentFileHandler for the specified torrent file, keeping as much of
+   * it as the retention mode asks for.
+   *
+   * @param fileName  the name of the torrent file to parse
+   * @param retention how much of the file to keep after parsing
+   * @throws NullPointerException     if fileName is null
+   * @throws IllegalArgumentException if fileName is empty, does not end with .torrent, or does not
+   *                                  exist, or if retention is null
+   */
+  public TorrentFileHandler(String fileName, Retention retention) {
     Objects.requireNonNull(fileName, "File name cannot be null");
+    if (retention == null) {
+      throw new IllegalArgumentException("Retention cannot be null");
+    }
+    this.retention = retention;
     if (fileName.isEmpty()) {
       throw new IllegalArgumentException("File name cannot be empty");
     }
@@ -58,60 +101,298 @@ public class TorrentFileHandler {
   }
 
   /**
-   * Parses through the torrent file and extracts its metadata with {@link Decoder}s.
+   * Constructs a model.session.TorrentFileHandler in {@link Retention#METADATA} mode from metadata
+   * that was parsed earlier, such as a {@link TorrentMetadataCache} entry. The torrent file itself is
+   * not read.
+   */
+  TorrentFileHandler(Path torrentFilePath, byte[] infoHash, NumberPair infoByteRange,
+      String trackerUrl, List<List<String>> announceTiers, long fileLength, int pieceLength,
+      String name, List<TorrentFileEntry> files, PieceHashTable pieceHashTable) {
+    this.torrentFilePath = torrentFilePath;
+    this.retention = Retention.METADATA;
+    this.infoHash = infoHash;
+    this.infoByteRange = infoByteRange;
+    this.trackerUrl = trackerUrl;
+    this.announceTiers = announceTiers;
+    this.fileLength = fileLength;
+    this.pieceLength = pieceLength;
+    this.name = name;
+    this.files = files;
+    this.pieceHashTable = pieceHashTable;
+  }
+
+  /**
+   * Parses through the torrent file and extracts its metadata with a {@link BencodeReader}. Only
+   * the fields the client needs are read; everything else is skipped without being decoded.
    */
   private void loadAndParseTorrentFile() {
     try {
       this.fileContent = Files.readAllBytes(torrentFilePath);
 
-      DecoderDispatcher decoderDispatcher = new DecoderDispatcher();
-      DecoderByteDTO<?> decoded = decoderDispatcher.decode(fileContent, 0);
+      BencodeReader reader = new BencodeReader(fileContent);
+      if (reader.next() != Token.DICT_START) {
+        throw new IllegalArgumentException("Expected a Map for top-level bencoded map");
+      }
 
-      // Extracts the top-level bencoded map and the 'info' dictionary
-      this.fileContentMap = safeCastMap(decoded.getDecoderDTO().getValue(),
-          "top-level bencoded map");
-      this.infoMap = safeCastMap(fileContentMap.get("info"), "'info' dictionary");
+      ByteString pieces = null;
+      int infoStart = -1;
+      while (reader.next() == Token.KEY) {
+        if (reader.keyEquals("announce")) {
+          this.trackerUrl = readString(reader, "announce");
+        } else if (reader.keyEquals("announce-list")) {
+          this.announceTiers = readAnnounceList(reader);
+        } else if (reader.keyEquals("info")) {
+          infoStart = reader.getPosition();
+          pieces = parseInfo(reader);
+          this.infoByteRange = new NumberPair(infoStart, reader.getPosition());
+          computeInfoHash(infoStart, reader.getPosition());
+        } else {
+          reader.skipValue();
+        }
+      }
 
-      // Extracts the tracker URL, piece length, and file length from the maps
-      this.trackerUrl = extractString(fileContentMap, "announce");
-      this.pieceLength = extractInt(infoMap, "piece length");
-      this.fileLength = extractInt(infoMap, "length");
+      if (infoStart < 0) {
+        throw new IllegalArgumentException("Expected a Map for 'info' dictionary");
+      }
+      if (announceTiers == null || announceTiers.isEmpty()) {
+        if (trackerUrl == null) {
+          throw new IllegalArgumentException("Expected a string for key: announce");
+        }
+        this.announceTiers = List.of(List.of(trackerUrl));
+      } else if (trackerUrl == null) {
+        // BEP 12: clients that support 'announce-list' may ignore 'announce'
+        this.trackerUrl = announceTiers.get(0).get(0);
+      }
+      this.pieceHashTable = PieceHashTable.wrap(pieces);
 
-      computeInfoHash(decoded);
-      extractPieceHashes(decoded);
+      if (retention != Retention.FULL) {
+        if (retention == Retention.METADATA_AND_INFO) {
+          this.infoBytes = Arrays.copyOfRange(fileContent, infoByteRange.first(),
+              infoByteRange.second());
+        }
+        // The table views the file content, so copy it before letting the content go
+        this.pieceHashTable = pieceHashTable.copy();
+        this.fileContent = null;
+      }
     } catch (IOException e) {
       throw new UncheckedIOException("Failed to read torrent file", e);
     }
   }
 
   /**
-   * Computes the SHA-1 hash of the 'info' dictionary in the torrent file. Uses
-   * the byte range found in the {@link DictionaryDecoder} to extract the bytes for 'info'.
+   * Reads the 'info' dictionary, extracting the name, piece length and file lengths and returning
+   * the 'pieces' value.
    *
-   * @param dto the decoded DTO containing the byte range for 'info' which comes from the torrent
-   *            file
+   * @param reader the reader positioned before the 'info' value
+   * @return the concatenated piece hashes
+   */
+  private ByteString parseInfo(BencodeReader reader) {
+    if (reader.next() != Token.DICT_START) {
+      throw new IllegalArgumentException("Expected a Map for 'info' dictionary");
+    }
+
+    ByteString pieces = null;
+    boolean hasPieceLength = false;
+    boolean hasLength = false;
+    List<TorrentFileEntry> fileList = null;
+    while (reader.next() == Token.KEY) {
+      if (reader.keyEquals("piece length")) {
+        this.pieceLength = readInt(reader, "piece length");
+        hasPieceLength = true;
+      } else if (reader.keyEquals("length")) {
+        this.fileLength = readLength(reader);
+        hasLength = true;
+      } else if (reader.keyEquals("name")) {
+        this.name = readString(reader, "name");
+      } else if (reader.keyEquals("files")) {
+        fileList = readFiles(reader);
+      } else if (reader.keyEquals("pieces")) {
+        if (reader.next() != Token.BYTES) {
+          throw new IllegalArgumentException("Expected a byte string for key: pieces");
+        }
+        pieces = reader.getBytes();
+      } else {
+        reader.skipValue();
+      }
+    }
+
+    if (!hasPieceLength) {
+      throw new IllegalArgumentException("Expected an integer for key: piece length");
+    }
+    if (hasLength && fileList != null) {
+      throw new IllegalArgumentException("Expected either 'length' or 'files', not both");
+    }
+    if (fileList != null) {
+      this.files = fileList;
+      this.fileLength = totalLength(fileList);
+    } else if (hasLength) {
+      this.files = List.of(
+          new TorrentFileEntry(name == null ? List.of() : List.of(name), fileLength));
+    } else {
+      throw new IllegalArgumentException("Expected an integer for key: length");
+    }
+    if (pieces == null) {
+      throw new IllegalArgumentException("Expected a byte string for key: pieces");
+    }
+    return pieces;
+  }
+
+  /**
+   * Reads the 'files' list of a multi-file torrent. Each entry holds a 'length' and a 'path' list;
+   * other keys are skipped.
+   */
+  private static List<TorrentFileEntry> readFiles(BencodeReader reader) {
+    if (reader.next() != Token.LIST_START) {
+      throw new IllegalArgumentException("Expected a list for key: files");
+    }
+
+    List<TorrentFileEntry> fileList = new ArrayList<>();
+    Token token;
+    while ((token = reader.next()) != Token.END) {
+      if (token != Token.DICT_START) {
+        throw new IllegalArgumentException("Expected a Map for file entry");
+      }
+      long length = -1;
+      List<String> path = null;
+      while (reader.next() == Token.KEY) {
+        if (reader.keyEquals("length")) {
+          if (reader.next() != Token.INTEGER) {
+            throw new IllegalArgumentException("Expected an integer for key: length");
+          }
+          length = reader.getLong();
+        } else if (reader.keyEquals("path")) {
+          path = readPath(reader);
+        } else {
+          reader.skipValue();
+        }
+      }
+      if (length < 0) {
+        throw new IllegalArgumentException("Expected an integer for key: length");
+      }
+      if (path == null) {
+        throw new IllegalArgumentException("Expected a list for key: path");
+      }
+      fileList.add(new TorrentFileEntry(path, length));
+    }
+    return Collections.unmodifiableList(fileList);
+  }
+
+  /**
+   * Reads the 'announce-list' of a multi-tracker torrent (BEP 12), a list of tiers that are each a
+   * list of tracker URLs. Empty tiers are dropped.
+   */
+  private static List<List<String>> readAnnounceList(BencodeReader reader) {
+    if (reader.next() != Token.LIST_START) {
+      throw new IllegalArgumentException("Expected a list for key: announce-list");
+    }
+
+    List<List<String>> tiers = new ArrayList<>();
+    Token token;
+    while ((token = reader.next()) != Token.END) {
+      if (token != Token.LIST_START) {
+        throw new IllegalArgumentException("Expected a list for announce-list tier");
+      }
+      List<String> tier = new ArrayList<>();
+      while ((token = reader.next()) != Token.END) {
+        if (token != Token.BYTES) {
+          throw new IllegalArgumentException("Expected a string for announce-list tracker");
+        }
+        tier.add(reader.getString());
+      }
+      if (!tier.isEmpty()) {
+        tiers.add(List.copyOf(tier));
+      }
+    }
+    return List.copyOf(tiers);
+  }
+
+  private static List<String> readPath(BencodeReader reader) {
+    if (reader.next() != Token.LIST_START) {
+      throw new IllegalArgumentException("Expected a list for key: path");
+    }
+    List<String> path = new ArrayList<>();
+    Token token;
+    while ((token = reader.next()) != Token.END) {
+      if (token != Token.BYTES) {
+        throw new IllegalArgumentException("Expected a string for key: path");
+      }
+      path.add(reader.getString());
+    }
+    return path;
+  }
+
+  private static long totalLength(List<TorrentFileEntry> fileList) {
+    long total = 0;
+    for (TorrentFileEntry file : fileList) {
+      try {
+        total = Math.addExact(total, file.length());
+      } catch (ArithmeticException e) {
+        throw new IllegalArgumentException("Integer out of range for key: length");
+      }
+    }
+    return total;
+  }
+
+  /**
+   * Reads a file length, which may exceed the range of an int for files over 2 GiB.
    */
-  private void computeInfoHash(DecoderByteDTO<?> dto) {
-    NumberPair range = dto.getInfoByteRange();
-    byte[] infoBytes = Arrays.copyOfRange(fileContent, range.first(), range.second());
-    this.infoHash = sha1Hash(infoBytes);
+  private static long readLength(BencodeReader reader) {
+    if (reader.next() != Token.INTEGER) {
+      throw new IllegalArgumentException("Expected an integer for key: length");
+    }
+    long length = reader.getLong();
+    if (length < 0) {
+      throw new IllegalArgumentException("Integer out of range for key: length");
+    }
+    return length;
+  }
+
+  private static String readString(BencodeReader reader, String key) {
+    if (reader.next() != Token.BYTES) {
+      throw new IllegalArgumentException("Expected a string for key: " + key);
+    }
+    return reader.getString();
+  }
+
+  private static int readInt(BencodeReader reader, String key) {
+    if (reader.next() != Token.INTEGER) {
+      throw new IllegalArgumentException("Expected an integer for key: " + key);
+    }
+    long value = reader.getLong();
+    if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Integer out of range for key: " + key);
+    }
+    return (int) value;
   }
 
   /**
-   * Extracts the piece hashes from the torrent file. The pieces are expected to be in a specific
-   * byte range defined in the DTO.
+   * Computes the SHA-1 hash of the 'info' dictionary in the torrent file, hashing its raw bytes in
+   * place.
    *
-   * @param dto the decoded DTO containing the byte range for 'pieces'
+   * @param start the index of the 'd' that opens the 'info' dictionary
+   * @param end   the index just after the 'e' that closes it
    */
-  private void extractPieceHashes(DecoderByteDTO<?> dto) {
-    NumberPair range = dto.getByteRange("pieces");
-    int adjustedEnd = range.second() + 1;
-    for (int i = range.first(); i < adjustedEnd; i += FILE_HASH_LENGTH) {
-      if (i + FILE_HASH_LENGTH > adjustedEnd) {
-        throw new IllegalArgumentException("Invalid pieces field: not a multiple of 20 bytes");
+  private void computeInfoHash(int start, int end) {
+    this.infoHash = sha1Hash(fileContent, start, end - start);
+  }
+
+  /**
+   * Decodes the whole torrent file into maps. Only done when {@link #getFileContentMap()} or
+   * {@link #getInfoMap()} is called, since the client itself does not need them.
+   */
+  private void decodeMaps() {
+    this.fileContentMap = safeCastMap(new IterativeDecoder().decode(fileContent, 0).getValue(),
+        "top-level bencoded map");
+    this.infoMap = safeCastMap(fileContentMap.get("info"), "'info' dictionary");
+  }
+
+  private void requireRetained(String what, Retention... modes) {
+    for (Retention mode : modes) {
+      if (retention == mode) {
+        return;
       }
-      hashedPieces.add(Arrays.copyOfRange(fileContent, i, i + FILE_HASH_LENGTH));
     }
+    throw new IllegalStateException(what + " is not retained in " + retention + " mode");
   }
 
   /**
@@ -132,8 +413,8 @@ public class TorrentFileHandler {
   }
 
   /**
-   * Extracts a string value from a map for the given key. Throws an exception if the value is not a
-   * string.
+   * Extracts a string value from a map for the given key. Byte strings are decoded as UTF-8. Throws
+   * an exception if the value is not a string.
    *
    * @param map the map to extract from
    * @param key the key to look for
@@ -142,25 +423,57 @@ public class TorrentFileHandler {
    */
   public static String extractString(Map<String, Object> map, String key) {
     Object value = map.get(key);
-    if (!(value instanceof String)) {
+    if (!(value instanceof String) && !(value instanceof ByteString)) {
       throw new IllegalArgumentException("Expected a string for key: " + key);
     }
-    return (String) value;
+    return value.toString();
+  }
+
+  /**
+   * Extracts a binary byte string value from a map for the given key. Throws an exception if the
+   * value is not a {@link ByteString}.
+   *
+   * @param map the map to extract from
+   * @param key the key to look for
+   * @return the byte string value associated with the key
+   * @throws IllegalArgumentException if the value is not a byte string
+   */
+  public static ByteString extractByteString(Map<String, Object> map, String key) {
+    Object value = map.get(key);
+    if (!(value instanceof ByteString)) {
+      throw new IllegalArgumentException("Expected a byte string for key: " + key);
+    }
+    return (ByteString) value;
   }
 
   /**
    * Extracts an integer value from a map for the given key. Throws an exception if the value is not
-   * an integer.
+   * an integer or does not fit in an int.
    * @param map the map to extract from
    * @param key the key to look for
    * @return the integer value associated with the key
    */
   public static int extractInt(Map<String, Object> map, String key) {
+    long value = extractLong(map, key);
+    if (value < Integer.MIN_VALUE || value > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Integer out of range for key: " + key);
+    }
+    return (int) value;
+  }
+
+  /**
+   * Extracts a 64-bit integer value from a map for the given key. Throws an exception if the value
+   * is not an integer.
+   * @param map the map to extract from
+   * @param key the key to look for
+   * @return the integer value associated with the key
+   */
+  public static long extractLong(Map<String, Object> map, String key) {
     Object value = map.get(key);
-    if (!(value instanceof Integer)) {
+    if (!(value instanceof Long) && !(value instanceof Integer)) {
       throw new IllegalArgumentException("Expected an integer for key: " + key);
     }
-    return (Integer) value;
+    return ((Number) value).longValue();
   }
 
   /**
@@ -170,8 +483,22 @@ public class TorrentFileHandler {
    * @return the SHA-1 hash as a byte array
    */
   public static byte[] sha1Hash(byte[] data) {
+    return sha1Hash(data, 0, data.length);
+  }
+
+  /**
+   * Computes the SHA-1 hash of a range of the given byte array without copying it.
+   *
+   * @param data   the byte array holding the bytes to hash
+   * @param offset the index of the first byte to hash
+   * @param length the number of bytes to hash
+   * @return the SHA-1 hash as a byte array
+   */
+  public static byte[] sha1Hash(byte[] data, int offset, int length) {
     try {
-      return java.security.MessageDigest.getInstance("SHA-1").digest(data);
+      java.security.MessageDigest digest = java.security.MessageDigest.getInstance("SHA-1");
+      digest.update(data, offset, length);
+      return digest.digest();
     } catch (java.security.NoSuchAlgorithmException e) {
       throw new RuntimeException("SHA-1 algorithm not available", e);
     }
@@ -196,27 +523,100 @@ public class TorrentFileHandler {
     return torrentFilePath.toString();
   }
 
+  public Retention getRetention() {
+    return retention;
+  }
+
+  /**
+   * Returns the raw content of the torrent file.
+   *
+   * @return the file content
+   * @throws IllegalStateException if the content was not retained
+   */
   public byte[] getFileContent() {
+    requireRetained("File content", Retention.FULL);
     return fileContent;
   }
 
+  /**
+   * Returns the whole torrent file decoded into maps, decoding it on first use.
+   *
+   * @return the decoded top-level dictionary
+   * @throws IllegalStateException if the file content was not retained
+   */
   public Map<String, Object> getFileContentMap() {
+    requireRetained("File content", Retention.FULL);
+    if (fileContentMap == null) {
+      decodeMaps();
+    }
     return fileContentMap;
   }
 
+  /**
+   * Returns the 'info' dictionary decoded into a map, decoding it on first use.
+   *
+   * @return the decoded 'info' dictionary
+   * @throws IllegalStateException if neither the file content nor the 'info' dictionary was
+   *                               retained
+   */
   public Map<String, Object> getInfoMap() {
+    requireRetained("'info' dictionary", Retention.FULL, Retention.METADATA_AND_INFO);
+    if (infoMap == null) {
+      if (retention == Retention.FULL) {
+        decodeMaps();
+      } else {
+        this.infoMap = safeCastMap(new IterativeDecoder().decode(infoBytes, 0).getValue(),
+            "'info' dictionary");
+      }
+    }
     return infoMap;
   }
 
+  /**
+   * Returns the raw 'info' dictionary, including its 'd' and 'e' delimiters.
+   *
+   * @return a view of the 'info' dictionary bytes
+   * @throws IllegalStateException if neither the file content nor the 'info' dictionary was
+   *                               retained
+   */
+  public ByteString getInfoBytes() {
+    requireRetained("'info' dictionary", Retention.FULL, Retention.METADATA_AND_INFO);
+    if (retention == Retention.FULL) {
+      return ByteString.wrap(fileContent, infoByteRange.first(),
+          infoByteRange.second() - infoByteRange.first());
+    }
+    return ByteString.wrap(infoBytes);
+  }
+
   public byte[] getInfoHash() {
     return infoHash;
   }
 
+  /**
+   * Returns where the raw 'info' dictionary lies in {@link #getFileContent()}, including its 'd'
+   * and 'e' delimiters.
+   *
+   * @return the range of the 'info' dictionary, end exclusive
+   */
+  public NumberPair getInfoByteRange() {
+    return infoByteRange;
+  }
+
   public String getTrackerUrl() {
     return trackerUrl;
   }
 
-  public int getFileLength() {
+  /**
+   * Returns the trackers of the torrent as tiers, in the order of its 'announce-list' (BEP 12). A
+   * torrent without an 'announce-list' has a single tier holding its 'announce' URL.
+   *
+   * @return an unmodifiable list of non-empty tiers of tracker URLs
+   */
+  public List<List<String>> getAnnounceTiers() {
+    return announceTiers;
+  }
+
+  public long getFileLength() {
     return fileLength;
   }
 
@@ -224,7 +624,40 @@ public class TorrentFileHandler {
     return pieceLength;
   }
 
+  /**
+   * Returns the suggested name of the file or directory, or null if the torrent does not name it.
+   *
+   * @return the name from the 'info' dictionary
+   */
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * Returns the files described by the torrent, in order. A single-file torrent has one entry.
+   *
+   * @return an unmodifiable list of the files
+   */
+  public List<TorrentFileEntry> getFiles() {
+    return files;
+  }
+
+  /**
+   * Returns the piece hashes as a table, one 20-byte SHA-1 hash per piece. When the file content is
+   * retained the table views its 'pieces' value, otherwise it holds a compact copy.
+   *
+   * @return the piece hash table
+   */
+  public PieceHashTable getPieceHashTable() {
+    return pieceHashTable;
+  }
+
+  /**
+   * Returns a list view of {@link #getPieceHashTable()}. Each element is copied on access.
+   *
+   * @return the piece hashes as a list
+   */
   public List<byte[]> getHashedPieces() {
-    return Collections.unmodifiableList(hashedPieces);
+    return getPieceHashTable().asList();
   }
 }
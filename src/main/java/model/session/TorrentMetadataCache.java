@@ -0,0 +1,371 @@
+package model.session;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import model.decoder.NumberPair;
+
+/**
+ * model.session.TorrentMetadataCache keeps the parsed metadata of torrent files in a compact binary
+ * form, so that later runs can skip reading, decoding and hashing the torrent. Entries are keyed by
+ * the absolute path of the torrent and are only used while its size and modification time are
+ * unchanged; a stale or unreadable entry is replaced by parsing the torrent again.
+ * <p>
+ * Entries are memory-mapped when loaded and the piece hash table is used straight from the mapping,
+ * so a hit costs a few small reads regardless of the number of pieces. Handlers from the cache are in
+ * {@link TorrentFileHandler.Retention#METADATA} mode.
+ * <p>
+ * Besides the path, size and modification time, an entry records the torrent's file key, such as
+ * its inode, and a hash of its first and last few kilobytes, so that a torrent replaced or
+ * rewritten in place is noticed without reading it whole. Entries are trusted otherwise: the
+ * default cache lives in a per-user directory that other users can neither read nor write, and
+ * entries in a directory they could write are ignored.
+ * <p>
+ * The cache is best effort: if an entry cannot be written, for example because the directory is
+ * read-only, the freshly parsed handler is returned as usual. Entries are written to a temporary
+ * file and moved into place, so concurrent processes never see a partial entry.
+ *
+ * @author KX
+ */
+public class TorrentMetadataCache {
+
+  /**
+   * System property naming the directory used by {@link #defaultCache()}.
+   */
+  public static final String CACHE_DIRECTORY_PROPERTY = "bittorrent.metadata.cache";
+
+  private static final int MAGIC = 0x42544d43; // "BTMC"
+  private static final int VERSION = 5;
+  private static final String ENTRY_SUFFIX = ".meta";
+  // Bytes hashed at each end of the torrent for its fingerprint
+  private static final int FINGERPRINT_LENGTH = 4096;
+
+  private final Path cacheDirectory;
+
+  /**
+   * Constructs a model.session.TorrentMetadataCache storing its entries in the given directory. The
+   * directory is created when the first entry is written.
+   *
+   * @param cacheDirectory the directory holding the cache entries
+   * @throws IllegalArgumentException if cacheDirectory is null
+   */
+  public TorrentMetadataCache(Path cacheDirectory) {
+    if (cacheDirectory == null) {
+      throw new IllegalArgumentException("Cache directory cannot be null");
+    }
+    this.cacheDirectory = cacheDirectory;
+  }
+
+  /**
+   * Returns a cache in the directory named by the {@value #CACHE_DIRECTORY_PROPERTY} system
+   * property, or in the user's cache directory if it is not set.
+   *
+   * @return the default cache
+   */
+  public static TorrentMetadataCache defaultCache() {
+    String directory = System.getProperty(CACHE_DIRECTORY_PROPERTY);
+    if (directory == null || directory.isEmpty()) {
+      return new TorrentMetadataCache(CacheDirectories.defaultDirectory("metadata"));
+    }
+    return new TorrentMetadataCache(Path.of(directory));
+  }
+
+  /**
+   * Loads the metadata of a torrent file, from the cache if it holds an up-to-date entry for it,
+   * otherwise by parsing the file and caching the result.
+   *
+   * @param fileName the name of the torrent file
+   * @return a handler holding the torrent's metadata
+   * @throws NullPointerException     if fileName is null
+   * @throws IllegalArgumentException if the file name is invalid or the torrent is malformed, as for
+   *                                  {@link TorrentFileHandler#TorrentFileHandler(String)}
+   * @throws UncheckedIOException     if the torrent file cannot be read
+   */
+  public TorrentFileHandler load(String fileName) {
+    Path source = Path.of(fileName).toAbsolutePath().normalize();
+    BasicFileAttributes attributes = readAttributes(source);
+    byte[] fingerprint = attributes != null ? fingerprint(source, attributes.size()) : null;
+    if (fingerprint != null) {
+      TorrentFileHandler cached = read(fileName, source, attributes, fingerprint);
+      if (cached != null) {
+        return cached;
+      }
+    }
+
+    TorrentFileHandler tfh = new TorrentFileHandler(fileName,
+        TorrentFileHandler.Retention.METADATA);
+    if (fingerprint != null) {
+      write(source, attributes, fingerprint, tfh);
+    }
+    return tfh;
+  }
+
+  /**
+   * Returns the path of the cache entry for a torrent file. The entry may not exist.
+   *
+   * @param fileName the name of the torrent file
+   * @return the path of its cache entry
+   */
+  public Path getEntryPath(String fileName) {
+    Path source = Path.of(fileName).toAbsolutePath().normalize();
+    byte[] key = TorrentFileHandler.sha1Hash(source.toString().getBytes(StandardCharsets.UTF_8));
+    return cacheDirectory.resolve(TorrentFileHandler.bytesToHex(key) + ENTRY_SUFFIX);
+  }
+
+  public Path getCacheDirectory() {
+    return cacheDirectory;
+  }
+
+  private static BasicFileAttributes readAttributes(Path source) {
+    try {
+      return Files.readAttributes(source, BasicFileAttributes.class);
+    } catch (IOException e) {
+      // Let the handler report the missing or unreadable file
+      return null;
+    }
+  }
+
+  /**
+   * Returns the SHA-1 of the first and last {@value #FINGERPRINT_LENGTH} bytes of a torrent, or
+   * null if it cannot be read. Small torrents are hashed whole.
+   */
+  private static byte[] fingerprint(Path source, long size) {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException e) {
+      throw new RuntimeException("SHA-1 algorithm not available", e);
+    }
+    try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+      int headLength = (int) Math.min(size, FINGERPRINT_LENGTH);
+      long tailStart = Math.max(headLength, size - FINGERPRINT_LENGTH);
+      digest.update(readFully(channel, 0, headLength));
+      digest.update(readFully(channel, tailStart, (int) (size - tailStart)));
+      return digest.digest();
+    } catch (IOException e) {
+      // Let the handler report the unreadable file
+      return null;
+    }
+  }
+
+  private static ByteBuffer readFully(FileChannel channel, long position, int length)
+      throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(length);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new IOException("Torrent file shrank while reading it");
+      }
+    }
+    return buffer.flip();
+  }
+
+  /**
+   * Returns the file key of a torrent as stored in entries, empty if the file system has none.
+   */
+  private static String fileKey(BasicFileAttributes attributes) {
+    Object fileKey = attributes.fileKey();
+    return fileKey != null ? fileKey.toString() : "";
+  }
+
+  /**
+   * Reads the entry for a torrent, returning null if there is none, or it does not match the
+   * torrent's path, size, modification time, file key and fingerprint.
+   */
+  private TorrentFileHandler read(String fileName, Path source, BasicFileAttributes attributes,
+      byte[] fingerprint) {
+    if (!CacheDirectories.isPrivate(cacheDirectory)) {
+      return null;
+    }
+    Path entry = getEntryPath(source.toString());
+    MappedByteBuffer buffer;
+    try (FileChannel channel = FileChannel.open(entry, StandardOpenOption.READ)) {
+      // The mapping stays valid after the channel is closed
+      buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+    } catch (IOException e) {
+      // No entry yet, or it cannot be read
+      return null;
+    }
+
+    try {
+      if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION
+          || buffer.getLong() != attributes.size()
+          || buffer.getLong() != attributes.lastModifiedTime().toMillis()
+          || !source.toString().equals(readString(buffer))
+          || !fileKey(attributes).equals(readString(buffer))) {
+        return null;
+      }
+      byte[] entryFingerprint = new byte[fingerprint.length];
+      buffer.get(entryFingerprint);
+      if (!Arrays.equals(entryFingerprint, fingerprint)) {
+        return null;
+      }
+
+      byte[] infoHash = new byte[PieceHashTable.HASH_LENGTH];
+      buffer.get(infoHash);
+      NumberPair infoByteRange = new NumberPair(buffer.getInt(), buffer.getInt());
+      String trackerUrl = readString(buffer);
+      int tierCount = readCount(buffer);
+      List<List<String>> announceTiers = new ArrayList<>(tierCount);
+      for (int i = 0; i < tierCount; i++) {
+        int trackerCount = readCount(buffer);
+        List<String> tier = new ArrayList<>(trackerCount);
+        for (int j = 0; j < trackerCount; j++) {
+          tier.add(readString(buffer));
+        }
+        announceTiers.add(Collections.unmodifiableList(tier));
+      }
+      long fileLength = buffer.getLong();
+      int pieceLength = buffer.getInt();
+      String name = readString(buffer);
+
+      int fileCount = readCount(buffer);
+      List<TorrentFileEntry> files = new ArrayList<>(fileCount);
+      for (int i = 0; i < fileCount; i++) {
+        long length = buffer.getLong();
+        int componentCount = readCount(buffer);
+        List<String> path = new ArrayList<>(componentCount);
+        for (int j = 0; j < componentCount; j++) {
+          path.add(readString(buffer));
+        }
+        files.add(new TorrentFileEntry(path, length));
+      }
+
+      int tableLength = buffer.getInt();
+      if (tableLength != buffer.remaining()) {
+        return null;
+      }
+      PieceHashTable pieceHashes = PieceHashTable.wrap(buffer);
+
+      return new TorrentFileHandler(Path.of(fileName), infoHash, infoByteRange, trackerUrl, Collections.unmodifiableList(announceTiers), fileLength, pieceLength, name,
+          Collections.unmodifiableList(files),
+          pieceHashes);
+    } catch (BufferUnderflowException | IllegalArgumentException e) {
+      // Truncated or corrupt entry, parse the torrent again
+      return null;
+    }
+  }
+
+  /**
+   * Writes the entry for a torrent. Failures are ignored, the cache only saves work.
+   */
+  private void write(Path source, BasicFileAttributes attributes, byte[] fingerprint,
+      TorrentFileHandler tfh) {
+    Path entry = getEntryPath(source.toString());
+    Path temporary = null;
+    try {
+      ByteArrayOutputStream header = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(header);
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeLong(attributes.size());
+      out.writeLong(attributes.lastModifiedTime().toMillis());
+      writeString(out, source.toString());
+      writeString(out, fileKey(attributes));
+      out.write(fingerprint);
+      out.write(tfh.getInfoHash());
+      out.writeInt(tfh.getInfoByteRange().first());
+      out.writeInt(tfh.getInfoByteRange().second());
+      writeString(out, tfh.getTrackerUrl());
+      out.writeInt(tfh.getAnnounceTiers().size());
+      for (List<String> tier : tfh.getAnnounceTiers()) {
+        out.writeInt(tier.size());
+        for (String url : tier) {
+          writeString(out, url);
+        }
+      }
+      out.writeLong(tfh.getFileLength());
+      out.writeInt(tfh.getPieceLength());
+      writeString(out, tfh.getName());
+      out.writeInt(tfh.getFiles().size());
+      for (TorrentFileEntry file : tfh.getFiles()) {
+        out.writeLong(file.length());
+        out.writeInt(file.path().size());
+        for (String component : file.path()) {
+          writeString(out, component);
+        }
+      }
+      ByteBuffer table = tfh.getPieceHashTable().asReadOnlyBuffer();
+      out.writeInt(table.remaining());
+      out.flush();
+
+      CacheDirectories.createPrivate(cacheDirectory);
+      temporary = Files.createTempFile(cacheDirectory, "entry", ".tmp");
+      try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+        ByteBuffer headerBuffer = ByteBuffer.wrap(header.toByteArray());
+        while (headerBuffer.hasRemaining()) {
+          channel.write(headerBuffer);
+        }
+        while (table.hasRemaining()) {
+          channel.write(table);
+        }
+      }
+      Files.move(temporary, entry, StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      temporary = null;
+    } catch (IOException e) {
+      // Best effort, the torrent is simply parsed again next time
+    } finally {
+      if (temporary != null) {
+        try {
+          Files.deleteIfExists(temporary);
+        } catch (IOException ignored) {
+          // Nothing more to do
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes a length-prefixed UTF-8 string, with a length of -1 for null.
+   */
+  private static void writeString(DataOutputStream out, String value) throws IOException {
+    if (value == null) {
+      out.writeInt(-1);
+      return;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  /**
+   * Reads an element count, rejecting counts that the rest of the entry cannot hold.
+   */
+  private static int readCount(ByteBuffer buffer) {
+    int count = buffer.getInt();
+    if (count < 0 || count > buffer.remaining()) {
+      throw new IllegalArgumentException("Invalid count in cache entry: " + count);
+    }
+    return count;
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    int length = buffer.getInt();
+    if (length == -1) {
+      return null;
+    }
+    if (length < 0 || length > buffer.remaining()) {
+      throw new IllegalArgumentException("Invalid string length in cache entry: " + length);
+    }
+    byte[] bytes = new byte[length];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+}
@@ -3,21 +3,25 @@ package model.session;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
 import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.List;
-import java.util.Map.Entry;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Represents a torrent session that manages the downloading of pieces from remote peers for a
@@ -39,16 +43,33 @@ public class TorrentSession {
   }
 
   private final static int DEFAULT_PORT = 6881; // Default port for BitTorrent
+  private final static int DOWNLOAD_TIMEOUT_SECONDS = 300;
+  // How long to wait for the first announce, and for the completed and stopped announces
+  private final static int ANNOUNCE_TIMEOUT_SECONDS = 30;
+  private final static int EVENT_TIMEOUT_SECONDS = 5;
+  // How long sharing connections waits for the scrapes before giving up on the slow trackers
+  private final static int SCRAPE_TIMEOUT_SECONDS = 5;
+  // How long a peer having none of the queued pieces waits before looking again, doubling up to
+  // the maximum while it still has none
+  private final static long IDLE_PEER_MIN_WAIT_MS = 100;
+  private final static long IDLE_PEER_MAX_WAIT_MS = 2000;
+  // Handshakes with cached peers run here, alongside the first announce
+  private static final ExecutorService CONNECT_EXECUTOR = Executors.newCachedThreadPool(
+      runnable -> {
+        Thread thread = new Thread(runnable, "peer-connect");
+        thread.setDaemon(true);
+        return thread;
+      });
   private final TrackerClient trackerClient;
   private final Set<PeerSession> peerSessions;
   private final Path outputFilePath;
 
   private final String peerId;
 
-  private final int fileSize;
+  private final long fileSize;
   private final int pieceLength;
   private final int numPieces;
-  private final List<byte[]> pieceHashes;
+  private final PieceHashTable pieceHashes;
 
   /**
    * Maps piece indices to their current state in the torrent session. This allows tracking which
@@ -72,9 +93,46 @@ public class TorrentSession {
 
   /**
    * List of futures representing the download tasks for each peer session. This allows tracking the
-   * completion of each download task.
+   * completion of each download task. Also used as the lock that decides whether peers found by a
+   * re-announce can still join the download.
    */
-  private List<Future<?>> downloadFutures = new ArrayList<>();
+  private final List<Future<?>> downloadFutures = Collections.synchronizedList(new ArrayList<>());
+  /**
+   * Every peer returned by the tracker, the DHT or other peers, so that later reports only add new
+   * peers.
+   */
+  private final PeerSet knownPeers = new PeerSet();
+  /**
+   * Bytes received and verified by this session, shared with the tracker client and every peer
+   * session so that announces report the live totals.
+   */
+  private final TransferStatistics transferStatistics;
+  /**
+   * The most peers this session connects to. Peers announced beyond it are not remembered, so a
+   * later announce can offer them again once the budget grows.
+   */
+  private volatile int maxConnections = Integer.MAX_VALUE;
+  /**
+   * The peer sessions connected or still connecting, counted against the connection budget from
+   * the moment they are created, so that peers found at the same time cannot exceed it.
+   */
+  private final AtomicInteger reservedConnections = new AtomicInteger();
+  private volatile PeerCache peerCache;
+  private volatile DhtNode dhtNode;
+  private volatile LocalPeerDiscovery localPeerDiscovery;
+  /**
+   * When each peer last delivered a valid piece, in milliseconds since the epoch, saved to the peer
+   * cache when the download ends.
+   */
+  private final ConcurrentMap<PeerSession, Long> servingPeers = new ConcurrentHashMap<>();
+  private volatile AnnounceScheduler announceScheduler;
+  // Guarded by downloadFutures
+  private boolean acceptingPeers;
+  // Responses that arrived before the download tasks were submitted, null once they were; guarded
+  // by downloadFutures
+  private List<TrackerResponse> earlyResponses = new ArrayList<>();
+  // Completed once the first peer joins the download
+  private final CompletableFuture<Void> firstPeer = new CompletableFuture<>();
 
   /**
    * Constructs a model.session.TorrentSession with the specified parameters. Uses torrent files to initialize the
@@ -107,18 +165,19 @@ public class TorrentSession {
 
     this.outputFilePath = outputFilePath;
     this.peerId = idGenerator.generate();
-    this.peerSessions = new HashSet<>();
+    this.peerSessions = ConcurrentHashMap.newKeySet();
     this.fileSize = tfh.getFileLength();
     this.pieceLength = tfh.getPieceLength();
-    this.numPieces = (int) Math.ceil((double) fileSize / pieceLength);
-    this.pieceHashes = tfh.getHashedPieces();
+    this.numPieces = (int) ((fileSize + pieceLength - 1) / pieceLength);
+    this.pieceHashes = tfh.getPieceHashTable();
     this.peerSessionFactory = peerSessionFactory;
     this.pieceWriter = pieceWriter;
     this.executor = executor;
     this.trackerClientFactory = trackerClientFactory;
 
-    this.trackerClient = this.trackerClientFactory.create(tfh.getTrackerUrl(), DEFAULT_PORT,
-        this.fileSize, tfh.getInfoHash(), this.peerId);
+    this.transferStatistics = new TransferStatistics(fileSize);
+    this.trackerClient = createTrackerClient(tfh);
+    this.trackerClient.setTransferStatistics(transferStatistics);
 
     if (pieceHashes.size() != numPieces) {
       throw new IllegalArgumentException("Mismatch in number of pieces");
@@ -152,6 +211,24 @@ public class TorrentSession {
         null);
   }
 
+  /**
+   * Creates the client announcing to the torrent's trackers. Torrents with a single tracker use a
+   * client from the factory directly; multi-tracker torrents announce to every tier in parallel,
+   * and the peers found by the slower tiers join the download like those of a re-announce.
+   */
+  private TrackerClient createTrackerClient(TorrentFileHandler tfh) {
+    List<List<String>> tiers = tfh.getAnnounceTiers();
+    if (tiers == null || tiers.size() == 1 && tiers.get(0).size() == 1) {
+      return trackerClientFactory.create(tfh.getTrackerUrl(), DEFAULT_PORT, fileSize,
+          tfh.getInfoHash(), peerId);
+    }
+
+    TieredTrackerClient tieredClient = new TieredTrackerClient(tiers, DEFAULT_PORT, fileSize,
+        tfh.getInfoHash(), peerId, trackerClientFactory);
+    tieredClient.setAdditionalPeersListener(this::addAnnouncedPeers);
+    return tieredClient;
+  }
+
   /**
    * Finds remote peers from the tracker and creates model.session.PeerSession instances for each peer. This
    * method requests the tracker for a list of peers and initializes {@link PeerSession} objects for
@@ -162,19 +239,22 @@ public class TorrentSession {
   public List<PeerSession> findRemotePeers() {
     List<PeerSession> unconnectedPeers = new ArrayList<>();
 
-    try {
-      TrackerResponse tr = trackerClient.requestTracker();
-      for (Entry<String, Integer> entry : tr.getPeersMap().entrySet()) {
-        String ip = entry.getKey();
-        int port = entry.getValue();
-        PeerSession peerSession = peerSessionFactory.create(ip, port, peerId,
-            trackerClient.getInfoHash());
-        unconnectedPeers.add(peerSession);
-      }
+    TrackerResponse tr = requestPeers();
+    if (tr == null) {
+      return unconnectedPeers; // Return empty list if tracker request fails
+    }
+    PeerList peers = tr.getPeerList();
+    for (int i = 0; i < peers.size(); i++) {
+      unconnectedPeers.add(createPeerSession(peers, i));
+    }
+    return unconnectedPeers; // Return the list of unconnected peers
+  }
 
-      return unconnectedPeers; // Return the list of unconnected peers
+  private TrackerResponse requestPeers() {
+    try {
+      return trackerClient.requestTracker();
     } catch (Exception e) {
-      return unconnectedPeers; // Return empty list if tracker request fails
+      return null;
     }
   }
 
@@ -213,10 +293,8 @@ public class TorrentSession {
           byte[] pieceData = peer.downloadPiece(pieceIndex, pieceLength,
               pieceHashes.get(pieceIndex), fileSize);
 
-          byte[] expectedHash = pieceHashes.get(pieceIndex);
-
-          if (pieceData != null && Arrays.equals(TorrentFileHandler.sha1Hash(pieceData),
-              expectedHash)) {
+          if (pieceData != null && pieceHashes.matches(pieceIndex,
+              TorrentFileHandler.sha1Hash(pieceData))) {
             System.out.println("Downloaded piece " + pieceIndex + " from " + peer.getIpAddress());
             return pieceData;
           } else {
@@ -233,33 +311,379 @@ public class TorrentSession {
    * method initializes peer sessions, prepares the piece queue, and starts downloading pieces from
    * all available peers. It uses an ExecutorService to manage concurrent downloads.
    * <p>
+   * Peers come from an {@link AnnounceScheduler}: the {@code started} announce provides the first
+   * peers, and peers returned by later re-announces join the download while it runs. Peers
+   * remembered in the peer cache are connected in parallel, and every peer starts downloading as
+   * soon as it connects, without waiting for the tracker. The tracker is
+   * told when the download completes and when the session stops announcing. With a {@link DhtNode}
+   * set, the session is announced to the DHT too and the peers found there join the same way, as do
+   * the peers that connected peers report through ut_pex. With a {@link LocalPeerDiscovery} set,
+   * the torrent is announced on the local network and peers there are connected before remote ones.
+   * <p>
    * It will close all peer sessions after the download is complete, ensuring that resources are
    * released properly.
    *
-   * @throws IOException if an I/O error occurs during the download process or if no peers are
-   *                     available for download
+   * @throws IOException if an I/O error occurs during the download process, or if the download
+   *                     tasks ended with pieces still missing
    */
   public void downloadAll() throws IOException {
-    // Initialize peer sessions and prepare for downloading
-    initializePeerSessions();
-    if (peerSessions.isEmpty()) {
+    this.announceScheduler = new AnnounceScheduler(trackerClient, this::addAnnouncedPeers);
+    LocalPeerDiscovery discovery = this.localPeerDiscovery;
+    try {
+      // The first announce reaches the download through the scheduler's listener, like the others
+      CompletableFuture<TrackerResponse> firstAnnounce = announceScheduler.start();
+      if (discovery != null) {
+        discovery.register(trackerClient.getInfoHash(), DEFAULT_PORT, this::addDiscoveredPeers);
+      }
+
+      initializePieceQueue();
+      initializeOutputFile();
+
+      // Threads are created on demand, so peers found later get one of their own
+      this.executor = (this.executor != null)
+          ? this.executor
+          : Executors.newCachedThreadPool();
+
+      // Submit download tasks to the executor, each task will download pieces from a peer. Peers
+      // start downloading as soon as they connect, whichever source found them.
+      try {
+        submitDownloadTasks(executor);
+        // Peers remembered from earlier runs are connected while the tracker answers
+        CompletableFuture<Void> cachedConnections = connectCachedPeers();
+        // The DHT is searched in parallel too, its peers join like those of a re-announce
+        CompletableFuture<Void> dhtPeers = lookupDhtPeers().thenAccept(response -> {
+          if (response != null) {
+            addAnnouncedPeers(response);
+          }
+        });
+        awaitFirstPeer(CompletableFuture.allOf(firstAnnounce.exceptionally(e -> null),
+            cachedConnections, dhtPeers.exceptionally(e -> null)));
+        awaitCompletion(executor);
+      } finally {
+        synchronized (downloadFutures) {
+          acceptingPeers = false;
+        }
+        shutdownExecutor(executor);
+      }
+      if (!isDownloadComplete()) {
+        throw new IOException("Download incomplete - " + countMissingPieces()
+            + " pieces not downloaded");
+      }
+    } finally {
+      if (discovery != null) {
+        discovery.unregister(trackerClient.getInfoHash());
+      }
+      stopAnnouncing();
+      savePeerCache();
+    }
+  }
+
+  /**
+   * Waits until a peer has joined the download, or every source of peers has answered without
+   * one.
+   *
+   * @param peerSources completed once the first announce, the cached peers and the DHT lookup
+   *                    have all answered
+   * @throws IllegalStateException if no peer was found
+   */
+  private void awaitFirstPeer(CompletableFuture<Void> peerSources) {
+    try {
+      CompletableFuture.anyOf(firstPeer, peerSources).get(ANNOUNCE_TIMEOUT_SECONDS,
+          TimeUnit.SECONDS);
+    } catch (ExecutionException | TimeoutException e) {
+      // Decided by whether a peer joined in time
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (!firstPeer.isDone()) {
       throw new IllegalStateException("No peers available for download");
     }
+  }
+
+  private TrackerResponse awaitResponse(CompletableFuture<TrackerResponse> response) {
+    try {
+      return response.get(ANNOUNCE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    } catch (ExecutionException | TimeoutException e) {
+      return null; // No peers if the request fails, the scheduler keeps retrying the tracker
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    }
+  }
+
+  /**
+   * Creates and connects a peer session for every peer in the response that has not been seen
+   * before.
+   */
+  private void connectPeers(TrackerResponse response) {
+    if (response == null) {
+      return;
+    }
+    for (PeerSession peerSession : newPeers(response.getPeerList())) {
+      connectPeer(peerSession);
+    }
+  }
+
+  /**
+   * Creates sessions for the peers not seen before, as many as the connection budget allows. Each
+   * one reserves a connection until its handshake fails. Peers on the local network come first,
+   * they are usually much faster than remote ones.
+   */
+  private List<PeerSession> newPeers(PeerList peerList) {
+    List<PeerSession> peers = new ArrayList<>();
+    PeerList localPeers = peerList.filter(i -> isLocalPeer(peerList, i));
+    PeerList remotePeers = localPeers.size() == 0 ? peerList
+        : peerList.filter(i -> !isLocalPeer(peerList, i));
+    for (PeerList list : List.of(localPeers, remotePeers)) {
+      for (int i = 0; i < list.size(); i++) {
+        if (!reserveConnection()) {
+          return peers;
+        }
+        if (knownPeers.add(list, i)) {
+          peers.add(createPeerSession(list, i));
+        } else {
+          reservedConnections.decrementAndGet();
+        }
+      }
+    }
+    return peers;
+  }
+
+  private boolean reserveConnection() {
+    while (true) {
+      int reserved = reservedConnections.get();
+      if (reserved >= maxConnections) {
+        return false;
+      }
+      if (reservedConnections.compareAndSet(reserved, reserved + 1)) {
+        return true;
+      }
+    }
+  }
+
+  private static boolean isLocalPeer(PeerList peerList, int index) {
+    return LocalPeerDiscovery.isLocalAddress(peerList.getAddress(index).getAddress());
+  }
+
+  private PeerSession createPeerSession(PeerList peers, int index) {
+    PeerSession peerSession = peerSessionFactory.create(peers.getHost(index),
+        peers.getPort(index), peerId, trackerClient.getInfoHash());
+    peerSession.setTransferStatistics(transferStatistics);
+    peerSession.setPieceCount(numPieces);
+    peerSession.setPeerExchangeListener(this::addDiscoveredPeers);
+    return peerSession;
+  }
 
-    initializePieceQueue();
-    initializeOutputFile();
+  /**
+   * Adds the peers a connected peer reported through ut_pex or that announced themselves on the
+   * local network, like those of a re-announce.
+   *
+   * @param peers the peers found
+   */
+  private void addDiscoveredPeers(PeerList peers) {
+    addAnnouncedPeers(new TrackerResponse(0, 0, peers));
+  }
 
-    this.executor = (this.executor != null)
-        ? this.executor
-        : Executors.newFixedThreadPool(peerSessions.size());
+  /**
+   * Tells a peer which other peers this session is connected to, if it supports ut_pex. Called by
+   * the thread downloading from the peer, between pieces.
+   */
+  private void exchangePeers(PeerSession peerSession) {
+    if (!peerSession.supportsPeerExchange()) {
+      return;
+    }
+    List<InetSocketAddress> connectedPeers = new ArrayList<>();
+    for (PeerSession other : peerSessions) {
+      if (other != peerSession) {
+        connectedPeers.add(new InetSocketAddress(other.getIpAddress(), other.getPort()));
+      }
+    }
+    try {
+      peerSession.sendPeerExchange(connectedPeers);
+    } catch (IOException e) {
+      // The next request on the connection fails too and is handled there
+    }
+  }
 
-    // Submit download tasks to the executor, each task will download pieces from a peer
+  private boolean connectPeer(PeerSession peerSession) {
     try {
-      submitDownloadTasks(executor);
-      awaitCompletion(executor);
-    } finally {
-      shutdownExecutor(executor);
+      peerSession.peerHandshake();
+      peerSessions.add(peerSession);
+      return true;
+    } catch (IOException e) {
+      reservedConnections.decrementAndGet();
+      System.err.println(
+          "Failed to connect to peer: " + peerSession.getIpAddress() + ":"
+              + peerSession.getPort());
+      return false;
+    }
+  }
+
+  /**
+   * Adds the new peers from a re-announce to the running download. Each one is connected and then
+   * downloads pieces on its own task. Responses arriving before the download starts are kept until
+   * it does, those arriving after it ends are ignored.
+   *
+   * @param response the tracker's response to a re-announce
+   */
+  private void addAnnouncedPeers(TrackerResponse response) {
+    synchronized (downloadFutures) {
+      if (acceptingPeers) {
+        submitNewPeers(response);
+      } else if (earlyResponses != null) {
+        earlyResponses.add(response);
+      }
+    }
+  }
+
+  // Must hold the downloadFutures lock
+  private void submitNewPeers(TrackerResponse response) {
+    for (PeerSession peerSession : newPeers(response.getPeerList())) {
+      submitDownloadTask(() -> {
+        if (connectPeer(peerSession)) {
+          downloadPiecesForPeer(peerSession);
+        }
+      });
+    }
+  }
+
+  // Must hold the downloadFutures lock
+  private void submitDownloadTask(Runnable task) {
+    downloadFutures.add(executor.submit(task));
+    firstPeer.complete(null);
+  }
+
+  /**
+   * Starts a handshake with every peer of the peer cache on its own thread. Peers that answer join
+   * the session, and the running download once it has started.
+   *
+   * @return a future completed once every handshake has succeeded or failed
+   */
+  private CompletableFuture<Void> connectCachedPeers() {
+    PeerCache cache = this.peerCache;
+    if (cache == null) {
+      return CompletableFuture.completedFuture(null);
     }
+    List<InetSocketAddress> addresses = new ArrayList<>();
+    for (PeerCache.CachedPeer peer : cache.load(trackerClient.getInfoHash())) {
+      addresses.add(peer.address());
+    }
+
+    List<CompletableFuture<Void>> connections = new ArrayList<>();
+    for (PeerSession peerSession : newPeers(PeerList.of(addresses))) {
+      connections.add(CompletableFuture.runAsync(() -> connectCachedPeer(peerSession),
+          CONNECT_EXECUTOR));
+    }
+    return CompletableFuture.allOf(connections.toArray(new CompletableFuture<?>[0]));
+  }
+
+  private void connectCachedPeer(PeerSession peerSession) {
+    try {
+      peerSession.peerHandshake();
+    } catch (IOException e) {
+      reservedConnections.decrementAndGet();
+      return; // The peer left since it was cached
+    }
+    synchronized (downloadFutures) {
+      peerSessions.add(peerSession);
+      if (acceptingPeers) {
+        submitDownloadTask(() -> downloadPiecesForPeer(peerSession));
+      }
+    }
+  }
+
+  /**
+   * Announces this peer to the DHT and looks up the torrent's peers there, if the session has a
+   * DHT node.
+   *
+   * @return a future completed with the peers found as a response without intervals, or with null
+   * if the session has no DHT node
+   */
+  private CompletableFuture<TrackerResponse> lookupDhtPeers() {
+    DhtNode node = this.dhtNode;
+    if (node == null) {
+      return CompletableFuture.completedFuture(null);
+    }
+    return node.announcePeerAsync(trackerClient.getInfoHash(), DEFAULT_PORT)
+        .thenApply(peers -> new TrackerResponse(0, 0, peers));
+  }
+
+  private static void awaitCachedPeers(CompletableFuture<Void> connections) {
+    try {
+      connections.get(ANNOUNCE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    } catch (ExecutionException | TimeoutException e) {
+      // Whichever peers answered in time are used
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Saves the peers that delivered valid pieces, with their throughput, to the peer cache.
+   */
+  private void savePeerCache() {
+    PeerCache cache = this.peerCache;
+    if (cache == null || servingPeers.isEmpty()) {
+      return;
+    }
+    List<PeerCache.CachedPeer> peers = new ArrayList<>();
+    for (Map.Entry<PeerSession, Long> entry : servingPeers.entrySet()) {
+      PeerSession peerSession = entry.getKey();
+      InetSocketAddress address = new InetSocketAddress(peerSession.getIpAddress(),
+          peerSession.getPort());
+      if (!address.isUnresolved()) {
+        peers.add(new PeerCache.CachedPeer(address, entry.getValue(),
+            peerSession.getThroughput()));
+      }
+    }
+    cache.update(trackerClient.getInfoHash(), peers);
+  }
+
+  /**
+   * Reports the completion of the download if every piece was downloaded, then stops announcing.
+   * Both announces are waited for briefly so that they are sent before the client exits.
+   */
+  private void stopAnnouncing() {
+    AnnounceScheduler scheduler = this.announceScheduler;
+    try {
+      if (!scheduler.isStopped() && isDownloadComplete()) {
+        scheduler.complete().get(EVENT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+      }
+    } catch (ExecutionException | TimeoutException e) {
+      // The tracker will learn of the completion from the stopped announce's statistics
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    try {
+      scheduler.stop().get(EVENT_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    } catch (ExecutionException | TimeoutException e) {
+      // Best effort, the tracker drops peers that stop announcing
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private boolean isDownloadComplete() {
+    if (pieceStates.size() != numPieces) {
+      return false;
+    }
+    for (PieceState state : pieceStates.values()) {
+      if (state != PieceState.DOWNLOADED) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private int countMissingPieces() {
+    int missing = numPieces;
+    for (PieceState state : pieceStates.values()) {
+      if (state == PieceState.DOWNLOADED) {
+        missing--;
+      }
+    }
+    return missing;
   }
 
   private void initializePieceQueue() {
@@ -270,23 +694,48 @@ public class TorrentSession {
   }
 
   /**
-   * Awaits the completion of all download tasks submitted to the executor service. This method
-   * blocks until all tasks are completed or a timeout occurs.
+   * Awaits the completion of all download tasks, including those of peers that joined after the
+   * download started. This method blocks until all tasks are completed or a timeout occurs. Once
+   * they are, no more peers are accepted and the executor is shut down.
    *
    * @param executor the ExecutorService managing the download tasks
    * @throws IOException if the download times out or is interrupted
    */
   private void awaitCompletion(ExecutorService executor) throws IOException {
-    executor.shutdown();
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(DOWNLOAD_TIMEOUT_SECONDS);
     try {
-      // Wait for all tasks to complete with a reasonable timeout
-      if (!executor.awaitTermination(300, TimeUnit.SECONDS)) {
-        throw new IOException("Download timeout - not all pieces downloaded within time limit");
+      while (true) {
+        Future<?> pending = null;
+        synchronized (downloadFutures) {
+          for (Future<?> future : downloadFutures) {
+            if (!future.isDone()) {
+              pending = future;
+              break;
+            }
+          }
+          if (pending == null) {
+            acceptingPeers = false;
+            break;
+          }
+        }
+
+        try {
+          pending.get(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        } catch (ExecutionException e) {
+          // Download errors are handled within the task, carry on with the others
+        }
       }
+    } catch (TimeoutException e) {
+      throw new IOException("Download timeout - not all pieces downloaded within time limit");
     } catch (InterruptedException e) {
       Thread.currentThread().interrupt();
       throw new IOException("Download interrupted", e);
+    } finally {
+      synchronized (downloadFutures) {
+        acceptingPeers = false;
+      }
     }
+    executor.shutdown();
   }
 
   /**
@@ -335,36 +784,53 @@ public class TorrentSession {
    */
 
   private void submitDownloadTasks(ExecutorService executor) {
-    List<Future<?>> futures = new ArrayList<>();
-    for (PeerSession peerSession : peerSessions) {
-      // Download pieces concurrently for each peer session
-      Future<?> future = executor.submit(() -> downloadPiecesForPeer(peerSession));
-      futures.add(future);
+    synchronized (downloadFutures) {
+      downloadFutures.clear();
+      for (PeerSession peerSession : peerSessions) {
+        // Download pieces concurrently for each peer session, the futures are kept to check
+        // individual task completion
+        submitDownloadTask(() -> downloadPiecesForPeer(peerSession));
+      }
+      acceptingPeers = true;
+      for (TrackerResponse response : earlyResponses) {
+        submitNewPeers(response);
+      }
+      earlyResponses = null;
     }
-    // Store futures to check individual task completion
-    this.downloadFutures = futures;
   }
 
   /**
    * While there are pieces to download, this method will attempt to download pieces using the
-   * specified peer session. It will keep trying to download pieces until either the piece queue is
-   * empty or the peer session is no longer in the downloading state.
+   * specified peer session. It will keep trying to download pieces until every piece has been
+   * downloaded. While the peer has none of the queued pieces, or the queue is empty but pieces are
+   * still being downloaded by other peers and may be queued again, it waits and looks again.
    *
    * @param peerSession the model.session.PeerSession from which to download pieces
    */
   private void downloadPiecesForPeer(PeerSession peerSession) {
-    while (!pieceQueue.isEmpty()) {
+    long idleWait = IDLE_PEER_MIN_WAIT_MS;
+    while (!isDownloadComplete()) {
       // If peer session is already downloading another piece, skip to the next iteration
       if (peerSession.getSessionState().equals(PeerSession.SessionState.DOWNLOADING)) {
         continue;
       }
 
-      Integer pieceIndex = pieceQueue.poll();
+      Integer pieceIndex = pollPiece(peerSession);
       if (pieceIndex == null) {
-        break;
+        // The peer may announce more pieces, or a failed piece may be queued again
+        try {
+          Thread.sleep(idleWait);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return;
+        }
+        idleWait = Math.min(idleWait * 2, IDLE_PEER_MAX_WAIT_MS);
+        continue;
       }
+      idleWait = IDLE_PEER_MIN_WAIT_MS;
 
       try {
+        exchangePeers(peerSession);
         System.out.println("Starting download for piece " + pieceIndex +
             " from peer " + peerSession.getIpAddress());
         downloadSinglePiece(peerSession, pieceIndex);
@@ -377,11 +843,31 @@ public class TorrentSession {
         } catch (InterruptedException ie) {
           Thread.currentThread().interrupt(); // Restore interrupted status
           System.err.println("Download interrupted while waiting to retry piece " + pieceIndex);
+          return;
         }
       }
     }
   }
 
+  /**
+   * Takes the next piece to download from a peer out of the queue: a piece the peer prefers, such
+   * as one it allows fast while choking, else the first queued piece it has.
+   *
+   * @return the piece index, or null if the peer has none of the queued pieces
+   */
+  private Integer pollPiece(PeerSession peerSession) {
+    for (Integer pieceIndex : peerSession.getPreferredPieces()) {
+      if (pieceQueue.remove(pieceIndex)) {
+        return pieceIndex;
+      }
+    }
+    for (Integer pieceIndex : pieceQueue) {
+      if (peerSession.hasPiece(pieceIndex) && pieceQueue.remove(pieceIndex)) {
+        return pieceIndex;
+      }
+    }
+    return null;
+  }
 
   /**
    * Downloads a single piece from the specified peer session. This method checks the state of the
@@ -409,10 +895,11 @@ public class TorrentSession {
       byte[] pieceData = peerSession.downloadPiece(pieceIndex, pieceLength,
           pieceHashes.get(pieceIndex), fileSize);
 
-      byte[] expectedHash = pieceHashes.get(pieceIndex);
-      if (pieceData != null && Arrays.equals(TorrentFileHandler.sha1Hash(pieceData),
-          expectedHash)) {
-        writePieceToFile(outputFilePath.toString(), pieceData, pieceIndex * pieceLength);
+      if (pieceData != null && pieceHashes.matches(pieceIndex,
+          TorrentFileHandler.sha1Hash(pieceData))) {
+        writePieceToFile(outputFilePath.toString(), pieceData, (long) pieceIndex * pieceLength);
+        transferStatistics.addVerified(pieceData.length);
+        servingPeers.put(peerSession, System.currentTimeMillis());
 
         pieceStates.put(pieceIndex, PieceState.DOWNLOADED);
         pieceDownloaders.remove(pieceIndex);
@@ -432,25 +919,178 @@ public class TorrentSession {
     pieceQueue.add(pieceIndex);
   }
 
-  private void writePieceToFile(String filePath, byte[] data, int offset)
+  private void writePieceToFile(String filePath, byte[] data, long offset)
       throws IOException {
     this.pieceWriter.writePiece(filePath, data, offset);
   }
 
   private void initializePeerSessions() {
-    List<PeerSession> peers = findRemotePeers();
+    // Cached peers are connected while the tracker answers
+    CompletableFuture<Void> cachedConnections = connectCachedPeers();
+    // Cached peers still in their handshake are known, so the tracker's copies are skipped
+    connectPeers(requestPeers());
+    if (peerSessions.isEmpty()) {
+      awaitCachedPeers(cachedConnections);
+    }
+    if (peerSessions.isEmpty()) {
+      connectPeers(awaitResponse(lookupDhtPeers()));
+    }
+  }
 
-    for (PeerSession peerSession : peers) {
+  /**
+   * Scrapes the tracker for the size of this torrent's swarm. With several trackers, every one is
+   * asked and the tiers are reordered so that the trackers knowing the largest swarm are
+   * announced to first. {@link #shareConnections(int, List)} uses it to share a connection budget
+   * between sessions.
+   *
+   * @return the statistics of the swarm
+   * @throws TrackerCommunicationException     if no tracker can be scraped
+   * @throws MalformedTrackerResponseException if the scrape response cannot be decoded
+   */
+  public SwarmStatistics scrapeSwarm()
+      throws TrackerCommunicationException, MalformedTrackerResponseException {
+    return trackerClient.scrape();
+  }
+
+  /**
+   * Sets the most peers this session connects to. Connections already open are kept.
+   *
+   * @param maxConnections the connection budget of this session
+   * @throws IllegalArgumentException if maxConnections is not positive
+   */
+  public void setMaxConnections(int maxConnections) {
+    if (maxConnections <= 0) {
+      throw new IllegalArgumentException("Maximum connections must be a positive integer");
+    }
+    this.maxConnections = maxConnections;
+  }
+
+  public int getMaxConnections() {
+    return maxConnections;
+  }
+
+  /**
+   * Shares a budget of connections between sessions in proportion to the size of their swarms, as
+   * {@link SwarmStatistics#allocateConnections(int, List)} does, and sets the budget of each. The
+   * trackers of every session are scraped in parallel, which also moves the trackers knowing the
+   * largest swarms to the front of their tiers.
+   * <p>
+   * A session whose trackers cannot be scraped within a few seconds gets an even share of the
+   * budget, and the others share the rest. Every session is left at least one connection.
+   *
+   * @param budget   the total number of connections to share
+   * @param sessions the sessions sharing them
+   * @throws IllegalArgumentException if budget is not positive or sessions is null or holds null
+   */
+  public static void shareConnections(int budget, List<TorrentSession> sessions) {
+    if (budget <= 0) {
+      throw new IllegalArgumentException("Connection budget must be a positive integer");
+    }
+    if (sessions == null) {
+      throw new IllegalArgumentException("Sessions cannot be null");
+    }
+    for (TorrentSession session : sessions) {
+      if (session == null) {
+        throw new IllegalArgumentException("Sessions cannot be null");
+      }
+    }
+    if (sessions.isEmpty()) {
+      return;
+    }
+
+    List<CompletableFuture<List<SwarmStatistics>>> scrapes = new ArrayList<>();
+    for (TorrentSession session : sessions) {
+      TrackerClient client = session.trackerClient;
+      CompletableFuture<List<SwarmStatistics>> scrape;
       try {
-        peerSession.peerHandshake();
-        peerSessions.add(peerSession);
-      } catch (IOException e) {
-        System.err.println(
-            "Failed to connect to peer: " + peerSession.getIpAddress() + ":"
-                + peerSession.getPort());
-        e.printStackTrace();
+        scrape = client.scrapeAsync(List.of(client.getInfoHash()));
+      } catch (RuntimeException e) {
+        scrape = CompletableFuture.failedFuture(e);
+      }
+      scrapes.add(scrape);
+    }
+
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(SCRAPE_TIMEOUT_SECONDS);
+    List<SwarmStatistics> swarms = new ArrayList<>();
+    List<TorrentSession> scraped = new ArrayList<>();
+    List<TorrentSession> unknown = new ArrayList<>();
+    for (int i = 0; i < sessions.size(); i++) {
+      SwarmStatistics swarm = awaitScrape(scrapes.get(i), deadline);
+      if (swarm != null) {
+        swarms.add(swarm);
+        scraped.add(sessions.get(i));
+      } else {
+        unknown.add(sessions.get(i));
       }
     }
+
+    int evenShare = Math.max(1, budget / sessions.size());
+    for (TorrentSession session : unknown) {
+      session.setMaxConnections(evenShare);
+    }
+    int remaining = Math.max(0, budget - evenShare * unknown.size());
+    int[] connections = SwarmStatistics.allocateConnections(remaining, swarms);
+    for (int i = 0; i < scraped.size(); i++) {
+      scraped.get(i).setMaxConnections(Math.max(1, connections[i]));
+    }
+  }
+
+  private static SwarmStatistics awaitScrape(CompletableFuture<List<SwarmStatistics>> scrape,
+      long deadline) {
+    try {
+      List<SwarmStatistics> statistics = scrape.get(Math.max(0, deadline - System.nanoTime()),
+          TimeUnit.NANOSECONDS);
+      return statistics.isEmpty() ? null : statistics.get(0);
+    } catch (ExecutionException | TimeoutException e) {
+      return null; // Trackers that cannot be scraped do not decide the budget
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return null;
+    }
+  }
+
+  /**
+   * Sets the cache remembering the peers that delivered pieces. Its peers are connected as soon as
+   * a download starts, in parallel with the first announce, and it is updated when the download
+   * ends.
+   *
+   * @param peerCache the peer cache, or null to use the tracker alone
+   */
+  public void setPeerCache(PeerCache peerCache) {
+    this.peerCache = peerCache;
+  }
+
+  public PeerCache getPeerCache() {
+    return peerCache;
+  }
+
+  /**
+   * Sets the DHT node used to find peers alongside the trackers. The node must have been started;
+   * downloads announce this peer to the DHT and connect to the peers it knows.
+   *
+   * @param dhtNode the DHT node, or null to use the trackers alone
+   */
+  public void setDhtNode(DhtNode dhtNode) {
+    this.dhtNode = dhtNode;
+  }
+
+  public DhtNode getDhtNode() {
+    return dhtNode;
+  }
+
+  /**
+   * Sets the Local Service Discovery used to find peers on the local network. The discovery must
+   * have been started; downloads announce the torrent on it while they run, and the peers that
+   * answer join the download.
+   *
+   * @param localPeerDiscovery the local peer discovery, or null to find remote peers only
+   */
+  public void setLocalPeerDiscovery(LocalPeerDiscovery localPeerDiscovery) {
+    this.localPeerDiscovery = localPeerDiscovery;
+  }
+
+  public LocalPeerDiscovery getLocalPeerDiscovery() {
+    return localPeerDiscovery;
   }
 
   /**
@@ -469,6 +1109,7 @@ public class TorrentSession {
     }
 
     pieceDownloaders.clear();
+    reservedConnections.addAndGet(-peerSessions.size());
     peerSessions.clear();
   }
 
@@ -477,7 +1118,7 @@ public class TorrentSession {
     return peerId;
   }
 
-  public int getFileSize() {
+  public long getFileSize() {
     return fileSize;
   }
 
@@ -489,7 +1130,7 @@ public class TorrentSession {
     return numPieces;
   }
 
-  public List<byte[]> getPieceHashes() {
+  public PieceHashTable getPieceHashes() {
     return pieceHashes;
   }
 
@@ -501,6 +1142,10 @@ public class TorrentSession {
     return peerSessions;
   }
 
+  public TransferStatistics getTransferStatistics() {
+    return transferStatistics;
+  }
+
   public TrackerClient getTrackerClient() {
     return trackerClient;
   }
@@ -521,6 +1166,10 @@ public class TorrentSession {
     return executor;
   }
 
+  public AnnounceScheduler getAnnounceScheduler() {
+    return announceScheduler;
+  }
+
   public List<Future<?>> getDownloadFutures() {
     return downloadFutures;
   }
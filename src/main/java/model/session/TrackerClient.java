@@ -1,31 +1,79 @@
 package model.session;
 
 import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.NetworkInterface;
+import java.net.SocketException;
 import java.net.URI;
+import java.net.URLEncoder;
+import java.net.UnknownHostException;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import model.decoder.DecoderByteDTO;
-import model.decoder.DecoderDispatcher;
-import model.decoder.DictionaryDecoder;
-import model.decoder.NumberPair;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import model.decoder.BencodeReader;
+import model.decoder.BencodeReader.Token;
+import model.decoder.ByteString;
 
 /**
  * A client for interacting with a BitTorrent tracker. This class handles sending requests to the
- * tracker and parsing the responses.
+ * tracker and parsing the responses. Announces can be made blocking with {@link #requestTracker()}
+ * or without blocking with {@link #announceAsync(Event)}, which {@link AnnounceScheduler} uses to
+ * re-announce during a download.
  *
  * @author KX
  */
 public class TrackerClient {
 
+  /**
+   * The event reported with an announce.
+   */
+  public enum Event {
+    /** A regular announce, no event is sent. */
+    NONE,
+    /** The first announce of a download. */
+    STARTED,
+    /** The download has just completed. */
+    COMPLETED,
+    /** The client is shutting down gracefully. */
+    STOPPED
+  }
+
   public static final Set<Byte> UNRESERVED = new HashSet<>();
   private static final String PEERS_KEY = "peers";
+  private static final String PEERS6_KEY = "peers6";
   private static final String INTERVAL_KEY = "interval";
+  private static final String MIN_INTERVAL_KEY = "min interval";
+  private static final String FILES_KEY = "files";
+  private static final String COMPLETE_KEY = "complete";
+  private static final String DOWNLOADED_KEY = "downloaded";
+  private static final String INCOMPLETE_KEY = "incomplete";
+  private static final String FAILURE_REASON_KEY = "failure reason";
+
+  /**
+   * The most info hashes sent in one HTTP scrape request, which keeps the URL well within the
+   * length trackers and proxies accept.
+   */
+  public static final int MAX_HTTP_SCRAPE_HASHES = 50;
+
+  /**
+   * Limits applied when decoding tracker responses, which come from the network and cannot be
+   * trusted. A compact peer list of a few thousand peers is well within these bounds.
+   */
+  private static final int MAX_RESPONSE_DEPTH = 32;
+  private static final int MAX_RESPONSE_SIZE = 4 * 1024 * 1024;
 
   static {
     // Populate unreserved byte set
@@ -46,14 +94,15 @@ public class TrackerClient {
 
   private final String trackerUrl;
   private final int port;
-  private final int downloadedFileSize;
+  private final long downloadedFileSize;
   private final byte[] infoHash;
   private final String peerId;
 
-  private int uploaded;
-  private int downloaded;
-  private int left;
+  // Replaced by the session with its own counters, read while announces are built
+  private volatile TransferStatistics transferStatistics;
   private final int compactMode;
+  // Our IPv6 address, advertised to trackers so that IPv6 peers can find us (BEP 7)
+  private volatile Inet6Address ipv6Address;
 
   private final HttpClient client;
 
@@ -68,7 +117,7 @@ public class TrackerClient {
    * @param peerId             the peer ID, must be 20 bytes long
    * @throws IllegalArgumentException if any parameter is invalid
    */
-  public TrackerClient(String trackerUrl, int port, int downloadedFileSize, byte[] infoHash,
+  public TrackerClient(String trackerUrl, int port, long downloadedFileSize, byte[] infoHash,
       String peerId) throws IllegalArgumentException {
     this(trackerUrl, port, downloadedFileSize, infoHash, peerId,
         HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(20)).build());
@@ -85,7 +134,7 @@ public class TrackerClient {
    * @param client             an HttpClient instance to use for requests
    * @throws IllegalArgumentException if any parameter is invalid
    */
-  public TrackerClient(String trackerUrl, int port, int downloadedFileSize, byte[] infoHash,
+  public TrackerClient(String trackerUrl, int port, long downloadedFileSize, byte[] infoHash,
       String peerId, HttpClient client) throws IllegalArgumentException {
     if (trackerUrl == null || trackerUrl.isEmpty()) {
       throw new IllegalArgumentException("Tracker URL cannot be null or empty");
@@ -116,9 +165,7 @@ public class TrackerClient {
     this.downloadedFileSize = downloadedFileSize;
     this.infoHash = infoHash;
     this.peerId = peerId;
-    this.uploaded = 0;
-    this.downloaded = 0;
-    this.left = downloadedFileSize;
+    this.transferStatistics = new TransferStatistics(downloadedFileSize);
     this.compactMode = 1; // Assuming compact mode is enabled
 
     this.client = client;
@@ -135,15 +182,264 @@ public class TrackerClient {
    */
   public TrackerResponse requestTracker()
       throws TrackerCommunicationException, IllegalArgumentException, MalformedTrackerResponseException {
-    String trackerUrl = buildTrackerUrl();
+    String trackerUrl = buildTrackerUrl(Event.NONE);
     System.out.println("Requesting tracker: " + trackerUrl);
 
     try {
       HttpResponse<byte[]> response = sendTrackerRequest(trackerUrl);
       return parseTrackerResponse(response.body());
     } catch (IOException | InterruptedException e) {
-      throw new TrackerCommunicationException("Failed to contact tracker" + e.getMessage());
+      throw TrackerCommunicationException.contactFailed(e);
+    }
+  }
+
+  /**
+   * Announces to the tracker without blocking. The request is sent with
+   * {@link HttpClient#sendAsync} and the response is parsed on the client's executor.
+   * <p>
+   * The returned future fails with a {@link CompletionException} whose cause is a
+   * {@link TrackerCommunicationException} if the tracker cannot be reached or answers with an error
+   * status, a {@link MalformedTrackerResponseException} if required fields are missing, or an
+   * {@link IllegalArgumentException} if the response cannot be decoded.
+   *
+   * @param event the event to report, or {@link Event#NONE} for a regular announce
+   * @return a future completed with the tracker's response
+   * @throws IllegalArgumentException if event is null
+   */
+  public CompletableFuture<TrackerResponse> announceAsync(Event event) {
+    if (event == null) {
+      throw new IllegalArgumentException("Event cannot be null");
+    }
+    HttpRequest request = HttpRequest.newBuilder()
+        .uri(URI.create(buildTrackerUrl(event)))
+        .GET()
+        .build();
+
+    return client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+        .handle((response, error) -> {
+          if (error != null) {
+            throw new CompletionException(TrackerCommunicationException.contactFailed(error));
+          }
+          try {
+            checkStatus(response);
+            return parseTrackerResponse(response.body());
+          } catch (TrackerCommunicationException | MalformedTrackerResponseException e) {
+            throw new CompletionException(e);
+          }
+        });
+  }
+
+  /**
+   * Asks the tracker for the size of this torrent's swarm without announcing.
+   *
+   * @return the seeders, leechers and completed downloads the tracker knows of
+   * @throws TrackerCommunicationException     if the tracker cannot be reached, does not support
+   *                                           scraping or refuses the request
+   * @throws MalformedTrackerResponseException if the response cannot be decoded
+   */
+  public SwarmStatistics scrape()
+      throws TrackerCommunicationException, MalformedTrackerResponseException {
+    return scrape(List.of(infoHash)).get(0);
+  }
+
+  /**
+   * Asks the tracker for the swarm statistics of several torrents, following the scrape
+   * convention: the last path segment of the announce URL, which must start with "announce", is
+   * replaced with "scrape". Hashes are sent {@value #MAX_HTTP_SCRAPE_HASHES} to a request. Torrents
+   * the tracker does not know are reported with {@link SwarmStatistics#EMPTY}.
+   *
+   * @param infoHashes the info hashes of the torrents
+   * @return the statistics of each torrent, in the order of the hashes
+   * @throws IllegalArgumentException          if the list is null or a hash is not 20 bytes long
+   * @throws TrackerCommunicationException     if the tracker cannot be reached, does not support
+   *                                           scraping or refuses the request
+   * @throws MalformedTrackerResponseException if a response cannot be decoded
+   */
+  public List<SwarmStatistics> scrape(List<byte[]> infoHashes)
+      throws TrackerCommunicationException, MalformedTrackerResponseException {
+    try {
+      return scrapeAsync(infoHashes).join();
+    } catch (CompletionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof TrackerCommunicationException tce) {
+        throw tce;
+      }
+      if (cause instanceof MalformedTrackerResponseException mtre) {
+        throw mtre;
+      }
+      if (cause instanceof RuntimeException re) {
+        throw re;
+      }
+      throw TrackerCommunicationException.contactFailed(cause);
+    }
+  }
+
+  /**
+   * Scrapes the tracker without blocking. Every batch of hashes is requested at once with
+   * {@link HttpClient#sendAsync}.
+   *
+   * @param infoHashes the info hashes of the torrents
+   * @return a future completed with the statistics of each torrent in the order of the hashes, or
+   * failing like {@link #announceAsync(Event)}
+   * @throws IllegalArgumentException if the list is null or a hash is not 20 bytes long
+   */
+  public CompletableFuture<List<SwarmStatistics>> scrapeAsync(List<byte[]> infoHashes) {
+    checkInfoHashes(infoHashes);
+    String scrapeUrl = toScrapeUrl(trackerUrl);
+    if (scrapeUrl == null) {
+      return CompletableFuture.failedFuture(
+          new TrackerCommunicationException("Tracker does not support scrape: " + trackerUrl));
+    }
+
+    List<CompletableFuture<List<SwarmStatistics>>> batches = new ArrayList<>();
+    for (int from = 0; from < infoHashes.size(); from += MAX_HTTP_SCRAPE_HASHES) {
+      List<byte[]> batch = infoHashes.subList(from,
+          Math.min(from + MAX_HTTP_SCRAPE_HASHES, infoHashes.size()));
+      batches.add(scrapeBatch(scrapeUrl, batch));
+    }
+
+    return CompletableFuture.allOf(batches.toArray(new CompletableFuture<?>[0]))
+        .thenApply(done -> {
+          List<SwarmStatistics> statistics = new ArrayList<>(infoHashes.size());
+          for (CompletableFuture<List<SwarmStatistics>> batch : batches) {
+            statistics.addAll(batch.join());
+          }
+          return statistics;
+        });
+  }
+
+  private CompletableFuture<List<SwarmStatistics>> scrapeBatch(String scrapeUrl,
+      List<byte[]> batch) {
+    StringBuilder url = new StringBuilder(scrapeUrl);
+    char separator = scrapeUrl.indexOf('?') < 0 ? '?' : '&';
+    for (byte[] hash : batch) {
+      url.append(separator).append("info_hash=").append(urlEncodeHash(hash));
+      separator = '&';
+    }
+    HttpRequest request = HttpRequest.newBuilder()
+        .uri(URI.create(url.toString()))
+        .GET()
+        .build();
+
+    return client.sendAsync(request, HttpResponse.BodyHandlers.ofByteArray())
+        .handle((response, error) -> {
+          if (error != null) {
+            throw new CompletionException(TrackerCommunicationException.contactFailed(error));
+          }
+          try {
+            checkStatus(response);
+            Map<ByteString, SwarmStatistics> files = parseScrapeResponse(response.body());
+            List<SwarmStatistics> statistics = new ArrayList<>(batch.size());
+            for (byte[] hash : batch) {
+              statistics.add(files.getOrDefault(ByteString.wrap(hash), SwarmStatistics.EMPTY));
+            }
+            return statistics;
+          } catch (TrackerCommunicationException | MalformedTrackerResponseException e) {
+            throw new CompletionException(e);
+          }
+        });
+  }
+
+  /**
+   * Derives the scrape URL of a tracker from its announce URL.
+   *
+   * @param announceUrl the announce URL of the tracker
+   * @return the scrape URL, or null if the last path segment does not start with "announce" and
+   * the tracker therefore does not support scraping
+   */
+  public static String toScrapeUrl(String announceUrl) {
+    if (announceUrl == null) {
+      return null;
+    }
+    int query = announceUrl.indexOf('?');
+    int slash = announceUrl.lastIndexOf('/', query < 0 ? announceUrl.length() : query);
+    if (slash < 0 || !announceUrl.startsWith("announce", slash + 1)) {
+      return null;
     }
+    return announceUrl.substring(0, slash + 1) + "scrape"
+        + announceUrl.substring(slash + 1 + "announce".length());
+  }
+
+  /**
+   * Checks a list of info hashes passed to a scrape.
+   *
+   * @param infoHashes the info hashes to check
+   * @throws IllegalArgumentException if the list is null or a hash is not 20 bytes long
+   */
+  protected static void checkInfoHashes(List<byte[]> infoHashes) {
+    if (infoHashes == null) {
+      throw new IllegalArgumentException("Info hashes cannot be null");
+    }
+    for (byte[] hash : infoHashes) {
+      if (hash == null || hash.length != 20) {
+        throw new IllegalArgumentException("Info hash must be 20 bytes long");
+      }
+    }
+  }
+
+  /**
+   * Sets the counters whose values are reported in the following announces. The session shares
+   * its counters with the client, so every announce carries the live totals without the session
+   * having to push them.
+   *
+   * @param transferStatistics the counters of the session
+   * @throws IllegalArgumentException if transferStatistics is null
+   */
+  public void setTransferStatistics(TransferStatistics transferStatistics) {
+    if (transferStatistics == null) {
+      throw new IllegalArgumentException("Transfer statistics cannot be null");
+    }
+    this.transferStatistics = transferStatistics;
+  }
+
+  public TransferStatistics getTransferStatistics() {
+    return transferStatistics;
+  }
+
+  /**
+   * Sets the IPv6 address advertised in announces, so that the tracker can hand it to IPv6 peers
+   * even when the announce itself is made over IPv4 (BEP 7).
+   *
+   * @param ipv6Address our IPv6 address, or null to advertise none
+   */
+  public void setIpv6Address(Inet6Address ipv6Address) {
+    this.ipv6Address = ipv6Address;
+  }
+
+  public Inet6Address getIpv6Address() {
+    return ipv6Address;
+  }
+
+  /**
+   * Looks for a global IPv6 address on the network interfaces that are up. Loopback, link-local,
+   * site-local and unique local (fc00::/7) addresses are skipped, as peers elsewhere cannot reach
+   * them.
+   *
+   * @return a global IPv6 address of this host, or null if it has none
+   */
+  public static Inet6Address findGlobalIpv6Address() {
+    try {
+      Enumeration<NetworkInterface> interfaces = NetworkInterface.getNetworkInterfaces();
+      while (interfaces != null && interfaces.hasMoreElements()) {
+        NetworkInterface networkInterface = interfaces.nextElement();
+        if (!networkInterface.isUp() || networkInterface.isLoopback()) {
+          continue;
+        }
+        Enumeration<InetAddress> addresses = networkInterface.getInetAddresses();
+        while (addresses.hasMoreElements()) {
+          if (addresses.nextElement() instanceof Inet6Address address
+              && !address.isLinkLocalAddress() && !address.isSiteLocalAddress()
+              && !address.isLoopbackAddress() && !address.isMulticastAddress()
+              && (address.getAddress()[0] & 0xFE) != 0xFC) {
+            // Drop the interface scope, which means nothing to other hosts
+            return (Inet6Address) InetAddress.getByAddress(address.getAddress());
+          }
+        }
+      }
+    } catch (SocketException | UnknownHostException e) {
+      // Treat unreadable interfaces as having no address
+    }
+    return null;
   }
 
   private HttpResponse<byte[]> sendTrackerRequest(String trackerUrl)
@@ -154,16 +450,22 @@ public class TrackerClient {
         .build();
 
     HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+    checkStatus(response);
+    return response;
+  }
+
+  private static void checkStatus(HttpResponse<byte[]> response)
+      throws TrackerCommunicationException {
     if (response.statusCode() != 200) {
       throw new TrackerCommunicationException(
           "Tracker returned non-200 response: " + response.statusCode());
     }
-    return response;
   }
 
   /**
-   * Parses the tracker response and extracts the interval and peer list. Using
-   * {@link DecoderDispatcher}
+   * Parses the tracker response and extracts the interval, minimum interval and peer list. Using
+   * {@link BencodeReader}, so other fields are skipped without being decoded and a malicious
+   * response cannot exhaust the stack
    *
    * @param responseBody the raw byte array of the tracker response
    * @return a model.session.TrackerResponse containing the interval and peer list in binary format
@@ -173,29 +475,68 @@ public class TrackerClient {
   private TrackerResponse parseTrackerResponse(byte[] responseBody)
       throws IllegalArgumentException, MalformedTrackerResponseException {
     try {
-      DecoderDispatcher decoderDispatcher = new DecoderDispatcher();
-      DictionaryDecoder dictionaryDecoder = new DictionaryDecoder(decoderDispatcher);
-      DecoderByteDTO<Map<String, Object>> decoded = dictionaryDecoder.decode(responseBody, 0);
-      Map<String, Object> decodedResponse = decoded.getValue();
+      if (responseBody.length > MAX_RESPONSE_SIZE) {
+        throw new IllegalArgumentException("Response of " + responseBody.length
+            + " bytes exceeds the maximum size of " + MAX_RESPONSE_SIZE + " bytes");
+      }
+
+      BencodeReader reader = new BencodeReader(responseBody, 0, MAX_RESPONSE_DEPTH);
+      if (reader.next() != Token.DICT_START) {
+        throw new IllegalArgumentException("Expected a Map for tracker response");
+      }
+
+      ByteString peers = null;
+      ByteString peers6 = null;
+      long interval = -1;
+      long minInterval = 0;
+      while (reader.next() == Token.KEY) {
+        if (reader.keyEquals(PEERS_KEY)) {
+          // The compact peer list is a binary byte string
+          if (reader.next() != Token.BYTES) {
+            throw new IllegalArgumentException("Expected a byte string for key: " + PEERS_KEY);
+          }
+          peers = reader.getBytes();
+        } else if (reader.keyEquals(PEERS6_KEY)) {
+          // IPv6 peers (BEP 7), 18 bytes each
+          if (reader.next() != Token.BYTES) {
+            throw new IllegalArgumentException("Expected a byte string for key: " + PEERS6_KEY);
+          }
+          peers6 = reader.getBytes();
+        } else if (reader.keyEquals(INTERVAL_KEY)) {
+          if (reader.next() != Token.INTEGER) {
+            throw new IllegalArgumentException("Expected an integer for key: " + INTERVAL_KEY);
+          }
+          interval = reader.getLong();
+          if (interval < 0 || interval > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Integer out of range for key: " + INTERVAL_KEY);
+          }
+        } else if (reader.keyEquals(MIN_INTERVAL_KEY)) {
+          if (reader.next() != Token.INTEGER) {
+            throw new IllegalArgumentException("Expected an integer for key: " + MIN_INTERVAL_KEY);
+          }
+          minInterval = reader.getLong();
+          if (minInterval < 0 || minInterval > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException(
+                "Integer out of range for key: " + MIN_INTERVAL_KEY);
+          }
+        } else {
+          reader.skipValue();
+        }
+      }
 
       // Validate required fields
-      if (!decodedResponse.containsKey(PEERS_KEY) || !decodedResponse.containsKey(INTERVAL_KEY)) {
+      // Trackers with only IPv6 peers may send 'peers6' without 'peers'
+      if ((peers == null && peers6 == null) || interval < 0) {
         StringBuilder exceptionMessage = new StringBuilder(
             "Missing 'peers' or 'interval' in tracker response");
-        exceptionMessage.append("\n").append("Current Response: ").append(decodedResponse);
+        exceptionMessage.append("\n").append("Current Response: ")
+            .append(new String(responseBody, StandardCharsets.UTF_8));
         throw new MalformedTrackerResponseException(exceptionMessage.toString());
       }
 
-      // Extract peers
-      NumberPair peersByteRange = decoded.getByteRange(PEERS_KEY);
-      int start = peersByteRange.first();
-      int endExclusive = peersByteRange.second() + 1; // ensure contract is correct
-      byte[] peersArray = Arrays.copyOfRange(responseBody, start, endExclusive);
-
-      // Extract interval
-      int interval = TorrentFileHandler.extractInt(decodedResponse, INTERVAL_KEY);
-
-      return new TrackerResponse(interval, peersArray);
+      return new TrackerResponse((int) interval, (int) minInterval,
+          PeerList.fromCompact(peers == null ? null : peers.asReadOnlyBuffer(),
+              peers6 == null ? null : peers6.asReadOnlyBuffer()));
     } catch (MalformedTrackerResponseException e) {
       throw e;
     } catch (Exception e) {
@@ -204,16 +545,121 @@ public class TrackerClient {
     }
   }
 
-  private String buildTrackerUrl() {
+  /**
+   * Parses a scrape response, a 'files' dictionary from info hashes to dictionaries of
+   * 'complete', 'downloaded' and 'incomplete' counts. The keys of the returned map are views of the
+   * response body.
+   *
+   * @param responseBody the raw bytes of the scrape response
+   * @return the statistics of every torrent in the response, by info hash
+   * @throws TrackerCommunicationException     if the tracker reported a failure reason
+   * @throws MalformedTrackerResponseException if the response cannot be decoded or has no 'files'
+   */
+  private static Map<ByteString, SwarmStatistics> parseScrapeResponse(byte[] responseBody)
+      throws TrackerCommunicationException, MalformedTrackerResponseException {
+    if (responseBody.length > MAX_RESPONSE_SIZE) {
+      throw new MalformedTrackerResponseException("Scrape response of " + responseBody.length
+          + " bytes exceeds the maximum size of " + MAX_RESPONSE_SIZE + " bytes");
+    }
+
+    Map<ByteString, SwarmStatistics> files = null;
+    String failureReason = null;
+    try {
+      BencodeReader reader = new BencodeReader(responseBody, 0, MAX_RESPONSE_DEPTH);
+      if (reader.next() != Token.DICT_START) {
+        throw new MalformedTrackerResponseException("Expected a Map for scrape response");
+      }
+      while (reader.next() == Token.KEY) {
+        if (reader.keyEquals(FILES_KEY)) {
+          if (reader.next() != Token.DICT_START) {
+            throw new MalformedTrackerResponseException(
+                "Expected a Map for key: " + FILES_KEY);
+          }
+          files = new HashMap<>();
+          while (reader.next() == Token.KEY) {
+            ByteString hash = reader.getBytes();
+            if (reader.next() != Token.DICT_START) {
+              throw new MalformedTrackerResponseException("Expected a Map for a scraped torrent");
+            }
+            files.put(hash, readSwarmStatistics(reader));
+          }
+        } else if (reader.keyEquals(FAILURE_REASON_KEY)) {
+          if (reader.next() != Token.BYTES) {
+            throw new MalformedTrackerResponseException(
+                "Expected a byte string for key: " + FAILURE_REASON_KEY);
+          }
+          failureReason = reader.getString();
+        } else {
+          reader.skipValue();
+        }
+      }
+    } catch (IllegalArgumentException | IllegalStateException e) {
+      throw new MalformedTrackerResponseException(
+          "Failed to decode scrape response: " + e.getMessage());
+    }
+
+    if (failureReason != null) {
+      throw new TrackerCommunicationException("Tracker refused scrape: " + failureReason);
+    }
+    if (files == null) {
+      throw new MalformedTrackerResponseException("Missing 'files' in scrape response");
+    }
+    return files;
+  }
+
+  /**
+   * Reads the counts of one torrent, the reader being just inside its dictionary.
+   */
+  private static SwarmStatistics readSwarmStatistics(BencodeReader reader)
+      throws MalformedTrackerResponseException {
+    int complete = 0;
+    int downloaded = 0;
+    int incomplete = 0;
+    while (reader.next() == Token.KEY) {
+      if (reader.keyEquals(COMPLETE_KEY)) {
+        complete = readCount(reader, COMPLETE_KEY);
+      } else if (reader.keyEquals(DOWNLOADED_KEY)) {
+        downloaded = readCount(reader, DOWNLOADED_KEY);
+      } else if (reader.keyEquals(INCOMPLETE_KEY)) {
+        incomplete = readCount(reader, INCOMPLETE_KEY);
+      } else {
+        reader.skipValue();
+      }
+    }
+    return new SwarmStatistics(complete, downloaded, incomplete);
+  }
+
+  private static int readCount(BencodeReader reader, String key)
+      throws MalformedTrackerResponseException {
+    if (reader.next() != Token.INTEGER) {
+      throw new MalformedTrackerResponseException("Expected an integer for key: " + key);
+    }
+    long count = reader.getLong();
+    if (count < 0 || count > Integer.MAX_VALUE) {
+      throw new MalformedTrackerResponseException("Integer out of range for key: " + key);
+    }
+    return (int) count;
+  }
+
+  private String buildTrackerUrl(Event event) {
     StringBuilder url = new StringBuilder(trackerUrl);
     //url.append("?info_hash=").append(URLEncoder.encode(new String(infoHash, StandardCharsets.ISO_8859_1), "ISO-8859-1"));
     url.append("?info_hash=").append(urlEncodeHash(infoHash));
     url.append("&peer_id=").append(peerId);
     url.append("&port=").append(port);
-    url.append("&uploaded=").append(uploaded);
-    url.append("&downloaded=").append(downloaded);
-    url.append("&left=").append(left);
+    TransferStatistics statistics = transferStatistics;
+    url.append("&uploaded=").append(statistics.getUploaded());
+    url.append("&downloaded=").append(statistics.getDownloaded());
+    url.append("&left=").append(statistics.getLeft());
     url.append("&compact=").append(compactMode); // compact = 1 means peer list is in binary format
+    if (event != Event.NONE) {
+      url.append("&event=").append(event.name().toLowerCase());
+    }
+    Inet6Address ipv6 = ipv6Address;
+    if (ipv6 != null) {
+      url.append("&ipv6=").append(URLEncoder.encode(ipv6.getHostAddress(),
+          StandardCharsets.UTF_8));
+    }
     return url.toString();
   }
 
@@ -251,7 +697,7 @@ public class TrackerClient {
     return port;
   }
 
-  public int getDownloadedFileSize() {
+  public long getDownloadedFileSize() {
     return downloadedFileSize;
   }
 
@@ -263,16 +709,16 @@ public class TrackerClient {
     return peerId;
   }
 
-  public int getUploaded() {
-    return uploaded;
+  public long getUploaded() {
+    return transferStatistics.getUploaded();
   }
 
-  public int getDownloaded() {
-    return downloaded;
+  public long getDownloaded() {
+    return transferStatistics.getDownloaded();
   }
 
-  public int getLeft() {
-    return left;
+  public long getLeft() {
+    return transferStatistics.getLeft();
   }
 
   public int getCompactMode() {
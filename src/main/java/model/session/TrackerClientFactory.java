@@ -17,5 +17,5 @@ public interface TrackerClientFactory {
    * @param peerId the unique identifier for the user
    * @return a new instance of {@link TrackerClient}
    */
-  TrackerClient create(String trackerUrl, int port, int fileSize, byte[] infoHash, String peerId);
+  TrackerClient create(String trackerUrl, int port, long fileSize, byte[] infoHash, String peerId);
 }
\ No newline at end of file
@@ -1,5 +1,7 @@
 package model.session;
 
+import java.util.concurrent.CompletionException;
+
 /**
  * Exception class for handling tracker communication errors. Used in
  * {@link TrackerClient#requestTracker()}
@@ -17,4 +19,31 @@ public class TrackerCommunicationException extends Exception {
   public TrackerCommunicationException(String message) {
     super(message);
   }
+
+  /**
+   * Constructs a new model.session.TrackerCommunicationException with the specified detail message
+   * and cause.
+   *
+   * @param message the detail message
+   * @param cause   the error that stopped the communication
+   */
+  public TrackerCommunicationException(String message, Throwable cause) {
+    super(message, cause);
+  }
+
+  /**
+   * Returns the exception reporting that the tracker could not be reached because of an error,
+   * unwrapping the error of a failed future.
+   *
+   * @param error the error, possibly a {@link CompletionException}
+   * @return the exception to throw
+   */
+  static TrackerCommunicationException contactFailed(Throwable error) {
+    Throwable cause = error instanceof CompletionException && error.getCause() != null
+        ? error.getCause() : error;
+    // Some errors, such as a refused connection, carry no message
+    String reason = cause.getMessage() != null ? cause.getMessage()
+        : cause.getClass().getSimpleName();
+    return new TrackerCommunicationException("Failed to contact tracker: " + reason, cause);
+  }
 }
\ No newline at end of file
@@ -1,60 +1,105 @@
 package model.session;
 
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
 /**
  * model.session.TrackerResponse is a data transfer object that encapsulates the response from a tracker server.
- * It contains the interval for the next request, a byte array of peers, and a map of peers with
- * their corresponding ports.
+ * It contains the interval for the next request and the peers, packed into a {@link PeerList} so
+ * that parsing a response creates no object per peer.
  */
 public class TrackerResponse {
 
   private final int interval;
-  private final byte[] peers;
-  private final Map<String, Integer> peersMap;
+  private final int minInterval;
+  private final PeerList peerList;
+  // Built on first use by getPeersMap()
+  private volatile Map<String, Integer> peersMap;
 
   /**
-   * Constructor for model.session.TrackerResponse with an interval and a byte array of peers. This constructor
-   * initializes the interval and peers, and then parses the peers to create a map of IP addresses
-   * and their corresponding ports.
+   * Constructor for model.session.TrackerResponse with an interval and a byte array of peers.
    *
    * @param interval the interval in seconds for the next request to the tracker
    * @param peers    a byte array containing peer information, where each peer is represented by 6
    *                 bytes:
    */
   public TrackerResponse(int interval, byte[] peers) {
-    this.interval = interval;
-    this.peers = peers;
-    this.peersMap = new LinkedHashMap<>();
-    parsePeers();
+    this(interval, 0, peers);
+  }
+
+  /**
+   * Constructor for model.session.TrackerResponse with an interval, a minimum announce interval and
+   * a byte array of peers.
+   *
+   * @param interval    the interval in seconds for the next request to the tracker
+   * @param minInterval the minimum interval in seconds between requests, or 0 if the tracker did
+   *                    not send one
+   * @param peers       a byte array containing peer information, 6 bytes per peer
+   */
+  public TrackerResponse(int interval, int minInterval, byte[] peers) {
+    this(interval, minInterval, PeerList.fromCompact(peers));
   }
 
   /**
-   * Parses the byte array of peers into a map of IP addresses and their corresponding ports. Each
-   * peer is represented by 6 bytes: 4 for the IP address and 2 for the port. This method iterates
-   * through the byte array in chunks of 6 bytes, extracts the IP address and port, and populates
-   * the peersMap with the IP as the key and the port as the value.
+   * Constructor for model.session.TrackerResponse with an interval, a minimum announce interval and
+   * parsed peers.
+   *
+   * @param interval    the interval in seconds for the next request to the tracker
+   * @param minInterval the minimum interval in seconds between requests, or 0 if the tracker did
+   *                    not send one
+   * @param peerList    the peers returned by the tracker
+   * @throws IllegalArgumentException if peerList is null
    */
-  private void parsePeers() {
-    for (int i = 0; i < peers.length; i += 6) {
-      String ip = String.format("%d.%d.%d.%d", peers[i] & 0xFF, peers[i + 1] & 0xFF,
-          peers[i + 2] & 0xFF, peers[i + 3] & 0xFF);
-      int port = ((peers[i + 4] & 0xFF) << 8) | (peers[i + 5] & 0xFF);
-      peersMap.put(ip, port);
+  public TrackerResponse(int interval, int minInterval, PeerList peerList) {
+    if (peerList == null) {
+      throw new IllegalArgumentException("Peer list cannot be null");
     }
+    this.interval = interval;
+    this.minInterval = minInterval;
+    this.peerList = peerList;
   }
 
   public int getInterval() {
     return interval;
   }
 
+  public int getMinInterval() {
+    return minInterval;
+  }
+
+  /**
+   * Returns the IPv4 peers in compact form, 6 bytes per peer. IPv6 peers are only in
+   * {@link #getPeerList()}.
+   *
+   * @return a new array holding the compact peer list
+   */
   public byte[] getPeers() {
-    return peers;
+    return peerList.toCompact();
+  }
+
+  public PeerList getPeerList() {
+    return peerList;
   }
 
+  /**
+   * Returns the peers as a map from address to port, in the order of the response. The map only
+   * has room for one port per address, so when several peers share an address the last one wins;
+   * use {@link #getPeerList()} to see every peer.
+   *
+   * @return an unmodifiable map of peer addresses to ports
+   */
   public Map<String, Integer> getPeersMap() {
-    return peersMap;
+    Map<String, Integer> map = peersMap;
+    if (map == null) {
+      map = new LinkedHashMap<>();
+      for (int i = 0; i < peerList.size(); i++) {
+        map.put(peerList.getHost(i), peerList.getPort(i));
+      }
+      map = Collections.unmodifiableMap(map);
+      peersMap = map;
+    }
+    return map;
   }
 
 }
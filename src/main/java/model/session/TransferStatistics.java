@@ -0,0 +1,161 @@
+package model.session;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * model.session.TransferStatistics counts the bytes a torrent session has transferred. The counters
+ * are {@link LongAdder}s, so the peer threads that add every received block to them do not contend
+ * on a single variable; reading a total sums the stripes.
+ * <p>
+ * A {@link TrackerClient} reports these counters in every announce, so the tracker always sees the
+ * session's real progress. Transfer rates are measured over windows of at least
+ * {@link #RATE_WINDOW_NANOS} nanoseconds between queries.
+ *
+ * @author KX
+ */
+public class TransferStatistics {
+
+  /**
+   * The shortest period over which a rate is measured.
+   */
+  public static final long RATE_WINDOW_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final long totalLength;
+  private final LongSupplier nanoClock;
+  private final LongAdder uploaded = new LongAdder();
+  private final LongAdder downloaded = new LongAdder();
+  private final LongAdder verified = new LongAdder();
+
+  // Guarded by this, only touched when rates are queried
+  private long windowStart;
+  private long windowUploaded;
+  private long windowDownloaded;
+  private double uploadRate;
+  private double downloadRate;
+
+  /**
+   * Constructs a model.session.TransferStatistics for a torrent of the given length.
+   *
+   * @param totalLength the length of the torrent's content in bytes
+   * @throws IllegalArgumentException if totalLength is negative
+   */
+  public TransferStatistics(long totalLength) {
+    this(totalLength, System::nanoTime);
+  }
+
+  /**
+   * Constructs a model.session.TransferStatistics measuring rates with the given clock.
+   *
+   * @param totalLength the length of the torrent's content in bytes
+   * @param nanoClock   the clock used for rates, in nanoseconds like {@link System#nanoTime()}
+   * @throws IllegalArgumentException if totalLength is negative or nanoClock is null
+   */
+  public TransferStatistics(long totalLength, LongSupplier nanoClock) {
+    if (totalLength < 0) {
+      throw new IllegalArgumentException("Total length cannot be negative");
+    }
+    if (nanoClock == null) {
+      throw new IllegalArgumentException("Clock cannot be null");
+    }
+    this.totalLength = totalLength;
+    this.nanoClock = nanoClock;
+    this.windowStart = nanoClock.getAsLong();
+  }
+
+  /**
+   * Counts payload bytes received from a peer, whether or not their piece turns out to be valid.
+   *
+   * @param bytes the number of bytes received
+   * @throws IllegalArgumentException if bytes is negative
+   */
+  public void addDownloaded(long bytes) {
+    downloaded.add(checkBytes(bytes));
+  }
+
+  /**
+   * Counts payload bytes sent to a peer.
+   *
+   * @param bytes the number of bytes sent
+   * @throws IllegalArgumentException if bytes is negative
+   */
+  public void addUploaded(long bytes) {
+    uploaded.add(checkBytes(bytes));
+  }
+
+  /**
+   * Counts the bytes of a piece that passed its hash check and was stored, reducing what is left.
+   *
+   * @param bytes the length of the piece
+   * @throws IllegalArgumentException if bytes is negative
+   */
+  public void addVerified(long bytes) {
+    verified.add(checkBytes(bytes));
+  }
+
+  private static long checkBytes(long bytes) {
+    if (bytes < 0) {
+      throw new IllegalArgumentException("Byte count cannot be negative");
+    }
+    return bytes;
+  }
+
+  public long getUploaded() {
+    return uploaded.sum();
+  }
+
+  public long getDownloaded() {
+    return downloaded.sum();
+  }
+
+  /**
+   * Returns the number of bytes still to download, the total length less the verified pieces.
+   *
+   * @return the bytes left, never negative
+   */
+  public long getLeft() {
+    return Math.max(0, totalLength - verified.sum());
+  }
+
+  public long getTotalLength() {
+    return totalLength;
+  }
+
+  /**
+   * Returns the download rate over the latest window of at least {@link #RATE_WINDOW_NANOS}.
+   *
+   * @return the download rate in bytes per second
+   */
+  public double getDownloadRate() {
+    return updateRates()[1];
+  }
+
+  /**
+   * Returns the upload rate over the latest window of at least {@link #RATE_WINDOW_NANOS}.
+   *
+   * @return the upload rate in bytes per second
+   */
+  public double getUploadRate() {
+    return updateRates()[0];
+  }
+
+  /**
+   * Closes the current rate window if it is long enough, and returns the upload and download rates.
+   */
+  private synchronized double[] updateRates() {
+    long now = nanoClock.getAsLong();
+    long elapsed = now - windowStart;
+    if (elapsed >= RATE_WINDOW_NANOS) {
+      long currentUploaded = uploaded.sum();
+      long currentDownloaded = downloaded.sum();
+      double seconds = elapsed / (double) TimeUnit.SECONDS.toNanos(1);
+      uploadRate = (currentUploaded - windowUploaded) / seconds;
+      downloadRate = (currentDownloaded - windowDownloaded) / seconds;
+      windowStart = now;
+      windowUploaded = currentUploaded;
+      windowDownloaded = currentDownloaded;
+    }
+    return new double[] {uploadRate, downloadRate};
+  }
+}
@@ -0,0 +1,450 @@
+package model.session;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.Inet6Address;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * model.session.UdpTrackerClient talks to a tracker with a {@code udp://} URL using the UDP tracker
+ * protocol (BEP 15). An announce takes two small datagrams each way instead of a TCP connection and
+ * an HTTP exchange, and the client produces the same {@link TrackerResponse} as the HTTP client.
+ * <p>
+ * The connection ID granted by the tracker is reused for a minute, as the protocol allows, so
+ * repeated announces and scrapes skip the connect round trip. Requests that go unanswered are
+ * retransmitted after 15 * 2^n seconds, n going from 0 up to 8, and the connection ID is renewed
+ * whenever it has expired in between. That budget adds up to more than two hours for a dead
+ * tracker, so clients that have other trackers to fall back on, such as those of
+ * {@link DefaultTrackerClientFactory}, use the much shorter {@link #FAILOVER_INITIAL_TIMEOUT} and
+ * {@link #FAILOVER_MAX_RETRANSMISSIONS}.
+ *
+ * @author KX
+ */
+public class UdpTrackerClient extends TrackerClient {
+
+  /**
+   * The wait before the first retransmission; every following one waits twice as long.
+   */
+  public static final Duration DEFAULT_INITIAL_TIMEOUT = Duration.ofSeconds(15);
+
+  /**
+   * The number of retransmissions after which a request fails.
+   */
+  public static final int DEFAULT_MAX_RETRANSMISSIONS = 8;
+
+  /**
+   * The wait before the first retransmission when another tracker can be tried instead.
+   */
+  public static final Duration FAILOVER_INITIAL_TIMEOUT = Duration.ofSeconds(5);
+
+  /**
+   * The number of retransmissions after which a request fails when another tracker can be tried
+   * instead, giving up on a dead tracker after 35 seconds.
+   */
+  public static final int FAILOVER_MAX_RETRANSMISSIONS = 2;
+
+  /**
+   * The most info hashes the protocol allows in one scrape request.
+   */
+  public static final int MAX_SCRAPE_HASHES = 74;
+
+  private static final long PROTOCOL_ID = 0x41727101980L;
+  private static final int ACTION_CONNECT = 0;
+  private static final int ACTION_ANNOUNCE = 1;
+  private static final int ACTION_SCRAPE = 2;
+  private static final int ACTION_ERROR = 3;
+  private static final int HEADER_LENGTH = 8;
+  private static final int ANNOUNCE_HEADER_LENGTH = 20;
+  private static final long CONNECTION_ID_LIFETIME_NANOS = TimeUnit.MINUTES.toNanos(1);
+  // Large enough for an announce response with a few thousand peers
+  private static final int MAX_PACKET_SIZE = 65507;
+
+  // Blocking requests run here so announceAsync never blocks the caller
+  private static final ExecutorService REQUEST_EXECUTOR = Executors.newCachedThreadPool(
+      runnable -> {
+        Thread thread = new Thread(runnable, "udp-tracker");
+        thread.setDaemon(true);
+        return thread;
+      });
+
+  // Resolved by every request on its own thread, so that the constructor never waits for DNS
+  private final String trackerHost;
+  private final int trackerPort;
+  private final long initialTimeoutMillis;
+  private final int maxRetransmissions;
+  private final Random random = new SecureRandom();
+  // Identifies this client to the tracker across IP changes
+  private final int key = random.nextInt();
+
+  // Guarded by this
+  private long connectionId;
+  private long connectionIdExpiry;
+  private boolean connected;
+
+  /**
+   * Constructs a model.session.UdpTrackerClient using the retransmission timeouts of BEP 15.
+   *
+   * @param trackerUrl         the {@code udp://host:port} URL of the tracker
+   * @param port               the port to connect to
+   * @param downloadedFileSize the size of the downloaded file in bytes
+   * @param infoHash           the info hash of the torrent file, must be 20 bytes long
+   * @param peerId             the peer ID, must be 20 bytes long
+   * @throws IllegalArgumentException if any parameter is invalid
+   */
+  public UdpTrackerClient(String trackerUrl, int port, long downloadedFileSize, byte[] infoHash,
+      String peerId) {
+    this(trackerUrl, port, downloadedFileSize, infoHash, peerId, DEFAULT_INITIAL_TIMEOUT,
+        DEFAULT_MAX_RETRANSMISSIONS);
+  }
+
+  /**
+   * Constructs a model.session.UdpTrackerClient with the given retransmission timeouts.
+   *
+   * @param trackerUrl         the {@code udp://host:port} URL of the tracker
+   * @param port               the port to connect to
+   * @param downloadedFileSize the size of the downloaded file in bytes
+   * @param infoHash           the info hash of the torrent file, must be 20 bytes long
+   * @param peerId             the peer ID, must be 20 bytes long
+   * @param initialTimeout     the wait before the first retransmission
+   * @param maxRetransmissions the number of retransmissions after which a request fails
+   * @throws IllegalArgumentException if any parameter is invalid
+   */
+  public UdpTrackerClient(String trackerUrl, int port, long downloadedFileSize, byte[] infoHash,
+      String peerId, Duration initialTimeout, int maxRetransmissions) {
+    // Requests go over UDP, no HTTP client is needed
+    super(trackerUrl, port, downloadedFileSize, infoHash, peerId, null);
+    if (initialTimeout == null || initialTimeout.isNegative() || initialTimeout.isZero()) {
+      throw new IllegalArgumentException("Initial timeout must be positive");
+    }
+    if (maxRetransmissions < 0) {
+      throw new IllegalArgumentException("Retransmissions cannot be negative");
+    }
+    if (peerId.getBytes(StandardCharsets.ISO_8859_1).length != 20) {
+      throw new IllegalArgumentException("Peer ID must be 20 bytes long");
+    }
+
+    URI uri;
+    try {
+      uri = URI.create(trackerUrl);
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Invalid tracker URL: " + trackerUrl, e);
+    }
+    if (!"udp".equalsIgnoreCase(uri.getScheme()) || uri.getHost() == null || uri.getPort() <= 0) {
+      throw new IllegalArgumentException("Expected a udp://host:port tracker URL: " + trackerUrl);
+    }
+    this.trackerHost = uri.getHost();
+    this.trackerPort = uri.getPort();
+    this.initialTimeoutMillis = Math.max(1, initialTimeout.toMillis());
+    this.maxRetransmissions = maxRetransmissions;
+  }
+
+  /**
+   * Announces to the tracker and waits for its response.
+   *
+   * @return {@link TrackerResponse} containing the interval and peer list in binary format
+   * @throws TrackerCommunicationException     if the tracker does not answer or reports an error
+   * @throws MalformedTrackerResponseException if the response is too short
+   */
+  @Override
+  public TrackerResponse requestTracker()
+      throws TrackerCommunicationException, MalformedTrackerResponseException {
+    return announce(Event.NONE);
+  }
+
+  /**
+   * Announces to the tracker on a background thread.
+   *
+   * @param event the event to report, or {@link Event#NONE} for a regular announce
+   * @return a future completed with the tracker's response, failing as described in
+   * {@link TrackerClient#announceAsync(Event)}
+   * @throws IllegalArgumentException if event is null
+   */
+  @Override
+  public CompletableFuture<TrackerResponse> announceAsync(Event event) {
+    if (event == null) {
+      throw new IllegalArgumentException("Event cannot be null");
+    }
+    return CompletableFuture.supplyAsync(() -> {
+      try {
+        return announce(event);
+      } catch (TrackerCommunicationException | MalformedTrackerResponseException e) {
+        throw new CompletionException(e);
+      }
+    }, REQUEST_EXECUTOR);
+  }
+
+  private TrackerResponse announce(Event event)
+      throws TrackerCommunicationException, MalformedTrackerResponseException {
+    InetSocketAddress trackerAddress = resolveTracker();
+    ByteBuffer response = send(trackerAddress, ACTION_ANNOUNCE, (id, transactionId) -> {
+      ByteBuffer request = ByteBuffer.allocate(98);
+      request.putLong(id).putInt(ACTION_ANNOUNCE).putInt(transactionId);
+      request.put(getInfoHash());
+      request.put(getPeerId().getBytes(StandardCharsets.ISO_8859_1));
+      request.putLong(getDownloaded()).putLong(getLeft()).putLong(getUploaded());
+      request.putInt(eventCode(event));
+      request.putInt(0); // Let the tracker use the sender's address
+      request.putInt(key);
+      request.putInt(-1); // Default number of peers
+      request.putShort((short) getPort());
+      return request.array();
+    });
+
+    if (response.remaining() < ANNOUNCE_HEADER_LENGTH - HEADER_LENGTH) {
+      throw new MalformedTrackerResponseException(
+          "Announce response of " + (response.remaining() + HEADER_LENGTH)
+              + " bytes is shorter than " + ANNOUNCE_HEADER_LENGTH + " bytes");
+    }
+    int interval = response.getInt();
+    response.getInt(); // Leechers
+    response.getInt(); // Seeders
+    if (interval < 0) {
+      throw new MalformedTrackerResponseException("Invalid announce interval: " + interval);
+    }
+    // Trackers reached over IPv6 answer with 18-byte IPv6 peers
+    PeerList peers = trackerAddress.getAddress() instanceof Inet6Address
+        ? PeerList.fromCompact(null, response) : PeerList.fromCompact(response);
+    return new TrackerResponse(interval, 0, peers);
+  }
+
+  /**
+   * Asks the tracker for the swarm statistics of several torrents. Hashes are sent
+   * {@value #MAX_SCRAPE_HASHES} to a request.
+   *
+   * @param infoHashes the info hashes of the torrents
+   * @return the statistics of each torrent, in the order of the hashes
+   * @throws IllegalArgumentException          if the list is null or a hash is not 20 bytes long
+   * @throws TrackerCommunicationException     if the tracker does not answer or reports an error
+   * @throws MalformedTrackerResponseException if a response is too short
+   */
+  @Override
+  public List<SwarmStatistics> scrape(List<byte[]> infoHashes)
+      throws TrackerCommunicationException, MalformedTrackerResponseException {
+    checkInfoHashes(infoHashes);
+
+    InetSocketAddress trackerAddress = resolveTracker();
+    List<SwarmStatistics> statistics = new ArrayList<>(infoHashes.size());
+    for (int from = 0; from < infoHashes.size(); from += MAX_SCRAPE_HASHES) {
+      List<byte[]> batch = infoHashes.subList(from,
+          Math.min(from + MAX_SCRAPE_HASHES, infoHashes.size()));
+      ByteBuffer response = send(trackerAddress, ACTION_SCRAPE, (id, transactionId) -> {
+        ByteBuffer request = ByteBuffer.allocate(16 + 20 * batch.size());
+        request.putLong(id).putInt(ACTION_SCRAPE).putInt(transactionId);
+        for (byte[] infoHash : batch) {
+          request.put(infoHash);
+        }
+        return request.array();
+      });
+
+      if (response.remaining() < 12 * batch.size()) {
+        throw new MalformedTrackerResponseException("Scrape response is missing statistics");
+      }
+      for (int i = 0; i < batch.size(); i++) {
+        int seeders = response.getInt();
+        int completed = response.getInt();
+        int leechers = response.getInt();
+        try {
+          statistics.add(new SwarmStatistics(seeders, completed, leechers));
+        } catch (IllegalArgumentException e) {
+          throw new MalformedTrackerResponseException("Invalid scrape statistics: " + seeders
+              + ", " + completed + ", " + leechers);
+        }
+      }
+    }
+    return statistics;
+  }
+
+  /**
+   * Scrapes the tracker on a background thread.
+   *
+   * @param infoHashes the info hashes of the torrents
+   * @return a future completed with the statistics of each torrent, in the order of the hashes
+   * @throws IllegalArgumentException if the list is null or a hash is not 20 bytes long
+   */
+  @Override
+  public CompletableFuture<List<SwarmStatistics>> scrapeAsync(List<byte[]> infoHashes) {
+    checkInfoHashes(infoHashes);
+    return CompletableFuture.supplyAsync(() -> {
+      try {
+        return scrape(infoHashes);
+      } catch (TrackerCommunicationException | MalformedTrackerResponseException e) {
+        throw new CompletionException(e);
+      }
+    }, REQUEST_EXECUTOR);
+  }
+
+  /**
+   * Builds a request from a connection ID and transaction ID.
+   */
+  @FunctionalInterface
+  private interface RequestBuilder {
+
+    byte[] build(long connectionId, int transactionId);
+  }
+
+  /**
+   * Looks up the tracker's address, again for every request so that a failed lookup does not
+   * outlive it.
+   *
+   * @return the resolved address of the tracker
+   * @throws TrackerCommunicationException if the host name cannot be resolved
+   */
+  private InetSocketAddress resolveTracker() throws TrackerCommunicationException {
+    InetSocketAddress address = new InetSocketAddress(trackerHost, trackerPort);
+    if (address.isUnresolved()) {
+      throw new TrackerCommunicationException("Failed to contact tracker: unknown host "
+          + trackerHost);
+    }
+    return address;
+  }
+
+  /**
+   * Sends a request until the tracker answers it, connecting first whenever the connection ID has
+   * expired. Every unanswered attempt doubles the timeout.
+   *
+   * @return the response after its action and transaction ID
+   */
+  private ByteBuffer send(InetSocketAddress trackerAddress, int action, RequestBuilder builder)
+      throws TrackerCommunicationException {
+    try (DatagramSocket socket = new DatagramSocket()) {
+      for (int attempt = 0; attempt <= maxRetransmissions; attempt++) {
+        long timeoutMillis = initialTimeoutMillis << attempt;
+        Long id = currentConnectionId();
+        if (id == null) {
+          id = connect(socket, trackerAddress, timeoutMillis);
+          if (id == null) {
+            continue;
+          }
+        }
+        int transactionId = random.nextInt();
+        ByteBuffer response = exchange(socket, trackerAddress, builder.build(id, transactionId),
+            action, transactionId, timeoutMillis);
+        if (response != null) {
+          return response;
+        }
+      }
+    } catch (IOException e) {
+      throw TrackerCommunicationException.contactFailed(e);
+    }
+    throw new TrackerCommunicationException("No response from tracker " + getTrackerUrl()
+        + " after " + (maxRetransmissions + 1) + " attempts");
+  }
+
+  private synchronized Long currentConnectionId() {
+    if (connected && System.nanoTime() - connectionIdExpiry < 0) {
+      return connectionId;
+    }
+    return null;
+  }
+
+  /**
+   * Obtains a new connection ID, returning null if the tracker did not answer in time.
+   */
+  private Long connect(DatagramSocket socket, InetSocketAddress trackerAddress,
+      long timeoutMillis) throws IOException, TrackerCommunicationException {
+    int transactionId = random.nextInt();
+    ByteBuffer request = ByteBuffer.allocate(16);
+    request.putLong(PROTOCOL_ID).putInt(ACTION_CONNECT).putInt(transactionId);
+    ByteBuffer response = exchange(socket, trackerAddress, request.array(), ACTION_CONNECT,
+        transactionId, timeoutMillis);
+    if (response == null) {
+      return null;
+    }
+    if (response.remaining() < 8) {
+      throw new TrackerCommunicationException("Connect response is too short");
+    }
+    long id = response.getLong();
+    synchronized (this) {
+      connectionId = id;
+      connectionIdExpiry = System.nanoTime() + CONNECTION_ID_LIFETIME_NANOS;
+      connected = true;
+    }
+    return id;
+  }
+
+  /**
+   * Sends one datagram and waits for the response carrying its transaction ID. Datagrams for other
+   * transactions are ignored.
+   *
+   * @return the response after its action and transaction ID, or null if none arrived in time
+   */
+  private ByteBuffer exchange(DatagramSocket socket, InetSocketAddress trackerAddress,
+      byte[] request, int action, int transactionId, long timeoutMillis)
+      throws IOException, TrackerCommunicationException {
+    socket.send(new DatagramPacket(request, request.length, trackerAddress));
+
+    byte[] buffer = new byte[MAX_PACKET_SIZE];
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    while (true) {
+      long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+      if (remainingMillis <= 0) {
+        return null;
+      }
+      socket.setSoTimeout((int) Math.min(remainingMillis, Integer.MAX_VALUE));
+      DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+      try {
+        socket.receive(packet);
+      } catch (SocketTimeoutException e) {
+        return null;
+      }
+
+      ByteBuffer response = ByteBuffer.wrap(buffer, 0, packet.getLength());
+      if (response.remaining() < HEADER_LENGTH) {
+        continue;
+      }
+      int responseAction = response.getInt();
+      if (response.getInt() != transactionId) {
+        continue;
+      }
+      if (responseAction == ACTION_ERROR) {
+        if (action != ACTION_CONNECT) {
+          // The connection ID may have been rejected, get a new one next time
+          synchronized (this) {
+            connected = false;
+          }
+        }
+        byte[] message = new byte[response.remaining()];
+        response.get(message);
+        throw new TrackerCommunicationException(
+            "Tracker returned an error: " + new String(message, StandardCharsets.UTF_8));
+      }
+      if (responseAction != action) {
+        throw new TrackerCommunicationException(
+            "Tracker answered action " + action + " with action " + responseAction);
+      }
+      return response;
+    }
+  }
+
+  public Duration getInitialTimeout() {
+    return Duration.ofMillis(initialTimeoutMillis);
+  }
+
+  public int getMaxRetransmissions() {
+    return maxRetransmissions;
+  }
+
+  private static int eventCode(Event event) {
+    return switch (event) {
+      case NONE -> 0;
+      case COMPLETED -> 1;
+      case STARTED -> 2;
+      case STOPPED -> 3;
+    };
+  }
+}
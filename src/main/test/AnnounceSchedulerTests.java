@@ -0,0 +1,113 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import model.session.AnnounceScheduler;
+import model.session.TrackerClient.Event;
+import model.session.TrackerResponse;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit tests for the model.session.AnnounceScheduler class. A recording tracker client stands in
+ * for the tracker and a short minimum interval keeps the re-announces quick.
+ *
+ * @author KX
+ */
+public class AnnounceSchedulerTests {
+
+  private static final Duration MINIMUM_INTERVAL = Duration.ofMillis(20);
+
+  @Test
+  public void testInvalidConstruction() {
+    RecordingTrackerClient client = new RecordingTrackerClient(Map.of());
+    assertThrows(IllegalArgumentException.class,
+        () -> new AnnounceScheduler(null, response -> { }));
+    assertThrows(IllegalArgumentException.class, () -> new AnnounceScheduler(client, null));
+    assertThrows(IllegalArgumentException.class,
+        () -> new AnnounceScheduler(client, response -> { }, null, null));
+    assertThrows(IllegalArgumentException.class,
+        () -> new AnnounceScheduler(client, response -> { }, null, Duration.ZERO));
+  }
+
+  /**
+   * Tests that the scheduler announces the start, keeps re-announcing, and reports the completion
+   * and the stop to the tracker.
+   *
+   * @throws Exception if an announce fails
+   */
+  @Test
+  public void testAnnounceLifecycle() throws Exception {
+    RecordingTrackerClient client = new RecordingTrackerClient(Map.of("1.2.3.4", 6881));
+    List<TrackerResponse> responses = new CopyOnWriteArrayList<>();
+    AnnounceScheduler scheduler = new AnnounceScheduler(client, responses::add, null,
+        MINIMUM_INTERVAL);
+
+    assertThrows(IllegalStateException.class, scheduler::complete);
+    TrackerResponse first = scheduler.start().get(5, TimeUnit.SECONDS);
+    assertEquals(Map.of("1.2.3.4", 6881), first.getPeersMap());
+    assertThrows(IllegalStateException.class, scheduler::start);
+
+    waitFor(() -> responses.size() >= 3);
+    assertEquals(Event.STARTED, client.getEvents().get(0));
+    assertEquals(Event.NONE, client.getEvents().get(1));
+
+    scheduler.complete().get(5, TimeUnit.SECONDS);
+    assertTrue(client.getEvents().contains(Event.COMPLETED));
+
+    scheduler.stop().get(5, TimeUnit.SECONDS);
+    assertTrue(scheduler.isStopped());
+    assertThrows(IllegalStateException.class, scheduler::complete);
+    int announces = client.getEvents().size();
+    assertEquals(Event.STOPPED, client.getEvents().get(announces - 1));
+
+    // No further announces once stopped, and stopping again does nothing
+    Thread.sleep(MINIMUM_INTERVAL.toMillis() * 5);
+    scheduler.stop().get(5, TimeUnit.SECONDS);
+    assertEquals(announces, client.getEvents().size());
+  }
+
+  /**
+   * Tests that a failed start is retried as a start, and that a scheduler which never reached the
+   * tracker does not report a stop.
+   *
+   * @throws Exception if waiting is interrupted
+   */
+  @Test
+  public void testFailedAnnounceRetried() throws Exception {
+    RecordingTrackerClient client = new RecordingTrackerClient(Map.of("1.2.3.4", 6881));
+    client.setFailures(2);
+    List<TrackerResponse> responses = new CopyOnWriteArrayList<>();
+    AnnounceScheduler scheduler = new AnnounceScheduler(client, responses::add, null,
+        MINIMUM_INTERVAL);
+
+    assertTrue(scheduler.start().isCompletedExceptionally());
+    assertTrue(responses.isEmpty());
+    waitFor(() -> !responses.isEmpty());
+    assertEquals(List.of(Event.STARTED, Event.STARTED, Event.STARTED),
+        client.getEvents().subList(0, 3));
+    scheduler.stop().get(5, TimeUnit.SECONDS);
+
+    RecordingTrackerClient unreachable = new RecordingTrackerClient(Map.of());
+    unreachable.setFailures(Integer.MAX_VALUE);
+    AnnounceScheduler failing = new AnnounceScheduler(unreachable, response -> { }, null,
+        MINIMUM_INTERVAL);
+    failing.start();
+    failing.stop().get(5, TimeUnit.SECONDS);
+    assertFalse(unreachable.getEvents().contains(Event.STOPPED));
+  }
+
+  private static void waitFor(java.util.function.BooleanSupplier condition)
+      throws InterruptedException {
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while (!condition.getAsBoolean()) {
+      assertTrue(System.nanoTime() < deadline, "Timed out waiting for announces");
+      Thread.sleep(5);
+    }
+  }
+}
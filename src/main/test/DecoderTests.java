@@ -1,8 +1,13 @@
+import model.decoder.BencodeReader;
+import model.decoder.BencodeReader.Token;
+import model.decoder.ByteString;
+import model.decoder.ByteStringDecoder;
 import model.decoder.Decoder;
 import model.decoder.DecoderByteDTO;
 import model.decoder.DecoderDTO;
 import model.decoder.DecoderDispatcher;
 import model.decoder.DictionaryDecoder;
+import model.decoder.IterativeDecoder;
 import model.decoder.ListDecoder;
 import model.decoder.NumberDecoder;
 import model.decoder.NumberPair;
@@ -11,6 +16,10 @@ import org.junit.jupiter.api.Test;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 
 /**
@@ -28,12 +37,44 @@ public class DecoderTests {
    */
   @Test
   public void testNumberDecoder() {
-    Decoder<Integer> intDecoder = new NumberDecoder();
-    DecoderDTO<Integer> result = intDecoder.decode("i42e", 0);
-    assertEquals(42, result.getValue());
+    Decoder<Long> intDecoder = new NumberDecoder();
+    DecoderDTO<Long> result = intDecoder.decode("i42e", 0);
+    assertEquals(42L, result.getValue());
     assertEquals(4, result.getNextIndex());
   }
 
+  /**
+   * Tests that integers are parsed as 64-bit values, including negative numbers and the limits of
+   * a long, and that malformed integers are rejected per the bencode specification.
+   */
+  @Test
+  public void testNumberDecoderLongValues() {
+    NumberDecoder intDecoder = new NumberDecoder();
+    assertEquals(5_000_000_000L, intDecoder.decode("i5000000000e", 0).getValue());
+    assertEquals(-42L, intDecoder.decode("i-42e", 0).getValue());
+    assertEquals(0L, intDecoder.decode("i0e", 0).getValue());
+    assertEquals(Long.MAX_VALUE, intDecoder.decode("i9223372036854775807e", 0).getValue());
+    assertEquals(Long.MIN_VALUE, intDecoder.decode("i-9223372036854775808e", 0).getValue());
+
+    DecoderByteDTO<Long> bytes = intDecoder.decode("i-9223372036854775808e".getBytes(), 0);
+    assertEquals(Long.MIN_VALUE, bytes.getValue());
+    assertEquals(22, bytes.getNextIndex());
+    assertEquals(5_000_000_000L, intDecoder.decode("i5000000000e".getBytes(), 0).getValue());
+
+    for (String invalid : List.of("i9223372036854775808e", "i-9223372036854775809e", "i03e",
+        "i-0e", "ie", "i-e", "i1-2e", "i+3e")) {
+      assertThrows(IllegalArgumentException.class, () -> intDecoder.decode(invalid, 0), invalid);
+      assertThrows(IllegalArgumentException.class,
+          () -> intDecoder.decode(invalid.getBytes(), 0), invalid);
+    }
+
+    // String length prefixes are parsed the same way and must fit an int
+    assertThrows(IllegalArgumentException.class,
+        () -> dispatcher.decode("99999999999:spam".getBytes(), 0));
+    assertThrows(IllegalArgumentException.class,
+        () -> dispatcher.decode("99999999999:spam", 0));
+  }
+
   /**
    * Tests the decoding of string representations of text in bencode format.
    */
@@ -77,7 +118,7 @@ public class DecoderTests {
 
     assertEquals(2, dict.size());
     assertEquals("spam", dict.get("bar"));
-    assertEquals(42, dict.get("foo"));
+    assertEquals(42L, dict.get("foo"));
     assertEquals(input.length(), result.getNextIndex());
   }
 
@@ -95,9 +136,9 @@ public class DecoderTests {
     assertTrue(dict.containsKey("list"));
     List<?> list = (List<?>) dict.get("list");
     assertEquals("spam", list.get(0));
-    assertEquals(7, list.get(1));
+    assertEquals(7L, list.get(1));
 
-    assertEquals(10, dict.get("num"));
+    assertEquals(10L, dict.get("num"));
     assertEquals(input.length(), result.getNextIndex());
   }
 
@@ -107,12 +148,33 @@ public class DecoderTests {
    */
   @Test
   public void testDispatcherWithAllTypes() {
-    assertEquals(123, dispatcher.decode("i123e", 0).getValue());
+    assertEquals(123L, dispatcher.decode("i123e", 0).getValue());
     assertEquals("hello", dispatcher.decode("5:hello", 0).getValue());
     assertInstanceOf(List.class, dispatcher.decode("l5:apple6:bananai99ee", 0).getValue());
     assertInstanceOf(Map.class, dispatcher.decode("d3:key5:valuee", 0).getValue());
   }
 
+  /**
+   * Tests decoding values one after another from the same string, which reuses its byte copy, and
+   * that a different string with other content is not decoded from a stale copy.
+   */
+  @Test
+  public void testSequentialStringDecoding() {
+    String input = "i1e5:helloli2ee";
+    DecoderDTO<?> first = dispatcher.decode(input, 0);
+    DecoderDTO<?> second = dispatcher.decode(input, first.getNextIndex());
+    DecoderDTO<?> third = dispatcher.decode(input, second.getNextIndex());
+    assertEquals(1L, first.getValue());
+    assertEquals("hello", second.getValue());
+    assertEquals(List.of(2L), third.getValue());
+    assertEquals(input.length(), third.getNextIndex());
+
+    String other = "i7e5:world";
+    assertEquals(7L, dispatcher.decode(other, 0).getValue());
+    assertEquals("world", new TextDecoder().decode(other, 3).getValue());
+    assertEquals(List.of(2L), dispatcher.decode(input, second.getNextIndex()).getValue());
+  }
+
   /**
    * Tests the decoding of various bencoded types using the Dispatcher with invalid bencoded
    * strings. This includes integers, strings, lists, and dictionaries.
@@ -182,7 +244,7 @@ public class DecoderTests {
   public void testByteArrayNumberDecoding() {
     byte[] bencodedBytes = "i42e".getBytes();
     DecoderByteDTO<?> result = dispatcher.decode(bencodedBytes, 0);
-    assertEquals(42, result.getDecoderDTO().getValue());
+    assertEquals(42L, result.getDecoderDTO().getValue());
     assertEquals(4, result.getNextIndex());
   }
 
@@ -193,13 +255,14 @@ public class DecoderTests {
   public void testByteArrayStringDecoding() {
     byte[] bencodedBytes = "4:spam".getBytes();
     DecoderByteDTO<?> result = dispatcher.decode(bencodedBytes, 0);
-    assertEquals("spam", result.getDecoderDTO().getValue());
+    assertEquals(ByteString.of("spam"), result.getDecoderDTO().getValue());
+    assertEquals("spam", result.getDecoderDTO().getValue().toString());
     assertEquals(6, result.getNextIndex());
 
     // Test 0 length string
     bencodedBytes = "0:".getBytes();
     result = dispatcher.decode(bencodedBytes, 0);
-    assertEquals("", result.getDecoderDTO().getValue());
+    assertEquals(ByteString.EMPTY, result.getDecoderDTO().getValue());
     assertEquals(2, result.getNextIndex());
   }
 
@@ -213,11 +276,41 @@ public class DecoderTests {
     List<?> list = (List<?>) result.getDecoderDTO().getValue();
 
     assertEquals(2, list.size());
-    assertEquals("spam", list.get(0));
-    assertEquals("eggs", list.get(1));
+    assertEquals(ByteString.of("spam"), list.get(0));
+    assertEquals(ByteString.of("eggs"), list.get(1));
     assertEquals(14, result.getNextIndex());
   }
 
+  /**
+   * Tests that byte strings decoded from byte arrays keep non-text bytes intact and view the source
+   * buffer rather than copying it.
+   */
+  @Test
+  public void testByteArrayBinaryStringDecoding() {
+    byte[] binary = new byte[]{(byte) 0xff, 0x00, (byte) 0x80, (byte) 0xc3, 0x28, 0x7f};
+    byte[] bencodedBytes = new byte[binary.length + 2];
+    bencodedBytes[0] = '6';
+    bencodedBytes[1] = ':';
+    System.arraycopy(binary, 0, bencodedBytes, 2, binary.length);
+
+    DecoderByteDTO<ByteString> result = new ByteStringDecoder().decode(bencodedBytes, 0);
+    ByteString value = result.getValue();
+    assertEquals(binary.length, value.length());
+    assertArrayEquals(binary, value.toByteArray());
+    assertTrue(value.contentEquals(bencodedBytes, 2, binary.length));
+    assertEquals((byte) 0x80, value.byteAt(2));
+    assertArrayEquals(new byte[]{0x00, (byte) 0x80}, value.slice(1, 3).toByteArray());
+    assertEquals(bencodedBytes.length, result.getNextIndex());
+
+    // Binary values nested in a dictionary are returned as the same view
+    byte[] dict = "d6:pieces2:xxe".getBytes();
+    dict[11] = (byte) 0xab;
+    dict[12] = (byte) 0xcd;
+    Map<?, ?> decoded = (Map<?, ?>) dispatcher.decode(dict, 0).getValue();
+    ByteString pieces = (ByteString) decoded.get("pieces");
+    assertArrayEquals(new byte[]{(byte) 0xab, (byte) 0xcd}, pieces.toByteArray());
+  }
+
   /**
    * Tests the decoding of bencoded dictionaries in byte array format.
    */
@@ -228,8 +321,8 @@ public class DecoderTests {
     Map<?, ?> dict = (Map<?, ?>) result.getDecoderDTO().getValue();
 
     assertEquals(2, dict.size());
-    assertEquals("spam", dict.get("bar"));
-    assertEquals(42, dict.get("foo"));
+    assertEquals(ByteString.of("spam"), dict.get("bar"));
+    assertEquals(42L, dict.get("foo"));
     assertEquals(bencodedBytes.length, result.getNextIndex());
 
     String input = "d4:listl4:spami7ee3:numi10ee";
@@ -238,10 +331,10 @@ public class DecoderTests {
 
     assertTrue(dict2.containsKey("list"));
     List<?> list2 = (List<?>) dict2.get("list");
-    assertEquals("spam", list2.get(0));
-    assertEquals(7, list2.get(1));
+    assertEquals(ByteString.of("spam"), list2.get(0));
+    assertEquals(7L, list2.get(1));
 
-    assertEquals(10, dict2.get("num"));
+    assertEquals(10L, dict2.get("num"));
     assertEquals(input.length(), result.getNextIndex());
   }
 
@@ -297,4 +390,282 @@ public class DecoderTests {
 
   }
 
+  /**
+   * Tests that byte ranges are keyed by their full path, so keys repeated at different nesting
+   * levels and inside lists do not overwrite each other.
+   */
+  @Test
+  public void testPathQualifiedByteRanges() {
+    String input = "d6:lengthi1e4:infod5:filesld6:lengthi22eed6:lengthi333eee"
+        + "6:pieces2:abe6:lengthi4444ee";
+    byte[] bencodedBytes = input.getBytes();
+    DecoderByteDTO<?> result = dispatcher.decode(bencodedBytes, 0);
+
+    NumberPair topLength = result.getByteRange("length");
+    assertEquals("4444", new String(Arrays.copyOfRange(bencodedBytes, topLength.first(),
+        topLength.second() + 1)));
+
+    NumberPair firstFile = result.getByteRange("info/files/0/length");
+    assertEquals("22", new String(Arrays.copyOfRange(bencodedBytes, firstFile.first(),
+        firstFile.second() + 1)));
+
+    NumberPair secondFile = result.getByteRange("info", "files", "1", "length");
+    assertEquals("333", new String(Arrays.copyOfRange(bencodedBytes, secondFile.first(),
+        secondFile.second() + 1)));
+
+    NumberPair pieces = result.getByteRange("info/pieces");
+    assertEquals("ab", new String(Arrays.copyOfRange(bencodedBytes, pieces.first(),
+        pieces.second() + 1)));
+
+    // The info dictionary is recorded with its delimiters and an exclusive end
+    NumberPair info = result.getInfoByteRange();
+    assertEquals("d5:filesld6:lengthi22eed6:lengthi333eee6:pieces2:abe",
+        new String(Arrays.copyOfRange(bencodedBytes, info.first(), info.second())));
+
+    assertNull(result.getByteRange("pieces"));
+    assertEquals(6, result.getByteRanges().size());
+  }
+
+  /**
+   * Tests that the iterative decoder produces the same values, next index, byte ranges and value
+   * range as the recursive dispatcher, including for values that do not start at index 0.
+   *
+   * @throws IOException if the sample torrent cannot be read
+   */
+  @Test
+  public void testIterativeDecoderMatchesDispatcher() throws IOException {
+    IterativeDecoder iterativeDecoder = new IterativeDecoder();
+    List<byte[]> inputs = List.of(
+        "i-42e".getBytes(),
+        "4:spam".getBytes(),
+        "le".getBytes(),
+        "de".getBytes(),
+        "l4:spami42eld3:fooi1eeee".getBytes(),
+        ("d6:lengthi1e4:infod5:filesld6:lengthi22eed6:lengthi333eee"
+            + "6:pieces2:abe6:lengthi4444ee").getBytes(),
+        Files.readAllBytes(Path.of("sample.torrent")));
+
+    for (byte[] input : inputs) {
+      assertSameResult(dispatcher.decode(input, 0), iterativeDecoder.decode(input, 0));
+    }
+
+    byte[] embedded = "xxd3:keyl1:a1:bee4:tail".getBytes();
+    assertSameResult(dispatcher.decode(embedded, 2), iterativeDecoder.decode(embedded, 2));
+  }
+
+  private static void assertSameResult(DecoderByteDTO<?> expected, DecoderByteDTO<?> actual) {
+    assertEquals(expected.getValue(), actual.getValue());
+    assertEquals(expected.getNextIndex(), actual.getNextIndex());
+    assertEquals(expected.getValueRange(), actual.getValueRange());
+    assertEquals(new ArrayList<>(expected.getByteRanges().entrySet()),
+        new ArrayList<>(actual.getByteRanges().entrySet()));
+  }
+
+  /**
+   * Tests that the iterative decoder rejects malformed input with the same kind of errors as the
+   * dispatcher.
+   */
+  @Test
+  public void testIterativeDecoderRejectsMalformedInput() {
+    IterativeDecoder iterativeDecoder = new IterativeDecoder();
+    List<String> inputs = List.of("l4:spam", "d3:fooe", "di1ei2ee", "d3:foo", "x", "i12",
+        "l5:spame", "i03e");
+
+    for (String input : inputs) {
+      byte[] bytes = input.getBytes();
+      IllegalArgumentException expected = assertThrows(IllegalArgumentException.class,
+          () -> dispatcher.decode(bytes, 0));
+      IllegalArgumentException actual = assertThrows(IllegalArgumentException.class,
+          () -> iterativeDecoder.decode(bytes, 0));
+      assertEquals(expected.getMessage(), actual.getMessage(), input);
+    }
+  }
+
+  /**
+   * Tests that nesting deeper than the limit and input larger than the limit are rejected instead
+   * of exhausting the stack, and that the decoder can be reused afterwards.
+   */
+  @Test
+  public void testIterativeDecoderLimits() {
+    IterativeDecoder iterativeDecoder = new IterativeDecoder(64, 1024);
+
+    byte[] allowed = ("l".repeat(64) + "e".repeat(64)).getBytes();
+    assertEquals(128, iterativeDecoder.decode(allowed, 0).getNextIndex());
+
+    byte[] tooDeep = ("l".repeat(65) + "e".repeat(65)).getBytes();
+    assertThrows(IllegalArgumentException.class, () -> iterativeDecoder.decode(tooDeep, 0));
+
+    byte[] tooLarge = ("l" + "i1e".repeat(400) + "e").getBytes();
+    assertThrows(IllegalArgumentException.class, () -> iterativeDecoder.decode(tooLarge, 0));
+
+    // Hostile input nested far deeper than any call stack could handle
+    byte[] hostile = "l".repeat(1_000_000).getBytes();
+    assertThrows(IllegalArgumentException.class,
+        () -> new IterativeDecoder().decode(hostile, 0));
+
+    assertEquals(List.of(1L), iterativeDecoder.decode("li1ee".getBytes(), 0).getValue());
+  }
+
+  /**
+   * Tests the tokens and offsets reported by the pull parser for a nested document.
+   */
+  @Test
+  public void testBencodeReaderTokens() {
+    byte[] input = "d4:listli-7e3:abce4:spami42ee".getBytes();
+    BencodeReader reader = new BencodeReader(input);
+
+    assertEquals(Token.DICT_START, reader.next());
+    assertEquals(0, reader.getTokenStart());
+    assertEquals(Token.KEY, reader.next());
+    assertTrue(reader.keyEquals("list"));
+    assertFalse(reader.keyEquals("lis"));
+    assertEquals(Token.LIST_START, reader.next());
+    assertEquals(7, reader.getTokenStart());
+    assertEquals(2, reader.getDepth());
+    assertEquals(Token.INTEGER, reader.next());
+    assertEquals(-7L, reader.getLong());
+    assertEquals(Token.BYTES, reader.next());
+    assertEquals(ByteString.of("abc"), reader.getBytes());
+    assertEquals(14, reader.getBytesStart());
+    assertEquals(3, reader.getBytesLength());
+    assertEquals(Token.END, reader.next());
+    assertEquals(Token.KEY, reader.next());
+    assertEquals("spam", reader.getString());
+    assertEquals(Token.INTEGER, reader.next());
+    assertEquals(42L, reader.getLong());
+    assertEquals(Token.END, reader.next());
+    assertEquals(input.length, reader.getPosition());
+    assertEquals(Token.END_OF_INPUT, reader.next());
+
+    assertThrows(IllegalStateException.class, reader::getLong);
+  }
+
+  /**
+   * Tests that skipping a value jumps over its whole subtree and reports its byte range, which
+   * matches the 'info' range recorded by the tree decoders.
+   *
+   * @throws IOException if the sample torrent cannot be read
+   */
+  @Test
+  public void testBencodeReaderSkipValue() throws IOException {
+    byte[] torrent = Files.readAllBytes(Path.of("sample.torrent"));
+    NumberPair expectedInfo = dispatcher.decode(torrent, 0).getInfoByteRange();
+
+    BencodeReader reader = new BencodeReader(torrent);
+    reader.expect(Token.DICT_START);
+    int infoStart = -1;
+    int infoEnd = -1;
+    while (reader.next() == Token.KEY) {
+      if (reader.keyEquals("info")) {
+        infoStart = reader.skipValue();
+        infoEnd = reader.getPosition();
+      } else {
+        reader.skipValue();
+      }
+    }
+    assertEquals(Token.END, reader.getToken());
+    assertEquals(expectedInfo, new NumberPair(infoStart, infoEnd));
+  }
+
+  /**
+   * Tests that the pull parser reports malformed input with the same messages as the dispatcher
+   * and enforces its depth limit.
+   */
+  @Test
+  public void testBencodeReaderRejectsMalformedInput() {
+    List<String> inputs = List.of("l4:spam", "d3:fooe", "di1ei2ee", "d3:foo", "x", "i12",
+        "l5:spame", "i03e");
+
+    for (String input : inputs) {
+      byte[] bytes = input.getBytes();
+      IllegalArgumentException expected = assertThrows(IllegalArgumentException.class,
+          () -> dispatcher.decode(bytes, 0));
+      IllegalArgumentException actual = assertThrows(IllegalArgumentException.class, () -> {
+        BencodeReader reader = new BencodeReader(bytes);
+        while (reader.next() != Token.END_OF_INPUT) {
+          // Read the whole document
+        }
+      });
+      assertEquals(expected.getMessage(), actual.getMessage(), input);
+    }
+
+    BencodeReader deep = new BencodeReader("lllleeee".getBytes(), 0, 3);
+    assertThrows(IllegalArgumentException.class, deep::skipValue);
+  }
+
+  /**
+   * Tests that the String and byte array entry points accept and reject the same input, with the
+   * same values (byte strings aside) and the same error messages.
+   */
+  @Test
+  public void testStringAndByteArrayPathsAgree() {
+    List<String> valid = List.of("i-42e", "4:spam", "l4:spami42ee", "d3:bar4:spam3:fooi42ee",
+        "d4:listl1:ai-1eld1:xleeeee");
+    for (String input : valid) {
+      assertEquals(toText(dispatcher.decode(input.getBytes(), 0).getValue()),
+          dispatcher.decode(input, 0).getValue(), input);
+      assertEquals(dispatcher.decode(input.getBytes(), 0).getNextIndex(),
+          dispatcher.decode(input, 0).getNextIndex(), input);
+    }
+
+    List<String> invalid = List.of("i-0e", "i03e", "ie", "i12", "3:ab", "3ab", "l4:spam",
+        "d3:fooe", "di1ei2ee", "x", "d3:foo");
+    for (String input : invalid) {
+      IllegalArgumentException fromBytes = assertThrows(IllegalArgumentException.class,
+          () -> dispatcher.decode(input.getBytes(), 0));
+      IllegalArgumentException fromString = assertThrows(IllegalArgumentException.class,
+          () -> dispatcher.decode(input, 0));
+      assertEquals(fromBytes.getMessage(), fromString.getMessage(), input);
+    }
+
+    // String lengths count characters, including ones outside Latin-1
+    assertEquals(List.of("h\u00e9", "\u20ac"), dispatcher.decode("l2:h\u00e91:\u20ace", 0).getValue());
+    assertEquals(Map.of("\u20ac", 1L), new DictionaryDecoder(dispatcher).decode("d1:\u20aci1ee", 0)
+        .getValue());
+    assertThrows(IllegalArgumentException.class,
+        () -> dispatcher.decode("l".repeat(1_000_000), 0));
+  }
+
+  /**
+   * Tests that decoding the first of several values in a string does not keep the string alive
+   * afterwards, even though the thread's decoder reuses its byte copy for the values after it.
+   */
+  @Test
+  public void testDecodedStringIsNotRetained() throws InterruptedException {
+    String input = new String("i1ei2e".toCharArray());
+    assertEquals(1L, dispatcher.decode(input, 0).getValue());
+    assertEquals(2L, dispatcher.decode(input, 3).getValue());
+
+    input = new String("i1ei2e".toCharArray());
+    assertEquals(1L, dispatcher.decode(input, 0).getValue());
+    WeakReference<String> reference = new WeakReference<>(input);
+    input = null;
+    for (int i = 0; i < 50 && reference.get() != null; i++) {
+      System.gc();
+      Thread.sleep(10);
+    }
+    assertNull(reference.get());
+  }
+
+  private static Object toText(Object value) {
+    if (value instanceof ByteString) {
+      return value.toString();
+    }
+    if (value instanceof List) {
+      List<Object> list = new ArrayList<>();
+      for (Object element : (List<?>) value) {
+        list.add(toText(element));
+      }
+      return list;
+    }
+    if (value instanceof Map) {
+      Map<Object, Object> map = new LinkedHashMap<>();
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        map.put(entry.getKey(), toText(entry.getValue()));
+      }
+      return map;
+    }
+    return value;
+  }
+
 }
@@ -1,4 +1,5 @@
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import model.session.MalformedTrackerResponseException;
 import model.session.TrackerClient;
 import model.session.TrackerCommunicationException;
@@ -61,4 +62,20 @@ public class DefinableTrackerClient extends TrackerClient {
 
     return peerBytes;
   }
+
+  /**
+   * Announces without a network request, completing with the same response as
+   * {@link #requestTracker()} or failing with its exception.
+   *
+   * @param event the event to report, ignored
+   * @return a completed future
+   */
+  @Override
+  public CompletableFuture<TrackerResponse> announceAsync(Event event) {
+    try {
+      return CompletableFuture.completedFuture(requestTracker());
+    } catch (Exception e) {
+      return CompletableFuture.failedFuture(e);
+    }
+  }
 }
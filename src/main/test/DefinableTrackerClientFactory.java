@@ -30,7 +30,7 @@ public class DefinableTrackerClientFactory implements TrackerClientFactory {
 
 
   @Override
-  public TrackerClient create(String trackerUrl, int port, int fileSize, byte[] infoHash,
+  public TrackerClient create(String trackerUrl, int port, long fileSize, byte[] infoHash,
       String peerId) {
     return new DefinableTrackerClient(peers);
   }
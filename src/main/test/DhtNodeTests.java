@@ -0,0 +1,221 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.TimeUnit;
+import model.decoder.BencodeEncoder;
+import model.decoder.ByteString;
+import model.decoder.DecoderDispatcher;
+import model.session.DhtNode;
+import model.session.PeerList;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the {@link DhtNode}, running a small DHT on the loopback interface.
+ *
+ * @author KX
+ */
+public class DhtNodeTests {
+
+  private static final int NODES = 8;
+  private static final byte[] INFO_HASH =
+      "abcdefghij0123456789".getBytes(StandardCharsets.US_ASCII);
+
+  private final List<DhtNode> nodes = new ArrayList<>();
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    for (int i = 0; i < NODES; i++) {
+      DhtNode node = new DhtNode(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), null,
+          Duration.ofMillis(500));
+      node.start();
+      nodes.add(node);
+    }
+    // Every node but the first bootstraps from the first
+    List<InetSocketAddress> bootstrap = List.of(nodes.get(0).getAddress());
+    for (DhtNode node : nodes) {
+      node.setBootstrapNodes(node == nodes.get(0) ? List.of() : bootstrap);
+    }
+    for (DhtNode node : nodes.subList(1, NODES)) {
+      node.bootstrap().get(10, TimeUnit.SECONDS);
+    }
+  }
+
+  @AfterEach
+  public void tearDown() {
+    for (DhtNode node : nodes) {
+      node.close();
+    }
+  }
+
+  /**
+   * Tests that bootstrapping fills the routing tables, and that the first node learns of every
+   * node that queried it.
+   */
+  @Test
+  public void testBootstrap() {
+    assertEquals(NODES - 1, nodes.get(0).getRoutingTable().size());
+    for (DhtNode node : nodes.subList(1, NODES)) {
+      assertTrue(node.getRoutingTable().size() > 0);
+    }
+  }
+
+  /**
+   * Tests that a peer announced by one node is found by a lookup from another.
+   */
+  @Test
+  public void testAnnounceAndGetPeers() throws Exception {
+    PeerList found = nodes.get(3).getPeersAsync(INFO_HASH).get(10, TimeUnit.SECONDS);
+    assertEquals(0, found.size());
+
+    nodes.get(2).announcePeerAsync(INFO_HASH, 51413).get(10, TimeUnit.SECONDS);
+
+    found = nodes.get(5).getPeersAsync(INFO_HASH).get(10, TimeUnit.SECONDS);
+    assertEquals(1, found.size());
+    assertEquals("127.0.0.1", found.getHost(0));
+    assertEquals(51413, found.getPort(0));
+  }
+
+  /**
+   * Tests that pinging a node adds it to the routing table, and that pinging a closed node times
+   * out.
+   */
+  @Test
+  public void testPing() throws Exception {
+    DhtNode node = new DhtNode(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), null,
+        Duration.ofMillis(200));
+    try {
+      node.start();
+      node.pingAsync(nodes.get(4).getAddress()).get(5, TimeUnit.SECONDS);
+      assertEquals(1, node.getRoutingTable().size());
+
+      InetSocketAddress closed = nodes.get(7).getAddress();
+      nodes.get(7).close();
+      assertThrows(CompletionException.class, () -> node.pingAsync(closed).join());
+    } finally {
+      node.close();
+    }
+  }
+
+  /**
+   * Tests that announces with a token the node did not hand out are rejected with error 203, and
+   * unknown methods with error 204.
+   */
+  @Test
+  public void testBadTokenAndUnknownMethod() throws Exception {
+    try (DatagramSocket socket = new DatagramSocket(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+      socket.setSoTimeout(5000);
+      Map<String, Object> arguments = Map.of("id", new byte[20], "info_hash", INFO_HASH,
+          "port", 6881, "token", "forged");
+      Map<String, Object> error = exchange(socket,
+          Map.of("t", "aa", "y", "q", "q", "announce_peer", "a", arguments));
+      assertEquals(ByteString.of("e"), error.get("y"));
+      assertEquals(203L, ((List<?>) error.get("e")).get(0));
+
+      error = exchange(socket, Map.of("t", "ab", "y", "q", "q", "vote", "a",
+          Map.of("id", new byte[20])));
+      assertEquals(204L, ((List<?>) error.get("e")).get(0));
+
+      // Nothing was stored
+      assertEquals(0, nodes.get(1).getPeersAsync(INFO_HASH).get(10, TimeUnit.SECONDS).size());
+    }
+  }
+
+  /**
+   * Tests that a host cannot store more than a few ports for a torrent, and that the torrents
+   * announced to least recently make room once the node stores as many as it can.
+   */
+  @Test
+  public void testStoredPeersAreCapped() throws Exception {
+    try (DatagramSocket socket = new DatagramSocket(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+      socket.setSoTimeout(5000);
+      Map<String, Object> answer = exchange(socket, Map.of("t", "ad", "y", "q", "q", "get_peers",
+          "a", Map.of("id", new byte[20], "info_hash", INFO_HASH)));
+      Object token = ((Map<?, ?>) answer.get("r")).get("token");
+
+      for (int port = 1; port <= DhtNode.MAX_PORTS_PER_HOST + 2; port++) {
+        announce(socket, INFO_HASH, port, token);
+      }
+      List<?> values = (List<?>) ((Map<?, ?>) exchange(socket, Map.of("t", "ae", "y", "q",
+          "q", "get_peers", "a", Map.of("id", new byte[20], "info_hash", INFO_HASH)))
+          .get("r")).get("values");
+      assertEquals(DhtNode.MAX_PORTS_PER_HOST, values.size());
+      // The oldest ports made room
+      List<Integer> ports = new ArrayList<>();
+      for (Object value : values) {
+        byte[] compact = ((ByteString) value).toByteArray();
+        ports.add(((compact[4] & 0xFF) << 8) | (compact[5] & 0xFF));
+      }
+      assertEquals(List.of(3, 4, 5, 6), ports);
+
+      byte[] infoHash = new byte[20];
+      for (int i = 0; i < DhtNode.MAX_STORED_TORRENTS; i++) {
+        infoHash[0] = (byte) (i >> 8);
+        infoHash[1] = (byte) i;
+        infoHash[19] = 1;
+        announce(socket, infoHash, 6881, token);
+      }
+      Map<?, ?> response = (Map<?, ?>) exchange(socket, Map.of("t", "af", "y", "q",
+          "q", "get_peers", "a", Map.of("id", new byte[20], "info_hash", INFO_HASH))).get("r");
+      assertFalse(response.containsKey("values"));
+      response = (Map<?, ?>) exchange(socket, Map.of("t", "ag", "y", "q",
+          "q", "get_peers", "a", Map.of("id", new byte[20], "info_hash", infoHash))).get("r");
+      assertEquals(1, ((List<?>) response.get("values")).size());
+    }
+  }
+
+  private void announce(DatagramSocket socket, byte[] infoHash, int port, Object token)
+      throws Exception {
+    Map<String, Object> answer = exchange(socket, Map.of("t", "aa", "y", "q",
+        "q", "announce_peer", "a", Map.of("id", new byte[20], "info_hash", infoHash,
+            "port", port, "token", token)));
+    assertEquals(ByteString.of("r"), answer.get("y"));
+  }
+
+  /**
+   * Tests that a message nested deeper than any KRPC message is dropped without disturbing the
+   * node, which still answers the next query.
+   */
+  @Test
+  public void testDeeplyNestedMessageIsIgnored() throws Exception {
+    try (DatagramSocket socket = new DatagramSocket(
+        new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+      socket.setSoTimeout(5000);
+      byte[] nested = ("d1:t2:aa1:y1:q1:q4:ping1:ad2:id20:" + "0".repeat(20) + "1:x"
+          + "l".repeat(950) + "e".repeat(953)).getBytes(StandardCharsets.US_ASCII);
+      socket.send(new DatagramPacket(nested, nested.length, nodes.get(0).getAddress()));
+
+      Map<String, Object> answer = exchange(socket,
+          Map.of("t", "ac", "y", "q", "q", "ping", "a", Map.of("id", new byte[20])));
+      assertEquals(ByteString.of("ac"), answer.get("t"));
+      assertEquals(ByteString.of("r"), answer.get("y"));
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private Map<String, Object> exchange(DatagramSocket socket, Map<String, Object> query)
+      throws Exception {
+    byte[] request = new BencodeEncoder().encode(query);
+    socket.send(new DatagramPacket(request, request.length, nodes.get(0).getAddress()));
+    DatagramPacket packet = new DatagramPacket(new byte[2048], 2048);
+    socket.receive(packet);
+    byte[] response = Arrays.copyOf(packet.getData(), packet.getLength());
+    return (Map<String, Object>) new DecoderDispatcher().decode(response, 0).getValue();
+  }
+}
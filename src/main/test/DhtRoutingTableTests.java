@@ -0,0 +1,113 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.util.List;
+import model.decoder.ByteString;
+import model.session.DhtContact;
+import model.session.DhtRoutingTable;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the {@link DhtRoutingTable} and the compact node lists of {@link DhtContact}.
+ *
+ * @author KX
+ */
+public class DhtRoutingTableTests {
+
+  private DhtRoutingTable table;
+
+  @BeforeEach
+  public void setUp() {
+    table = new DhtRoutingTable(ByteString.wrap(new byte[20]));
+  }
+
+  /**
+   * Returns an ID that is zero except for its first two bytes.
+   */
+  private static ByteString id(int first, int second) {
+    byte[] id = new byte[20];
+    id[0] = (byte) first;
+    id[1] = (byte) second;
+    return ByteString.wrap(id);
+  }
+
+  private static DhtContact contact(ByteString id, int port) {
+    return new DhtContact(id, new InetSocketAddress("127.0.0.1", port));
+  }
+
+  /**
+   * Tests that contacts are returned by XOR distance to the target.
+   */
+  @Test
+  public void testClosest() {
+    table.add(contact(id(0x80, 0), 1));
+    table.add(contact(id(0x01, 0), 2));
+    table.add(contact(id(0x40, 0), 3));
+    table.add(contact(id(0x41, 0), 4));
+
+    List<DhtContact> closest = table.closest(id(0x41, 0), 3);
+    assertEquals(List.of(id(0x41, 0), id(0x40, 0), id(0x01, 0)),
+        closest.stream().map(DhtContact::id).toList());
+    assertEquals(4, table.closest(id(0, 0), 10).size());
+  }
+
+  /**
+   * Tests that a full bucket keeps its contacts, that removing one makes room, and that the own ID
+   * is never added.
+   */
+  @Test
+  public void testFullBucketKeepsOldContacts() {
+    // Every ID starting with a set bit falls in bucket 0
+    for (int i = 0; i < DhtRoutingTable.BUCKET_SIZE; i++) {
+      assertTrue(table.add(contact(id(0x80, i), 1000 + i)));
+    }
+    assertFalse(table.add(contact(id(0x80, 0xFF), 2000)));
+    assertEquals(DhtRoutingTable.BUCKET_SIZE, table.size());
+
+    // Seeing a known contact again updates it
+    assertTrue(table.add(contact(id(0x80, 0), 3000)));
+    assertEquals(DhtRoutingTable.BUCKET_SIZE, table.size());
+
+    assertTrue(table.remove(id(0x80, 1)));
+    assertFalse(table.remove(id(0x80, 1)));
+    assertTrue(table.add(contact(id(0x80, 0xFF), 2000)));
+
+    // Other buckets are independent
+    assertTrue(table.add(contact(id(0x40, 0), 4000)));
+    assertFalse(table.add(contact(id(0, 0), 5000)));
+    assertEquals(DhtRoutingTable.BUCKET_SIZE + 1, table.size());
+  }
+
+  /**
+   * Tests that compact node lists round trip, leaving out unreachable nodes.
+   */
+  @Test
+  public void testCompactNodes() {
+    List<DhtContact> contacts = List.of(contact(id(1, 2), 6881), contact(id(3, 4), 51413));
+    byte[] compact = DhtContact.toCompact(contacts);
+    assertEquals(2 * DhtContact.COMPACT_LENGTH, compact.length);
+    assertEquals(contacts, DhtContact.fromCompact(ByteString.wrap(compact)));
+
+    compact[DhtContact.COMPACT_LENGTH - 1] = 0;
+    compact[DhtContact.COMPACT_LENGTH - 2] = 0;
+    assertEquals(List.of(contacts.get(1)), DhtContact.fromCompact(ByteString.wrap(compact)));
+  }
+
+  /**
+   * Tests that invalid IDs and targets are rejected.
+   */
+  @Test
+  public void testInvalidArguments() {
+    assertThrows(IllegalArgumentException.class,
+        () -> new DhtRoutingTable(ByteString.wrap(new byte[19])));
+    assertThrows(IllegalArgumentException.class,
+        () -> contact(ByteString.wrap(new byte[21]), 1));
+    assertThrows(IllegalArgumentException.class,
+        () -> table.closest(ByteString.wrap(new byte[5]), 1));
+    assertThrows(IllegalArgumentException.class, () -> table.closest(id(0, 0), -1));
+  }
+}
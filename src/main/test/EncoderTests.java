@@ -0,0 +1,115 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.dampcake.bencode.Bencode;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import model.decoder.BencodeEncoder;
+import model.decoder.ByteString;
+import model.decoder.DecoderDispatcher;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the {@link BencodeEncoder}. Checks the encoding of each bencode type, key ordering,
+ * the different output targets and round-tripping through {@link DecoderDispatcher}.
+ *
+ * @author KX
+ */
+public class EncoderTests {
+
+  private final BencodeEncoder encoder = new BencodeEncoder();
+  private final DecoderDispatcher dispatcher = new DecoderDispatcher();
+
+  /**
+   * Tests the encoding of integers, byte strings and lists.
+   */
+  @Test
+  public void testEncodeScalarsAndLists() {
+    assertEquals("i42e", new String(encoder.encode(42L)));
+    assertEquals("i-42e", new String(encoder.encode(-42)));
+    assertEquals("i0e", new String(encoder.encode(0)));
+    assertEquals("i-9223372036854775808e", new String(encoder.encode(Long.MIN_VALUE)));
+    assertEquals("4:spam", new String(encoder.encode("spam")));
+    assertEquals("0:", new String(encoder.encode(ByteString.EMPTY)));
+    assertEquals("l4:spami7ee", new String(encoder.encode(List.of("spam", 7))));
+
+    byte[] binary = new byte[]{(byte) 0xff, 0x00, (byte) 0x80};
+    byte[] encoded = encoder.encode(binary);
+    assertEquals("3:", new String(encoded, 0, 2));
+    assertArrayEquals(binary, Arrays.copyOfRange(encoded, 2, 5));
+  }
+
+  /**
+   * Tests that dictionary keys are written in raw byte order regardless of map ordering, and that
+   * unsupported values are rejected.
+   */
+  @Test
+  public void testEncodeDictionarySortsKeys() {
+    Map<String, Object> dict = new LinkedHashMap<>();
+    dict.put("zebra", 1);
+    dict.put("apple", "x");
+    dict.put("Zulu", List.of());
+    assertEquals("d4:Zulule5:apple1:x5:zebrai1ee", new String(encoder.encode(dict)));
+
+    Map<Object, Object> duplicate = new LinkedHashMap<>();
+    duplicate.put("key", 1);
+    duplicate.put(ByteString.of("key"), 2);
+    assertThrows(IllegalArgumentException.class, () -> encoder.encode(duplicate));
+    assertThrows(IllegalArgumentException.class, () -> encoder.encode(Map.of(1, 2)));
+    assertThrows(IllegalArgumentException.class, () -> encoder.encode(1.5));
+  }
+
+  /**
+   * Tests that the ByteBuffer target grows as needed and the stream target writes the same bytes.
+   *
+   * @throws IOException if writing to the stream fails
+   */
+  @Test
+  public void testEncodeTargets() throws IOException {
+    Map<String, Object> dict = new TreeMap<>();
+    dict.put("pieces", ByteString.wrap(new byte[20_000]));
+    dict.put("name", "sample.txt");
+    byte[] expected = encoder.encode(dict);
+
+    ByteBuffer small = ByteBuffer.allocateDirect(4);
+    ByteBuffer result = encoder.encode(dict, small);
+    assertEquals(expected.length, result.position());
+    result.flip();
+    byte[] fromBuffer = new byte[result.remaining()];
+    result.get(fromBuffer);
+    assertArrayEquals(expected, fromBuffer);
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    encoder.encode(dict, out);
+    assertArrayEquals(expected, out.toByteArray());
+  }
+
+  /**
+   * Tests that decoding and re-encoding a real torrent file reproduces it byte for byte, and that
+   * the output matches the com.dampcake bencode library.
+   *
+   * @throws IOException if the sample torrent cannot be read
+   */
+  @Test
+  public void testRoundTrip() throws IOException {
+    byte[] torrent = Files.readAllBytes(Path.of("sample.torrent"));
+    Object decoded = dispatcher.decode(torrent, 0).getValue();
+    assertArrayEquals(torrent, encoder.encode(decoded));
+    assertEquals(decoded, dispatcher.decode(encoder.encode(decoded), 0).getValue());
+
+    Map<String, Object> textOnly = new TreeMap<>();
+    textOnly.put("announce", "http://tracker.example/announce");
+    textOnly.put("list", List.of(1L, -2L, "three", Map.of("k", "v")));
+    textOnly.put("length", 5_000_000_000L);
+    assertArrayEquals(new Bencode().encode(textOnly), encoder.encode(textOnly));
+  }
+}
@@ -0,0 +1,153 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MulticastSocket;
+import java.net.NetworkInterface;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import model.session.LocalPeerDiscovery;
+import model.session.PeerList;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the {@link LocalPeerDiscovery}, announcing on the loopback interface.
+ *
+ * @author KX
+ */
+public class LocalPeerDiscoveryTests {
+
+  private static final byte[] INFO_HASH = new byte[20];
+  private static final byte[] OTHER_INFO_HASH = new byte[20];
+
+  static {
+    INFO_HASH[0] = 1;
+    OTHER_INFO_HASH[0] = 2;
+  }
+
+  private InetSocketAddress group;
+  private NetworkInterface loopback;
+  private LocalPeerDiscovery first;
+  private LocalPeerDiscovery second;
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    // A free port, so that the test does not see announces of real clients
+    int port;
+    try (DatagramSocket socket = new DatagramSocket(0)) {
+      port = socket.getLocalPort();
+    }
+    group = new InetSocketAddress("239.192.152.143", port);
+    loopback = NetworkInterface.getByInetAddress(InetAddress.getLoopbackAddress());
+    first = new LocalPeerDiscovery(group, loopback);
+    second = new LocalPeerDiscovery(group, loopback);
+    first.start();
+    second.start();
+  }
+
+  @AfterEach
+  public void tearDown() {
+    first.close();
+    second.close();
+  }
+
+  /**
+   * Returns the ports of the peers found within the given time.
+   */
+  private static Set<Integer> portsFound(BlockingQueue<PeerList> found, long millis)
+      throws InterruptedException {
+    Set<Integer> ports = new HashSet<>();
+    long deadline = System.currentTimeMillis() + millis;
+    for (long left = millis; left > 0; left = deadline - System.currentTimeMillis()) {
+      PeerList peers = found.poll(left, TimeUnit.MILLISECONDS);
+      if (peers != null) {
+        assertEquals("127.0.0.1", peers.getHost(0));
+        ports.add(peers.getPort(0));
+      }
+    }
+    return ports;
+  }
+
+  /**
+   * Tests that a node registering later finds an earlier one through its answer, and that neither
+   * hears its own announce or the announces of torrents it did not register.
+   */
+  @Test
+  public void testDiscovery() throws Exception {
+    BlockingQueue<PeerList> foundByFirst = new LinkedBlockingQueue<>();
+    BlockingQueue<PeerList> foundBySecond = new LinkedBlockingQueue<>();
+    first.register(INFO_HASH, 1111, foundByFirst::add);
+    Thread.sleep(200); // The first announce is gone before the second node registers
+    second.register(INFO_HASH, 2222, foundBySecond::add);
+    second.register(OTHER_INFO_HASH, 3333, foundBySecond::add);
+
+    assertEquals(Set.of(2222), portsFound(foundByFirst, 1000));
+    assertEquals(Set.of(1111), portsFound(foundBySecond, 1000));
+  }
+
+  /**
+   * Tests that announces for unregistered torrents and malformed announces are ignored.
+   */
+  @Test
+  public void testIgnoresMalformedAnnounces() throws Exception {
+    BlockingQueue<PeerList> found = new LinkedBlockingQueue<>();
+    first.register(INFO_HASH, 1111, found::add);
+    first.unregister(INFO_HASH);
+    second.register(INFO_HASH, 2222, peers -> { });
+    assertEquals(Set.of(), portsFound(found, 500));
+
+    first.register(OTHER_INFO_HASH, 1111, found::add);
+    try (MulticastSocket sender = new MulticastSocket()) {
+      sender.setNetworkInterface(loopback);
+      String hex = "02" + "00".repeat(19);
+      for (String announce : new String[] {
+          "NOTIFY * HTTP/1.1\r\nPort: 1\r\nInfohash: " + hex + "\r\n\r\n\r\n",
+          "BT-SEARCH * HTTP/1.1\r\nPort: 0\r\nInfohash: " + hex + "\r\n\r\n\r\n",
+          "BT-SEARCH * HTTP/1.1\r\nPort: 4444\r\nInfohash: zz\r\n\r\n\r\n",
+          "BT-SEARCH * HTTP/1.1\r\nPort: 5555\r\nInfohash: " + hex + "\r\n\r\n\r\n"}) {
+        byte[] bytes = announce.getBytes(StandardCharsets.US_ASCII);
+        sender.send(new DatagramPacket(bytes, bytes.length, group));
+      }
+    }
+    // Only the well formed announce gets through
+    assertEquals(Set.of(5555), portsFound(found, 1000));
+  }
+
+  /**
+   * Tests which addresses count as local.
+   */
+  @Test
+  public void testIsLocalAddress() throws Exception {
+    assertTrue(LocalPeerDiscovery.isLocalAddress(InetAddress.getByName("127.0.0.1")));
+    assertTrue(LocalPeerDiscovery.isLocalAddress(InetAddress.getByName("192.168.1.20")));
+    assertTrue(LocalPeerDiscovery.isLocalAddress(InetAddress.getByName("10.1.2.3")));
+    assertTrue(LocalPeerDiscovery.isLocalAddress(InetAddress.getByName("fe80::1")));
+    assertTrue(LocalPeerDiscovery.isLocalAddress(InetAddress.getByName("fd12:3456::1")));
+    assertFalse(LocalPeerDiscovery.isLocalAddress(InetAddress.getByName("8.8.8.8")));
+    assertFalse(LocalPeerDiscovery.isLocalAddress(InetAddress.getByName("2001:db8::1")));
+  }
+
+  /**
+   * Tests that invalid registrations and groups are rejected.
+   */
+  @Test
+  public void testInvalidArguments() {
+    assertThrows(IllegalArgumentException.class,
+        () -> first.register(new byte[19], 1111, peers -> { }));
+    assertThrows(IllegalArgumentException.class, () -> first.register(INFO_HASH, 0, peers -> { }));
+    assertThrows(IllegalArgumentException.class, () -> first.register(INFO_HASH, 1111, null));
+    assertThrows(IllegalArgumentException.class,
+        () -> new LocalPeerDiscovery(new InetSocketAddress("127.0.0.1", 6771), null));
+  }
+}
@@ -47,10 +47,10 @@ public class MockInputStream extends InputStream {
    */
   @Override
   public int read() throws IOException {
-    if (concatenatedBytes == null) {
+    if (concatenatedBytes == null || currentIndex >= concatenatedBytes.length) {
       return -1;
     }
-    return concatenatedBytes[currentIndex++];
+    return concatenatedBytes[currentIndex++] & 0xFF;
   }
 
   /**
@@ -85,7 +85,7 @@ public class MockPeerSession extends PeerSession {
    * @return the byte array representing the downloaded piece.
    */
   @Override
-  public byte[] downloadPiece(int pieceIndex, int pieceLength, byte[] expectedHash, int fileLength) {
+  public byte[] downloadPiece(int pieceIndex, int pieceLength, byte[] expectedHash, long fileLength) {
     // Mock implementation for testing purposes
     if (pieceIndex < 0 || pieceIndex >= pieces.size()) {
       throw new IndexOutOfBoundsException("Piece index out of bounds");
@@ -13,7 +13,7 @@ import model.session.PieceWriter;
 public class MockPieceWriter implements PieceWriter {
 
   private final Map<String, Integer> writtenOffsets;
-  private final Map<Integer, byte[]> writtenPieces;
+  private final Map<Long, byte[]> writtenPieces;
 
   /**
    * Constructs a MockPieceWriter with empty maps for written offsets and pieces.
@@ -32,7 +32,7 @@ public class MockPieceWriter implements PieceWriter {
    * @throws IOException if an I/O error occurs while writing to the file. Not used.
    */
   @Override
-  public void writePiece(String filePath, byte[] data, int offset) throws IOException {
+  public void writePiece(String filePath, byte[] data, long offset) throws IOException {
     if (writtenOffsets.containsKey(filePath)) {
       int currentOffset = writtenOffsets.get(filePath);
       writtenOffsets.put(filePath, currentOffset + data.length);
@@ -46,7 +46,7 @@ public class MockPieceWriter implements PieceWriter {
     return writtenOffsets;
   }
 
-  public Map<Integer, byte[]> getWrittenPieces() {
+  public Map<Long, byte[]> getWrittenPieces() {
     return writtenPieces;
   }
 
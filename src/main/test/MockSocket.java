@@ -15,6 +15,7 @@ public class MockSocket extends Socket {
   private OutputStream mockOutputStream;
 
   private boolean isClosed;
+  private int soTimeout;
 
   /**
    * Constructs a MockSocket with default parameters.
@@ -53,6 +54,17 @@ public class MockSocket extends Socket {
     return isClosed;
   }
 
+  @Override
+  public void setSoTimeout(int timeout) {
+    // Mock behavior: streams time out on their own, see MockTimeoutInputStream
+    this.soTimeout = timeout;
+  }
+
+  @Override
+  public int getSoTimeout() {
+    return soTimeout;
+  }
+
   @Override
   public InputStream getInputStream() throws IOException {
     return mockInputStream != null ? mockInputStream : super.getInputStream();
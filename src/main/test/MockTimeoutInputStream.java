@@ -1,4 +1,5 @@
 import java.io.IOException;
+import java.net.SocketTimeoutException;
 import java.util.List;
 import model.session.PeerSession;
 import model.session.TrackerClient;
@@ -40,6 +41,24 @@ public class MockTimeoutInputStream extends MockInputStream {
     return super.read();
   }
 
+  /**
+   * Waits for the timeout and fails like a socket read with SO_TIMEOUT set, once activated.
+   *
+   * @throws SocketTimeoutException when the timeout is activated
+   */
+  @Override
+  public byte[] readNBytes(int len) throws IOException {
+    if (timeoutActivated) {
+      try {
+        Thread.sleep(timeout);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt(); // Restore interrupted status
+      }
+      throw new SocketTimeoutException("Read timed out");
+    }
+    return super.readNBytes(len);
+  }
+
 
   public boolean isTimeoutActivated() {
     return timeoutActivated;
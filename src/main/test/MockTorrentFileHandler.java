@@ -1,4 +1,5 @@
 import java.util.List;
+import model.session.PieceHashTable;
 import model.session.TorrentFileHandler;
 
 /**
@@ -16,9 +17,9 @@ public class MockTorrentFileHandler extends TorrentFileHandler {
   public MockTorrentFileHandler() {
     super("sample.torrent"); // or dummy path if needed
     this.pieceHashes = List.of(
-        new byte[] { /* Example hash for piece 0 */ },
-        new byte[] { /* Example hash for piece 1 */ },
-        new byte[] { /* Example hash for piece 2 */ }
+        new byte[20], // Example hash for piece 0
+        new byte[20], // Example hash for piece 1
+        new byte[20] // Example hash for piece 2
     );
   }
 
@@ -31,9 +32,9 @@ public class MockTorrentFileHandler extends TorrentFileHandler {
   public MockTorrentFileHandler(String filePath) {
     super(filePath);
     this.pieceHashes = List.of(
-        new byte[] { /* Example hash for piece 0 */ },
-        new byte[] { /* Example hash for piece 1 */ },
-        new byte[] { /* Example hash for piece 2 */ }
+        new byte[20], // Example hash for piece 0
+        new byte[20], // Example hash for piece 1
+        new byte[20] // Example hash for piece 2
     );
   }
 
@@ -66,13 +67,13 @@ public class MockTorrentFileHandler extends TorrentFileHandler {
   }
 
   @Override
-  public int getFileLength() {
+  public long getFileLength() {
     return getPieceLength() * pieceHashes.size(); // Example total file length
   }
 
   @Override
-  public List<byte[]> getHashedPieces() {
-    return pieceHashes;
+  public PieceHashTable getPieceHashTable() {
+    return PieceHashTable.copyOf(pieceHashes);
   }
 
   public void setPieceHashes(List<byte[]> pieceHashes) {
@@ -26,7 +26,7 @@ public class MockTrackerClientFactory implements TrackerClientFactory {
   }
 
   @Override
-  public TrackerClient create(String trackerUrl, int port, int fileSize, byte[] infoHash,
+  public TrackerClient create(String trackerUrl, int port, long fileSize, byte[] infoHash,
       String peerId) {
     if (throwError) {
       return new MockTrackerClient(true);
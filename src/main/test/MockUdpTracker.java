@@ -0,0 +1,130 @@
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An in-process stand-in for a UDP tracker (BEP 15), listening on a loopback port. It answers
+ * connect, announce and scrape requests, records the actions it receives and can be told to drop
+ * datagrams or answer with an error.
+ *
+ * @author KX
+ */
+public class MockUdpTracker implements AutoCloseable {
+
+  public static final long CONNECTION_ID = 0x1122334455667788L;
+
+  private final DatagramSocket socket;
+  private final Thread thread;
+  private final List<Integer> actions = new CopyOnWriteArrayList<>();
+  private final List<ByteBuffer> announces = new CopyOnWriteArrayList<>();
+  private final AtomicInteger dropsLeft = new AtomicInteger();
+  private volatile byte[] peers = new byte[0];
+  private volatile int interval = 1800;
+  private volatile String errorMessage;
+
+  /**
+   * Starts a MockUdpTracker on an ephemeral loopback port.
+   *
+   * @throws SocketException if the socket cannot be bound
+   */
+  public MockUdpTracker() throws SocketException {
+    this.socket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+    this.thread = new Thread(this::serve, "mock-udp-tracker");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  public String getUrl() {
+    return "udp://127.0.0.1:" + socket.getLocalPort() + "/announce";
+  }
+
+  private void serve() {
+    byte[] buffer = new byte[2048];
+    while (!socket.isClosed()) {
+      DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+      try {
+        socket.receive(packet);
+      } catch (IOException e) {
+        return;
+      }
+      ByteBuffer request = ByteBuffer.wrap(packet.getData(), 0, packet.getLength()).slice();
+      long connectionId = request.getLong();
+      int action = request.getInt();
+      int transactionId = request.getInt();
+      actions.add(action);
+      if (dropsLeft.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+        continue;
+      }
+
+      ByteBuffer response = ByteBuffer.allocate(2048);
+      if (errorMessage != null) {
+        response.putInt(3).putInt(transactionId).put(errorMessage.getBytes(StandardCharsets.UTF_8));
+      } else if (action == 0) {
+        response.putInt(0).putInt(transactionId).putLong(CONNECTION_ID);
+      } else if (connectionId != CONNECTION_ID) {
+        response.putInt(3).putInt(transactionId).put("bad connection id".getBytes());
+      } else if (action == 1) {
+        announces.add(request.duplicate());
+        response.putInt(1).putInt(transactionId).putInt(interval).putInt(2).putInt(3).put(peers);
+      } else if (action == 2) {
+        response.putInt(2).putInt(transactionId);
+        for (int i = 0; request.remaining() >= 20; i++) {
+          request.position(request.position() + 20);
+          response.putInt(10 + i).putInt(20 + i).putInt(30 + i);
+        }
+      }
+      try {
+        socket.send(new DatagramPacket(response.array(), response.position(),
+            packet.getSocketAddress()));
+      } catch (IOException e) {
+        return;
+      }
+    }
+  }
+
+  /**
+   * Returns the action of every datagram received, including dropped ones.
+   *
+   * @return the actions, 0 for connect, 1 for announce and 2 for scrape
+   */
+  public List<Integer> getActions() {
+    return actions;
+  }
+
+  /**
+   * Returns the body of every announce answered, after its transaction ID.
+   *
+   * @return the announce bodies
+   */
+  public List<ByteBuffer> getAnnounces() {
+    return announces;
+  }
+
+  public void setPeers(byte[] peers) {
+    this.peers = peers;
+  }
+
+  public void setInterval(int interval) {
+    this.interval = interval;
+  }
+
+  public void setErrorMessage(String errorMessage) {
+    this.errorMessage = errorMessage;
+  }
+
+  public void dropNext(int datagrams) {
+    dropsLeft.set(datagrams);
+  }
+
+  @Override
+  public void close() {
+    socket.close();
+  }
+}
@@ -0,0 +1,157 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import model.session.PeerCache;
+import model.session.PeerCache.CachedPeer;
+import model.session.PeerList;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests for the {@link PeerCache}, using a fixed clock so that peer ages are exact.
+ *
+ * @author KX
+ */
+public class PeerCacheTests {
+
+  private static final long NOW = 1_700_000_000_000L;
+  private static final byte[] INFO_HASH = new byte[20];
+
+  @TempDir
+  Path tempDir;
+
+  private PeerCache cache;
+
+  @BeforeEach
+  public void setUp() {
+    cache = new PeerCache(tempDir.resolve("peers"), Duration.ofDays(1),
+        Clock.fixed(Instant.ofEpochMilli(NOW), ZoneOffset.UTC));
+  }
+
+  private static CachedPeer peer(String host, int port, long lastSuccess, long throughput) {
+    return new CachedPeer(new InetSocketAddress(host, port), lastSuccess, throughput);
+  }
+
+  /**
+   * Tests that saved peers are loaded fastest first, IPv6 peers included, and that an update
+   * replaces the measurement of a peer already in the entry.
+   */
+  @Test
+  public void testUpdateAndLoad() {
+    assertEquals(List.of(), cache.load(INFO_HASH));
+
+    cache.update(INFO_HASH, List.of(peer("10.0.0.1", 6881, NOW - 1000, 100),
+        peer("2001:db8::1", 51413, NOW - 2000, 5000)));
+    assertTrue(Files.exists(cache.getEntryPath(INFO_HASH)));
+    assertEquals(List.of(peer("2001:db8::1", 51413, NOW - 2000, 5000),
+        peer("10.0.0.1", 6881, NOW - 1000, 100)), cache.load(INFO_HASH));
+
+    cache.update(INFO_HASH, List.of(peer("10.0.0.1", 6881, NOW, 9000),
+        peer("10.0.0.2", 80, NOW, 0)));
+    assertEquals(List.of(peer("10.0.0.1", 6881, NOW, 9000),
+        peer("2001:db8::1", 51413, NOW - 2000, 5000), peer("10.0.0.2", 80, NOW, 0)),
+        cache.load(INFO_HASH));
+
+    // Entries of other torrents are separate
+    byte[] otherHash = new byte[20];
+    otherHash[0] = 1;
+    assertEquals(List.of(), cache.load(otherHash));
+  }
+
+  /**
+   * Tests that peers older than the maximum age are dropped and that only the fastest peers are
+   * kept.
+   */
+  @Test
+  public void testAgeAndSizeLimits() {
+    List<CachedPeer> peers = new ArrayList<>();
+    peers.add(peer("10.0.1.1", 1, NOW - Duration.ofDays(2).toMillis(), 1_000_000));
+    for (int i = 0; i < PeerCache.MAX_PEERS + 10; i++) {
+      peers.add(peer("10.0.0." + i, 6881, NOW, i));
+    }
+    cache.update(INFO_HASH, peers);
+
+    List<CachedPeer> loaded = cache.load(INFO_HASH);
+    assertEquals(PeerCache.MAX_PEERS, loaded.size());
+    assertEquals(PeerCache.MAX_PEERS + 9, loaded.get(0).throughput());
+    assertEquals(10, loaded.get(loaded.size() - 1).throughput());
+  }
+
+  /**
+   * Tests that a corrupt entry is treated as empty and replaced by the next update.
+   */
+  @Test
+  public void testCorruptEntry() throws IOException {
+    cache.update(INFO_HASH, List.of());
+    Files.write(cache.getEntryPath(INFO_HASH), new byte[] {0x42, 0x54, 0x50, 0x43, 0, 0, 0, 1, 0});
+    assertEquals(List.of(), cache.load(INFO_HASH));
+
+    cache.update(INFO_HASH, List.of(peer("10.0.0.1", 6881, NOW, 1)));
+    assertEquals(1, cache.load(INFO_HASH).size());
+  }
+
+  /**
+   * Tests that the cache directory is created private to the user, and that entries in a directory
+   * other users can write are ignored.
+   *
+   * @throws IOException if the permissions cannot be changed
+   */
+  @Test
+  public void testSharedDirectoryIsNotUsed() throws IOException {
+    assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+    cache.update(INFO_HASH, List.of(peer("10.0.0.1", 6881, NOW, 1)));
+    Path directory = cache.getCacheDirectory();
+    assertEquals("rwx------",
+        PosixFilePermissions.toString(Files.getPosixFilePermissions(directory)));
+
+    Files.setPosixFilePermissions(directory, PosixFilePermissions.fromString("rwxrwxrwx"));
+    assertEquals(List.of(), cache.load(INFO_HASH));
+    cache.update(INFO_HASH, List.of(peer("10.0.0.2", 6881, NOW, 2)));
+
+    Files.setPosixFilePermissions(directory, PosixFilePermissions.fromString("rwx------"));
+    assertEquals(List.of(peer("10.0.0.1", 6881, NOW, 1)), cache.load(INFO_HASH));
+  }
+
+  @Test
+  public void testInvalidArguments() {
+    assertThrows(IllegalArgumentException.class, () -> new PeerCache(null));
+    assertThrows(IllegalArgumentException.class,
+        () -> new PeerCache(tempDir, Duration.ofDays(-1), Clock.systemUTC()));
+    assertThrows(IllegalArgumentException.class, () -> cache.load(new byte[19]));
+    assertThrows(IllegalArgumentException.class, () -> cache.update(INFO_HASH, null));
+    assertThrows(IllegalArgumentException.class,
+        () -> new CachedPeer(InetSocketAddress.createUnresolved("example.com", 1), NOW, 0));
+    assertThrows(IllegalArgumentException.class, () -> peer("10.0.0.1", 1, NOW, -1));
+  }
+
+  /**
+   * Tests building a peer list from cached addresses.
+   */
+  @Test
+  public void testPeerListOfAddresses() {
+    PeerList peers = PeerList.of(List.of(new InetSocketAddress("2001:db8::1", 51413),
+        new InetSocketAddress("10.0.0.1", 6881)));
+    assertEquals(2, peers.size());
+    assertEquals("10.0.0.1", peers.getHost(0));
+    assertEquals(6881, peers.getPort(0));
+    assertTrue(peers.isIpv6(1));
+    assertEquals(51413, peers.getPort(1));
+    assertThrows(IllegalArgumentException.class,
+        () -> PeerList.of(List.of(InetSocketAddress.createUnresolved("example.com", 1))));
+  }
+}
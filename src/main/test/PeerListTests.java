@@ -0,0 +1,140 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import model.session.PeerList;
+import model.session.PeerSet;
+import model.session.TrackerResponse;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit tests for the model.session.PeerList class and the peers of model.session.TrackerResponse.
+ *
+ * @author KX
+ */
+public class PeerListTests {
+
+  // 192.168.1.2:6881, 10.0.0.1:80, 192.168.1.2:6882, plus a trailing partial peer
+  private static final byte[] COMPACT = {
+      (byte) 192, (byte) 168, 1, 2, 0x1A, (byte) 0xE1,
+      10, 0, 0, 1, 0, 80,
+      (byte) 192, (byte) 168, 1, 2, 0x1A, (byte) 0xE2,
+      1, 2, 3};
+
+  @Test
+  public void testFromCompact() {
+    PeerList peers = PeerList.fromCompact(COMPACT);
+    assertEquals(3, peers.size());
+    assertEquals("192.168.1.2", peers.getHost(0));
+    assertEquals(6881, peers.getPort(0));
+    assertEquals("10.0.0.1", peers.getHost(1));
+    assertEquals(80, peers.getPort(1));
+    assertEquals(6882, peers.getPort(2));
+    assertEquals(0xC0A80102L << 16 | 6881, peers.getPacked(0));
+    assertEquals(new InetSocketAddress("10.0.0.1", 80), peers.getAddress(1));
+    assertEquals("[192.168.1.2:6881, 10.0.0.1:80, 192.168.1.2:6882]", peers.toString());
+
+    List<InetSocketAddress> addresses = new ArrayList<>();
+    peers.forEach(addresses::add);
+    assertEquals(List.of(new InetSocketAddress("192.168.1.2", 6881),
+        new InetSocketAddress("10.0.0.1", 80), new InetSocketAddress("192.168.1.2", 6882)),
+        addresses);
+
+    // Parsing a buffer does not move it
+    ByteBuffer buffer = ByteBuffer.wrap(COMPACT, 6, 12);
+    PeerList sliced = PeerList.fromCompact(buffer);
+    assertEquals(2, sliced.size());
+    assertEquals("10.0.0.1", sliced.getHost(0));
+    assertEquals(6, buffer.position());
+
+    assertSame(PeerList.empty(), PeerList.fromCompact(new byte[5]));
+    assertThrows(IllegalArgumentException.class, () -> PeerList.fromCompact((byte[]) null));
+    assertThrows(IndexOutOfBoundsException.class, () -> peers.getHost(3));
+    assertThrows(IndexOutOfBoundsException.class, () -> peers.getPort(-1));
+  }
+
+  @Test
+  public void testPackedRoundTrip() {
+    PeerList peers = PeerList.fromCompact(COMPACT);
+    PeerList copy = PeerList.ofPacked(peers.toPackedArray());
+    assertEquals(peers, copy);
+    assertEquals(peers.hashCode(), copy.hashCode());
+    assertArrayEquals(Arrays.copyOf(COMPACT, 18), copy.toCompact());
+    assertTrue(PeerList.ofPacked().isEmpty());
+    assertThrows(IllegalArgumentException.class, () -> PeerList.ofPacked(1L << 48));
+  }
+
+  /**
+   * Tests that a response keeps every peer behind a shared address, while the compatibility map
+   * keeps one port per address.
+   */
+  @Test
+  public void testTrackerResponsePeers() {
+    TrackerResponse response = new TrackerResponse(1800, COMPACT);
+    assertEquals(3, response.getPeerList().size());
+    assertArrayEquals(Arrays.copyOf(COMPACT, 18), response.getPeers());
+    assertEquals(Map.of("192.168.1.2", 6882, "10.0.0.1", 80), response.getPeersMap());
+    assertThrows(UnsupportedOperationException.class,
+        () -> response.getPeersMap().put("1.1.1.1", 1));
+  }
+
+  /**
+   * Tests IPv6 peers from a compact 'peers6' list, which follow the IPv4 peers.
+   */
+  @Test
+  public void testIpv6Peers() {
+    byte[] compact6 = new byte[PeerList.COMPACT_IPV6_LENGTH * 2 + 5];
+    compact6[0] = 0x20;
+    compact6[1] = 0x01;
+    compact6[2] = 0x0D;
+    compact6[3] = (byte) 0xB8;
+    compact6[15] = 1;
+    compact6[16] = 0x1A;
+    compact6[17] = (byte) 0xE1;
+    compact6[18 + 15] = 1; // ::1, port 0
+
+    PeerList peers = PeerList.fromCompact(ByteBuffer.wrap(COMPACT, 0, 6),
+        ByteBuffer.wrap(compact6));
+    assertEquals(3, peers.size());
+    assertFalse(peers.isIpv6(0));
+    assertTrue(peers.isIpv6(1));
+    assertEquals("2001:db8:0:0:0:0:0:1", peers.getHost(1));
+    assertEquals(6881, peers.getPort(1));
+    assertEquals(new InetSocketAddress("2001:db8::1", 6881), peers.getAddress(1));
+    assertEquals("0:0:0:0:0:0:0:1", peers.getHost(2));
+    assertEquals("[192.168.1.2:6881, [2001:db8:0:0:0:0:0:1]:6881, [0:0:0:0:0:0:0:1]:0]",
+        peers.toString());
+    assertThrows(IllegalStateException.class, () -> peers.getPacked(1));
+    assertArrayEquals(Arrays.copyOf(compact6, 36), peers.toCompact6());
+    assertEquals(1, PeerList.fromCompact(null, ByteBuffer.wrap(compact6, 18, 18)).size());
+
+    // Duplicates of both families are filtered out by a peer set
+    PeerSet seen = new PeerSet();
+    assertEquals(peers, peers.filter(i -> seen.add(peers, i)));
+    assertTrue(peers.filter(i -> seen.add(peers, i)).isEmpty());
+    assertEquals(3, seen.size());
+    PeerList ipv6Only = peers.filter(peers::isIpv6);
+    assertEquals(2, ipv6Only.size());
+    assertTrue(ipv6Only.isIpv6(0));
+  }
+
+  @Test
+  public void testTrackerResponseWithIpv6Peers() {
+    byte[] compact6 = new byte[PeerList.COMPACT_IPV6_LENGTH];
+    compact6[15] = 1;
+    compact6[17] = 80;
+    TrackerResponse response = new TrackerResponse(1800, 0,
+        PeerList.fromCompact(ByteBuffer.wrap(COMPACT, 0, 6), ByteBuffer.wrap(compact6)));
+    assertEquals(Map.of("192.168.1.2", 6881, "0:0:0:0:0:0:0:1", 80), response.getPeersMap());
+    assertEquals(6, response.getPeers().length);
+  }
+}
@@ -1,23 +1,34 @@
 import static org.junit.jupiter.api.Assertions.assertArrayEquals;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import model.decoder.BencodeEncoder;
+import model.decoder.ByteString;
+import model.decoder.DecoderDispatcher;
+import model.session.PeerList;
 import model.session.PieceDownloadException;
 import model.session.PeerSession;
 import model.session.TorrentFileHandler;
+import model.session.TransferStatistics;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 
 /**
  * Tests for the model.session.PeerSession class, which handles communication with a peer in a torrent network.
@@ -106,7 +117,10 @@ public class PeerSessionTests {
     assertEquals("01234567890123456789", peerSession.getPeerId());
     assertEquals(PeerSession.SessionState.UNINITIALIZED, peerSession.getSessionState());
 
-
+    // IPv6 literals are accepted with or without brackets
+    PeerSession ipv6Session = new PeerSession("[2001:db8::1]", 6881, "01234567890123456789",
+        tfh.getInfoHash());
+    assertEquals("2001:db8::1", ipv6Session.getIpAddress());
   }
 
   /**
@@ -135,6 +149,62 @@ public class PeerSessionTests {
     assertEquals(PeerSession.SessionState.HANDSHAKE, peerSession.getSessionState());
   }
 
+  /**
+   * Tests that INTERESTED goes out in one write right after the handshake, and that the messages of
+   * the peer are then processed as they arrive, keep-alives included.
+   */
+  @Test
+  public void testPipelinedConnectionSetup() throws IOException {
+    List<byte[]> responses = new ArrayList<>();
+    responses.add(createHandshakeResponse(torrentFileHandler.getInfoHash()));
+    responses.add(new byte[4]); // Keep-alive
+    responses.add(createBitfieldResponse());
+    responses.add(new byte[4]);
+    responses.add(createUnchokeResponse());
+    mockInputStream.setReadResponses(responses);
+
+    assertTrue(peerSession.establishInterested());
+
+    ArgumentCaptor<byte[]> written = ArgumentCaptor.forClass(byte[].class);
+    verify(mockOutputStream, times(2)).write(written.capture());
+    verify(mockOutputStream, times(2)).flush();
+    assertEquals(68, written.getAllValues().get(0).length);
+    byte[] opening = written.getAllValues().get(1);
+    assertEquals(5, opening.length);
+    assertEquals(2, opening[4]); // INTERESTED
+  }
+
+  /**
+   * Tests that, with the Fast Extension and the extension protocol negotiated, HAVE_NONE is the
+   * first message after the handshake and INTERESTED the last of the opening write.
+   */
+  @Test
+  public void testAvailabilityPrecedesInterested() throws IOException {
+    byte[] handshake = createHandshakeResponse(torrentFileHandler.getInfoHash());
+    handshake[25] |= 0x10; // Extension protocol
+    handshake[27] |= 0x04; // Fast Extension
+    List<byte[]> responses = new ArrayList<>();
+    responses.add(handshake);
+    responses.add(createIndexMessage(0x0E, -1)); // HAVE_ALL
+    responses.add(createUnchokeResponse());
+    mockInputStream.setReadResponses(responses);
+
+    assertTrue(peerSession.establishInterested());
+
+    ArgumentCaptor<byte[]> written = ArgumentCaptor.forClass(byte[].class);
+    verify(mockOutputStream, times(2)).write(written.capture());
+    byte[] opening = written.getAllValues().get(1);
+    assertEquals(1, ByteBuffer.wrap(opening, 0, 4).getInt());
+    assertEquals(0x0F, opening[4]); // HAVE_NONE
+    int extendedLength = ByteBuffer.wrap(opening, 5, 4).getInt();
+    assertEquals(20, opening[5 + 4]); // Extended handshake
+    assertEquals(0, opening[5 + 5]);
+    int interested = 5 + 4 + extendedLength;
+    assertEquals(interested + 5, opening.length);
+    assertEquals(1, ByteBuffer.wrap(opening, interested, 4).getInt());
+    assertEquals(2, opening[interested + 4]); // INTERESTED
+  }
+
   /**
    * Tests the peerHandshake method when bad responses are received.
    */
@@ -207,9 +277,10 @@ public class PeerSessionTests {
     responses.add(new byte[0]); // Empty bitfield
     mockInputStream.setReadResponses(responses);
 
+    // The peer closed the connection, which fails at once
     Exception ex = assertThrows(IOException.class,
         peerSession::establishInterested);
-    assertTrue(ex.getMessage().contains("Timeout waiting for BITFIELD message."));
+    assertTrue(ex.getMessage().contains("Connection closed waiting for BITFIELD message."));
     assertEquals(PeerSession.SessionState.HANDSHAKE, peerSession.getSessionState());
   }
 
@@ -226,7 +297,7 @@ public class PeerSessionTests {
 
     Exception ex = assertThrows(IOException.class,
         peerSession::establishInterested);
-    assertTrue(ex.getMessage().contains("Timeout waiting for UNCHOKE message."));
+    assertTrue(ex.getMessage().contains("Connection closed waiting for UNCHOKE message."));
     assertEquals(PeerSession.SessionState.HANDSHAKE, peerSession.getSessionState());
   }
 
@@ -296,10 +367,13 @@ public class PeerSessionTests {
 
     PeerSession downloader = new PeerSession("localhost", 6881, "01234567890123456789",
         expectedHash, new MockSocket(mockInputStream, mockOut));
+    TransferStatistics statistics = new TransferStatistics(fileLength);
+    downloader.setTransferStatistics(statistics);
 
     byte[] result = downloader.downloadPiece(pieceIndex, pieceLength, expectedHash, fileLength);
 
     assertArrayEquals(expectedData, result);
+    assertEquals(pieceLength, statistics.getDownloaded());
 
     assertEquals(PeerSession.SessionState.IDLE, downloader.getSessionState());
   }
@@ -527,6 +601,200 @@ public class PeerSessionTests {
     assertEquals(PeerSession.SessionState.UNINITIALIZED, peerSession.getSessionState());
   }
 
+  /**
+   * Tests that the extension protocol is announced in the handshake, that peers reported through
+   * ut_pex reach the listener, and that connected peers are sent at most once per interval.
+   */
+  @Test
+  public void testPeerExchange() throws IOException {
+    byte[] handshake = createHandshakeResponse(torrentFileHandler.getInfoHash());
+    handshake[25] |= 0x10; // Extension protocol
+    List<byte[]> responses = new ArrayList<>();
+    responses.add(handshake);
+    responses.add(createExtendedMessage(0, Map.of("m", Map.of("ut_pex", 3))));
+    responses.add(createBitfieldResponse());
+    responses.add(createExtendedMessage(1, Map.of("added",
+        PeerList.of(List.of(new InetSocketAddress("10.0.0.7", 51413))).toCompact())));
+    responses.add(createUnchokeResponse());
+    mockInputStream.setReadResponses(responses);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    PeerSession peerSession = new PeerSession("localhost", 6881, "01234567890123456789",
+        torrentFileHandler.getInfoHash(), new MockSocket(mockInputStream, out));
+    List<PeerList> exchanged = new ArrayList<>();
+    peerSession.setPeerExchangeListener(exchanged::add);
+    assertTrue(peerSession.establishInterested());
+
+    byte[] sent = out.toByteArray();
+    assertEquals(0x10, sent[25] & 0x10);
+    // The extended handshake follows our handshake
+    assertEquals(20, sent[68 + 4]);
+    assertEquals(0, sent[68 + 5]);
+    assertTrue(peerSession.supportsPeerExchange());
+    assertEquals(1, exchanged.size());
+    assertEquals("10.0.0.7", exchanged.get(0).getHost(0));
+    assertEquals(51413, exchanged.get(0).getPort(0));
+
+    out.reset();
+    List<InetSocketAddress> connected = List.of(new InetSocketAddress("10.0.0.8", 6881));
+    assertTrue(peerSession.sendPeerExchange(connected));
+    byte[] message = out.toByteArray();
+    assertEquals(20, message[4]);
+    assertEquals(3, message[5]); // The ID the peer asked for
+    Map<?, ?> payload = (Map<?, ?>) new DecoderDispatcher()
+        .decode(Arrays.copyOfRange(message, 6, message.length), 0).getValue();
+    assertEquals(ByteString.wrap(PeerList.of(connected).toCompact()), payload.get("added"));
+
+    // Too soon for another message
+    assertFalse(peerSession.sendPeerExchange(List.of()));
+  }
+
+  /**
+   * Tests that extended messages nested too deeply or too large are ignored without failing the
+   * connection.
+   */
+  @Test
+  public void testMalformedExtendedMessagesAreIgnored() throws IOException {
+    byte[] handshake = createHandshakeResponse(torrentFileHandler.getInfoHash());
+    handshake[25] |= 0x10; // Extension protocol
+    byte[] nested = ("d5:added" + "l".repeat(20000) + "e".repeat(20001)).getBytes();
+    List<byte[]> responses = new ArrayList<>();
+    responses.add(handshake);
+    responses.add(ByteBuffer.allocate(6 + nested.length).putInt(2 + nested.length)
+        .put((byte) 20).put((byte) 1).put(nested).array());
+    responses.add(createExtendedMessage(1, Map.of("added",
+        PeerList.of(List.of(new InetSocketAddress("10.0.0.7", 51413))).toCompact(),
+        "padding", new byte[70_000])));
+    responses.add(createBitfieldResponse());
+    responses.add(createUnchokeResponse());
+    mockInputStream.setReadResponses(responses);
+
+    PeerSession peerSession = new PeerSession("localhost", 6881, "01234567890123456789",
+        torrentFileHandler.getInfoHash(), new MockSocket(mockInputStream,
+        new ByteArrayOutputStream()));
+    List<PeerList> exchanged = new ArrayList<>();
+    peerSession.setPeerExchangeListener(exchanged::add);
+    assertTrue(peerSession.establishInterested());
+    assertTrue(exchanged.isEmpty());
+  }
+
+  /**
+   * Tests that the Fast Extension is announced and answered with HAVE_NONE, that HAVE_ALL stands in
+   * for the bitfield, and that a piece allowed fast is downloaded before the peer unchokes.
+   */
+  @Test
+  public void testFastExtensionAllowedFast() throws Exception {
+    int pieceLength = 32768;
+    byte[] expectedData = new byte[pieceLength];
+    new Random().nextBytes(expectedData);
+    byte[] expectedHash = TorrentFileHandler.sha1Hash(expectedData);
+
+    byte[] handshake = createHandshakeResponse(torrentFileHandler.getInfoHash());
+    handshake[27] |= 0x04; // Fast Extension
+    List<byte[]> responses = new ArrayList<>();
+    responses.add(handshake);
+    responses.add(createIndexMessage(0x0E, -1)); // HAVE_ALL
+    responses.add(createIndexMessage(0x0D, 3)); // SUGGEST_PIECE
+    responses.add(createIndexMessage(0x11, 1)); // ALLOWED_FAST
+    responses.add(createPieceMessage(1, 0, Arrays.copyOfRange(expectedData, 0, 16384)));
+    responses.add(createPieceMessage(1, 16384,
+        Arrays.copyOfRange(expectedData, 16384, pieceLength)));
+    mockInputStream.setReadResponses(responses);
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+    PeerSession peerSession = new PeerSession("localhost", 6881, "01234567890123456789",
+        torrentFileHandler.getInfoHash(), new MockSocket(mockInputStream, out));
+    assertTrue(peerSession.establishInterested());
+    byte[] sent = out.toByteArray();
+    assertEquals(0x04, sent[27] & 0x04);
+    // Having nothing, we answer the peer's Fast Extension with HAVE_NONE before INTERESTED
+    assertEquals(68 + 5 + 5, sent.length);
+    assertEquals(0x0F, sent[68 + 4]);
+    assertEquals(2, sent[73 + 4]);
+    assertTrue(peerSession.supportsFastExtension());
+    assertTrue(peerSession.hasPiece(1000));
+    assertEquals(List.of(1, 3), peerSession.getPreferredPieces());
+
+    // Never unchoked
+    byte[] result = peerSession.downloadPiece(1, pieceLength, expectedHash, 100000);
+    assertArrayEquals(expectedData, result);
+  }
+
+  /**
+   * Tests that a rejected request fails the piece without waiting for the timeout, and that
+   * pieces a HAVE_NONE peer does not have are not requested.
+   */
+  @Test
+  public void testFastExtensionRejectAndHaveNone() throws Exception {
+    byte[] handshake = createHandshakeResponse(torrentFileHandler.getInfoHash());
+    handshake[27] |= 0x04;
+    List<byte[]> responses = new ArrayList<>();
+    responses.add(handshake);
+    responses.add(createBitfieldResponse());
+    responses.add(createUnchokeResponse());
+    responses.add(createRejectMessage(0, 0, 16384));
+    responses.add(createRejectMessage(0, 16384, 16384));
+    mockInputStream.setReadResponses(responses);
+
+    long start = System.currentTimeMillis();
+    Exception ex = assertThrows(PieceDownloadException.class,
+        () -> peerSession.downloadPiece(0, 32768, new byte[20], 100000));
+    assertTrue(ex.getMessage().contains("rejected"));
+    assertTrue(System.currentTimeMillis() - start < 5000);
+
+    responses = List.of(handshake, createIndexMessage(0x0F, -1), createUnchokeResponse());
+    PeerSession emptyPeer = new PeerSession("localhost", 6881, "01234567890123456789",
+        torrentFileHandler.getInfoHash(),
+        new MockSocket(new MockInputStream(responses), mockOutputStream));
+    ex = assertThrows(PieceDownloadException.class,
+        () -> emptyPeer.downloadPiece(0, 32768, new byte[20], 100000));
+    assertTrue(ex.getMessage().contains("does not have"));
+    assertFalse(emptyPeer.hasPiece(0));
+  }
+
+  /**
+   * Tests that HAVE and ALLOWED_FAST messages for pieces past the end of the torrent are dropped.
+   */
+  @Test
+  public void testOutOfRangePieceIndexIsDropped() throws IOException {
+    byte[] handshake = createHandshakeResponse(torrentFileHandler.getInfoHash());
+    handshake[27] |= 0x04;
+    List<byte[]> responses = new ArrayList<>();
+    responses.add(handshake);
+    responses.add(createIndexMessage(0x0F, -1)); // HAVE_NONE
+    responses.add(createIndexMessage(4, Integer.MAX_VALUE)); // HAVE
+    responses.add(createIndexMessage(4, Integer.MAX_VALUE - 1));
+    responses.add(createIndexMessage(4, 10));
+    responses.add(createIndexMessage(0x11, Integer.MAX_VALUE - 1)); // ALLOWED_FAST
+    responses.add(createIndexMessage(4, 1));
+    responses.add(createIndexMessage(0x11, 1));
+    mockInputStream.setReadResponses(responses);
+
+    peerSession.setPieceCount(10);
+    assertTrue(peerSession.establishInterested());
+    assertFalse(peerSession.hasPiece(Integer.MAX_VALUE - 1));
+    assertFalse(peerSession.hasPiece(10));
+    assertTrue(peerSession.hasPiece(1));
+    assertEquals(List.of(1), peerSession.getPreferredPieces());
+    assertThrows(IllegalArgumentException.class, () -> peerSession.setPieceCount(0));
+  }
+
+  private static byte[] createIndexMessage(int id, int pieceIndex) {
+    if (pieceIndex < 0) {
+      return ByteBuffer.allocate(5).putInt(1).put((byte) id).array();
+    }
+    return ByteBuffer.allocate(9).putInt(5).put((byte) id).putInt(pieceIndex).array();
+  }
+
+  private static byte[] createRejectMessage(int pieceIndex, int begin, int length) {
+    return ByteBuffer.allocate(17).putInt(13).put((byte) 0x10).putInt(pieceIndex).putInt(begin)
+        .putInt(length).array();
+  }
+
+  private static byte[] createPieceMessage(int pieceIndex, int begin, byte[] block) {
+    return ByteBuffer.allocate(13 + block.length).putInt(9 + block.length).put((byte) 7)
+        .putInt(pieceIndex).putInt(begin).put(block).array();
+  }
 
   private static byte[] createHandshakeResponse(byte[] infoHash) {
     byte[] mockResponse = new byte[68];
@@ -539,6 +807,12 @@ public class PeerSessionTests {
 
   }
 
+  private static byte[] createExtendedMessage(int extendedId, Map<String, Object> payload) {
+    byte[] bencoded = new BencodeEncoder().encode(payload);
+    return ByteBuffer.allocate(6 + bencoded.length).putInt(2 + bencoded.length).put((byte) 20)
+        .put((byte) extendedId).put(bencoded).array();
+  }
+
   private static byte[] createBitfieldResponse() {
     int lengthDefault = 4;
     int messageLength = 1;
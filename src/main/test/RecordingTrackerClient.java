@@ -0,0 +1,52 @@
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import model.session.TrackerCommunicationException;
+import model.session.TrackerResponse;
+
+/**
+ * A {@link DefinableTrackerClient} that records the event of every announce and can be made to
+ * fail a number of announces before answering.
+ *
+ * @author KX
+ */
+public class RecordingTrackerClient extends DefinableTrackerClient {
+
+  private final List<Event> events = new CopyOnWriteArrayList<>();
+  private volatile int failuresLeft;
+
+  /**
+   * Constructs a RecordingTrackerClient returning the given peers.
+   *
+   * @param peers a map of peer IP addresses and their corresponding ports
+   */
+  public RecordingTrackerClient(Map<String, Integer> peers) {
+    super(peers);
+  }
+
+  /**
+   * Records the event, then fails if failures are left or answers with the defined peers.
+   *
+   * @param event the event to report
+   * @return a completed or failed future
+   */
+  @Override
+  public CompletableFuture<TrackerResponse> announceAsync(Event event) {
+    events.add(event);
+    if (failuresLeft > 0) {
+      failuresLeft--;
+      return CompletableFuture.failedFuture(
+          new TrackerCommunicationException("Simulated tracker failure"));
+    }
+    return super.announceAsync(event);
+  }
+
+  public List<Event> getEvents() {
+    return events;
+  }
+
+  public void setFailures(int failures) {
+    this.failuresLeft = failures;
+  }
+}
@@ -0,0 +1,69 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.Arrays;
+import java.util.List;
+import model.session.SwarmStatistics;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit tests for the model.session.SwarmStatistics record.
+ *
+ * @author KX
+ */
+public class SwarmStatisticsTests {
+
+  @Test
+  public void testInvalidStatistics() {
+    assertThrows(IllegalArgumentException.class, () -> new SwarmStatistics(-1, 0, 0));
+    assertThrows(IllegalArgumentException.class, () -> new SwarmStatistics(0, -1, 0));
+    assertThrows(IllegalArgumentException.class, () -> new SwarmStatistics(0, 0, -1));
+    assertEquals(Integer.MAX_VALUE * 2L,
+        new SwarmStatistics(Integer.MAX_VALUE, 0, Integer.MAX_VALUE).peers());
+  }
+
+  /**
+   * Tests that connections are shared in proportion to swarm size, seeders counting twice.
+   */
+  @Test
+  public void testAllocateConnectionsProportionally() {
+    int[] connections = SwarmStatistics.allocateConnections(60, List.of(
+        new SwarmStatistics(100, 0, 100), new SwarmStatistics(0, 0, 100),
+        SwarmStatistics.EMPTY));
+    assertArrayEquals(new int[] {45, 15, 0}, connections);
+  }
+
+  /**
+   * Tests that small swarms are capped at their size and the rest goes to the larger swarms.
+   */
+  @Test
+  public void testAllocateConnectionsCapsSmallSwarms() {
+    int[] connections = SwarmStatistics.allocateConnections(18, List.of(
+        new SwarmStatistics(10, 0, 0), new SwarmStatistics(0, 0, 10)));
+    assertArrayEquals(new int[] {10, 8}, connections);
+
+    // Rounding leftovers go to the largest swarm
+    connections = SwarmStatistics.allocateConnections(100, List.of(
+        new SwarmStatistics(1, 0, 1), new SwarmStatistics(50, 0, 500),
+        new SwarmStatistics(0, 0, 3)));
+    assertArrayEquals(new int[] {0, 100, 0}, connections);
+
+    // A budget larger than every swarm together connects to every peer
+    connections = SwarmStatistics.allocateConnections(1000, List.of(
+        new SwarmStatistics(1, 0, 1), new SwarmStatistics(4, 0, 5)));
+    assertArrayEquals(new int[] {2, 9}, connections);
+    assertEquals(0, Arrays.stream(SwarmStatistics.allocateConnections(0, List.of(
+        new SwarmStatistics(1, 0, 1)))).sum());
+  }
+
+  @Test
+  public void testAllocateConnectionsInvalidArguments() {
+    assertThrows(IllegalArgumentException.class,
+        () -> SwarmStatistics.allocateConnections(-1, List.of()));
+    assertThrows(IllegalArgumentException.class,
+        () -> SwarmStatistics.allocateConnections(1, null));
+    assertThrows(IllegalArgumentException.class,
+        () -> SwarmStatistics.allocateConnections(1, Arrays.asList(SwarmStatistics.EMPTY, null)));
+  }
+}
@@ -0,0 +1,204 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import model.session.SwarmStatistics;
+import model.session.TieredTrackerClient;
+import model.session.TrackerClient;
+import model.session.TrackerClient.Event;
+import model.session.TrackerClientFactory;
+import model.session.TrackerCommunicationException;
+import model.session.TrackerResponse;
+import model.session.TransferStatistics;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit tests for the model.session.TieredTrackerClient class. Every tracker is a mock
+ * {@link TrackerClient} whose announces complete when the test decides.
+ *
+ * @author KX
+ */
+public class TieredTrackerClientTests {
+
+  private static final byte[] PEER_A = {1, 2, 3, 4, 0x1A, (byte) 0xE1};
+  private static final byte[] PEER_B = {5, 6, 7, 8, 0x1A, (byte) 0xE1};
+
+  private Map<String, TrackerClient> trackers;
+  private TrackerClientFactory factory;
+
+  @BeforeEach
+  public void setUp() {
+    trackers = new HashMap<>();
+    factory = (trackerUrl, port, fileSize, infoHash, peerId) -> {
+      TrackerClient tracker = mock(TrackerClient.class);
+      when(tracker.getTrackerUrl()).thenReturn(trackerUrl);
+      trackers.put(trackerUrl, tracker);
+      return tracker;
+    };
+  }
+
+  private TieredTrackerClient create(List<List<String>> tiers) {
+    return new TieredTrackerClient(tiers, 6881, 1000, new byte[20], "0".repeat(20), factory,
+        new Random(1));
+  }
+
+  private CompletableFuture<TrackerResponse> pending(String url) {
+    CompletableFuture<TrackerResponse> future = new CompletableFuture<>();
+    when(trackers.get(url).announceAsync(any())).thenReturn(future);
+    return future;
+  }
+
+  private static TrackerResponse response(byte[]... peers) {
+    byte[] compact = new byte[peers.length * 6];
+    for (int i = 0; i < peers.length; i++) {
+      System.arraycopy(peers[i], 0, compact, i * 6, 6);
+    }
+    return new TrackerResponse(1800, compact);
+  }
+
+  @Test
+  public void testInvalidConstruction() {
+    assertThrows(IllegalArgumentException.class, () -> create(null));
+    assertThrows(IllegalArgumentException.class, () -> create(List.of()));
+    assertThrows(IllegalArgumentException.class, () -> create(List.of(List.of())));
+    assertThrows(IllegalArgumentException.class,
+        () -> new TieredTrackerClient(List.of(List.of("http://a")), 6881, 1000, new byte[20],
+            "0".repeat(20), null));
+  }
+
+  /**
+   * Tests that the tiers are announced to in parallel, that the fastest tier answers the announce,
+   * and that peers from slower tiers reach the listener without duplicates.
+   */
+  @Test
+  public void testParallelTiersMergePeers() throws Exception {
+    TieredTrackerClient client = create(List.of(List.of("http://a"), List.of("http://b"),
+        List.of("http://c")));
+    CompletableFuture<TrackerResponse> a = pending("http://a");
+    CompletableFuture<TrackerResponse> b = pending("http://b");
+    CompletableFuture<TrackerResponse> c = pending("http://c");
+    List<TrackerResponse> additional = new CopyOnWriteArrayList<>();
+    client.setAdditionalPeersListener(additional::add);
+
+    CompletableFuture<TrackerResponse> announce = client.announceAsync(Event.STARTED);
+    for (TrackerClient tracker : trackers.values()) {
+      verify(tracker).announceAsync(Event.STARTED);
+    }
+
+    // The last tier answers first, the first tier never does
+    c.complete(response(PEER_A));
+    assertEquals(Map.of("1.2.3.4", 6881), announce.get().getPeersMap());
+    b.complete(response(PEER_A, PEER_B));
+    assertEquals(1, additional.size());
+    assertEquals(Map.of("5.6.7.8", 6881), additional.get(0).getPeersMap());
+    a.completeExceptionally(new TrackerCommunicationException("Timed out"));
+    assertEquals(1, additional.size());
+  }
+
+  /**
+   * Tests that the trackers of a tier are tried in order, and that the one that answered is tried
+   * first on the next announce.
+   */
+  @Test
+  public void testFailoverAndPromotion() throws Exception {
+    TieredTrackerClient client = create(List.of(List.of("http://a", "http://b", "http://c")));
+    List<String> order = client.getTierOrder().get(0);
+    String first = order.get(0);
+    String second = order.get(1);
+    String third = order.get(2);
+    when(trackers.get(first).announceAsync(any())).thenReturn(
+        CompletableFuture.failedFuture(new TrackerCommunicationException("Down")));
+    when(trackers.get(second).announceAsync(any())).thenReturn(
+        CompletableFuture.completedFuture(response(PEER_A)));
+
+    assertEquals(Map.of("1.2.3.4", 6881), client.requestTracker().getPeersMap());
+    verify(trackers.get(third), never()).announceAsync(any());
+    assertEquals(List.of(second, first, third), client.getTierOrder().get(0));
+  }
+
+  /**
+   * Tests that an announce fails only once every tier has failed, and that statistics reach every
+   * tracker.
+   */
+  @Test
+  public void testAllTiersFail() {
+    TieredTrackerClient client = create(List.of(List.of("http://a"), List.of("http://b")));
+    for (TrackerClient tracker : trackers.values()) {
+      when(tracker.announceAsync(any())).thenReturn(
+          CompletableFuture.failedFuture(new TrackerCommunicationException("Down")));
+    }
+
+    assertThrows(TrackerCommunicationException.class, client::requestTracker);
+    assertTrue(client.announceAsync(Event.NONE).isCompletedExceptionally());
+    assertThrows(IllegalArgumentException.class, () -> client.announceAsync(null));
+
+    for (TrackerClient tracker : trackers.values()) {
+      when(tracker.announceAsync(any())).thenReturn(
+          CompletableFuture.failedFuture(new IOException("Unreachable")));
+    }
+    Exception e = assertThrows(TrackerCommunicationException.class, client::requestTracker);
+    assertEquals("Failed to contact tracker: Unreachable", e.getMessage());
+    assertInstanceOf(IOException.class, e.getCause());
+
+    TransferStatistics statistics = new TransferStatistics(3);
+    client.setTransferStatistics(statistics);
+    for (TrackerClient tracker : trackers.values()) {
+      verify(tracker).setTransferStatistics(statistics);
+    }
+  }
+
+  /**
+   * Tests that a scrape asks every tracker, keeps the largest swarm of each torrent, and moves the
+   * trackers reporting the most peers to the front of their tier.
+   */
+  @Test
+  public void testScrapeRanksTrackers() throws Exception {
+    TieredTrackerClient client = create(List.of(List.of("http://a", "http://b", "http://c"),
+        List.of("http://d")));
+    scrapes("http://a", new SwarmStatistics(1, 0, 1), new SwarmStatistics(9, 0, 9));
+    scrapes("http://b", new SwarmStatistics(20, 3, 5), new SwarmStatistics(0, 0, 1));
+    when(trackers.get("http://c").scrapeAsync(anyList())).thenReturn(
+        CompletableFuture.failedFuture(new TrackerCommunicationException("Down")));
+    scrapes("http://d", new SwarmStatistics(2, 0, 2), new SwarmStatistics(0, 0, 0));
+
+    List<SwarmStatistics> statistics = client.scrape(List.of(new byte[20], new byte[20]));
+    assertEquals(List.of(new SwarmStatistics(20, 3, 5), new SwarmStatistics(9, 0, 9)),
+        statistics);
+    assertEquals(List.of(List.of("http://b", "http://a", "http://c"), List.of("http://d")),
+        client.getTierOrder());
+  }
+
+  /**
+   * Tests that a scrape fails only when every tracker fails.
+   */
+  @Test
+  public void testScrapeAllTrackersFail() {
+    TieredTrackerClient client = create(List.of(List.of("http://a"), List.of("http://b")));
+    for (TrackerClient tracker : trackers.values()) {
+      when(tracker.scrapeAsync(anyList())).thenReturn(
+          CompletableFuture.failedFuture(new TrackerCommunicationException("Down")));
+    }
+    assertThrows(TrackerCommunicationException.class, client::scrape);
+    assertThrows(IllegalArgumentException.class, () -> client.scrape(null));
+  }
+
+  private void scrapes(String url, SwarmStatistics... statistics) {
+    when(trackers.get(url).scrapeAsync(anyList())).thenReturn(
+        CompletableFuture.completedFuture(List.of(statistics)));
+  }
+}
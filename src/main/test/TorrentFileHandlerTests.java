@@ -1,4 +1,15 @@
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import model.decoder.BencodeEncoder;
+import model.decoder.ByteString;
+import model.session.PieceHashTable;
+import model.session.TorrentFileEntry;
 import model.session.TorrentFileHandler;
+import model.session.TorrentFileHandler.Retention;
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -63,8 +74,228 @@ public class TorrentFileHandlerTests
 		assertTrue(torrentFileHandler.getHashedPieces().size() > 0);
 		assertTrue(torrentFileHandler.getPieceLength() > 0);
 		assertTrue(torrentFileHandler.getFileLength() > 0);
-		assertEquals(torrentFileHandler.getFileLength(), torrentFileHandler.getInfoMap().get("length"));
-		assertEquals(torrentFileHandler.getPieceLength(), torrentFileHandler.getInfoMap().get("piece length"));
-		assertEquals(torrentFileHandler.getTrackerUrl(), torrentFileHandler.getFileContentMap().get("announce"));
+		assertEquals((long) torrentFileHandler.getFileLength(), torrentFileHandler.getInfoMap().get("length"));
+		assertEquals((long) torrentFileHandler.getPieceLength(), torrentFileHandler.getInfoMap().get("piece length"));
+		assertEquals(torrentFileHandler.getTrackerUrl(), torrentFileHandler.getFileContentMap().get("announce").toString());
+	}
+
+	/**
+	 * Tests that the piece hash table views the 'pieces' value of the file, and that lookups,
+	 * digest checks and the off-heap copy agree with it.
+	 */
+	@Test
+	public void testPieceHashTable()
+	{
+		torrentFileHandler = new TorrentFileHandler("sample.torrent");
+		ByteString pieces = (ByteString) torrentFileHandler.getInfoMap().get("pieces");
+		PieceHashTable table = torrentFileHandler.getPieceHashTable();
+		PieceHashTable direct = table.toDirect();
+
+		assertEquals(pieces.length() / PieceHashTable.HASH_LENGTH, table.size());
+		assertFalse(table.isDirect());
+		assertTrue(direct.isDirect());
+		assertEquals(table.size(), direct.size());
+
+		byte[] copy = new byte[PieceHashTable.HASH_LENGTH + 2];
+		for (int i = 0; i < table.size(); i++) {
+			byte[] expected = pieces.slice(i * 20, (i + 1) * 20).toByteArray();
+			assertArrayEquals(expected, table.get(i));
+			assertArrayEquals(expected, torrentFileHandler.getHashedPieces().get(i));
+			assertTrue(table.matches(i, expected));
+			assertTrue(direct.matches(i, expected));
+
+			direct.copyTo(i, copy, 2);
+			assertTrue(pieces.slice(i * 20, (i + 1) * 20).contentEquals(copy, 2, 20));
+
+			expected[19]++;
+			assertFalse(table.matches(i, expected));
+			assertFalse(direct.matches(i, expected));
+		}
+		assertFalse(table.matches(0, new byte[19]));
+
+		Exception exception = assertThrows(IllegalArgumentException.class, () -> table.get(table.size()));
+		assertEquals("Invalid piece index: " + table.size(), exception.getMessage());
+		assertThrows(IllegalArgumentException.class, () -> table.copyTo(0, new byte[20], 1));
+		assertThrows(IndexOutOfBoundsException.class, () -> table.asList().get(-1));
+
+		PieceHashTable copied = PieceHashTable.copyOf(List.of(table.get(1), table.get(0)));
+		assertTrue(copied.matches(0, table.get(1)));
+		assertTrue(copied.matches(1, table.get(0)));
+		exception = assertThrows(IllegalArgumentException.class,
+				() -> PieceHashTable.copyOf(List.of(new byte[20], new byte[19])));
+		assertEquals("Invalid hash for piece 1: expected 20 bytes", exception.getMessage());
+		exception = assertThrows(IllegalArgumentException.class,
+				() -> PieceHashTable.wrap(ByteString.wrap(new byte[21])));
+		assertEquals("Invalid pieces field: not a multiple of 20 bytes", exception.getMessage());
+	}
+
+	/**
+	 * Tests that the lean retention modes keep the same metadata as the full mode while dropping the
+	 * file content, and that the 'info' dictionary is only kept when asked for.
+	 */
+	@Test
+	public void testRetentionModes()
+	{
+		TorrentFileHandler full = new TorrentFileHandler("sample.torrent");
+		TorrentFileHandler lean = new TorrentFileHandler("sample.torrent", Retention.METADATA);
+		TorrentFileHandler withInfo = new TorrentFileHandler("sample.torrent",
+				Retention.METADATA_AND_INFO);
+
+		for (TorrentFileHandler tfh : List.of(lean, withInfo)) {
+			assertArrayEquals(full.getInfoHash(), tfh.getInfoHash());
+			assertEquals(full.getTrackerUrl(), tfh.getTrackerUrl());
+			assertEquals(full.getFileLength(), tfh.getFileLength());
+			assertEquals(full.getPieceLength(), tfh.getPieceLength());
+			assertEquals(full.getName(), tfh.getName());
+			assertEquals(full.getFiles(), tfh.getFiles());
+			assertEquals(full.getPieceHashTable().size(), tfh.getPieceHashTable().size());
+			for (int i = 0; i < full.getPieceHashTable().size(); i++) {
+				assertTrue(tfh.getPieceHashTable().matches(i, full.getPieceHashTable().get(i)));
+			}
+
+			Exception exception = assertThrows(IllegalStateException.class, tfh::getFileContent);
+			assertEquals("File content is not retained in " + tfh.getRetention() + " mode",
+					exception.getMessage());
+			assertThrows(IllegalStateException.class, tfh::getFileContentMap);
+		}
+
+		assertEquals("sample.txt", full.getName());
+		assertEquals(List.of(new TorrentFileEntry(List.of("sample.txt"), full.getFileLength())),
+				full.getFiles());
+		assertEquals(full.getInfoBytes(), withInfo.getInfoBytes());
+		assertArrayEquals(full.getInfoHash(),
+				TorrentFileHandler.sha1Hash(withInfo.getInfoBytes().toByteArray()));
+		assertEquals(full.getInfoMap(), withInfo.getInfoMap());
+
+		Exception exception = assertThrows(IllegalStateException.class, lean::getInfoBytes);
+		assertEquals("'info' dictionary is not retained in METADATA mode", exception.getMessage());
+		assertThrows(IllegalStateException.class, lean::getInfoMap);
+		assertThrows(IllegalArgumentException.class,
+				() -> new TorrentFileHandler("sample.torrent", null));
+	}
+
+	/**
+	 * Tests parsing the file list of a multi-file torrent, and rejecting an 'info' dictionary with
+	 * both 'length' and 'files'.
+	 *
+	 * @throws IOException if the temporary torrent files cannot be written
+	 */
+	@Test
+	public void testMultiFileTorrent() throws IOException
+	{
+		Map<String, Object> info = Map.of(
+				"name", "album",
+				"piece length", 16384L,
+				"pieces", new byte[40],
+				"files", List.of(
+						Map.of("length", 20000L, "path", List.of("cd1", "track1.flac")),
+						Map.of("length", 12000L, "path", List.of("cover.jpg"), "md5sum", "abc")));
+		Path torrent = writeTorrent(info);
+		try {
+			TorrentFileHandler tfh = new TorrentFileHandler(torrent.toString(), Retention.METADATA);
+			assertEquals("album", tfh.getName());
+			assertEquals(32000, tfh.getFileLength());
+			assertEquals(List.of(new TorrentFileEntry(List.of("cd1", "track1.flac"), 20000),
+					new TorrentFileEntry(List.of("cover.jpg"), 12000)), tfh.getFiles());
+			assertEquals(2, tfh.getPieceHashTable().size());
+		} finally {
+			Files.delete(torrent);
+		}
+
+		Map<String, Object> both = new HashMap<>(info);
+		both.put("length", 32000L);
+		Path invalid = writeTorrent(both);
+		try {
+			Exception exception = assertThrows(IllegalArgumentException.class,
+					() -> new TorrentFileHandler(invalid.toString()));
+			assertEquals("Expected either 'length' or 'files', not both", exception.getMessage());
+		} finally {
+			Files.delete(invalid);
+		}
+	}
+
+	/**
+	 * Tests that files over 2 GiB keep their 64-bit lengths, alone or added up from a file list.
+	 *
+	 * @throws IOException if the temporary torrent files cannot be written
+	 */
+	@Test
+	public void testLargeTorrent() throws IOException
+	{
+		long fiveGiB = 5L << 30;
+		int pieceLength = 4 << 20;
+		Path single = writeTorrent(Map.of("name", "disk.img", "piece length", (long) pieceLength,
+				"length", fiveGiB, "pieces", new byte[(int) (fiveGiB / pieceLength) * 20]));
+		try {
+			TorrentFileHandler tfh = new TorrentFileHandler(single.toString(), Retention.METADATA);
+			assertEquals(fiveGiB, tfh.getFileLength());
+			assertEquals(List.of(new TorrentFileEntry(List.of("disk.img"), fiveGiB)), tfh.getFiles());
+		} finally {
+			Files.delete(single);
+		}
+
+		Path multi = writeTorrent(Map.of("name", "disks", "piece length", (long) pieceLength,
+				"pieces", new byte[20],
+				"files", List.of(
+						Map.of("length", 2L << 30, "path", List.of("a.img")),
+						Map.of("length", 1L << 30, "path", List.of("b.img")))));
+		try {
+			assertEquals(3L << 30, new TorrentFileHandler(multi.toString()).getFileLength());
+		} finally {
+			Files.delete(multi);
+		}
+	}
+
+	@Test
+	public void testAnnounceList() throws IOException
+	{
+		Map<String, Object> info = Map.of("name", "a.txt", "piece length", 16384L,
+				"length", 100L, "pieces", new byte[20]);
+		Path single = writeTorrent(info);
+		try {
+			TorrentFileHandler tfh = new TorrentFileHandler(single.toString());
+			assertEquals(List.of(List.of("http://tracker.example.org/announce")),
+					tfh.getAnnounceTiers());
+		} finally {
+			Files.delete(single);
+		}
+
+		// Empty tiers are dropped, and 'announce' may be left out
+		Path multi = writeTorrentFile(Map.of("info", info, "announce-list", List.of(
+				List.of("http://a.example.org/announce", "http://b.example.org/announce"),
+				List.of(),
+				List.of("udp://c.example.org:6969"))));
+		try {
+			TorrentFileHandler tfh = new TorrentFileHandler(multi.toString(), Retention.METADATA);
+			assertEquals(List.of(
+					List.of("http://a.example.org/announce", "http://b.example.org/announce"),
+					List.of("udp://c.example.org:6969")), tfh.getAnnounceTiers());
+			assertEquals("http://a.example.org/announce", tfh.getTrackerUrl());
+		} finally {
+			Files.delete(multi);
+		}
+
+		Path invalid = writeTorrentFile(Map.of("info", info, "announce-list",
+				List.of("http://a.example.org/announce")));
+		try {
+			Exception exception = assertThrows(IllegalArgumentException.class,
+					() -> new TorrentFileHandler(invalid.toString()));
+			assertEquals("Expected a list for announce-list tier", exception.getMessage());
+		} finally {
+			Files.delete(invalid);
+		}
+	}
+
+	private static Path writeTorrent(Map<String, Object> info) throws IOException
+	{
+		return writeTorrentFile(
+				Map.of("announce", "http://tracker.example.org/announce", "info", info));
+	}
+
+	private static Path writeTorrentFile(Map<String, Object> torrentMap) throws IOException
+	{
+		Path torrent = Files.createTempFile("multi", ".torrent");
+		Files.write(torrent, new BencodeEncoder().encode(torrentMap));
+		return torrent;
 	}
 }
@@ -0,0 +1,197 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.util.Arrays;
+import model.session.TorrentFileHandler;
+import model.session.TorrentFileHandler.Retention;
+import model.session.TorrentMetadataCache;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Tests for the {@link TorrentMetadataCache}. A handler loaded from a cache entry is memory-mapped,
+ * so its piece hash table is direct, while a freshly parsed one is not; the tests use this to tell
+ * hits from misses.
+ *
+ * @author KX
+ */
+public class TorrentMetadataCacheTests {
+
+  @TempDir
+  Path tempDir;
+
+  private TorrentMetadataCache cache;
+  private String torrent;
+
+  @BeforeEach
+  public void setUp() throws IOException {
+    cache = new TorrentMetadataCache(tempDir.resolve("cache"));
+    Path copy = tempDir.resolve("sample.torrent");
+    Files.copy(Path.of("sample.torrent"), copy, StandardCopyOption.REPLACE_EXISTING);
+    torrent = copy.toString();
+  }
+
+  /**
+   * Tests that the first load parses the torrent and writes an entry, and that the next load is
+   * served from the entry with the same metadata.
+   */
+  @Test
+  public void testLoadCachesMetadata() {
+    TorrentFileHandler parsed = cache.load(torrent);
+    assertFalse(parsed.getPieceHashTable().isDirect());
+    assertTrue(Files.exists(cache.getEntryPath(torrent)));
+
+    TorrentFileHandler cached = cache.load(torrent);
+    assertTrue(cached.getPieceHashTable().isDirect());
+    assertEquals(Retention.METADATA, cached.getRetention());
+    assertEquals(torrent, cached.getFileName());
+
+    TorrentFileHandler full = new TorrentFileHandler(torrent);
+    assertArrayEquals(full.getInfoHash(), cached.getInfoHash());
+    assertEquals(full.getInfoByteRange(), cached.getInfoByteRange());
+    assertEquals(full.getTrackerUrl(), cached.getTrackerUrl());
+    assertEquals(full.getAnnounceTiers(), cached.getAnnounceTiers());
+    assertEquals(full.getFileLength(), cached.getFileLength());
+    assertEquals(full.getPieceLength(), cached.getPieceLength());
+    assertEquals(full.getName(), cached.getName());
+    assertEquals(full.getFiles(), cached.getFiles());
+    assertEquals(full.getPieceHashTable().size(), cached.getPieceHashTable().size());
+    for (int i = 0; i < full.getPieceHashTable().size(); i++) {
+      assertTrue(cached.getPieceHashTable().matches(i, full.getPieceHashTable().get(i)));
+    }
+  }
+
+  /**
+   * Tests that an entry is not used once the torrent's modification time changes, and that it is
+   * replaced by a fresh one.
+   *
+   * @throws IOException if the modification time cannot be changed
+   */
+  @Test
+  public void testStaleEntryIsReplaced() throws IOException {
+    cache.load(torrent);
+    Path source = Path.of(torrent);
+    Files.setLastModifiedTime(source,
+        FileTime.fromMillis(Files.getLastModifiedTime(source).toMillis() + 60_000));
+
+    assertFalse(cache.load(torrent).getPieceHashTable().isDirect());
+    assertTrue(cache.load(torrent).getPieceHashTable().isDirect());
+  }
+
+  /**
+   * Tests that truncated or corrupt entries are ignored and rewritten rather than failing the load.
+   *
+   * @throws IOException if the entry cannot be modified
+   */
+  @Test
+  public void testCorruptEntryIsIgnored() throws IOException {
+    TorrentFileHandler expected = cache.load(torrent);
+    Path entry = cache.getEntryPath(torrent);
+    byte[] content = Files.readAllBytes(entry);
+
+    Files.write(entry, Arrays.copyOf(content, content.length / 2));
+    TorrentFileHandler reparsed = cache.load(torrent);
+    assertFalse(reparsed.getPieceHashTable().isDirect());
+    assertArrayEquals(expected.getInfoHash(), reparsed.getInfoHash());
+
+    content[0] ^= 0x7f;
+    Files.write(entry, content);
+    assertFalse(cache.load(torrent).getPieceHashTable().isDirect());
+    assertTrue(cache.load(torrent).getPieceHashTable().isDirect());
+  }
+
+  /**
+   * Tests that an entry is not used once the torrent is rewritten in place or replaced by another
+   * file, even though its path, size and modification time are unchanged.
+   *
+   * @throws IOException if the torrent cannot be modified
+   */
+  @Test
+  public void testRewrittenTorrentIsDetected() throws IOException {
+    cache.load(torrent);
+    Path source = Path.of(torrent);
+    FileTime modified = Files.getLastModifiedTime(source);
+    byte[] content = Files.readAllBytes(source);
+
+    // Same size and time, another tracker URL
+    int tracker = new String(content, StandardCharsets.ISO_8859_1).indexOf("http");
+    byte[] rewritten = content.clone();
+    rewritten[tracker + 7] ^= 0x01;
+    Files.write(source, rewritten);
+    Files.setLastModifiedTime(source, modified);
+    TorrentFileHandler reparsed = cache.load(torrent);
+    assertFalse(reparsed.getPieceHashTable().isDirect());
+    assertEquals(new TorrentFileHandler(torrent).getTrackerUrl(), reparsed.getTrackerUrl());
+    assertTrue(cache.load(torrent).getPieceHashTable().isDirect());
+
+    // The same content in a new file
+    Path replacement = tempDir.resolve("replacement.torrent");
+    Files.write(replacement, rewritten);
+    Files.setLastModifiedTime(replacement, modified);
+    Files.move(replacement, source, StandardCopyOption.REPLACE_EXISTING);
+    if (Files.readAttributes(source, BasicFileAttributes.class).fileKey() != null) {
+      assertFalse(cache.load(torrent).getPieceHashTable().isDirect());
+    }
+    assertTrue(cache.load(torrent).getPieceHashTable().isDirect());
+  }
+
+  /**
+   * Tests that the cache directory is created private to the user, and that entries are neither
+   * read from nor written to a directory that other users can write.
+   *
+   * @throws IOException if the permissions cannot be changed
+   */
+  @Test
+  public void testSharedDirectoryIsNotUsed() throws IOException {
+    assumeTrue(FileSystems.getDefault().supportedFileAttributeViews().contains("posix"));
+    cache.load(torrent);
+    Path directory = cache.getCacheDirectory();
+    assertEquals("rwx------",
+        PosixFilePermissions.toString(Files.getPosixFilePermissions(directory)));
+
+    Files.setPosixFilePermissions(directory, PosixFilePermissions.fromString("rwxrwxrwx"));
+    Path entry = cache.getEntryPath(torrent);
+    FileTime written = Files.getLastModifiedTime(entry);
+    assertFalse(cache.load(torrent).getPieceHashTable().isDirect());
+    assertEquals(written, Files.getLastModifiedTime(entry));
+
+    Files.setPosixFilePermissions(directory, PosixFilePermissions.fromString("rwx------"));
+    assertTrue(cache.load(torrent).getPieceHashTable().isDirect());
+  }
+
+  /**
+   * Tests that invalid torrents are reported the same way as without a cache, and that a cache directory that
+   * cannot be created does not stop torrents from loading.
+   *
+   * @throws IOException if the blocking file cannot be created
+   */
+  @Test
+  public void testErrorsAndUnwritableCache() throws IOException {
+    Exception exception = assertThrows(IllegalArgumentException.class,
+        () -> cache.load(tempDir.resolve("missing.torrent").toString()));
+    assertEquals("File does not exist: " + tempDir.resolve("missing.torrent"),
+        exception.getMessage());
+    assertThrows(IllegalArgumentException.class, () -> new TorrentMetadataCache(null));
+
+    // A regular file where the cache directory should be
+    Path blocked = Files.createFile(tempDir.resolve("blocked"));
+    TorrentMetadataCache unwritable = new TorrentMetadataCache(blocked);
+    TorrentFileHandler tfh = unwritable.load(torrent);
+    assertArrayEquals(new TorrentFileHandler(torrent).getInfoHash(), tfh.getInfoHash());
+    assertFalse(Files.exists(unwritable.getEntryPath(torrent)));
+  }
+}
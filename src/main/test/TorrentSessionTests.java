@@ -3,10 +3,13 @@ import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyLong;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.atLeastOnce;
 import static org.mockito.Mockito.mock;
@@ -16,24 +19,40 @@ import static org.mockito.Mockito.when;
 
 import java.io.IOException;
 import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import model.session.DhtNode;
+import model.session.PeerCache;
+import model.session.PeerList;
 import model.session.PieceDownloadException;
 import model.session.PeerSession;
 import model.session.PeerSessionFactory;
+import model.session.SwarmStatistics;
 import model.session.TorrentFileHandler;
 import model.session.TorrentSession;
+import model.session.TrackerClient;
+import model.session.TrackerClient.Event;
+import model.session.TrackerCommunicationException;
+import model.session.TrackerResponse;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 import org.mockito.Mock;
 
 /**
@@ -81,6 +100,9 @@ public class TorrentSessionTests {
 
     this.mockPeerSession1 = mock(MockPeerSession.class);
     this.mockPeerSession2 = mock(MockPeerSession.class);
+    // The mocked peers have every piece
+    when(mockPeerSession1.hasPiece(anyInt())).thenReturn(true);
+    when(mockPeerSession2.hasPiece(anyInt())).thenReturn(true);
   }
 
   /**
@@ -396,6 +418,411 @@ public class TorrentSessionTests {
 
   }
 
+  /**
+   * Tests that downloadAll announces the start of the download to the tracker, then reports the
+   * completion and the stop once every piece is written.
+   */
+  @Test
+  void testDownloadAll_AnnouncesEvents() throws Exception {
+    RecordingTrackerClient trackerClient = new RecordingTrackerClient(
+        Map.of("127.0.0.1", 1000, "127.0.0.2", 1001));
+    List<byte[]> pieces = setupPieces(3);
+    torrentFileHandler.setPieceHashes(hashedEquivalentPieces(pieces));
+
+    TorrentSession torrentSession = new TorrentSession(
+        torrentFileHandler,
+        Paths.get(OUTPUT_FILE_NAME),
+        (trackerUrl, port, fileSize, infoHash, peerId) -> trackerClient,
+        new MockPeerSessionFactory(pieces),
+        new MockPieceWriter(),
+        new MockIdGenerator(),
+        Executors.newFixedThreadPool(2)
+    );
+
+    torrentSession.downloadAll();
+    assertEquals(3, torrentSession.getPieceStates().size());
+    assertEquals(Event.STARTED, trackerClient.getEvents().get(0));
+    List<Event> events = trackerClient.getEvents();
+    assertEquals(Event.COMPLETED, events.get(events.size() - 2));
+    assertEquals(Event.STOPPED, events.get(events.size() - 1));
+    assertTrue(torrentSession.getAnnounceScheduler().isStopped());
+    assertSame(torrentSession.getTransferStatistics(), trackerClient.getTransferStatistics());
+    assertEquals(0, trackerClient.getLeft());
+  }
+
+  /**
+   * Tests that peers from the peer cache are used when the tracker returns none, and that the
+   * peers that delivered pieces are saved back to the cache.
+   */
+  @Test
+  void testDownloadAll_UsesPeerCache(@TempDir Path cacheDirectory) throws Exception {
+    RecordingTrackerClient trackerClient = new RecordingTrackerClient(Map.of());
+    List<byte[]> pieces = setupPieces(2);
+    torrentFileHandler.setPieceHashes(hashedEquivalentPieces(pieces));
+    PeerCache peerCache = new PeerCache(cacheDirectory);
+    long before = System.currentTimeMillis();
+    peerCache.update(trackerClient.getInfoHash(), List.of(new PeerCache.CachedPeer(
+        new InetSocketAddress("127.0.0.5", 1005), before, 1)));
+
+    TorrentSession torrentSession = new TorrentSession(
+        torrentFileHandler,
+        Paths.get(OUTPUT_FILE_NAME),
+        (trackerUrl, port, fileSize, infoHash, peerId) -> trackerClient,
+        new MockPeerSessionFactory(pieces),
+        new MockPieceWriter(),
+        new MockIdGenerator(),
+        Executors.newFixedThreadPool(2)
+    );
+    torrentSession.setPeerCache(peerCache);
+
+    torrentSession.downloadAll();
+    assertEquals(1, torrentSession.getPeerSessions().size());
+    assertEquals("127.0.0.5", torrentSession.getPeerSessions().iterator().next().getIpAddress());
+    List<PeerCache.CachedPeer> cached = peerCache.load(trackerClient.getInfoHash());
+    assertEquals(1, cached.size());
+    assertTrue(cached.get(0).lastSuccess() >= before);
+  }
+
+  /**
+   * Tests that cached peers start downloading without waiting for the first announce.
+   */
+  @Test
+  void testDownloadAll_CachedPeersDoNotWaitForTracker(@TempDir Path cacheDirectory)
+      throws Exception {
+    CompletableFuture<TrackerResponse> started = new CompletableFuture<>();
+    RecordingTrackerClient trackerClient = new RecordingTrackerClient(Map.of()) {
+      @Override
+      public CompletableFuture<TrackerResponse> announceAsync(Event event) {
+        // The tracker never answers the first announce
+        return event == Event.STARTED ? started : super.announceAsync(event);
+      }
+    };
+    List<byte[]> pieces = setupPieces(2);
+    torrentFileHandler.setPieceHashes(hashedEquivalentPieces(pieces));
+    PeerCache peerCache = new PeerCache(cacheDirectory);
+    peerCache.update(trackerClient.getInfoHash(), List.of(new PeerCache.CachedPeer(
+        new InetSocketAddress("127.0.0.5", 1005), System.currentTimeMillis(), 1)));
+
+    TorrentSession torrentSession = new TorrentSession(
+        torrentFileHandler,
+        Paths.get(OUTPUT_FILE_NAME),
+        (trackerUrl, port, fileSize, infoHash, peerId) -> trackerClient,
+        new MockPeerSessionFactory(pieces),
+        new MockPieceWriter(),
+        new MockIdGenerator(),
+        Executors.newFixedThreadPool(2)
+    );
+    torrentSession.setPeerCache(peerCache);
+
+    long start = System.nanoTime();
+    torrentSession.downloadAll();
+    assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(15));
+    assertEquals(2, torrentSession.getPieceStates().size());
+    assertTrue(torrentSession.getPieceStates().values().stream()
+        .allMatch(state -> state == TorrentSession.PieceState.DOWNLOADED));
+  }
+
+  /**
+   * Tests that a peer both cached and returned by the tracker is connected only once, even while
+   * its cached connection is still being set up.
+   */
+  @Test
+  void testDownloadPiece_ConnectsCachedTrackerPeerOnce(@TempDir Path cacheDirectory)
+      throws Exception {
+    List<byte[]> pieces = setupPieces(2);
+    torrentFileHandler.setPieceHashes(hashedEquivalentPieces(pieces));
+    MockPeerSessionFactory peerSessionFactory = new MockPeerSessionFactory(pieces);
+    List<String> created = Collections.synchronizedList(new ArrayList<>());
+    TorrentSession torrentSession = new TorrentSession(
+        torrentFileHandler,
+        Paths.get(OUTPUT_FILE_NAME),
+        mockTrackerClientFactory,
+        (ip, port, peerId, infoHash) -> {
+          created.add(ip + ":" + port);
+          return peerSessionFactory.create(ip, port, peerId, infoHash);
+        },
+        mockPieceWriter,
+        mockIdGenerator,
+        Executors.newSingleThreadExecutor()
+    );
+    PeerCache peerCache = new PeerCache(cacheDirectory);
+    peerCache.update(torrentSession.getTrackerClient().getInfoHash(), List.of(
+        new PeerCache.CachedPeer(new InetSocketAddress(MockTrackerClient.expectedAddress(),
+            MockTrackerClient.expectedPort()), System.currentTimeMillis(), 1)));
+    torrentSession.setPeerCache(peerCache);
+
+    assertArrayEquals(pieces.get(0), torrentSession.downloadPiece(0));
+    assertEquals(List.of(MockTrackerClient.expectedAddress() + ":"
+        + MockTrackerClient.expectedPort()), created);
+  }
+
+  /**
+   * Tests that peers found in the DHT are used when the tracker returns none.
+   */
+  @Test
+  void testDownloadAll_UsesDhtPeers() throws Exception {
+    RecordingTrackerClient trackerClient = new RecordingTrackerClient(Map.of());
+    List<byte[]> pieces = setupPieces(2);
+    torrentFileHandler.setPieceHashes(hashedEquivalentPieces(pieces));
+
+    InetSocketAddress loopback = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+    try (DhtNode bootstrapNode = new DhtNode(loopback, null, Duration.ofMillis(500));
+        DhtNode peerNode = new DhtNode(loopback, null, Duration.ofMillis(500));
+        DhtNode sessionNode = new DhtNode(loopback, null, Duration.ofMillis(500))) {
+      bootstrapNode.setBootstrapNodes(List.of());
+      peerNode.setBootstrapNodes(List.of(bootstrapNode.getAddress()));
+      sessionNode.setBootstrapNodes(List.of(bootstrapNode.getAddress()));
+      bootstrapNode.start();
+      peerNode.start();
+      sessionNode.start();
+      // Another peer of the swarm announced itself on port 1006
+      peerNode.announcePeerAsync(trackerClient.getInfoHash(), 1006).get(5, TimeUnit.SECONDS);
+
+      TorrentSession torrentSession = new TorrentSession(
+          torrentFileHandler,
+          Paths.get(OUTPUT_FILE_NAME),
+          (trackerUrl, port, fileSize, infoHash, peerId) -> trackerClient,
+          new MockPeerSessionFactory(pieces),
+          new MockPieceWriter(),
+          new MockIdGenerator(),
+          Executors.newFixedThreadPool(2)
+      );
+      torrentSession.setDhtNode(sessionNode);
+
+      torrentSession.downloadAll();
+      assertEquals(1, torrentSession.getPeerSessions().size());
+      PeerSession peerSession = torrentSession.getPeerSessions().iterator().next();
+      assertEquals("127.0.0.1", peerSession.getIpAddress());
+      assertEquals(1006, peerSession.getPort());
+    }
+  }
+
+  /**
+   * Tests that peers reported by a connected peer through ut_pex join the download.
+   */
+  @Test
+  void testDownloadAll_UsesExchangedPeers() throws Exception {
+    RecordingTrackerClient trackerClient = new RecordingTrackerClient(Map.of("127.0.0.1", 1000));
+    List<byte[]> pieces = setupPieces(2);
+    torrentFileHandler.setPieceHashes(hashedEquivalentPieces(pieces));
+    PeerList exchanged = PeerList.of(List.of(new InetSocketAddress("127.0.0.9", 1009)));
+
+    PeerSessionFactory peerSessionFactory = (ip, port, peerId, infoHash) ->
+        new MockPeerSession(ip, port, peerId, infoHash, pieces) {
+          private Consumer<PeerList> listener;
+
+          @Override
+          public void setPeerExchangeListener(Consumer<PeerList> listener) {
+            this.listener = listener;
+          }
+
+          @Override
+          public byte[] downloadPiece(int pieceIndex, int pieceLength, byte[] expectedHash,
+              long fileLength) {
+            if (port == 1000) {
+              listener.accept(exchanged);
+            }
+            return super.downloadPiece(pieceIndex, pieceLength, expectedHash, fileLength);
+          }
+        };
+    TorrentSession torrentSession = new TorrentSession(
+        torrentFileHandler,
+        Paths.get(OUTPUT_FILE_NAME),
+        (trackerUrl, port, fileSize, infoHash, peerId) -> trackerClient,
+        peerSessionFactory,
+        new MockPieceWriter(),
+        new MockIdGenerator(),
+        Executors.newFixedThreadPool(2)
+    );
+
+    torrentSession.downloadAll();
+    assertEquals(2, torrentSession.getPeerSessions().size());
+    assertTrue(torrentSession.getPeerSessions().stream()
+        .anyMatch(peer -> peer.getPort() == 1009 && peer.getIpAddress().equals("127.0.0.9")));
+  }
+
+  /**
+   * Tests that a session connects to no more peers than its connection budget allows.
+   */
+  @Test
+  void testDownloadAll_RespectsMaxConnections() throws Exception {
+    RecordingTrackerClient trackerClient = new RecordingTrackerClient(
+        Map.of("127.0.0.1", 1000, "127.0.0.2", 1001, "127.0.0.3", 1002));
+    List<byte[]> pieces = setupPieces(2);
+    torrentFileHandler.setPieceHashes(hashedEquivalentPieces(pieces));
+
+    TorrentSession torrentSession = new TorrentSession(
+        torrentFileHandler,
+        Paths.get(OUTPUT_FILE_NAME),
+        (trackerUrl, port, fileSize, infoHash, peerId) -> trackerClient,
+        new MockPeerSessionFactory(pieces),
+        new MockPieceWriter(),
+        new MockIdGenerator(),
+        Executors.newFixedThreadPool(2)
+    );
+    assertThrows(IllegalArgumentException.class, () -> torrentSession.setMaxConnections(0));
+    torrentSession.setMaxConnections(1);
+
+    torrentSession.downloadAll();
+    assertEquals(1, torrentSession.getPeerSessions().size());
+    assertEquals(2, torrentSession.getPieceStates().size());
+  }
+
+  /**
+   * Tests that a peer still in its handshake counts against the connection budget, so that the
+   * cached and tracker peers found at the same time do not exceed it.
+   */
+  @Test
+  void testDownloadAll_ReservesConnectionsWhileConnecting(@TempDir Path cacheDirectory)
+      throws Exception {
+    RecordingTrackerClient trackerClient = new RecordingTrackerClient(
+        Map.of("127.0.0.1", 1000, "127.0.0.2", 1001));
+    List<byte[]> pieces = setupPieces(2);
+    torrentFileHandler.setPieceHashes(hashedEquivalentPieces(pieces));
+    PeerCache peerCache = new PeerCache(cacheDirectory);
+    peerCache.update(trackerClient.getInfoHash(), List.of(new PeerCache.CachedPeer(
+        new InetSocketAddress("127.0.0.5", 1005), System.currentTimeMillis(), 1)));
+
+    List<String> created = Collections.synchronizedList(new ArrayList<>());
+    PeerSessionFactory peerSessionFactory = (ip, port, peerId, infoHash) -> {
+      created.add(ip);
+      return new MockPeerSession(ip, port, peerId, infoHash, pieces) {
+        @Override
+        public byte[] peerHandshake() throws IOException {
+          try {
+            // Other peers are found while this one is connecting
+            Thread.sleep(500);
+          } catch (InterruptedException e) {
+            throw new IOException(e);
+          }
+          return super.peerHandshake();
+        }
+      };
+    };
+    TorrentSession torrentSession = new TorrentSession(
+        torrentFileHandler,
+        Paths.get(OUTPUT_FILE_NAME),
+        (trackerUrl, port, fileSize, infoHash, peerId) -> trackerClient,
+        peerSessionFactory,
+        new MockPieceWriter(),
+        new MockIdGenerator(),
+        Executors.newFixedThreadPool(2)
+    );
+    torrentSession.setPeerCache(peerCache);
+    torrentSession.setMaxConnections(1);
+
+    torrentSession.downloadAll();
+    assertEquals(1, created.size());
+    assertEquals(1, torrentSession.getPeerSessions().size());
+  }
+
+  /**
+   * Tests that a peer having none of the pieces at first keeps waiting and downloads them once it
+   * has them, instead of leaving the download incomplete.
+   */
+  @Test
+  void testDownloadAll_WaitsForPeerToHavePieces() throws Exception {
+    RecordingTrackerClient trackerClient = new RecordingTrackerClient(Map.of("127.0.0.1", 1000));
+    List<byte[]> pieces = setupPieces(2);
+    torrentFileHandler.setPieceHashes(hashedEquivalentPieces(pieces));
+    long ready = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(500);
+
+    PeerSessionFactory peerSessionFactory = (ip, port, peerId, infoHash) ->
+        new MockPeerSession(ip, port, peerId, infoHash, pieces) {
+          @Override
+          public boolean hasPiece(int pieceIndex) {
+            // The peer announces its pieces later
+            return System.nanoTime() > ready;
+          }
+        };
+    TorrentSession torrentSession = new TorrentSession(
+        torrentFileHandler,
+        Paths.get(OUTPUT_FILE_NAME),
+        (trackerUrl, port, fileSize, infoHash, peerId) -> trackerClient,
+        peerSessionFactory,
+        new MockPieceWriter(),
+        new MockIdGenerator(),
+        Executors.newFixedThreadPool(2)
+    );
+
+    torrentSession.downloadAll();
+    assertEquals(2, torrentSession.getPieceStates().size());
+    assertTrue(torrentSession.getPieceStates().values().stream()
+        .allMatch(state -> state == TorrentSession.PieceState.DOWNLOADED));
+  }
+
+  private TorrentSession sessionScraping(CompletableFuture<List<SwarmStatistics>> scrape) {
+    TrackerClient trackerClient = mock(TrackerClient.class);
+    when(trackerClient.getInfoHash()).thenReturn(new byte[20]);
+    when(trackerClient.scrapeAsync(anyList())).thenReturn(scrape);
+    return new TorrentSession(
+        torrentFileHandler,
+        Paths.get(OUTPUT_FILE_NAME),
+        (trackerUrl, port, fileSize, infoHash, peerId) -> trackerClient,
+        mockPeerSessionFactory,
+        mockPieceWriter,
+        mockIdGenerator,
+        Executors.newSingleThreadExecutor()
+    );
+  }
+
+  /**
+   * Tests that a connection budget is shared between sessions by the size of their swarms, that a
+   * session whose tracker cannot be scraped gets an even share, and that every session keeps at
+   * least one connection.
+   */
+  @Test
+  void testShareConnections() {
+    TorrentSession large = sessionScraping(
+        CompletableFuture.completedFuture(List.of(new SwarmStatistics(40, 0, 20))));
+    TorrentSession small = sessionScraping(
+        CompletableFuture.completedFuture(List.of(new SwarmStatistics(0, 0, 25))));
+    TorrentSession empty = sessionScraping(
+        CompletableFuture.completedFuture(List.of(SwarmStatistics.EMPTY)));
+    TorrentSession failed = sessionScraping(
+        CompletableFuture.failedFuture(new TrackerCommunicationException("Down")));
+
+    TorrentSession.shareConnections(40, List.of(large, small, empty, failed));
+    assertEquals(10, failed.getMaxConnections());
+    assertEquals(24, large.getMaxConnections());
+    assertEquals(6, small.getMaxConnections());
+    assertEquals(1, empty.getMaxConnections());
+
+    assertThrows(IllegalArgumentException.class,
+        () -> TorrentSession.shareConnections(0, List.of(large)));
+    assertThrows(IllegalArgumentException.class,
+        () -> TorrentSession.shareConnections(1, null));
+    TorrentSession.shareConnections(1, List.of());
+  }
+
+  /**
+   * Tests that peers on the local network are connected before remote ones when the connection
+   * budget cannot take them all.
+   */
+  @Test
+  void testDownloadAll_PrefersLocalPeers() throws Exception {
+    RecordingTrackerClient trackerClient = new RecordingTrackerClient(
+        Map.of("203.0.113.1", 1000, "203.0.113.2", 1001, "192.168.1.20", 1002));
+    List<byte[]> pieces = setupPieces(2);
+    torrentFileHandler.setPieceHashes(hashedEquivalentPieces(pieces));
+
+    TorrentSession torrentSession = new TorrentSession(
+        torrentFileHandler,
+        Paths.get(OUTPUT_FILE_NAME),
+        (trackerUrl, port, fileSize, infoHash, peerId) -> trackerClient,
+        new MockPeerSessionFactory(pieces),
+        new MockPieceWriter(),
+        new MockIdGenerator(),
+        Executors.newFixedThreadPool(2)
+    );
+    torrentSession.setMaxConnections(1);
+
+    torrentSession.downloadAll();
+    assertEquals(1, torrentSession.getPeerSessions().size());
+    assertEquals("192.168.1.20",
+        torrentSession.getPeerSessions().iterator().next().getIpAddress());
+  }
+
   /**
    * Tests the downloadAll method of model.session.TorrentSession with concurrent execution.
    * It checks if multiple peer sessions can download pieces concurrently and if the output file is written correctly.
@@ -432,28 +859,28 @@ public class TorrentSessionTests {
     );
 
     // Configure peers to wait for our signal
-    when(mockPeerSession1.downloadPiece(eq(0), anyInt(), any(), anyInt()))
+    when(mockPeerSession1.downloadPiece(eq(0), anyInt(), any(), anyLong()))
         .thenAnswer(invocation -> {
           startLatch.await(5, TimeUnit.SECONDS);
           completionLatch.countDown();
           return pieces.get(0);
         });
 
-    when(mockPeerSession1.downloadPiece(eq(1), anyInt(), any(), anyInt()))
+    when(mockPeerSession1.downloadPiece(eq(1), anyInt(), any(), anyLong()))
         .thenAnswer(invocation -> {
           startLatch.await(5, TimeUnit.SECONDS);
           completionLatch.countDown();
           return pieces.get(1);
         });
 
-    when(mockPeerSession2.downloadPiece(eq(0), anyInt(), any(), anyInt()))
+    when(mockPeerSession2.downloadPiece(eq(0), anyInt(), any(), anyLong()))
         .thenAnswer(invocation -> {
           startLatch.await(5, TimeUnit.SECONDS);
           completionLatch.countDown();
           return pieces.get(0);
         });
 
-    when(mockPeerSession2.downloadPiece(eq(1), anyInt(), any(), anyInt()))
+    when(mockPeerSession2.downloadPiece(eq(1), anyInt(), any(), anyLong()))
         .thenAnswer(invocation -> {
           startLatch.await(5, TimeUnit.SECONDS);
           completionLatch.countDown();
@@ -514,15 +941,15 @@ public class TorrentSessionTests {
         Executors.newSingleThreadExecutor()
     );
 
-    when(mockPeerSession1.downloadPiece(anyInt(), anyInt(), any(), anyInt()))
+    when(mockPeerSession1.downloadPiece(anyInt(), anyInt(), any(), anyLong()))
         .thenReturn(pieces.get(0))
         .thenReturn(pieces.get(1));
 
     torrentSession.downloadAll();
 
     // Only the connected peer should be used for downloading
-    verify(mockPeerSession1, atLeastOnce()).downloadPiece(anyInt(), anyInt(), any(), anyInt());
-    verify(mockPeerSession2, never()).downloadPiece(anyInt(), anyInt(), any(), anyInt());
+    verify(mockPeerSession1, atLeastOnce()).downloadPiece(anyInt(), anyInt(), any(), anyLong());
+    verify(mockPeerSession2, never()).downloadPiece(anyInt(), anyInt(), any(), anyLong());
   }
 
   /**
@@ -568,11 +995,11 @@ public class TorrentSessionTests {
     List<byte[]> pieceHashes = hashedEquivalentPieces(pieces);
     torrentFileHandler.setPieceHashes(pieceHashes);
 
-    when(mockPeerSession1.downloadPiece(anyInt(), anyInt(), any(), anyInt()))
+    when(mockPeerSession1.downloadPiece(anyInt(), anyInt(), any(), anyLong()))
         .thenThrow(new PieceDownloadException("Simulated download failure"))
         .thenReturn(pieces.get(1)); // Simulate successful retry
 
-    when(mockPeerSession2.downloadPiece(anyInt(), anyInt(), any(), anyInt()))
+    when(mockPeerSession2.downloadPiece(anyInt(), anyInt(), any(), anyLong()))
         .thenThrow(new PieceDownloadException("Simulated download failure"))
         .thenReturn(new byte[16384 * 2]) // wrong data to simulate retry failure
         .thenReturn(pieces.get(0));
@@ -591,10 +1018,10 @@ public class TorrentSessionTests {
 
     assertEquals(2, mockPieceWriter.getWrittenPieces().size(),
         "Expected 2 pieces to be downloaded");
-    assertArrayEquals(pieces.get(0), mockPieceWriter.getWrittenPieces().get(0),
+    assertArrayEquals(pieces.get(0), mockPieceWriter.getWrittenPieces().get(0L),
         "First piece should match expected data");
 
-    assertArrayEquals(pieces.get(1), mockPieceWriter.getWrittenPieces().get(32768));
+    assertArrayEquals(pieces.get(1), mockPieceWriter.getWrittenPieces().get(32768L));
 
 
   }
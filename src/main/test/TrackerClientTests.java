@@ -1,14 +1,26 @@
 import java.io.IOException;
+import java.net.Inet6Address;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import model.decoder.BencodeEncoder;
 import model.session.MalformedTrackerResponseException;
+import model.session.SwarmStatistics;
 import model.session.TrackerClient;
+import model.session.TrackerClient.Event;
 import model.session.TrackerCommunicationException;
 import model.session.TrackerResponse;
+import model.session.TransferStatistics;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 
 import static org.mockito.Mockito.*;
 
@@ -399,5 +411,230 @@ public class TrackerClientTests {
     }
   }
 
+  /**
+   * Tests that fields the client does not use are skipped, and that a response nested too deeply
+   * is rejected instead of exhausting the stack.
+   *
+   * @throws IOException if there is an issue with the mock HttpClient
+   * @throws InterruptedException if the thread is interrupted while waiting for the response
+   * @throws MalformedTrackerResponseException if the tracker response is malformed
+   * @throws TrackerCommunicationException if there is an issue with tracker communication
+   */
+  @Test
+  public void testRequestTrackerSkipsUnusedFieldsMockClient()
+      throws IOException, InterruptedException, MalformedTrackerResponseException, TrackerCommunicationException {
+    HttpClient mockHttpClient = mock(HttpClient.class);
+    HttpResponse<byte[]> mockResponse = mock(HttpResponse.class);
+    when(mockResponse.statusCode()).thenReturn(200);
+    when(mockHttpClient.send(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+        .thenReturn(mockResponse);
+
+    MockTorrentFileHandler tfh = new MockTorrentFileHandler();
+    TrackerClient trc = new TrackerClient(
+        tfh.getTrackerUrl(),
+        6881, tfh.getFileLength(),
+        tfh.getInfoHash(), "12345678901234567890", mockHttpClient
+    );
+
+    byte[] responseWithExtras = ("d8:completei3e5:extrad4:listl1:ai2eee"
+        + "8:intervali1800e12:min intervali60e5:peers6:\u0001\u0002\u0003\u0004\u001a\u00e1e")
+        .getBytes(java.nio.charset.StandardCharsets.ISO_8859_1);
+    when(mockResponse.body()).thenReturn(responseWithExtras);
+
+    TrackerResponse response = trc.requestTracker();
+    assertEquals(1800, response.getInterval());
+    assertEquals(Map.of("1.2.3.4", 6881), response.getPeersMap());
+
+    byte[] hostileResponse = ("d5:extra" + "l".repeat(100_000)).getBytes();
+    when(mockResponse.body()).thenReturn(hostileResponse);
+    Exception ex = assertThrows(IllegalArgumentException.class, trc::requestTracker);
+    assertTrue(ex.getMessage().contains("Failed to decode tracker response"));
+  }
+
+  /**
+   * Tests non-blocking announces with a mock HttpClient: the event and the transfer statistics are
+   * sent in the query, the minimum interval is parsed, and errors fail the returned future.
+   *
+   * @throws Exception if the future fails unexpectedly
+   */
+  @Test
+  public void testAnnounceAsyncMockClient() throws Exception {
+    HttpClient mockHttpClient = mock(HttpClient.class);
+    HttpResponse<byte[]> mockResponse = mock(HttpResponse.class);
+    when(mockResponse.statusCode()).thenReturn(200);
+    when(mockResponse.body()).thenReturn(
+        "d8:intervali1800e12:min intervali60e5:peers6:\u0001\u0002\u0003\u0004\u001a\u00e1e"
+            .getBytes(java.nio.charset.StandardCharsets.ISO_8859_1));
+    when(mockHttpClient.sendAsync(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+        .thenReturn(CompletableFuture.completedFuture(mockResponse));
+
+    TrackerClient trc = new TrackerClient("http://example.com/announce", 6881, 1000,
+        new byte[20], "12345678901234567890", mockHttpClient);
+    TransferStatistics statistics = new TransferStatistics(1000);
+    statistics.addUploaded(5);
+    statistics.addDownloaded(400);
+    statistics.addVerified(400);
+    trc.setTransferStatistics(statistics);
+
+    TrackerResponse response = trc.announceAsync(Event.STARTED).get();
+    assertEquals(1800, response.getInterval());
+    assertEquals(60, response.getMinInterval());
+    assertEquals(Map.of("1.2.3.4", 6881), response.getPeersMap());
+
+    statistics.addDownloaded(100);
+    statistics.addVerified(100);
+    trc.announceAsync(Event.NONE).get();
+    ArgumentCaptor<HttpRequest> requests = ArgumentCaptor.forClass(HttpRequest.class);
+    verify(mockHttpClient, times(2)).sendAsync(requests.capture(), any());
+    String started = requests.getAllValues().get(0).uri().toString();
+    assertTrue(started.contains("&uploaded=5&downloaded=400&left=600"), started);
+    assertTrue(started.endsWith("&event=started"), started);
+    String regular = requests.getAllValues().get(1).uri().toString();
+    assertTrue(regular.contains("&uploaded=5&downloaded=500&left=500"), regular);
+    assertFalse(regular.contains("event="));
+    assertThrows(IllegalArgumentException.class, () -> trc.announceAsync(null));
+    assertThrows(IllegalArgumentException.class, () -> trc.setTransferStatistics(null));
 
+    when(mockResponse.statusCode()).thenReturn(404);
+    ExecutionException ex = assertThrows(ExecutionException.class,
+        () -> trc.announceAsync(Event.COMPLETED).get());
+    assertInstanceOf(TrackerCommunicationException.class, ex.getCause());
+
+    when(mockHttpClient.sendAsync(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+        .thenReturn(CompletableFuture.failedFuture(new IOException("Connection refused")));
+    ex = assertThrows(ExecutionException.class, () -> trc.announceAsync(Event.STOPPED).get());
+    assertInstanceOf(TrackerCommunicationException.class, ex.getCause());
+    assertEquals("Failed to contact tracker: Connection refused", ex.getCause().getMessage());
+    assertInstanceOf(IOException.class, ex.getCause().getCause());
+
+    when(mockHttpClient.sendAsync(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+        .thenReturn(CompletableFuture.failedFuture(new java.net.ConnectException()));
+    ex = assertThrows(ExecutionException.class, () -> trc.announceAsync(Event.NONE).get());
+    assertEquals("Failed to contact tracker: ConnectException", ex.getCause().getMessage());
+  }
+
+  /**
+   * Tests that IPv6 peers from 'peers6' are parsed, even without 'peers', and that our IPv6 address
+   * is advertised in announces.
+   *
+   * @throws Exception if the announce fails
+   */
+  @Test
+  public void testIpv6PeersMockClient() throws Exception {
+    HttpClient mockHttpClient = mock(HttpClient.class);
+    HttpResponse<byte[]> mockResponse = mock(HttpResponse.class);
+    when(mockResponse.statusCode()).thenReturn(200);
+    byte[] peer6 = new byte[18];
+    peer6[0] = 0x20;
+    peer6[1] = 0x01;
+    peer6[15] = 5;
+    peer6[17] = 80;
+    byte[] body = new BencodeEncoder().encode(Map.of("interval", 1800L, "peers6", peer6));
+    when(mockResponse.body()).thenReturn(body);
+    when(mockHttpClient.sendAsync(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+        .thenReturn(CompletableFuture.completedFuture(mockResponse));
+
+    TrackerClient trc = new TrackerClient("http://example.com/announce", 6881, 1000,
+        new byte[20], "12345678901234567890", mockHttpClient);
+    trc.setIpv6Address((Inet6Address) InetAddress.getByName("2001:db8::2"));
+
+    TrackerResponse response = trc.announceAsync(Event.NONE).get();
+    assertEquals(1, response.getPeerList().size());
+    assertEquals(new InetSocketAddress("2001::5", 80), response.getPeerList().getAddress(0));
+
+    ArgumentCaptor<HttpRequest> request = ArgumentCaptor.forClass(HttpRequest.class);
+    verify(mockHttpClient).sendAsync(request.capture(), any());
+    String uri = request.getValue().uri().toString();
+    assertTrue(uri.endsWith("&ipv6=2001%3Adb8%3A0%3A0%3A0%3A0%3A0%3A2"), uri);
+  }
+
+  /**
+   * Tests the derivation of scrape URLs from announce URLs.
+   */
+  @Test
+  public void testToScrapeUrl() {
+    assertEquals("http://example.com/scrape",
+        TrackerClient.toScrapeUrl("http://example.com/announce"));
+    assertEquals("http://example.com/x/scrape.php",
+        TrackerClient.toScrapeUrl("http://example.com/x/announce.php"));
+    assertEquals("http://example.com/scrape?passkey=1",
+        TrackerClient.toScrapeUrl("http://example.com/announce?passkey=1"));
+    assertNull(TrackerClient.toScrapeUrl("http://example.com/a"));
+    assertNull(TrackerClient.toScrapeUrl("http://example.com/x/announce/y"));
+    assertNull(TrackerClient.toScrapeUrl(null));
+  }
+
+  /**
+   * Tests a scrape of more torrents than fit in one HTTP request, including one the tracker does
+   * not know.
+   */
+  @Test
+  public void testScrapeMockClient() throws Exception {
+    byte[] known = new byte[20];
+    known[0] = 1;
+    byte[] unknown = new byte[20];
+    unknown[0] = 2;
+
+    HttpClient mockHttpClient = mock(HttpClient.class);
+    HttpResponse<byte[]> mockResponse = mock(HttpResponse.class);
+    when(mockResponse.statusCode()).thenReturn(200);
+    when(mockResponse.body()).thenReturn(new BencodeEncoder().encode(Map.of("files", Map.of(known,
+        Map.of("complete", 5L, "downloaded", 40L, "incomplete", 7L, "name", "x")))));
+    when(mockHttpClient.sendAsync(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+        .thenReturn(CompletableFuture.completedFuture(mockResponse));
+
+    TrackerClient trc = new TrackerClient("http://example.com/announce", 6881, 1000,
+        known, "12345678901234567890", mockHttpClient);
+    assertEquals(new SwarmStatistics(5, 40, 7), trc.scrape());
+
+    List<byte[]> hashes = new ArrayList<>();
+    for (int i = 0; i < TrackerClient.MAX_HTTP_SCRAPE_HASHES; i++) {
+      hashes.add(unknown);
+    }
+    hashes.add(known);
+    List<SwarmStatistics> statistics = trc.scrape(hashes);
+    assertEquals(hashes.size(), statistics.size());
+    assertEquals(SwarmStatistics.EMPTY, statistics.get(0));
+    assertEquals(new SwarmStatistics(5, 40, 7), statistics.get(hashes.size() - 1));
+
+    ArgumentCaptor<HttpRequest> requests = ArgumentCaptor.forClass(HttpRequest.class);
+    verify(mockHttpClient, times(3)).sendAsync(requests.capture(), any());
+    String first = requests.getAllValues().get(0).uri().toString();
+    assertEquals("http://example.com/scrape?info_hash=%01" + "%00".repeat(19), first);
+    String batch = requests.getAllValues().get(1).uri().toString();
+    assertEquals(TrackerClient.MAX_HTTP_SCRAPE_HASHES, batch.split("info_hash=").length - 1);
+
+    assertThrows(IllegalArgumentException.class, () -> trc.scrape(List.of(new byte[19])));
+    assertThrows(IllegalArgumentException.class, () -> trc.scrape(null));
+  }
+
+  /**
+   * Tests scrape failures: an unsupported URL, a failure reason and a malformed response.
+   */
+  @Test
+  public void testScrapeFailuresMockClient() {
+    HttpClient mockHttpClient = mock(HttpClient.class);
+    HttpResponse<byte[]> mockResponse = mock(HttpResponse.class);
+    when(mockResponse.statusCode()).thenReturn(200);
+    when(mockHttpClient.sendAsync(any(HttpRequest.class), any(HttpResponse.BodyHandler.class)))
+        .thenReturn(CompletableFuture.completedFuture(mockResponse));
+
+    TrackerClient unsupported = new TrackerClient("http://example.com/tracker", 6881, 1000,
+        new byte[20], "12345678901234567890", mockHttpClient);
+    assertThrows(TrackerCommunicationException.class, unsupported::scrape);
+    verify(mockHttpClient, never()).sendAsync(any(HttpRequest.class), any());
+
+    TrackerClient trc = new TrackerClient("http://example.com/announce", 6881, 1000,
+        new byte[20], "12345678901234567890", mockHttpClient);
+    when(mockResponse.body()).thenReturn(
+        new BencodeEncoder().encode(Map.of("failure reason", "scrape disabled")));
+    assertThrows(TrackerCommunicationException.class, trc::scrape);
+
+    when(mockResponse.body()).thenReturn("d5:filesi1ee".getBytes());
+    assertThrows(MalformedTrackerResponseException.class, trc::scrape);
+    when(mockResponse.body()).thenReturn("d8:intervali1ee".getBytes());
+    assertThrows(MalformedTrackerResponseException.class, trc::scrape);
+    when(mockResponse.body()).thenReturn(new byte[0]);
+    assertThrows(MalformedTrackerResponseException.class, trc::scrape);
+  }
 }
@@ -0,0 +1,130 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSerializer;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Base64;
+import java.util.List;
+import model.decoder.ByteString;
+import model.decoder.DecoderDispatcher;
+import model.decoder.JsonTranscoder;
+import model.decoder.JsonTranscoder.BinaryEncoding;
+import model.session.TorrentFileHandler;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Tests for the {@link JsonTranscoder}. Checks that text documents produce the same JSON as
+ * decoding them and serializing the result with Gson, and that binary byte strings are encoded.
+ *
+ * @author KX
+ */
+public class TranscoderTests {
+
+  private final JsonTranscoder transcoder = new JsonTranscoder();
+  private final DecoderDispatcher dispatcher = new DecoderDispatcher();
+  private final Gson gson = new GsonBuilder()
+      .registerTypeAdapter(ByteString.class,
+          (JsonSerializer<ByteString>) (src, type, context) -> new JsonPrimitive(src.toString()))
+      .create();
+
+  /**
+   * Tests that documents made only of text match the Gson serialization of the decoded tree,
+   * including escaping of quotes, control characters, HTML-sensitive and non-ASCII characters.
+   */
+  @Test
+  public void testTextMatchesGson() {
+    List<String> inputs = List.of("5:hello", "i-52e", "le", "de", "l5:helloi52ee",
+        "d3:foo3:bar5:helloi52ee", "d4:listld1:ai1eelee3:a=b5:<&'>\"e",
+        "l2:\t\n1:\\1:\u00012:\u00e9\u00e8e", "l2:\u20ac\u00a21:\u20281:\u2029e",
+        "l2:\uD83D\uDE00e");
+
+    for (String input : inputs) {
+      byte[] bytes = encodeLengths(input);
+      String expected = gson.toJson(dispatcher.decode(bytes, 0).getValue());
+      assertEquals(expected, transcoder.transcode(bytes), input);
+    }
+  }
+
+  /**
+   * Rewrites the length prefixes of a bencoded text document, written with character counts, as
+   * UTF-8 byte counts.
+   */
+  private static byte[] encodeLengths(String input) {
+    StringBuilder out = new StringBuilder();
+    int i = 0;
+    while (i < input.length()) {
+      char c = input.charAt(i);
+      if (c >= '0' && c <= '9') {
+        int colon = input.indexOf(':', i);
+        int length = Integer.parseInt(input.substring(i, colon));
+        String content = input.substring(colon + 1, colon + 1 + length);
+        out.append(content.getBytes(StandardCharsets.UTF_8).length).append(':').append(content);
+        i = colon + 1 + length;
+      } else if (c == 'i') {
+        int end = input.indexOf('e', i);
+        out.append(input, i, end + 1);
+        i = end + 1;
+      } else {
+        out.append(c);
+        i++;
+      }
+    }
+    return out.toString().getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Tests that byte strings that are not valid UTF-8 are written as hex or base64.
+   */
+  @Test
+  public void testBinaryEncodings() {
+    byte[] binary = new byte[]{(byte) 0xff, 0x00, (byte) 0x80, 0x41};
+    byte[] input = new byte[binary.length + 2];
+    input[0] = '4';
+    input[1] = ':';
+    System.arraycopy(binary, 0, input, 2, binary.length);
+
+    assertEquals("\"ff008041\"", transcoder.transcode(input));
+    assertEquals("\"" + Base64.getEncoder().encodeToString(binary) + "\"",
+        new JsonTranscoder(BinaryEncoding.BASE64).transcode(input));
+
+    // Overlong encodings and surrogates are not valid UTF-8
+    assertEquals("\"c0af\"", transcoder.transcode(new byte[]{'2', ':', (byte) 0xc0, (byte) 0xaf}));
+    assertEquals("\"eda080\"",
+        transcoder.transcode(new byte[]{'3', ':', (byte) 0xed, (byte) 0xa0, (byte) 0x80}));
+  }
+
+  /**
+   * Tests streaming the 'info' dictionary of a torrent from its offset, with the piece hashes
+   * written as hex.
+   *
+   * @throws IOException if the sample torrent cannot be read
+   */
+  @Test
+  public void testTranscodeTorrentInfo() throws IOException {
+    TorrentFileHandler tfh = new TorrentFileHandler("sample.torrent");
+    StringWriter out = new StringWriter();
+    int end = transcoder.transcode(tfh.getFileContent(), tfh.getInfoByteRange().first(), out);
+
+    assertEquals(tfh.getInfoByteRange().second(), end);
+    StringBuilder pieces = new StringBuilder();
+    for (byte[] piece : tfh.getHashedPieces()) {
+      pieces.append(TorrentFileHandler.bytesToHex(piece));
+    }
+    assertEquals("{\"length\":92063,\"name\":\"sample.txt\",\"piece length\":32768,"
+        + "\"pieces\":\"" + pieces + "\"}", out.toString());
+
+    byte[] torrent = Files.readAllBytes(Path.of("sample.torrent"));
+    String document = transcoder.transcode(torrent);
+    assertEquals("{\"announce\":\"" + tfh.getTrackerUrl() + "\",\"created by\":\"mktorrent 1.1\","
+        + "\"info\":" + out + "}", document);
+    assertThrows(IllegalArgumentException.class,
+        () -> transcoder.transcode("d3:fooe".getBytes()));
+  }
+}
@@ -0,0 +1,96 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import model.session.TransferStatistics;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit tests for the model.session.TransferStatistics class.
+ *
+ * @author KX
+ */
+public class TransferStatisticsTests {
+
+  @Test
+  public void testCounters() {
+    TransferStatistics statistics = new TransferStatistics(1000);
+    assertEquals(0, statistics.getUploaded());
+    assertEquals(0, statistics.getDownloaded());
+    assertEquals(1000, statistics.getLeft());
+
+    statistics.addDownloaded(600);
+    statistics.addVerified(400);
+    statistics.addUploaded(50);
+    assertEquals(600, statistics.getDownloaded());
+    assertEquals(600, statistics.getLeft());
+    assertEquals(50, statistics.getUploaded());
+
+    // Left never goes below zero, even if a piece is verified twice
+    statistics.addVerified(700);
+    assertEquals(0, statistics.getLeft());
+    assertEquals(1000, statistics.getTotalLength());
+  }
+
+  @Test
+  public void testInvalidArguments() {
+    assertThrows(IllegalArgumentException.class, () -> new TransferStatistics(-1));
+    assertThrows(IllegalArgumentException.class, () -> new TransferStatistics(1, null));
+    TransferStatistics statistics = new TransferStatistics(1);
+    assertThrows(IllegalArgumentException.class, () -> statistics.addDownloaded(-1));
+    assertThrows(IllegalArgumentException.class, () -> statistics.addUploaded(-1));
+    assertThrows(IllegalArgumentException.class, () -> statistics.addVerified(-1));
+  }
+
+  /**
+   * Tests that rates are measured over windows of at least a second, and kept between them.
+   */
+  @Test
+  public void testRates() {
+    AtomicLong clock = new AtomicLong();
+    TransferStatistics statistics = new TransferStatistics(1 << 20, clock::get);
+    statistics.addDownloaded(2000);
+    statistics.addUploaded(500);
+
+    clock.set(TimeUnit.MILLISECONDS.toNanos(500));
+    assertEquals(0, statistics.getDownloadRate());
+
+    clock.set(TimeUnit.SECONDS.toNanos(2));
+    assertEquals(1000, statistics.getDownloadRate());
+    assertEquals(1000, statistics.getDownloadRate());
+    assertEquals(250, statistics.getUploadRate());
+
+    statistics.addDownloaded(3000);
+    clock.set(TimeUnit.SECONDS.toNanos(3));
+    assertEquals(3000, statistics.getDownloadRate());
+    assertEquals(0, statistics.getUploadRate());
+  }
+
+  /**
+   * Tests that no bytes are lost when many threads count at once.
+   */
+  @Test
+  public void testConcurrentUpdates() throws Exception {
+    TransferStatistics statistics = new TransferStatistics(1000);
+    ExecutorService executor = Executors.newFixedThreadPool(8);
+    List<Future<?>> futures = new ArrayList<>();
+    for (int i = 0; i < 8; i++) {
+      futures.add(executor.submit(() -> {
+        for (int j = 0; j < 10_000; j++) {
+          statistics.addDownloaded(16);
+        }
+      }));
+    }
+    for (Future<?> future : futures) {
+      future.get();
+    }
+    executor.shutdown();
+    assertEquals(8 * 10_000 * 16, statistics.getDownloaded());
+  }
+}
@@ -0,0 +1,198 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import model.session.DefaultTrackerClientFactory;
+import model.session.SwarmStatistics;
+import model.session.TrackerClient;
+import model.session.TrackerClient.Event;
+import model.session.TrackerCommunicationException;
+import model.session.TrackerResponse;
+import model.session.TransferStatistics;
+import model.session.UdpTrackerClient;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Unit tests for the model.session.UdpTrackerClient class, run against an in-process
+ * {@link MockUdpTracker} with short retransmission timeouts.
+ *
+ * @author KX
+ */
+public class UdpTrackerClientTests {
+
+  private static final byte[] INFO_HASH = new byte[20];
+  private static final String PEER_ID = "-DB0001-123456789012";
+
+  private MockUdpTracker tracker;
+
+  @BeforeEach
+  public void setUp() throws Exception {
+    INFO_HASH[0] = 42;
+    tracker = new MockUdpTracker();
+  }
+
+  @AfterEach
+  public void tearDown() {
+    tracker.close();
+  }
+
+  private UdpTrackerClient createClient(int maxRetransmissions) {
+    return new UdpTrackerClient(tracker.getUrl(), 6881, 1000, INFO_HASH, PEER_ID,
+        Duration.ofMillis(100), maxRetransmissions);
+  }
+
+  @Test
+  public void testInvalidConstruction() {
+    assertThrows(IllegalArgumentException.class,
+        () -> new UdpTrackerClient("http://127.0.0.1:80/announce", 6881, 1000, INFO_HASH, PEER_ID));
+    assertThrows(IllegalArgumentException.class,
+        () -> new UdpTrackerClient("udp://127.0.0.1/announce", 6881, 1000, INFO_HASH, PEER_ID));
+    assertThrows(IllegalArgumentException.class,
+        () -> new UdpTrackerClient(tracker.getUrl(), 6881, 1000, INFO_HASH, PEER_ID,
+            Duration.ZERO, 1));
+    assertThrows(IllegalArgumentException.class,
+        () -> new UdpTrackerClient(tracker.getUrl(), 6881, 1000, INFO_HASH, PEER_ID,
+            Duration.ofSeconds(1), -1));
+  }
+
+  @Test
+  public void testFactorySelectsProtocolByScheme() {
+    DefaultTrackerClientFactory factory = new DefaultTrackerClientFactory();
+    assertInstanceOf(UdpTrackerClient.class,
+        factory.create("UDP://tracker.example.org:6969", 6881, 1000, INFO_HASH, PEER_ID));
+    TrackerClient http = factory.create("http://tracker.example.org/announce", 6881, 1000,
+        INFO_HASH, PEER_ID);
+    assertEquals(TrackerClient.class, http.getClass());
+
+    // A dead tracker is given up on quickly, so other trackers get their turn
+    UdpTrackerClient udp = (UdpTrackerClient) factory.create("udp://tracker.example.org:6969",
+        6881, 1000, INFO_HASH, PEER_ID);
+    assertEquals(UdpTrackerClient.FAILOVER_INITIAL_TIMEOUT, udp.getInitialTimeout());
+    assertEquals(UdpTrackerClient.FAILOVER_MAX_RETRANSMISSIONS, udp.getMaxRetransmissions());
+    udp = (UdpTrackerClient) new DefaultTrackerClientFactory(Duration.ofSeconds(1), 0)
+        .create("udp://tracker.example.org:6969", 6881, 1000, INFO_HASH, PEER_ID);
+    assertEquals(Duration.ofSeconds(1), udp.getInitialTimeout());
+    assertEquals(0, udp.getMaxRetransmissions());
+    assertThrows(IllegalArgumentException.class,
+        () -> new DefaultTrackerClientFactory(Duration.ZERO, 1));
+    assertThrows(IllegalArgumentException.class,
+        () -> new DefaultTrackerClientFactory(Duration.ofSeconds(1), -1));
+  }
+
+  /**
+   * Tests an announce: the request carries the torrent, statistics and event, the peers are
+   * returned as for HTTP, and the connection ID is reused by the next announce.
+   *
+   * @throws Exception if the announce fails
+   */
+  @Test
+  public void testAnnounceReusesConnectionId() throws Exception {
+    tracker.setPeers(new byte[] {1, 2, 3, 4, 0x1A, (byte) 0xE1});
+    tracker.setInterval(900);
+    UdpTrackerClient client = createClient(1);
+    TransferStatistics statistics = new TransferStatistics(1000);
+    statistics.addUploaded(7);
+    statistics.addDownloaded(300);
+    statistics.addVerified(300);
+    client.setTransferStatistics(statistics);
+
+    TrackerResponse response = client.announceAsync(Event.STARTED).get();
+    assertEquals(900, response.getInterval());
+    assertEquals(Map.of("1.2.3.4", 6881), response.getPeersMap());
+
+    ByteBuffer announce = tracker.getAnnounces().get(0);
+    byte[] infoHash = new byte[20];
+    announce.get(infoHash);
+    assertArrayEquals(INFO_HASH, infoHash);
+    byte[] peerId = new byte[20];
+    announce.get(peerId);
+    assertEquals(PEER_ID, new String(peerId));
+    assertEquals(300, announce.getLong());
+    assertEquals(700, announce.getLong());
+    assertEquals(7, announce.getLong());
+    assertEquals(2, announce.getInt()); // started
+    announce.position(announce.position() + 12);
+    assertEquals(6881, announce.getShort());
+
+    client.requestTracker();
+    assertEquals(List.of(0, 1, 1), tracker.getActions());
+  }
+
+  /**
+   * Tests that lost datagrams are retransmitted, and that the request fails once the
+   * retransmissions are used up.
+   */
+  @Test
+  public void testRetransmission() throws Exception {
+    UdpTrackerClient client = createClient(2);
+    tracker.dropNext(2);
+    client.requestTracker();
+    assertEquals(List.of(0, 0, 0, 1), tracker.getActions());
+
+    tracker.dropNext(Integer.MAX_VALUE);
+    ExecutionException ex = assertThrows(ExecutionException.class,
+        () -> createClient(1).announceAsync(Event.NONE).get());
+    assertInstanceOf(TrackerCommunicationException.class, ex.getCause());
+    assertTrue(ex.getCause().getMessage().contains("after 2 attempts"));
+  }
+
+  @Test
+  public void testTrackerError() {
+    tracker.setErrorMessage("torrent not registered");
+    Exception exception = assertThrows(TrackerCommunicationException.class,
+        () -> createClient(0).requestTracker());
+    assertEquals("Tracker returned an error: torrent not registered", exception.getMessage());
+  }
+
+  /**
+   * Tests that a tracker whose host cannot be resolved fails each request with a
+   * TrackerCommunicationException, and that creating the client does not look it up.
+   */
+  @Test
+  public void testUnresolvedHost() {
+    UdpTrackerClient client = new UdpTrackerClient("udp://tracker.invalid:6969/announce", 6881,
+        1000, INFO_HASH, PEER_ID, Duration.ofMillis(100), 0);
+    Exception exception = assertThrows(TrackerCommunicationException.class,
+        client::requestTracker);
+    assertEquals("Failed to contact tracker: unknown host tracker.invalid",
+        exception.getMessage());
+    ExecutionException ex = assertThrows(ExecutionException.class,
+        () -> client.announceAsync(Event.NONE).get());
+    assertInstanceOf(TrackerCommunicationException.class, ex.getCause());
+    assertThrows(TrackerCommunicationException.class, () -> client.scrape(List.of(INFO_HASH)));
+  }
+
+  /**
+   * Tests a scrape of more hashes than fit in one request.
+   *
+   * @throws Exception if the scrape fails
+   */
+  @Test
+  public void testScrapeBatches() throws Exception {
+    UdpTrackerClient client = createClient(1);
+    List<byte[]> hashes = new ArrayList<>();
+    for (int i = 0; i < UdpTrackerClient.MAX_SCRAPE_HASHES + 1; i++) {
+      hashes.add(new byte[20]);
+    }
+
+    List<SwarmStatistics> statistics = client.scrape(hashes);
+    assertEquals(hashes.size(), statistics.size());
+    assertEquals(new SwarmStatistics(10, 20, 30), statistics.get(0));
+    assertEquals(new SwarmStatistics(10, 20, 30), statistics.get(hashes.size() - 1));
+    assertEquals(new SwarmStatistics(11, 21, 31), statistics.get(1));
+    assertEquals(List.of(0, 2, 2), tracker.getActions());
+    assertEquals(List.of(new SwarmStatistics(10, 20, 30)),
+        client.scrapeAsync(List.of(new byte[20])).get());
+    assertThrows(IllegalArgumentException.class, () -> client.scrape(List.of(new byte[19])));
+  }
+}